@@ -0,0 +1,229 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.nodes.AircraftOperator;
+import org.sandbag.model.nodes.Installation;
+import org.sandbag.model.nodes.interfaces.AircraftOperatorModel;
+import org.sandbag.model.nodes.interfaces.InstallationModel;
+import org.sandbag.util.BloomFilter;
+import org.sandbag.util.StringLongMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ *
+ * Resolves complete account ids (country code + id) to either an installation or an aircraft operator
+ * with a single hash lookup, instead of probing the installations index first and the aircraft operators one afterwards.
+ * All accounts are loaded once from the store; a Bloom filter in front of the map answers most misses
+ * without touching it.
+ *
+ * Asking for the installation and then for the aircraft operator of the same id (the usual pattern in importers)
+ * only resolves the id once. The rare ids shared by an installation and an aircraft operator are kept
+ * in a separate overflow map so that both accounts can still be resolved.
+ *
+ */
+public class AccountResolver {
+
+    public static final int NO_ACCOUNT = 0;
+    public static final int INSTALLATION_ACCOUNT = 1;
+    public static final int AIRCRAFT_OPERATOR_ACCOUNT = 2;
+
+    private static final long INSTALLATION_BIT = 1L;
+    private static final long AIRCRAFT_OPERATOR_BIT = 2L;
+    private static final long TYPE_BITS = 3L;
+
+    private final DatabaseManager dbManager;
+
+    //values are (nodeId << 2 | account type bits), see encode()
+    private final StringLongMap accounts;
+    //aircraft operators whose id is also used by an installation (the installation is the one kept in accounts)
+    private final StringLongMap sharedIdAircraftOperators = new StringLongMap();
+    private final BloomFilter filter;
+
+    private String lastId = null;
+    private long lastValue = StringLongMap.NOT_FOUND;
+
+    private int missCounter = 0;
+
+    public AccountResolver(DatabaseManager dbManager){
+
+        this.dbManager = dbManager;
+
+        System.out.println("Loading installations and aircraft operators ids...");
+
+        accounts = new StringLongMap(1 << 15);
+        List<String> loadedIds = new ArrayList<>();
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            loadAccounts(DatabaseManager.INSTALLATION_LABEL, InstallationModel.id, INSTALLATION_BIT, loadedIds);
+            loadAccounts(DatabaseManager.AIRCRAFT_OPERATOR_LABEL, AircraftOperatorModel.id, AIRCRAFT_OPERATOR_BIT, loadedIds);
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        //sized so that the accounts created during a full import still keep the false positive rate low
+        filter = new BloomFilter(Math.max(accounts.size() * 2, 1 << 16), 0.01);
+        for(String id : loadedIds){
+            filter.add(id);
+        }
+
+        System.out.println("Done! (" + accounts.size() + " accounts)");
+    }
+
+    private void loadAccounts(Label label, String property, long typeBit, List<String> loadedIds){
+        Iterator<Node> iterator = dbManager.findNodes(label);
+        while(iterator.hasNext()){
+            Node node = iterator.next();
+            Object value = node.getProperty(property, null);
+            if(value != null){
+                String id = String.valueOf(value);
+                if(add(id, node.getId(), typeBit)){
+                    loadedIds.add(id);
+                }
+            }
+        }
+    }
+
+    private static long encode(long nodeId, long typeBits){
+        return (nodeId << 2) | typeBits;
+    }
+
+    /**
+     * @return true if the id was not known yet
+     */
+    private boolean add(String id, long nodeId, long typeBit){
+        long current = accounts.get(id);
+        if(current == StringLongMap.NOT_FOUND){
+            accounts.put(id, encode(nodeId, typeBit));
+            return true;
+        }
+        if((current & typeBit) != 0){
+            //first account found with this id and type is kept
+            return false;
+        }
+        if(typeBit == AIRCRAFT_OPERATOR_BIT){
+            sharedIdAircraftOperators.put(id, nodeId);
+            accounts.put(id, current | AIRCRAFT_OPERATOR_BIT);
+        }else{
+            //the installation takes the main slot and the aircraft operator moves to the overflow map
+            sharedIdAircraftOperators.put(id, current >>> 2);
+            accounts.put(id, encode(nodeId, INSTALLATION_BIT | AIRCRAFT_OPERATOR_BIT));
+        }
+        return false;
+    }
+
+    private long resolve(String id){
+        if(id != lastId){
+            lastId = id;
+            lastValue = filter.mightContain(id) ? accounts.get(id) : StringLongMap.NOT_FOUND;
+        }
+        return lastValue;
+    }
+
+    private void forgetLastLookup(){
+        lastId = null;
+        lastValue = StringLongMap.NOT_FOUND;
+    }
+
+    /**
+     * @return NO_ACCOUNT, INSTALLATION_ACCOUNT or AIRCRAFT_OPERATOR_ACCOUNT
+     * (INSTALLATION_ACCOUNT for the ids shared by an installation and an aircraft operator)
+     */
+    public int getAccountType(String id){
+        long value = resolve(id);
+        if(value == StringLongMap.NOT_FOUND){
+            return NO_ACCOUNT;
+        }
+        return (value & INSTALLATION_BIT) != 0 ? INSTALLATION_ACCOUNT : AIRCRAFT_OPERATOR_ACCOUNT;
+    }
+
+    /**
+     * @return the installation with the id provided, null if the id doesn't belong to an installation
+     */
+    public Installation getInstallation(String id){
+        long value = resolve(id);
+        if(value == StringLongMap.NOT_FOUND || (value & INSTALLATION_BIT) == 0){
+            return null;
+        }
+        return new Installation(dbManager.graphDb.getNodeById(value >>> 2));
+    }
+
+    /**
+     * @return the aircraft operator with the id provided, null if the id doesn't belong to an aircraft operator
+     */
+    public AircraftOperator getAircraftOperator(String id){
+        long value = resolve(id);
+        if(value == StringLongMap.NOT_FOUND || (value & AIRCRAFT_OPERATOR_BIT) == 0){
+            return null;
+        }
+        long nodeId = (value & TYPE_BITS) == TYPE_BITS ? sharedIdAircraftOperators.get(id) : value >>> 2;
+        return new AircraftOperator(dbManager.graphDb.getNodeById(nodeId));
+    }
+
+    public void registerInstallation(Installation installation, String id){
+        register(id, installation.getNodeId(), INSTALLATION_BIT);
+    }
+
+    public void registerAircraftOperator(AircraftOperator aircraftOperator, String id){
+        register(id, aircraftOperator.getNodeId(), AIRCRAFT_OPERATOR_BIT);
+    }
+
+    private void register(String id, long nodeId, long typeBit){
+        if(add(id, nodeId, typeBit)){
+            filter.add(id);
+        }
+        forgetLastLookup();
+    }
+
+    /**
+     * To be called when the id of an aircraft operator is changed
+     */
+    public void changeAircraftOperatorId(String oldId, String newId){
+        long value = accounts.get(oldId);
+        if(value != StringLongMap.NOT_FOUND && (value & AIRCRAFT_OPERATOR_BIT) != 0){
+            long nodeId;
+            if((value & TYPE_BITS) == TYPE_BITS){
+                nodeId = sharedIdAircraftOperators.remove(oldId);
+                accounts.put(oldId, value & ~AIRCRAFT_OPERATOR_BIT);
+            }else{
+                nodeId = value >>> 2;
+                accounts.remove(oldId);
+            }
+            register(newId, nodeId, AIRCRAFT_OPERATOR_BIT);
+        }
+        forgetLastLookup();
+    }
+
+    //--------------------------------------MISSES-------------------------------------------
+
+    /**
+     * Prints a single line for an account id that could not be resolved and counts it
+     *
+     * @param id complete account id
+     * @param context short description of the data being processed
+     */
+    public void reportMiss(String id, String context){
+        missCounter++;
+        System.out.println("(" + context + ") Installation/aircraft op. " + id + " could not be found...");
+    }
+
+    public int getMissCounter(){
+        return missCounter;
+    }
+
+    /**
+     * Prints how many account ids could not be resolved since the last call and resets the counter
+     */
+    public void printMissSummary(String context){
+        if(missCounter > 0){
+            System.out.println("(" + context + ") " + missCounter + " account ids could not be found");
+        }
+        missCounter = 0;
+    }
+}
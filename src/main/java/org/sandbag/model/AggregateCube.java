@@ -0,0 +1,700 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.nodes.interfaces.CountryModel;
+import org.sandbag.model.nodes.interfaces.OffsetModel;
+import org.sandbag.model.nodes.interfaces.SandbagSectorModel;
+import org.sandbag.model.nodes.interfaces.SectorModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCountryModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorSectorModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCountryModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationSectorModel;
+import org.sandbag.model.relationships.interfaces.*;
+import org.sandbag.util.LongLongMap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *
+ * Totals of the installations and aircraft operators per country, sector, Sandbag sector, period and metric
+ * (verified emissions, allowances in allocation in total and per type, surrendered units and offsets),
+ * kept in primitive arrays and stored in a compact binary file within the database folder, so that dashboard
+ * questions (e.g. "Dave's query", see docs/query_examples.md) are answered without walking the graph.
+ * Accounts are grouped by the country, sector and Sandbag sector they're linked to (a group per combination found),
+ * and every group keeps the totals of its accounts per period and metric. The values of an account are read the
+ * same way Cypher sums them (every relationship to the period counts) and offsets are the ERU and CER linked to the
+ * account, counted for the period of the offset.
+ * AggregateCubeHandler records the accounts modified by the transactions of the programs enabling it (see
+ * DatabaseManager.enableAggregateCubeUpdates) while the cube file exists; open applies them by computing again only
+ * the groups those accounts belong (or belonged) to. The cube keeps the id of the last transaction whose changes it
+ * includes, and the handler records the last transaction it has seen when the database is shut down, so the cube is
+ * built from scratch when any transaction was committed without recording its changes, as well as when it doesn't
+ * exist, when its format has changed or when sectors, countries or periods have been renamed or regrouped.
+ * Building and refreshing must be done within a transaction; queries don't need one.
+ *
+ */
+public class AggregateCube {
+
+    public static final String FILE_NAME = "aggregate_cube.bin";
+    public static final String PENDING_FILE_NAME = "aggregate_cube.pending";
+
+    public static final int VERIFIED_EMISSIONS = 0;
+    public static final int ALLOWANCES_IN_ALLOCATION = 1;
+    public static final int ALLOWANCES_IN_ALLOCATION_STANDARD = 2;
+    public static final int ALLOWANCES_IN_ALLOCATION_ARTICLE_10C = 3;
+    public static final int ALLOWANCES_IN_ALLOCATION_NER = 4;
+    public static final int SURRENDERED_UNITS = 5;
+    public static final int OFFSETS = 6;
+    public static final int METRICS = 7;
+    public static final String[] METRIC_NAMES = {"verified_emissions", "allowances_in_allocation",
+            "allowances_in_allocation_standard", "allowances_in_allocation_article10c", "allowances_in_allocation_ner",
+            "surrendered_units", "offsets"};
+
+    public static final int COUNTRY = 0;
+    public static final int SECTOR = 1;
+    public static final int SANDBAG_SECTOR = 2;
+    public static final int PERIOD = 3;
+    public static final String[] DIMENSION_NAMES = {"country", "sector", "sandbag_sector", "period"};
+
+    //index of the accounts without country, sector or Sandbag sector
+    public static final int NONE = -1;
+
+    //pending account id asking for the cube to be built again
+    static final long REBUILD = -1;
+    //pending marker followed by the id of the last transaction whose changes have been recorded
+    static final long TRANSACTION = -2;
+    private static final long UNKNOWN_TRANSACTION = -1;
+
+    private static final int MAGIC = 0x45554342;
+    private static final int VERSION = 2;
+    //bits of every dimension within the key of a group
+    private static final int KEY_BITS = 21;
+
+    private static final String[] ALLOCATION_TYPES = {AllowancesInAllocationModel.STANDARD_TYPE,
+            AllowancesInAllocationModel.ARTICLE_10C_TYPE, AllowancesInAllocationModel.NER_TYPE};
+
+    //lock shared with AggregateCubeHandler for the pending file
+    static final Object PENDING_LOCK = new Object();
+
+    //country ids, sector names, Sandbag sector names and period names
+    private final List<List<String>> dictionaries = new ArrayList<>();
+    private final List<Map<String, Integer>> indices = new ArrayList<>();
+
+    //[group] -> country, sector and Sandbag sector indices
+    private int[][] groups = new int[0][];
+    private int groupCount = 0;
+    private final LongLongMap groupsByKey = new LongLongMap();
+    //[group][period * METRICS + metric], NaN when no account of the group has a value
+    private double[][] values = new double[0][];
+
+    //node id and group of every account
+    private long[] accountIds = new long[0];
+    private int[] accountGroups = new int[0];
+    private int accountCount = 0;
+    private final LongLongMap accountsById = new LongLongMap();
+
+    //id of the last transaction whose changes are included
+    private long lastTransaction = UNKNOWN_TRANSACTION;
+
+    /**
+     * Accounts and last transaction recorded since the cube was stored
+     */
+    private static class Pending {
+        final Set<Long> ids = new HashSet<>();
+        long lastTransaction = UNKNOWN_TRANSACTION;
+    }
+
+    private AggregateCube(){
+        for(int dimension = 0; dimension < DIMENSION_NAMES.length; dimension++){
+            dictionaries.add(new ArrayList<String>());
+            indices.add(new HashMap<String, Integer>());
+        }
+    }
+
+    /**
+     * Loads the cube of the database folder provided, applying the changes recorded since it was stored
+     * (or building it when there's none) and storing it again when it has changed.
+     * Must be called within a transaction.
+     */
+    public static AggregateCube open(DatabaseManager dbManager, String dbFolder) throws IOException{
+
+        File file = new File(dbFolder, FILE_NAME);
+        long lastTransaction = ChangeTracking.getLastCommittedTransaction();
+        Pending pending = takePending(dbFolder);
+
+        AggregateCube cube = null;
+        try{
+            if(file.exists() && !pending.ids.contains(REBUILD)){
+                cube = read(file);
+                if(cube == null){
+                    System.out.println("The aggregate cube was stored by a different version, it will be built again");
+                }else if((pending.lastTransaction != UNKNOWN_TRANSACTION ? pending.lastTransaction :
+                        cube.lastTransaction) != lastTransaction){
+                    System.out.println("Transactions were committed without recording their changes for the " +
+                            "aggregate cube, it will be built again");
+                    cube = null;
+                }
+            }
+
+            if(cube == null){
+                //transactions committed while the cube is being built are recorded for the next time it's opened
+                startRecording(dbFolder);
+                cube = build(dbManager);
+                cube.lastTransaction = lastTransaction;
+                cube.write(file);
+            }else if(!pending.ids.isEmpty() || cube.lastTransaction != lastTransaction){
+                if(!cube.refresh(dbManager, pending.ids)){
+                    cube = build(dbManager);
+                }
+                cube.lastTransaction = lastTransaction;
+                cube.write(file);
+            }
+        }catch (IOException | RuntimeException e){
+            //the changes taken have not been applied, the cube is built from scratch next time
+            file.delete();
+            throw e;
+        }
+        return cube;
+    }
+
+    /**
+     * Builds the cube from every installation and aircraft operator of the database (nothing is stored)
+     */
+    public static AggregateCube build(DatabaseManager dbManager){
+        AggregateCube cube = new AggregateCube();
+        PeriodTable periods = new PeriodTable(dbManager);
+        for(Label label : new Label[]{DatabaseManager.INSTALLATION_LABEL, DatabaseManager.AIRCRAFT_OPERATOR_LABEL}){
+            Iterator<Node> iterator = dbManager.findNodes(label);
+            while(iterator.hasNext()){
+                Node account = iterator.next();
+                int group = cube.getGroup(account);
+                cube.setAccountGroup(account.getId(), group);
+                cube.add(account, group, periods);
+            }
+        }
+        return cube;
+    }
+
+    /**
+     * Computes again the groups the accounts provided belong or belonged to
+     *
+     * @return false when the cube must be built again instead (the accounts are most of the database)
+     */
+    public boolean refresh(DatabaseManager dbManager, Collection<Long> ids){
+
+        if(ids.size() > accountCount / 2){
+            return false;
+        }
+
+        Set<Integer> refreshed = new HashSet<>();
+        for(long id : ids){
+            long position = accountsById.get(id);
+            if(position != LongLongMap.NOT_FOUND && accountGroups[(int) position] != NONE){
+                refreshed.add(accountGroups[(int) position]);
+            }
+            Node account = getAccount(id);
+            int group = account != null ? getGroup(account) : NONE;
+            setAccountGroup(id, group);
+            if(group != NONE){
+                refreshed.add(group);
+            }
+        }
+
+        for(int group : refreshed){
+            Arrays.fill(values[group], Double.NaN);
+        }
+        PeriodTable periods = new PeriodTable(dbManager);
+        for(int position = 0; position < accountCount; position++){
+            int group = accountGroups[position];
+            if(group != NONE && refreshed.contains(group)){
+                add(DatabaseManager.graphDb.getNodeById(accountIds[position]), group, periods);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param countryId id of the country (e.g. "DE"), null for every country
+     * @param sector name of the sector (e.g. "Cement and Lime"), null for every sector
+     * @param sandbagSector name of the Sandbag sector, null for every Sandbag sector
+     * @param period name of the period (e.g. "2014"), null for every period
+     * @return total of the metric for the accounts matching the values provided, NaN when none of them has a value
+     */
+    public double getValue(String countryId, String sector, String sandbagSector, String period, int metric){
+        int[] filter = getFilter(countryId, sector, sandbagSector, period);
+        if(filter == null){
+            return Double.NaN;
+        }
+        double total = Double.NaN;
+        int periodFrom = filter[PERIOD] != NONE ? filter[PERIOD] : 0;
+        int periodTo = filter[PERIOD] != NONE ? filter[PERIOD] + 1 : dictionaries.get(PERIOD).size();
+        if(filter[COUNTRY] != NONE && filter[SECTOR] != NONE && filter[SANDBAG_SECTOR] != NONE){
+            long group = groupsByKey.get(getKey(filter[COUNTRY], filter[SECTOR], filter[SANDBAG_SECTOR]));
+            if(group != LongLongMap.NOT_FOUND){
+                total = sum(total, (int) group, periodFrom, periodTo, metric);
+            }
+        }else{
+            for(int group = 0; group < groupCount; group++){
+                if(matches(group, filter)){
+                    total = sum(total, group, periodFrom, periodTo, metric);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Totals of the metric per value of a dimension (e.g. per country for Dave's query),
+     * only for the values of the dimension some account has a value for
+     *
+     * @param dimension COUNTRY, SECTOR, SANDBAG_SECTOR or PERIOD
+     * @return totals sorted by the value of the dimension
+     */
+    public SortedMap<String, Double> getValuesBy(int dimension, String countryId, String sector, String sandbagSector,
+                                                 String period, int metric){
+        SortedMap<String, Double> result = new TreeMap<>();
+        int[] filter = getFilter(countryId, sector, sandbagSector, period);
+        if(filter == null){
+            return result;
+        }
+        List<String> names = dictionaries.get(dimension);
+        for(int index = 0; index < names.size(); index++){
+            if(filter[dimension] == NONE || filter[dimension] == index){
+                int[] indexFilter = Arrays.copyOf(filter, filter.length);
+                indexFilter[dimension] = index;
+                int periodFrom = indexFilter[PERIOD] != NONE ? indexFilter[PERIOD] : 0;
+                int periodTo = indexFilter[PERIOD] != NONE ? indexFilter[PERIOD] + 1 : dictionaries.get(PERIOD).size();
+                double total = Double.NaN;
+                for(int group = 0; group < groupCount; group++){
+                    if(matches(group, indexFilter)){
+                        total = sum(total, group, periodFrom, periodTo, metric);
+                    }
+                }
+                if(!Double.isNaN(total)){
+                    result.put(names.get(index), total);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return values of the dimension found in the database (country ids, sector names, Sandbag sector names
+     * or period names)
+     */
+    public List<String> getNames(int dimension){
+        return Collections.unmodifiableList(dictionaries.get(dimension));
+    }
+
+    public int getGroupCount(){
+        return groupCount;
+    }
+
+    public int getAccountCount(){
+        int count = 0;
+        for(int position = 0; position < accountCount; position++){
+            if(accountGroups[position] != NONE){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return metric with the name provided (see METRIC_NAMES), -1 if there's none
+     */
+    public static int getMetric(String name){
+        return Arrays.asList(METRIC_NAMES).indexOf(name);
+    }
+
+    /**
+     * @return dimension with the name provided (see DIMENSION_NAMES), -1 if there's none
+     */
+    public static int getDimension(String name){
+        return Arrays.asList(DIMENSION_NAMES).indexOf(name);
+    }
+
+    /**
+     * @return indices of the values provided (NONE for the ones not provided), null when one of them is not in the cube
+     */
+    private int[] getFilter(String countryId, String sector, String sandbagSector, String period){
+        String[] names = {countryId, sector, sandbagSector, period};
+        int[] filter = new int[names.length];
+        for(int dimension = 0; dimension < names.length; dimension++){
+            if(names[dimension] == null){
+                filter[dimension] = NONE;
+            }else{
+                Integer index = indices.get(dimension).get(names[dimension]);
+                if(index == null){
+                    return null;
+                }
+                filter[dimension] = index;
+            }
+        }
+        return filter;
+    }
+
+    private boolean matches(int group, int[] filter){
+        for(int dimension = COUNTRY; dimension <= SANDBAG_SECTOR; dimension++){
+            if(filter[dimension] != NONE && groups[group][dimension] != filter[dimension]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double sum(double total, int group, int periodFrom, int periodTo, int metric){
+        double[] groupValues = values[group];
+        for(int period = periodFrom; period < periodTo; period++){
+            int position = period * METRICS + metric;
+            if(position < groupValues.length && !Double.isNaN(groupValues[position])){
+                total = Double.isNaN(total) ? groupValues[position] : total + groupValues[position];
+            }
+        }
+        return total;
+    }
+
+    private static Node getAccount(long id){
+        try{
+            Node node = DatabaseManager.graphDb.getNodeById(id);
+            if(node.hasLabel(DatabaseManager.INSTALLATION_LABEL) || node.hasLabel(DatabaseManager.AIRCRAFT_OPERATOR_LABEL)){
+                return node;
+            }
+        }catch (NotFoundException e){
+            //deleted
+        }
+        return null;
+    }
+
+    /**
+     * @return group of the country, sector and Sandbag sector of the account (created if there's none yet)
+     */
+    private int getGroup(Node account){
+        int country = NONE;
+        int sector = NONE;
+        int sandbagSector = NONE;
+        for(Relationship relationship : account.getRelationships(Direction.OUTGOING)){
+            String type = relationship.getType().name();
+            if(type.equals(InstallationCountryModel.LABEL) || type.equals(AircraftOperatorCountryModel.LABEL)){
+                country = getIndex(COUNTRY, relationship.getEndNode().getProperty(CountryModel.id, null));
+            }else if(type.equals(InstallationSectorModel.LABEL) || type.equals(AircraftOperatorSectorModel.LABEL)){
+                Node sectorNode = relationship.getEndNode();
+                sector = getIndex(SECTOR, sectorNode.getProperty(SectorModel.name, null));
+                for(Relationship aggregates : sectorNode.getRelationships(Direction.INCOMING,
+                        DynamicRelationshipType.withName(AggregatesSectorModel.LABEL))){
+                    sandbagSector = getIndex(SANDBAG_SECTOR, aggregates.getStartNode().getProperty(SandbagSectorModel.name, null));
+                }
+            }
+        }
+        long key = getKey(country, sector, sandbagSector);
+        long group = groupsByKey.get(key);
+        if(group == LongLongMap.NOT_FOUND){
+            group = addGroup(country, sector, sandbagSector);
+        }
+        return (int) group;
+    }
+
+    private int addGroup(int country, int sector, int sandbagSector){
+        if(groupCount == groups.length){
+            int capacity = Math.max(16, groupCount * 2);
+            groups = Arrays.copyOf(groups, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int group = groupCount++;
+        groups[group] = new int[]{country, sector, sandbagSector};
+        values[group] = newValues(dictionaries.get(PERIOD).size());
+        groupsByKey.put(getKey(country, sector, sandbagSector), group);
+        return group;
+    }
+
+    private static long getKey(int country, int sector, int sandbagSector){
+        //NONE is stored as 0
+        return ((long) (country + 1) << (2 * KEY_BITS)) | ((long) (sector + 1) << KEY_BITS) | (sandbagSector + 1);
+    }
+
+    private int getIndex(int dimension, Object name){
+        if(name == null){
+            return NONE;
+        }
+        String nameSt = String.valueOf(name);
+        Integer index = indices.get(dimension).get(nameSt);
+        if(index == null){
+            index = dictionaries.get(dimension).size();
+            dictionaries.get(dimension).add(nameSt);
+            indices.get(dimension).put(nameSt, index);
+        }
+        return index;
+    }
+
+    private void setAccountGroup(long id, int group){
+        long position = accountsById.get(id);
+        if(position == LongLongMap.NOT_FOUND){
+            if(group == NONE){
+                return;
+            }
+            if(accountCount == accountIds.length){
+                int capacity = Math.max(1024, accountCount * 2);
+                accountIds = Arrays.copyOf(accountIds, capacity);
+                accountGroups = Arrays.copyOf(accountGroups, capacity);
+            }
+            position = accountCount++;
+            accountIds[(int) position] = id;
+            accountsById.put(id, position);
+        }
+        accountGroups[(int) position] = group;
+    }
+
+    /**
+     * Adds the values of the account to its group, in a single walk of its relationships
+     */
+    private void add(Node account, int group, PeriodTable periods){
+        for(Relationship relationship : account.getRelationships(Direction.OUTGOING)){
+            String type = relationship.getType().name();
+            if(type.equals(VerifiedEmissionsModel.LABEL)){
+                add(group, getPeriod(relationship, periods), VERIFIED_EMISSIONS, relationship, VerifiedEmissionsModel.value);
+            }else if(type.equals(AllowancesInAllocationModel.LABEL)){
+                int period = getPeriod(relationship, periods);
+                add(group, period, ALLOWANCES_IN_ALLOCATION, relationship, AllowancesInAllocationModel.value);
+                int typeIndex = Arrays.asList(ALLOCATION_TYPES).indexOf(relationship.getProperty(AllowancesInAllocationModel.type, null));
+                if(typeIndex >= 0){
+                    add(group, period, ALLOWANCES_IN_ALLOCATION_STANDARD + typeIndex, relationship, AllowancesInAllocationModel.value);
+                }
+            }else if(type.equals(SurrenderedUnitsModel.LABEL)){
+                add(group, getPeriod(relationship, periods), SURRENDERED_UNITS, relationship, SurrenderedUnitsModel.value);
+            }else if(type.equals(OffsetsModel.LABEL)){
+                Node offset = relationship.getEndNode();
+                Object unitType = offset.getProperty(OffsetModel.unitType, null);
+                if(OffsetModel.ERU_UNIT_TYPE.equals(unitType) || OffsetModel.CER_UNIT_TYPE.equals(unitType)){
+                    for(Relationship offsetPeriod : offset.getRelationships(Direction.OUTGOING,
+                            DynamicRelationshipType.withName(OffsetPeriodModel.LABEL))){
+                        add(group, getPeriod(offsetPeriod, periods), OFFSETS, offset, OffsetModel.amount);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(int group, int period, int metric, PropertyContainer container, String key){
+        if(period == NONE){
+            return;
+        }
+        double value = TypedProperties.getDouble(container, key, Double.NaN);
+        if(Double.isNaN(value)){
+            return;
+        }
+        double[] groupValues = values[group];
+        if(groupValues.length <= period * METRICS + metric){
+            groupValues = Arrays.copyOf(groupValues, dictionaries.get(PERIOD).size() * METRICS);
+            Arrays.fill(groupValues, values[group].length, groupValues.length, Double.NaN);
+            values[group] = groupValues;
+        }
+        int position = period * METRICS + metric;
+        groupValues[position] = Double.isNaN(groupValues[position]) ? value : groupValues[position] + value;
+    }
+
+    private int getPeriod(Relationship relationship, PeriodTable periods){
+        int ordinal = periods.getOrdinal(PeriodSlices.getPeriodNodeId(relationship.getEndNode()));
+        return ordinal != PeriodTable.NOT_FOUND ? getIndex(PERIOD, periods.getName(ordinal)) : NONE;
+    }
+
+    private static double[] newValues(int periods){
+        double[] result = new double[periods * METRICS];
+        Arrays.fill(result, Double.NaN);
+        return result;
+    }
+
+    /**
+     * Stores the cube, replacing the file provided once it has been written completely
+     */
+    public void write(File file) throws IOException{
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try{
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(METRICS);
+            out.writeLong(lastTransaction);
+            for(List<String> names : dictionaries){
+                out.writeInt(names.size());
+                for(String name : names){
+                    out.writeUTF(name);
+                }
+            }
+            out.writeInt(groupCount);
+            for(int group = 0; group < groupCount; group++){
+                for(int dimension = COUNTRY; dimension <= SANDBAG_SECTOR; dimension++){
+                    out.writeInt(groups[group][dimension]);
+                }
+                //only the values found, as (period * METRICS + metric, value)
+                double[] groupValues = values[group];
+                int found = 0;
+                for(double value : groupValues){
+                    if(!Double.isNaN(value)){
+                        found++;
+                    }
+                }
+                out.writeInt(found);
+                for(int position = 0; position < groupValues.length; position++){
+                    if(!Double.isNaN(groupValues[position])){
+                        out.writeInt(position);
+                        out.writeDouble(groupValues[position]);
+                    }
+                }
+            }
+            out.writeInt(getAccountCount());
+            for(int position = 0; position < accountCount; position++){
+                if(accountGroups[position] != NONE){
+                    out.writeLong(accountIds[position]);
+                    out.writeInt(accountGroups[position]);
+                }
+            }
+        }finally {
+            out.close();
+        }
+        if(file.exists() && !file.delete()){
+            throw new IOException("The aggregate cube " + file + " could not be replaced");
+        }
+        if(!tempFile.renameTo(file)){
+            throw new IOException("The aggregate cube could not be stored in " + file);
+        }
+    }
+
+    /**
+     * @return the cube stored in the file provided, null if it was stored by a different version
+     */
+    public static AggregateCube read(File file) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try{
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != METRICS){
+                return null;
+            }
+            AggregateCube cube = new AggregateCube();
+            cube.lastTransaction = in.readLong();
+            for(int dimension = 0; dimension < DIMENSION_NAMES.length; dimension++){
+                int size = in.readInt();
+                for(int index = 0; index < size; index++){
+                    cube.getIndex(dimension, in.readUTF());
+                }
+            }
+            int groups = in.readInt();
+            for(int i = 0; i < groups; i++){
+                int group = cube.addGroup(in.readInt(), in.readInt(), in.readInt());
+                int found = in.readInt();
+                for(int j = 0; j < found; j++){
+                    cube.values[group][in.readInt()] = in.readDouble();
+                }
+            }
+            int accounts = in.readInt();
+            for(int i = 0; i < accounts; i++){
+                cube.setAccountGroup(in.readLong(), in.readInt());
+            }
+            return cube;
+        }finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Records accounts modified since the cube was stored (REBUILD to build it again), see AggregateCubeHandler
+     */
+    static void appendPending(File dbFolder, Collection<Long> ids) throws IOException{
+        synchronized (PENDING_LOCK){
+            if(!new File(dbFolder, FILE_NAME).exists() && !new File(dbFolder, PENDING_FILE_NAME).exists()){
+                //there's no cube, it will be built from scratch anyway
+                return;
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(dbFolder, PENDING_FILE_NAME), true)));
+            try{
+                for(long id : ids){
+                    out.writeLong(id);
+                }
+            }finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Starts recording the changes of the transactions committed from now on: if any transaction was committed since
+     * the last one whose changes are included in the cube or recorded, the cube is built again next time
+     *
+     * @param lastTransaction id of the last transaction committed
+     */
+    static void resumeRecording(File dbFolder, long lastTransaction) throws IOException{
+        synchronized (PENDING_LOCK){
+            File file = new File(dbFolder, FILE_NAME);
+            File pendingFile = new File(dbFolder, PENDING_FILE_NAME);
+            if(!file.exists() && !pendingFile.exists()){
+                return;
+            }
+            long recorded = readPending(pendingFile).lastTransaction;
+            if(recorded == UNKNOWN_TRANSACTION && file.exists()){
+                AggregateCube cube = read(file);
+                recorded = cube != null ? cube.lastTransaction : UNKNOWN_TRANSACTION;
+            }
+            if(recorded != lastTransaction){
+                appendPending(dbFolder, Collections.singleton(REBUILD));
+            }
+        }
+    }
+
+    /**
+     * Records the last transaction whose changes have been recorded, once no more transactions are committed
+     */
+    static void recordTransaction(File dbFolder, long lastTransaction) throws IOException{
+        appendPending(dbFolder, Arrays.asList(TRANSACTION, lastTransaction));
+    }
+
+    private static void startRecording(String dbFolder) throws IOException{
+        synchronized (PENDING_LOCK){
+            File file = new File(dbFolder, PENDING_FILE_NAME);
+            if(!file.exists() && !file.createNewFile()){
+                throw new IOException("The changes for the aggregate cube could not be recorded in " + file);
+            }
+        }
+    }
+
+    /**
+     * @return accounts and last transaction recorded since the cube was stored, the record is cleared
+     */
+    private static Pending takePending(String dbFolder) throws IOException{
+        synchronized (PENDING_LOCK){
+            File file = new File(dbFolder, PENDING_FILE_NAME);
+            Pending pending = readPending(file);
+            if(file.exists() && !file.delete()){
+                throw new IOException("The changes recorded for the aggregate cube could not be cleared from " + file);
+            }
+            return pending;
+        }
+    }
+
+    private static Pending readPending(File file) throws IOException{
+        Pending pending = new Pending();
+        if(!file.exists()){
+            return pending;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try{
+            for(long i = file.length() / 8; i > 0; i--){
+                long id = in.readLong();
+                if(id == TRANSACTION){
+                    if(i == 1){
+                        //the record was cut short
+                        pending.ids.add(REBUILD);
+                    }else{
+                        pending.lastTransaction = in.readLong();
+                        i--;
+                    }
+                }else{
+                    pending.ids.add(id);
+                }
+            }
+        }finally {
+            in.close();
+        }
+        return pending;
+    }
+}
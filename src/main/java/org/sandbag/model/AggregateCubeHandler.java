@@ -0,0 +1,178 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.sandbag.model.nodes.interfaces.CountryModel;
+import org.sandbag.model.nodes.interfaces.OffsetModel;
+import org.sandbag.model.nodes.interfaces.PeriodModel;
+import org.sandbag.model.nodes.interfaces.SandbagSectorModel;
+import org.sandbag.model.nodes.interfaces.SectorModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCountryModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorSectorModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCountryModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationSectorModel;
+import org.sandbag.model.relationships.interfaces.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ *
+ * Records the installations and aircraft operators modified by every transaction committed while there's an
+ * aggregate cube in the database folder (see AggregateCube), so that the next time the cube is opened only the groups
+ * of those accounts are computed again. Registered by DatabaseManager.enableAggregateCubeUpdates.
+ * An account is modified when its verified emissions, allowances in allocation, surrendered units, offsets, country or
+ * sector are created, deleted or changed, when its labels change, or when the amount, unit type or period of one of
+ * its offsets changes.
+ * Renaming sectors, Sandbag sectors, countries or periods, or changing the sectors a Sandbag sector aggregates,
+ * asks for the cube to be built again.
+ * Transactions whose changes can't be collected fail. When the changes collected can't be written once the
+ * transaction has been committed, the last transaction isn't recorded when the database is shut down (see close),
+ * so the cube is built again the next time it's opened.
+ *
+ */
+public class AggregateCubeHandler extends TransactionEventHandler.Adapter<Set<Long>> {
+
+    private static final Set<String> ACCOUNT_TYPES = new HashSet<>(Arrays.asList(VerifiedEmissionsModel.LABEL,
+            AllowancesInAllocationModel.LABEL, SurrenderedUnitsModel.LABEL, OffsetsModel.LABEL,
+            InstallationCountryModel.LABEL, InstallationSectorModel.LABEL, AircraftOperatorCountryModel.LABEL,
+            AircraftOperatorSectorModel.LABEL));
+    private static final Set<String> ACCOUNT_LABELS = new HashSet<>(Arrays.asList(
+            DatabaseManager.INSTALLATION_LABEL.name(), DatabaseManager.AIRCRAFT_OPERATOR_LABEL.name()));
+
+    private final File dbFolder;
+    //changes of some transaction could not be recorded, the cube must be built again (see close)
+    private volatile boolean failed = false;
+
+    public AggregateCubeHandler(File dbFolder){
+        this.dbFolder = dbFolder;
+    }
+
+    /**
+     * Starts recording, must be called once the handler has been registered
+     */
+    public void open() throws IOException{
+        AggregateCube.resumeRecording(dbFolder, ChangeTracking.getLastCommittedTransaction());
+    }
+
+    /**
+     * Records the last transaction committed unless the changes of some transaction could not be recorded,
+     * must be called once every transaction has been committed
+     */
+    public void close() throws IOException{
+        if(!failed){
+            AggregateCube.recordTransaction(dbFolder, ChangeTracking.getLastCommittedTransaction());
+        }
+    }
+
+    @Override
+    public Set<Long> beforeCommit(TransactionData data) throws Exception {
+        if(!new File(dbFolder, AggregateCube.FILE_NAME).exists() &&
+                !new File(dbFolder, AggregateCube.PENDING_FILE_NAME).exists()){
+            return null;
+        }
+        return collect(data);
+    }
+
+    @Override
+    public void afterCommit(TransactionData data, Set<Long> accountIds) {
+        if(accountIds != null && !accountIds.isEmpty()){
+            try{
+                AggregateCube.appendPending(dbFolder, accountIds);
+            }catch (IOException e){
+                //the transaction is committed already, the cube can only be built again
+                failed = true;
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Set<Long> collect(TransactionData data){
+
+        Set<Long> accountIds = new HashSet<>();
+
+        List<Relationship> relationships = new LinkedList<>();
+        for(Relationship relationship : data.createdRelationships()){
+            relationships.add(relationship);
+        }
+        for(Relationship relationship : data.deletedRelationships()){
+            relationships.add(relationship);
+        }
+        for(PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()){
+            relationships.add(entry.entity());
+        }
+        for(PropertyEntry<Relationship> entry : data.removedRelationshipProperties()){
+            relationships.add(entry.entity());
+        }
+        for(Relationship relationship : relationships){
+            String type = relationship.getType().name();
+            if(ACCOUNT_TYPES.contains(type)){
+                accountIds.add(relationship.getStartNode().getId());
+            }else if(type.equals(OffsetPeriodModel.LABEL)){
+                Node offset = relationship.getStartNode();
+                if(!data.isDeleted(offset)){
+                    addOffsetAccounts(accountIds, offset);
+                }
+            }else if(type.equals(AggregatesSectorModel.LABEL)){
+                accountIds.add(AggregateCube.REBUILD);
+            }
+        }
+
+        Set<Long> createdNodes = new HashSet<>();
+        for(Node node : data.createdNodes()){
+            createdNodes.add(node.getId());
+        }
+
+        List<PropertyEntry<Node>> nodeProperties = new LinkedList<>();
+        for(PropertyEntry<Node> entry : data.assignedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : data.removedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : nodeProperties){
+            Node node = entry.entity();
+            if(createdNodes.contains(node.getId()) || data.isDeleted(node)){
+                //new nodes are only aggregated through the relationships created for them
+                continue;
+            }
+            String key = entry.key();
+            if((key.equals(OffsetModel.amount) || key.equals(OffsetModel.unitType)) &&
+                    node.hasLabel(DatabaseManager.OFFSET_LABEL)){
+                addOffsetAccounts(accountIds, node);
+            }else if((key.equals(SectorModel.name) && node.hasLabel(DatabaseManager.SECTOR_LABEL)) ||
+                    (key.equals(SandbagSectorModel.name) && node.hasLabel(DatabaseManager.SANDBAG_SECTOR_LABEL)) ||
+                    (key.equals(CountryModel.id) && node.hasLabel(DatabaseManager.COUNTRY_LABEL)) ||
+                    (key.equals(PeriodModel.name) && node.hasLabel(DatabaseManager.PERIOD_LABEL))){
+                accountIds.add(AggregateCube.REBUILD);
+            }
+        }
+
+        List<LabelEntry> labels = new LinkedList<>();
+        for(LabelEntry entry : data.assignedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : data.removedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : labels){
+            if(!createdNodes.contains(entry.node().getId()) && !data.isDeleted(entry.node()) &&
+                    ACCOUNT_LABELS.contains(entry.label().name())){
+                accountIds.add(entry.node().getId());
+            }
+        }
+
+        return accountIds;
+    }
+
+    private static void addOffsetAccounts(Set<Long> accountIds, Node offset){
+        for(Relationship relationship : offset.getRelationships(Direction.INCOMING,
+                DynamicRelationshipType.withName(OffsetsModel.LABEL))){
+            accountIds.add(relationship.getStartNode().getId());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Transaction;
+
+/**
+ *
+ * Transaction wrapper for importers committing their changes in batches.
+ *
+ * A batch is committed once it reaches the current batch size (rows) or once the estimated size of the
+ * transaction state (based on the number of writes reported) goes over MAX_STATE_BYTES, whichever happens first.
+ * The batch size is tuned from the commit latencies observed: it grows additively while commits are fast
+ * and it's halved when a commit takes too long (AIMD), so that every importer ends up close to the
+ * largest batch the database handles comfortably.
+ * The throughput of every batch is printed when it's committed.
+ *
+ * Usage:
+ * <pre>
+ *     BatchTransaction batch = new BatchTransaction(dbManager, "Fuel types");
+ *     boolean finished = false;
+ *     try{
+ *         while(...){
+ *             //...graph writes...
+ *             batch.rowDone(writesForThisRow);
+ *         }
+ *         batch.finish();
+ *         finished = true;
+ *     }finally {
+ *         if(!finished){
+ *             batch.abort();
+ *         }
+ *     }
+ * </pre>
+ *
+ */
+public class BatchTransaction {
+
+    public static final int DEFAULT_INITIAL_BATCH_SIZE = 1000;
+    public static final int MIN_BATCH_SIZE = 50;
+    public static final int MAX_BATCH_SIZE = 100000;
+
+    //rough size of the transaction state for a single write (node, relationship or property)
+    public static final int ESTIMATED_BYTES_PER_WRITE = 200;
+    public static final long MAX_STATE_BYTES = 64L * 1024 * 1024;
+
+    //commits faster than the first value make the batch grow, slower than the second one make it shrink
+    public static final long FAST_COMMIT_MILLIS = 250;
+    public static final long SLOW_COMMIT_MILLIS = 2000;
+
+    /**
+     * Progress of an import written within the transaction of every batch, right before it's committed
+     * (see ImportJournal)
+     */
+    public interface Checkpoint {
+        void write();
+    }
+
+    private final DatabaseManager dbManager;
+    private final String name;
+    private final int batchSizeIncrement;
+    private Checkpoint checkpoint = null;
+
+    private Transaction tx;
+    private int batchSize;
+
+    private int rowsInBatch = 0;
+    private long writesInBatch = 0;
+    private long batchStartTime;
+
+    private long totalRows = 0;
+    private int batchCounter = 0;
+    private final long startTime;
+
+    public BatchTransaction(DatabaseManager dbManager, String name){
+        this(dbManager, name, DEFAULT_INITIAL_BATCH_SIZE);
+    }
+
+    public BatchTransaction(DatabaseManager dbManager, String name, int initialBatchSize){
+        this.dbManager = dbManager;
+        this.name = name;
+        this.batchSize = Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, initialBatchSize));
+        this.batchSizeIncrement = Math.max(MIN_BATCH_SIZE, this.batchSize / 2);
+        this.startTime = System.currentTimeMillis();
+        begin();
+    }
+
+    public void setCheckpoint(Checkpoint checkpoint){
+        this.checkpoint = checkpoint;
+    }
+
+    private void begin(){
+        tx = dbManager.beginTransaction();
+        rowsInBatch = 0;
+        writesInBatch = 0;
+        batchStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * To be called once a row has been applied, counting it as a single write
+     */
+    public void rowDone(){
+        rowDone(1);
+    }
+
+    /**
+     * To be called once a row has been applied
+     *
+     * @param writes (approximate) number of nodes, relationships and properties written for the row
+     */
+    public void rowDone(int writes){
+        rowsInBatch++;
+        totalRows++;
+        writesInBatch += writes;
+        if(rowsInBatch >= batchSize || writesInBatch * ESTIMATED_BYTES_PER_WRITE >= MAX_STATE_BYTES){
+            commit();
+            begin();
+        }
+    }
+
+    private void commit(){
+
+        if(checkpoint != null && rowsInBatch > 0){
+            checkpoint.write();
+        }
+
+        long commitStartTime = System.currentTimeMillis();
+        tx.success();
+        tx.close();
+        long commitEndTime = System.currentTimeMillis();
+
+        if(rowsInBatch == 0){
+            return;
+        }
+
+        batchCounter++;
+
+        long commitMillis = commitEndTime - commitStartTime;
+        long batchMillis = Math.max(1, commitEndTime - batchStartTime);
+        long rowsPerSecond = rowsInBatch * 1000L / batchMillis;
+
+        int previousBatchSize = batchSize;
+        if(commitMillis > SLOW_COMMIT_MILLIS){
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        }else if(commitMillis < FAST_COMMIT_MILLIS && rowsInBatch >= batchSize){
+            //only full batches tell whether a bigger one would still commit fast
+            batchSize = Math.min(MAX_BATCH_SIZE, batchSize + batchSizeIncrement);
+        }
+
+        System.out.println(name + ": batch " + batchCounter + " committed, " + rowsInBatch + " rows in " + batchMillis +
+                " ms (" + rowsPerSecond + " rows/s, commit: " + commitMillis + " ms)" +
+                (previousBatchSize != batchSize ? ", batch size: " + previousBatchSize + " -> " + batchSize : ""));
+    }
+
+    /**
+     * Commits the current batch straight away, starting a new one
+     */
+    public void commitNow(){
+        commit();
+        begin();
+    }
+
+    /**
+     * Commits the last batch and prints a summary of the whole import
+     */
+    public void finish(){
+        commit();
+        tx = null;
+        long totalMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        System.out.println(name + ": " + totalRows + " rows imported in " + (totalMillis / 1000.0) + " s (" +
+                (totalRows * 1000L / totalMillis) + " rows/s)");
+    }
+
+    /**
+     * Rolls back the current batch (the batches already committed are kept). Must be called whenever the batch is
+     * not finished: its transaction would otherwise stay bound to the thread, and every later transaction of the
+     * thread would be nested in it and never committed.
+     */
+    public void abort(){
+        if(tx != null){
+            tx.failure();
+            tx.close();
+            tx = null;
+        }
+    }
+
+    public int getBatchSize(){
+        return batchSize;
+    }
+
+    public long getTotalRows(){
+        return totalRows;
+    }
+}
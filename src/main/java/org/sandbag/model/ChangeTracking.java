@@ -0,0 +1,169 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+
+import java.util.UUID;
+
+/**
+ *
+ * Change sequence numbers stamped by ChangeTrackingHandler on the entities modified by every transaction, so that
+ * exports can tell what has changed since they last ran (see ExportDBToMegaFiles).
+ * Tracking is off by default and is turned on by the programs updating the database incrementally (see
+ * DatabaseManager.enableChangeTracking). The sequence is counted in memory while the database is open and kept in
+ * a single node of the database when it's shut down, together with a random id given to the database and the
+ * last transaction committed then. Any transaction committed while tracking was off (a database loaded again,
+ * a program not tracking its changes, a crash before the sequence was kept) gives the database a new id the next
+ * time tracking is turned on, and exports ignore the id until then: sequence numbers are only comparable for the
+ * same database id.
+ *
+ * Installations and aircraft operators are stamped when they, their relationships, their company or their offsets
+ * change. Countries, sectors, periods and projects, whose names and ids show up in the lines of many accounts,
+ * are stamped themselves when those names or ids change (see SHARED_LABELS).
+ *
+ */
+public final class ChangeTracking {
+
+    public static final String CHANGE_SEQ = "change_seq";
+    public static final String VALUE = "value";
+    public static final String DATABASE_ID = "database_id";
+    public static final String LAST_TRANSACTION = "last_transaction";
+    public static final long NONE = 0L;
+
+    public static final Label[] SHARED_LABELS = {DatabaseManager.COUNTRY_LABEL, DatabaseManager.SECTOR_LABEL,
+            DatabaseManager.PERIOD_LABEL, DatabaseManager.PROJECT_LABEL};
+
+    private ChangeTracking(){}
+
+    /**
+     * @return change sequence number of the entity, NONE if it was never stamped
+     */
+    public static long getChangeSeq(Node node){
+        Object value = node.getProperty(CHANGE_SEQ, null);
+        return value instanceof Number ? ((Number) value).longValue() : NONE;
+    }
+
+    /**
+     * @return highest change sequence number of the countries, sectors, periods and projects, must be called within
+     * a transaction
+     */
+    public static long getSharedChangeSeq(DatabaseManager dbManager){
+        long changeSeq = NONE;
+        for(Label label : SHARED_LABELS){
+            ResourceIterator<Node> iterator = dbManager.graphDb.findNodes(label);
+            try{
+                while(iterator.hasNext()){
+                    changeSeq = Math.max(changeSeq, getChangeSeq(iterator.next()));
+                }
+            }finally {
+                iterator.close();
+            }
+        }
+        return changeSeq;
+    }
+
+    /**
+     * @return id of the database, null if changes have never been tracked or some transaction has been committed
+     * without tracking them since they last were
+     */
+    public static String getDatabaseId(DatabaseManager dbManager){
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Node node = getSequenceNode();
+            String databaseId = node != null && isUpToDate(node) ? String.valueOf(node.getProperty(DATABASE_ID)) : null;
+            tx.success();
+            return databaseId;
+        }finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * Creates the node keeping the sequence if there's none, or gives the database a new id if some transaction has
+     * been committed without tracking changes since they last were. Called once, before tracking is turned on.
+     *
+     * @return the last change sequence number given
+     */
+    static long open(){
+        Transaction tx = DatabaseManager.graphDb.beginTx();
+        try{
+            Node node = getSequenceNode();
+            if(node == null){
+                node = DatabaseManager.graphDb.createNode(DatabaseManager.CHANGE_SEQUENCE_LABEL);
+                node.setProperty(VALUE, NONE);
+                node.setProperty(DATABASE_ID, UUID.randomUUID().toString());
+            }else if(!isUpToDate(node)){
+                System.out.println("The database has been modified without tracking changes, incremental exports " +
+                        "will be run from scratch");
+                node.setProperty(DATABASE_ID, UUID.randomUUID().toString());
+            }
+            if(!isUpToDate(node)){
+                //set now: the first time a property is set its key is created by a transaction of its own,
+                //which close() must not do
+                node.setProperty(LAST_TRANSACTION, NONE);
+            }
+            long changeSeq = ((Number) node.getProperty(VALUE, NONE)).longValue();
+            tx.success();
+            return changeSeq;
+        }finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * Keeps the last change sequence number given, together with the transaction keeping it. Called once, when the
+     * database is shut down and nothing else is being committed.
+     */
+    static void close(long changeSeq){
+        Transaction tx = DatabaseManager.graphDb.beginTx();
+        try{
+            Node node = getSequenceNode();
+            node.setProperty(VALUE, changeSeq);
+            node.setProperty(LAST_TRANSACTION, getLastCommittedTransaction() + 1);
+            tx.success();
+        }finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * @return true if no transaction has been committed since changes were last tracked
+     */
+    private static boolean isUpToDate(Node node){
+        Object lastTransaction = node.getProperty(LAST_TRANSACTION, null);
+        return lastTransaction instanceof Number &&
+                ((Number) lastTransaction).longValue() == getLastCommittedTransaction();
+    }
+
+    /**
+     * @return id of the last transaction committed, which only moves forward when something is written
+     */
+    public static long getLastCommittedTransaction(){
+        return ((GraphDatabaseAPI) DatabaseManager.graphDb).getDependencyResolver()
+                .resolveDependency(TransactionIdStore.class).getLastCommittedTransactionId();
+    }
+
+    /**
+     * @return the node keeping the sequence, null if there's none; databases where several were created at the
+     * same time use the one with the lowest id
+     */
+    private static Node getSequenceNode(){
+        Node sequenceNode = null;
+        ResourceIterator<Node> iterator = DatabaseManager.graphDb.findNodes(DatabaseManager.CHANGE_SEQUENCE_LABEL);
+        try{
+            while(iterator.hasNext()){
+                Node node = iterator.next();
+                if(sequenceNode == null || node.getId() < sequenceNode.getId()){
+                    sequenceNode = node;
+                }
+            }
+        }finally {
+            iterator.close();
+        }
+        return sequenceNode;
+    }
+}
@@ -0,0 +1,205 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.sandbag.model.nodes.interfaces.*;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCompanyModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCompanyModel;
+import org.sandbag.model.relationships.interfaces.OffsetsModel;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Stamps the entities modified by every transaction with the next change sequence number (see ChangeTracking),
+ * within the transaction modifying them.
+ * Installations and aircraft operators are stamped when they're created, when their properties or labels change,
+ * when relationships starting at them are created, deleted or changed, and when the properties of their company
+ * or the properties and relationships of their offsets change.
+ * Countries, sectors, periods and projects are stamped when their name or id changes.
+ * Numbers are taken from a counter in memory, so transactions don't wait for each other to stamp entities;
+ * they're unique but don't necessarily follow the order in which transactions are committed.
+ *
+ */
+public class ChangeTrackingHandler extends TransactionEventHandler.Adapter<Object> {
+
+    private static final Set<String> ACCOUNT_LABELS = new HashSet<>(Arrays.asList(
+            DatabaseManager.INSTALLATION_LABEL.name(), DatabaseManager.AIRCRAFT_OPERATOR_LABEL.name()));
+    private static final RelationshipType[] COMPANY_TYPES = {
+            DynamicRelationshipType.withName(InstallationCompanyModel.LABEL),
+            DynamicRelationshipType.withName(AircraftOperatorCompanyModel.LABEL)};
+    private static final RelationshipType OFFSETS_TYPE = DynamicRelationshipType.withName(OffsetsModel.LABEL);
+    //properties of companies that are not part of what's exported
+    private static final Set<String> IGNORED_COMPANY_KEYS = new HashSet<>(Arrays.asList(CompanyModel.ultimateParent,
+            CompanyModel.ancestors));
+
+    private final AtomicLong changeSeq;
+    //changes of some transaction could not be stamped, the sequence must not be kept (see ChangeTracking.close)
+    private volatile boolean failed = false;
+
+    /**
+     * @param changeSeq last change sequence number given
+     */
+    public ChangeTrackingHandler(long changeSeq){
+        this.changeSeq = new AtomicLong(changeSeq);
+    }
+
+    /**
+     * @return last change sequence number given
+     */
+    public long getChangeSeq(){
+        return changeSeq.get();
+    }
+
+    /**
+     * @return true if the changes of some transaction could not be stamped
+     */
+    public boolean hasFailed(){
+        return failed;
+    }
+
+    @Override
+    public Object beforeCommit(TransactionData data) throws Exception {
+        try{
+            Set<Node> changed = collect(data);
+            if(!changed.isEmpty()){
+                stamp(changed);
+            }
+        }catch (TransientFailureException e){
+            throw e;
+        }catch (Exception e){
+            e.printStackTrace();
+            failed = true;
+            System.out.println("Changes could not be stamped, incremental exports will be run from scratch");
+        }
+        return null;
+    }
+
+    private static Set<Node> collect(TransactionData data){
+
+        Set<Node> changed = new LinkedHashSet<>();
+
+        Set<Long> createdNodes = new HashSet<>();
+        for(Node node : data.createdNodes()){
+            createdNodes.add(node.getId());
+            addAccounts(changed, node);
+        }
+
+        List<Relationship> relationships = new LinkedList<>();
+        for(Relationship relationship : data.createdRelationships()){
+            relationships.add(relationship);
+        }
+        for(Relationship relationship : data.deletedRelationships()){
+            relationships.add(relationship);
+        }
+        for(PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()){
+            relationships.add(entry.entity());
+        }
+        for(PropertyEntry<Relationship> entry : data.removedRelationshipProperties()){
+            relationships.add(entry.entity());
+        }
+        for(Relationship relationship : relationships){
+            Node start = relationship.getStartNode();
+            if(!data.isDeleted(start) && !start.hasLabel(DatabaseManager.COMPANY_LABEL)){
+                //links between companies are not part of what's exported
+                addAccounts(changed, start);
+            }
+        }
+
+        List<PropertyEntry<Node>> nodeProperties = new LinkedList<>();
+        for(PropertyEntry<Node> entry : data.assignedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : data.removedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : nodeProperties){
+            Node node = entry.entity();
+            String key = entry.key();
+            if(data.isDeleted(node) || key.equals(ChangeTracking.CHANGE_SEQ)){
+                continue;
+            }
+            if(node.hasLabel(DatabaseManager.COMPANY_LABEL)){
+                if(!IGNORED_COMPANY_KEYS.contains(key)){
+                    addAccounts(changed, node);
+                }
+            }else if(isSharedKey(node, key)){
+                //new countries, sectors, periods and projects only show up through the accounts linked to them
+                if(!createdNodes.contains(node.getId())){
+                    changed.add(node);
+                }
+            }else{
+                addAccounts(changed, node);
+            }
+        }
+
+        List<LabelEntry> labels = new LinkedList<>();
+        for(LabelEntry entry : data.assignedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : data.removedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : labels){
+            if(!data.isDeleted(entry.node()) && ACCOUNT_LABELS.contains(entry.label().name())){
+                changed.add(entry.node());
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Adds the installations and aircraft operators whose exported lines depend on the node: the node itself when
+     * it's an account, the accounts of a company or the accounts holding an offset
+     */
+    private static void addAccounts(Set<Node> changed, Node node){
+        if(isAccount(node)){
+            changed.add(node);
+        }else if(node.hasLabel(DatabaseManager.COMPANY_LABEL)){
+            for(Relationship relationship : node.getRelationships(Direction.INCOMING, COMPANY_TYPES)){
+                changed.add(relationship.getStartNode());
+            }
+        }else if(node.hasLabel(DatabaseManager.OFFSET_LABEL)){
+            for(Relationship relationship : node.getRelationships(Direction.INCOMING, OFFSETS_TYPE)){
+                changed.add(relationship.getStartNode());
+            }
+        }
+    }
+
+    private static boolean isAccount(Node node){
+        return node.hasLabel(DatabaseManager.INSTALLATION_LABEL) ||
+                node.hasLabel(DatabaseManager.AIRCRAFT_OPERATOR_LABEL);
+    }
+
+    private static boolean isSharedKey(Node node, String key){
+        if(node.hasLabel(DatabaseManager.COUNTRY_LABEL)){
+            return key.equals(CountryModel.name) || key.equals(CountryModel.id);
+        }else if(node.hasLabel(DatabaseManager.SECTOR_LABEL)){
+            return key.equals(SectorModel.name) || key.equals(SectorModel.id);
+        }else if(node.hasLabel(DatabaseManager.PERIOD_LABEL)){
+            return key.equals(PeriodModel.name);
+        }
+        return node.hasLabel(DatabaseManager.PROJECT_LABEL) && key.equals(ProjectModel.id);
+    }
+
+    private void stamp(Set<Node> changed){
+
+        //joins the transaction being committed
+        Transaction tx = DatabaseManager.graphDb.beginTx();
+        try{
+            long nextChangeSeq = changeSeq.incrementAndGet();
+            for(Node node : changed){
+                node.setProperty(ChangeTracking.CHANGE_SEQ, nextChangeSeq);
+            }
+
+            tx.success();
+        }finally {
+            tx.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.nodes.interfaces.CompanyModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCompanyModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCompanyModel;
+import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
+import org.sandbag.model.relationships.interfaces.SurrenderedUnitsModel;
+import org.sandbag.model.relationships.interfaces.VerifiedEmissionsModel;
+
+import java.util.*;
+
+/**
+ *
+ * Verified emissions, allowances in allocation and surrendered units per period of every company, consolidated
+ * with the ones of all the companies below it in its group (see CompanyGroups).
+ * The totals are computed once, with a single walk of the installations and aircraft operators of every company,
+ * and added to the companies above it through the ancestors index, so that no relationship is walked when they're
+ * asked for. Values are summed the same way Cypher sums them (every relationship to the period counts).
+ * Loading must be done within a transaction; the totals are not updated when the database changes.
+ *
+ */
+public class CompanyGroupTotals {
+
+    public static final int VERIFIED_EMISSIONS = 0;
+    public static final int ALLOWANCES_IN_ALLOCATION = 1;
+    public static final int SURRENDERED_UNITS = 2;
+    public static final int METRICS = 3;
+
+    private static final RelationshipType[] ACCOUNT_TYPES = {
+            DynamicRelationshipType.withName(InstallationCompanyModel.LABEL),
+            DynamicRelationshipType.withName(AircraftOperatorCompanyModel.LABEL)};
+
+    private final PeriodTable periods;
+    private final Map<String, Integer> companies = new HashMap<>();
+    //ultimate parent -> companies of its group, only for groups of two or more companies
+    private final SortedMap<String, List<String>> groups = new TreeMap<>();
+    //[company][period * METRICS + metric], NaN when none of the accounts has a value
+    private double[][] own;
+    private double[][] consolidated;
+
+    public CompanyGroupTotals(DatabaseManager dbManager){
+
+        periods = new PeriodTable(dbManager);
+
+        List<Node> nodes = new ArrayList<>();
+        Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.COMPANY_LABEL);
+        while(iterator.hasNext()){
+            Node node = iterator.next();
+            String name = String.valueOf(node.getProperty(CompanyModel.name, ""));
+            companies.put(name, nodes.size());
+            Object ultimateParent = node.getProperty(CompanyModel.ultimateParent, null);
+            if(ultimateParent != null){
+                List<String> members = groups.get(String.valueOf(ultimateParent));
+                if(members == null){
+                    members = new ArrayList<>();
+                    groups.put(String.valueOf(ultimateParent), members);
+                }
+                members.add(name);
+            }
+            nodes.add(node);
+        }
+        for(List<String> members : groups.values()){
+            Collections.sort(members);
+        }
+
+        own = new double[nodes.size()][];
+        for(int company = 0; company < nodes.size(); company++){
+            own[company] = newValues();
+            for(Relationship relationship : nodes.get(company).getRelationships(Direction.INCOMING, ACCOUNT_TYPES)){
+                addAccount(own[company], relationship.getStartNode());
+            }
+        }
+
+        consolidated = new double[nodes.size()][];
+        for(int company = 0; company < nodes.size(); company++){
+            consolidated[company] = Arrays.copyOf(own[company], own[company].length);
+        }
+        for(int company = 0; company < nodes.size(); company++){
+            for(String ancestor : (String[]) nodes.get(company).getProperty(CompanyModel.ancestors, new String[0])){
+                Integer ancestorIndex = companies.get(ancestor);
+                if(ancestorIndex != null){
+                    add(consolidated[ancestorIndex], own[company]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return total of the metric for the company and every company below it in its group, NaN if there's none
+     */
+    public double getValue(String companyName, String period, int metric){
+        return get(consolidated, companyName, period, metric);
+    }
+
+    /**
+     * @return total of the metric for the installations and aircraft operators of the company alone, NaN if there's none
+     */
+    public double getOwnValue(String companyName, String period, int metric){
+        return get(own, companyName, period, metric);
+    }
+
+    /**
+     * @return consolidated totals of the metric per period for the company, only for the periods with a value
+     */
+    public SortedMap<String, Double> getValues(String companyName, int metric){
+        SortedMap<String, Double> result = new TreeMap<>();
+        Integer company = companies.get(companyName);
+        if(company != null){
+            for(int period = 0; period < periods.size(); period++){
+                double value = consolidated[company][period * METRICS + metric];
+                if(!Double.isNaN(value)){
+                    result.put(periods.getName(period), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return names of the companies at the top of a group of two or more companies
+     */
+    public List<String> getUltimateParents(){
+        return new ArrayList<>(groups.keySet());
+    }
+
+    /**
+     * @return names of the companies of the group whose ultimate parent is provided, the ultimate parent included
+     */
+    public List<String> getGroupMembers(String ultimateParent){
+        List<String> members = groups.get(ultimateParent);
+        if(members == null){
+            return companies.containsKey(ultimateParent) ? Collections.singletonList(ultimateParent) :
+                    Collections.<String>emptyList();
+        }
+        return Collections.unmodifiableList(members);
+    }
+
+    public PeriodTable getPeriods(){
+        return periods;
+    }
+
+    private double get(double[][] values, String companyName, String period, int metric){
+        Integer company = companies.get(companyName);
+        int periodOrdinal = periods.getOrdinal(period);
+        if(company == null || periodOrdinal == PeriodTable.NOT_FOUND || periodOrdinal * METRICS >= values[company].length){
+            return Double.NaN;
+        }
+        return values[company][periodOrdinal * METRICS + metric];
+    }
+
+    private void addAccount(double[] values, Node account){
+        for(Relationship relationship : account.getRelationships(Direction.OUTGOING)){
+            String type = relationship.getType().name();
+            int metric = type.equals(VerifiedEmissionsModel.LABEL) ? VERIFIED_EMISSIONS :
+                    type.equals(AllowancesInAllocationModel.LABEL) ? ALLOWANCES_IN_ALLOCATION :
+                    type.equals(SurrenderedUnitsModel.LABEL) ? SURRENDERED_UNITS : -1;
+            if(metric >= 0){
+                int period = periods.getOrdinal(PeriodSlices.getPeriodNodeId(relationship.getEndNode()));
+                //every metric keeps its value in the same property
+                double value = TypedProperties.getDouble(relationship, VerifiedEmissionsModel.value, Double.NaN);
+                if(period != PeriodTable.NOT_FOUND && period * METRICS < values.length && !Double.isNaN(value)){
+                    int position = period * METRICS + metric;
+                    values[position] = Double.isNaN(values[position]) ? value : values[position] + value;
+                }
+            }
+        }
+    }
+
+    private static void add(double[] total, double[] values){
+        for(int position = 0; position < values.length; position++){
+            if(!Double.isNaN(values[position])){
+                total[position] = Double.isNaN(total[position]) ? values[position] : total[position] + values[position];
+            }
+        }
+    }
+
+    private double[] newValues(){
+        double[] values = new double[periods.size() * METRICS];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+}
@@ -0,0 +1,312 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.sandbag.model.nodes.interfaces.CompanyModel;
+import org.sandbag.model.relationships.ParentCompany;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ *
+ * Company groups: PARENT_COMPANY relationships resolved from the free-text parent_company and subsidiary_company
+ * properties of companies, and the index of the groups they form.
+ * A company has at most one parent: the company its parent_company names or, when it has none, a company naming it
+ * as its subsidiary_company. Links that would close a cycle are not created, so groups are trees.
+ * Names are resolved by exact name first and then by normalized name (case, accents, punctuation and spacing
+ * ignored), as long as a single company has that normalized name.
+ * Every company of a group of two or more companies keeps the name of the company at the top of its group
+ * (ultimate_parent, indexed) and the names of the companies above it from the top down (ancestors), so that
+ * group members and roll-ups are found without walking PARENT_COMPANY relationships; companies on their own
+ * have neither property.
+ *
+ */
+public final class CompanyGroups {
+
+    public static final RelationshipType PARENT_COMPANY_TYPE = new ParentCompany(null);
+
+    private static final long AMBIGUOUS = -2;
+
+    private CompanyGroups(){}
+
+    /**
+     * @return the name lower-cased, without accents, with punctuation turned into spaces and spaces collapsed
+     */
+    public static String normalize(String name){
+        if(name == null){
+            return "";
+        }
+        String result = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        result = result.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ");
+        return result.trim();
+    }
+
+    /**
+     * Creates and deletes PARENT_COMPANY relationships so that they match the parent_company and subsidiary_company
+     * properties of every company, in batched transactions; the index is updated by CompanyGroupsHandler as the
+     * relationships change
+     *
+     * @return number of relationships created, relationships deleted, names not resolved and links skipped because
+     * they would close a cycle
+     */
+    public static long[] link(DatabaseManager dbManager){
+
+        List<Long> ids = new ArrayList<>();
+        List<String> parentNames = new ArrayList<>();
+        List<String> subsidiaryNames = new ArrayList<>();
+        Map<String, Long> idsByName = new HashMap<>();
+        Map<String, Long> idsByNormalizedName = new HashMap<>();
+        Map<Long, Long> currentParents = new HashMap<>();
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.COMPANY_LABEL);
+            while(iterator.hasNext()){
+                Node node = iterator.next();
+                String name = String.valueOf(node.getProperty(CompanyModel.name, ""));
+                ids.add(node.getId());
+                parentNames.add(getText(node, CompanyModel.parentCompany));
+                subsidiaryNames.add(getText(node, CompanyModel.subsidiaryCompany));
+                idsByName.put(name, node.getId());
+                String normalized = normalize(name);
+                idsByNormalizedName.put(normalized, idsByNormalizedName.containsKey(normalized) ? AMBIGUOUS : node.getId());
+                for(Relationship relationship : node.getRelationships(PARENT_COMPANY_TYPE, Direction.OUTGOING)){
+                    currentParents.put(node.getId(), relationship.getEndNode().getId());
+                }
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        long unresolved = 0;
+        long cycles = 0;
+        Map<Long, Long> parents = new HashMap<>();
+
+        //parents named by the companies themselves come first, then the ones naming them as subsidiaries
+        for(int i = 0; i < ids.size(); i++){
+            String parentName = parentNames.get(i);
+            if(!parentName.isEmpty()){
+                long parent = resolve(parentName, idsByName, idsByNormalizedName);
+                if(parent < 0){
+                    unresolved++;
+                }else if(parent != ids.get(i)){
+                    if(closesCycle(parents, ids.get(i), parent)){
+                        cycles++;
+                    }else{
+                        parents.put(ids.get(i), parent);
+                    }
+                }
+            }
+        }
+        for(int i = 0; i < ids.size(); i++){
+            String subsidiaryName = subsidiaryNames.get(i);
+            if(!subsidiaryName.isEmpty()){
+                long subsidiary = resolve(subsidiaryName, idsByName, idsByNormalizedName);
+                if(subsidiary < 0){
+                    unresolved++;
+                }else if(subsidiary != ids.get(i) && !parents.containsKey(subsidiary)){
+                    if(closesCycle(parents, subsidiary, ids.get(i))){
+                        cycles++;
+                    }else{
+                        parents.put(subsidiary, ids.get(i));
+                    }
+                }
+            }
+        }
+
+        long created = 0;
+        long deleted = 0;
+        BatchTransaction batch = new BatchTransaction(dbManager, "Parent companies");
+        try{
+            for(long id : ids){
+                Long current = currentParents.get(id);
+                Long parent = parents.get(id);
+                if(current != null && current.equals(parent)){
+                    continue;
+                }
+                int writes = 0;
+                Node node = dbManager.graphDb.getNodeById(id);
+                if(current != null){
+                    for(Relationship relationship : node.getRelationships(PARENT_COMPANY_TYPE, Direction.OUTGOING)){
+                        relationship.delete();
+                        deleted++;
+                        writes++;
+                    }
+                }
+                if(parent != null){
+                    node.createRelationshipTo(dbManager.graphDb.getNodeById(parent), PARENT_COMPANY_TYPE);
+                    created++;
+                    writes++;
+                }
+                batch.rowDone(writes);
+            }
+            batch.finish();
+        }catch (RuntimeException e){
+            batch.abort();
+            throw e;
+        }
+
+        return new long[]{created, deleted, unresolved, cycles};
+    }
+
+    /**
+     * Writes again the index of every company, in batched transactions
+     *
+     * @return number of companies whose index has changed
+     */
+    public static long updateIndex(DatabaseManager dbManager){
+
+        List<Long> roots = new ArrayList<>();
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.COMPANY_LABEL);
+            while(iterator.hasNext()){
+                Node node = iterator.next();
+                if(!node.hasRelationship(PARENT_COMPANY_TYPE, Direction.OUTGOING)){
+                    roots.add(node.getId());
+                }
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        long changed = 0;
+        BatchTransaction batch = new BatchTransaction(dbManager, "Company groups index");
+        try{
+            for(long root : roots){
+                int writes = updateGroup(dbManager.graphDb.getNodeById(root));
+                changed += writes;
+                batch.rowDone(writes);
+            }
+            batch.finish();
+        }catch (RuntimeException e){
+            batch.abort();
+            throw e;
+        }
+        return changed;
+    }
+
+    /**
+     * Writes again the index of the group of the company provided, must be called within a transaction
+     *
+     * @return number of companies whose index has changed
+     */
+    public static int updateGroupOf(Node company){
+        return updateGroup(getRoot(company));
+    }
+
+    /**
+     * @return the company at the top of the group of the one provided (itself when it has no parent)
+     */
+    public static Node getRoot(Node company){
+        Node root = company;
+        Set<Long> visited = new HashSet<>();
+        visited.add(root.getId());
+        Node parent = getParent(root);
+        //a cycle created by hand is walked only once, the last company before going round again is taken as the top
+        while(parent != null && visited.add(parent.getId())){
+            root = parent;
+            parent = getParent(root);
+        }
+        return root;
+    }
+
+    /**
+     * @return whether linking the company to the parent provided would close a cycle
+     * (the company is the parent or one of the companies above it)
+     */
+    static boolean closesCycle(Node company, Node parent){
+        Set<Long> visited = new HashSet<>();
+        Node node = parent;
+        while(node != null && visited.add(node.getId())){
+            if(node.getId() == company.getId()){
+                return true;
+            }
+            node = getParent(node);
+        }
+        return false;
+    }
+
+    /**
+     * @return the parent of the company, null if it has none
+     */
+    static Node getParent(Node company){
+        Iterator<Relationship> iterator = company.getRelationships(PARENT_COMPANY_TYPE, Direction.OUTGOING).iterator();
+        return iterator.hasNext() ? iterator.next().getEndNode() : null;
+    }
+
+    private static int updateGroup(Node root){
+        boolean single = !root.hasRelationship(PARENT_COMPANY_TYPE, Direction.INCOMING);
+        String rootName = String.valueOf(root.getProperty(CompanyModel.name, ""));
+        int changed = 0;
+        //depth first, with the ancestors of every company of the stack
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<String[]> ancestors = new ArrayDeque<>();
+        Set<Long> visited = new HashSet<>();
+        nodes.push(root);
+        ancestors.push(new String[0]);
+        while(!nodes.isEmpty()){
+            Node node = nodes.pop();
+            String[] nodeAncestors = ancestors.pop();
+            if(!visited.add(node.getId())){
+                continue;
+            }
+            if(setIndex(node, single ? null : rootName, nodeAncestors)){
+                changed++;
+            }
+            String[] childAncestors = Arrays.copyOf(nodeAncestors, nodeAncestors.length + 1);
+            childAncestors[nodeAncestors.length] = String.valueOf(node.getProperty(CompanyModel.name, ""));
+            for(Relationship relationship : node.getRelationships(PARENT_COMPANY_TYPE, Direction.INCOMING)){
+                nodes.push(relationship.getStartNode());
+                ancestors.push(childAncestors);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param ultimateParent null to remove the index of a company on its own
+     * @return whether the index of the company has changed
+     */
+    private static boolean setIndex(Node node, String ultimateParent, String[] ancestors){
+        if(ultimateParent == null){
+            boolean changed = node.hasProperty(CompanyModel.ultimateParent) || node.hasProperty(CompanyModel.ancestors);
+            node.removeProperty(CompanyModel.ultimateParent);
+            node.removeProperty(CompanyModel.ancestors);
+            return changed;
+        }
+        if(ultimateParent.equals(node.getProperty(CompanyModel.ultimateParent, null)) &&
+                Arrays.equals(ancestors, (String[]) node.getProperty(CompanyModel.ancestors, null))){
+            return false;
+        }
+        node.setProperty(CompanyModel.ultimateParent, ultimateParent);
+        node.setProperty(CompanyModel.ancestors, ancestors);
+        return true;
+    }
+
+    private static long resolve(String name, Map<String, Long> idsByName, Map<String, Long> idsByNormalizedName){
+        Long id = idsByName.get(name);
+        if(id == null){
+            id = idsByNormalizedName.get(normalize(name));
+        }
+        return id != null && id != AMBIGUOUS ? id : -1;
+    }
+
+    private static boolean closesCycle(Map<Long, Long> parents, long company, long parent){
+        Long node = parent;
+        while(node != null){
+            if(node == company){
+                return true;
+            }
+            node = parents.get(node);
+        }
+        return false;
+    }
+
+    private static String getText(Node node, String key){
+        Object value = node.getProperty(key, null);
+        return value != null ? String.valueOf(value).trim() : "";
+    }
+}
@@ -0,0 +1,167 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.sandbag.model.nodes.Company;
+import org.sandbag.model.nodes.interfaces.CompanyModel;
+import org.sandbag.model.relationships.interfaces.ParentCompanyModel;
+
+import java.util.*;
+
+/**
+ *
+ * Keeps company groups (see CompanyGroups) up to date as companies change, within the transaction changing them.
+ * Companies created, renamed or whose parent_company or subsidiary_company change are linked to the companies those
+ * names point at (and to the companies pointing at them) by exact name, and the index of every group whose
+ * PARENT_COMPANY relationships change is written again.
+ * Names that only match once normalized are left to LinkParentCompanies, and so are links while the schema of
+ * a database being loaded hasn't been built (see DatabaseManager.buildSchema), since names can't be looked up
+ * through indices until then.
+ * Registered by DatabaseManager.enableCompanyGroupsUpdates; if groups can't be updated the transaction fails, so
+ * that they never fall behind the companies committed.
+ *
+ */
+public class CompanyGroupsHandler extends TransactionEventHandler.Adapter<Object> {
+
+    private final DatabaseManager dbManager;
+
+    public CompanyGroupsHandler(DatabaseManager dbManager){
+        this.dbManager = dbManager;
+    }
+
+    @Override
+    public Object beforeCommit(TransactionData data) throws Exception {
+        Set<Node> changed = new LinkedHashSet<>();
+        Set<Node> linked = new LinkedHashSet<>();
+
+        for(Relationship relationship : data.createdRelationships()){
+            if(relationship.getType().name().equals(ParentCompanyModel.LABEL)){
+                changed.add(relationship.getStartNode());
+                changed.add(relationship.getEndNode());
+            }
+        }
+        for(Relationship relationship : data.deletedRelationships()){
+            if(relationship.getType().name().equals(ParentCompanyModel.LABEL)){
+                changed.add(relationship.getStartNode());
+                changed.add(relationship.getEndNode());
+            }
+        }
+
+        for(Node node : data.createdNodes()){
+            if(node.hasLabel(DatabaseManager.COMPANY_LABEL)){
+                linked.add(node);
+            }
+        }
+        List<PropertyEntry<Node>> nodeProperties = new LinkedList<>();
+        for(PropertyEntry<Node> entry : data.assignedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : data.removedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : nodeProperties){
+            String key = entry.key();
+            Node node = entry.entity();
+            if(data.isDeleted(node) || !node.hasLabel(DatabaseManager.COMPANY_LABEL)){
+                continue;
+            }
+            if(key.equals(CompanyModel.name)){
+                //the ancestors of the companies below it change too
+                changed.add(node);
+                linked.add(node);
+            }else if(key.equals(CompanyModel.parentCompany) || key.equals(CompanyModel.subsidiaryCompany)){
+                linked.add(node);
+            }
+        }
+
+        if(!linked.isEmpty() && !DatabaseManager.isSchemaDeferred()){
+            for(Node node : linked){
+                link(node, changed);
+            }
+        }
+
+        Set<Long> roots = new HashSet<>();
+        for(Node node : changed){
+            if(!data.isDeleted(node)){
+                Node root = CompanyGroups.getRoot(node);
+                if(roots.add(root.getId())){
+                    CompanyGroups.updateGroupOf(root);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Links the company to the companies its names point at and to the companies whose names point at it
+     */
+    private void link(Node node, Set<Node> changed){
+
+        String name = getText(node, CompanyModel.name);
+
+        //parent_company takes precedence over subsidiary_company, see CompanyGroups
+        Company parent = getCompany(getText(node, CompanyModel.parentCompany));
+        if(parent != null){
+            setParent(node, DatabaseManager.graphDb.getNodeById(parent.getNodeId()), true, changed);
+        }
+        Company subsidiary = getCompany(getText(node, CompanyModel.subsidiaryCompany));
+        if(subsidiary != null){
+            setParent(DatabaseManager.graphDb.getNodeById(subsidiary.getNodeId()), node, false, changed);
+        }
+
+        if(!name.isEmpty()){
+            for(Node child : findCompanies(CompanyModel.parentCompany, name)){
+                setParent(child, node, true, changed);
+            }
+            for(Node company : findCompanies(CompanyModel.subsidiaryCompany, name)){
+                setParent(node, company, false, changed);
+            }
+        }
+    }
+
+    /**
+     * @param replace whether a different parent the company already has is replaced
+     */
+    private static void setParent(Node company, Node parent, boolean replace, Set<Node> changed){
+        if(company.getId() == parent.getId()){
+            return;
+        }
+        Node current = CompanyGroups.getParent(company);
+        if((current != null && (!replace || current.getId() == parent.getId())) ||
+                CompanyGroups.closesCycle(company, parent)){
+            return;
+        }
+        for(Relationship relationship : company.getRelationships(CompanyGroups.PARENT_COMPANY_TYPE, Direction.OUTGOING)){
+            relationship.delete();
+        }
+        company.createRelationshipTo(parent, CompanyGroups.PARENT_COMPANY_TYPE);
+        if(current != null){
+            changed.add(current);
+        }
+        changed.add(company);
+    }
+
+    private Company getCompany(String name){
+        return name.isEmpty() ? null : dbManager.getCompanyByName(name);
+    }
+
+    private static List<Node> findCompanies(String key, String value){
+        List<Node> nodes = new LinkedList<>();
+        ResourceIterator<Node> iterator = DatabaseManager.graphDb.findNodes(DatabaseManager.COMPANY_LABEL, key, value);
+        try{
+            while(iterator.hasNext()){
+                nodes.add(iterator.next());
+            }
+        }finally {
+            iterator.close();
+        }
+        return nodes;
+    }
+
+    private static String getText(Node node, String key){
+        Object value = node.getProperty(key, null);
+        return value != null ? String.valueOf(value).trim() : "";
+    }
+}
@@ -2,15 +2,20 @@ package org.sandbag.model;
 
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
-import org.neo4j.graphdb.schema.IndexCreator;
-import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.io.fs.DefaultFileSystemAbstraction;
+import org.neo4j.io.pagecache.PageCache;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.pagecache.StandalonePageCacheFactory;
+import org.neo4j.kernel.impl.store.MetaDataStore;
+import org.neo4j.kernel.impl.store.StoreId;
+import org.neo4j.tooling.GlobalGraphOperations;
 import org.sandbag.model.nodes.*;
 import org.sandbag.model.nodes.interfaces.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Created by root on 15/03/16.
@@ -32,22 +37,27 @@ public class DatabaseManager {
     public static Label NACE_CODE_LABEL = DynamicLabel.label(NACECodeModel.LABEL);
     public static Label NER300_LABEL = DynamicLabel.label(NER300Model.LABEL);
     public static Label FUEL_TYPE_LABEL = DynamicLabel.label(FuelType.LABEL);
+    public static Label IMPORT_JOURNAL_LABEL = DynamicLabel.label("ImportJournal");
+    public static Label PERIOD_SLICE_LABEL = DynamicLabel.label("PERIOD_SLICE");
+    public static Label CHANGE_SEQUENCE_LABEL = DynamicLabel.label("ChangeSequence");
 
-    public static IndexDefinition installationIdIndex = null;
-    public static IndexDefinition countryNameIndex = null;
-    public static IndexDefinition countryIdIndex = null;
-    public static IndexDefinition periodNameIndex = null;
-    public static IndexDefinition sectorNameIndex = null;
-    public static IndexDefinition sectorIdIndex = null;
-    public static IndexDefinition companyNameIndex = null;
-    public static IndexDefinition companyRegistrationNumberIndex = null;
-    public static IndexDefinition projectIdIndex = null;
-    public static IndexDefinition sandbagSectorNameIndex = null;
-    public static IndexDefinition sandbagSectorIdIndex = null;
-    public static IndexDefinition naceCodeIdIndex = null;
-    public static IndexDefinition fuelTypeNameIndex = null;
-    public static IndexDefinition aircraftOperatorUniqueCodeUnderCommissionIndex = null;
-    public static IndexDefinition aircraftOperatorIdIndex = null;
+    //true while the schema of a database that was empty when opened hasn't been built yet
+    private static boolean schemaDeferred = false;
+
+    //number of managers sharing graphDb (steps run concurrently by ExecuteFile share the same handle)
+    private static int openManagers = 0;
+    private static String openFolder = null;
+
+    //handler keeping the EU-wide values up to date, null until enableEUWideValuesUpdates is called
+    private static EUWideValuesHandler euWideValuesHandler = null;
+    //handler stamping modified entities with a change sequence number, null until enableChangeTracking is called
+    private static ChangeTrackingHandler changeTrackingHandler = null;
+    //handler keeping company groups up to date, null until enableCompanyGroupsUpdates is called
+    private static CompanyGroupsHandler companyGroupsHandler = null;
+    //handler recording the accounts modified for the aggregate cube, null until enableAggregateCubeUpdates is called
+    private static AggregateCubeHandler aggregateCubeHandler = null;
+
+    private boolean closed = false;
 
 
     /**
@@ -56,7 +66,15 @@ public class DatabaseManager {
      * @param dbFolder
      */
     public DatabaseManager(String dbFolder) {
-        initDatabase(dbFolder);
+        synchronized (DatabaseManager.class) {
+            String folder = new File(dbFolder).getAbsolutePath();
+            if (graphDb != null && openFolder != null && !openFolder.equals(folder)) {
+                throw new IllegalStateException("Database " + openFolder + " is already open, " + folder + " can't be opened at the same time");
+            }
+            initDatabase(dbFolder);
+            openFolder = folder;
+            openManagers++;
+        }
     }
 
     /**
@@ -74,209 +92,32 @@ public class DatabaseManager {
     private void initDatabase(String dbFolder) {
         if (graphDb == null) {
             graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(dbFolder));
+            //the period slices cached are replaced once slices are created or deleted (see PeriodSlices)
+            graphDb.registerTransactionEventHandler(new PeriodSlices.Handler());
 
             try {
 
                 Transaction tx = graphDb.beginTx();
-
                 schema = graphDb.schema();
-
-                System.out.println("Creating/checking indices...");
-
-                if(!schema.getIndexes(INSTALLATION_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating index for Installations");
-
-                    installationIdIndex = schema.indexFor(INSTALLATION_LABEL)
-                            .on(InstallationModel.id)
-                            .create();
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(installationIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(AIRCRAFT_OPERATOR_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating index for Aircraft Operators");
-
-                    aircraftOperatorIdIndex = schema.indexFor(AIRCRAFT_OPERATOR_LABEL)
-                            .on(AircraftOperatorModel.id)
-                            .create();
-                    aircraftOperatorUniqueCodeUnderCommissionIndex = schema.indexFor(AIRCRAFT_OPERATOR_LABEL)
-                            .on(AircraftOperatorModel.uniqueCodeUnderCommissionRegulation)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(aircraftOperatorIdIndex, 10, TimeUnit.SECONDS);
-                    schema.awaitIndexOnline(aircraftOperatorUniqueCodeUnderCommissionIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(INSTALLATION_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating index for Installations");
-
-                    installationIdIndex = schema.indexFor(INSTALLATION_LABEL)
-                            .on(InstallationModel.id)
-                            .create();
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(installationIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(COUNTRY_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for countries");
-
-                    countryNameIndex = schema.indexFor(COUNTRY_LABEL)
-                            .on(CountryModel.name)
-                            .create();
-
-                    countryIdIndex = schema.indexFor(COUNTRY_LABEL)
-                            .on(CountryModel.id)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(countryNameIndex, 10, TimeUnit.SECONDS);
-                    schema.awaitIndexOnline(countryIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(PERIOD_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for Periods");
-
-                    periodNameIndex = schema.indexFor(PERIOD_LABEL)
-                            .on(PeriodModel.name)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(periodNameIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(SECTOR_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for Sectors");
-
-                    sectorNameIndex = schema.indexFor(SECTOR_LABEL)
-                            .on(SectorModel.name)
-                            .create();
-
-                    sectorIdIndex = schema.indexFor(SECTOR_LABEL)
-                            .on(SectorModel.id)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(sectorNameIndex, 10, TimeUnit.SECONDS);
-                    schema.awaitIndexOnline(sectorIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(COMPANY_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for Companies");
-
-                    companyNameIndex = schema.indexFor(COMPANY_LABEL)
-                            .on(CompanyModel.name)
-                            .create();
-
-                    companyRegistrationNumberIndex = schema.indexFor(COMPANY_LABEL)
-                            .on(CompanyModel.registrationNumber)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(companyNameIndex, 10, TimeUnit.SECONDS);
-                    schema.awaitIndexOnline(companyRegistrationNumberIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(PROJECT_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for Projects");
-
-                    projectIdIndex = schema.indexFor(PROJECT_LABEL)
-                            .on(ProjectModel.id)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(projectIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(SANDBAG_SECTOR_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for Sandbag Sectors");
-
-                    sandbagSectorIdIndex = schema.indexFor(SANDBAG_SECTOR_LABEL)
-                            .on(SandbagSectorModel.id)
-                            .create();
-
-                    sandbagSectorNameIndex = schema.indexFor(SANDBAG_SECTOR_LABEL)
-                            .on(SandbagSectorModel.name)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(sandbagSectorIdIndex, 10, TimeUnit.SECONDS);
-                    schema.awaitIndexOnline(sandbagSectorNameIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(NACE_CODE_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for NACECodes");
-
-                    naceCodeIdIndex = schema.indexFor(NACE_CODE_LABEL)
-                            .on(NACECodeModel.id)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(naceCodeIdIndex, 10, TimeUnit.SECONDS);
-                }
-
-                if(!schema.getIndexes(FUEL_TYPE_LABEL).iterator().hasNext()){
-
-                    System.out.println("Creating indices for FuelTypes");
-
-                    fuelTypeNameIndex = schema.indexFor(FUEL_TYPE_LABEL)
-                            .on(FuelTypeModel.name)
-                            .create();
-
-                    tx.success();
-                    tx.close();
-                    tx = graphDb.beginTx();
-
-                    schema.awaitIndexOnline(fuelTypeNameIndex, 10, TimeUnit.SECONDS);
-                }
-
-                System.out.println("Done!");
-
+                boolean empty = !hasNodes(GlobalGraphOperations.at(graphDb).getAllNodes().iterator());
+                //an import journal is left by an import that didn't finish, which goes on loading the data
+                boolean loading = !empty && !SchemaRegistry.isBuilt(graphDb) &&
+                        hasNodes(graphDb.findNodes(IMPORT_JOURNAL_LABEL));
+                PeriodSlices.init(graphDb);
                 tx.success();
                 tx.close();
 
-                System.out.println("Done!");
-
+                schemaDeferred = empty || loading;
+                if (schemaDeferred) {
+                    //load then index: the schema is built once the data has been loaded (see buildSchema)
+                    System.out.println((empty ? "Empty database" : "Database still being loaded") +
+                            ", schema indices will be built once the data has been loaded");
+                } else {
+                    //only what's missing: plain indices are replaced by constraints by buildSchema
+                    System.out.println("Creating/checking indices...");
+                    SchemaRegistry.build(graphDb, false);
+                    System.out.println("Done!");
+                }
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -285,6 +126,14 @@ public class DatabaseManager {
 
     }
 
+    private static boolean hasNodes(ResourceIterator<Node> iterator){
+        try{
+            return iterator.hasNext();
+        }finally {
+            iterator.close();
+        }
+    }
+
 
 
     public AircraftOperator createAircraftOperator(String id,
@@ -309,6 +158,62 @@ public class DatabaseManager {
 
         AircraftOperator aircraftOperator = new AircraftOperator(aircraftOperatorNode);
         aircraftOperator.setId(id);
+        setAircraftOperatorData(aircraftOperator, name, city, postCode, address, eprtrId, status,
+                uniqueCodeUnderCommissionRegulation, monitoringPlanId, monitoringPlanYearOfApplicability,
+                monitoringPlanYearOfExpiry, icaoDesignator, latitude, longitude, country, company, sector);
+
+        return aircraftOperator;
+    }
+
+    /**
+     * Overwrites the properties of an existing aircraft operator as well as its country, company and sector
+     * (used by delta imports when the row of the aircraft operator has changed)
+     */
+    public void updateAircraftOperator(AircraftOperator aircraftOperator,
+                                       String name,
+                                       String city,
+                                       String postCode,
+                                       String address,
+                                       String eprtrId,
+                                       String status,
+                                       String uniqueCodeUnderCommissionRegulation,
+                                       String monitoringPlanId,
+                                       String monitoringPlanYearOfApplicability,
+                                       String monitoringPlanYearOfExpiry,
+                                       String icaoDesignator,
+                                       String latitude,
+                                       String longitude,
+                                       Country country,
+                                       Company company,
+                                       Sector sector) {
+
+        aircraftOperator.removeCountry();
+        aircraftOperator.removeCompany();
+        aircraftOperator.removeSector();
+
+        setAircraftOperatorData(aircraftOperator, name, city, postCode, address, eprtrId, status,
+                uniqueCodeUnderCommissionRegulation, monitoringPlanId, monitoringPlanYearOfApplicability,
+                monitoringPlanYearOfExpiry, icaoDesignator, latitude, longitude, country, company, sector);
+    }
+
+    private void setAircraftOperatorData(AircraftOperator aircraftOperator,
+                                         String name,
+                                         String city,
+                                         String postCode,
+                                         String address,
+                                         String eprtrId,
+                                         String status,
+                                         String uniqueCodeUnderCommissionRegulation,
+                                         String monitoringPlanId,
+                                         String monitoringPlanYearOfApplicability,
+                                         String monitoringPlanYearOfExpiry,
+                                         String icaoDesignator,
+                                         String latitude,
+                                         String longitude,
+                                         Country country,
+                                         Company company,
+                                         Sector sector) {
+
         aircraftOperator.setName(name);
         aircraftOperator.setStatus(status);
         aircraftOperator.setCity(city);
@@ -332,8 +237,6 @@ public class DatabaseManager {
         if (sector != null) {
             aircraftOperator.setSector(sector);
         }
-
-        return aircraftOperator;
     }
 
     public Offset createOffset2013Onwards(String amountSt,
@@ -483,8 +386,59 @@ public class DatabaseManager {
 
         Installation installation = new Installation(installationNode);
         installation.setId(id);
-        installation.setName(name);
         //installation.setOpen(open.toLowerCase().equals("open"));
+        installation.setPowerFlag("false");
+        installation.setPowerFlagReason("");
+        setInstallationData(installation, name, city, postCode, address, eprtrId, permitId, permitEntryDate,
+                permitExpiryOrRevocationDate, latitude, longitude, country, company, sector);
+
+        return installation;
+
+    }
+
+    /**
+     * Overwrites the properties of an existing installation as well as its country, company and sector
+     * (used by delta imports when the row of the installation has changed). Power flags are kept.
+     */
+    public void updateInstallation(Installation installation,
+                                   String name,
+                                   String city,
+                                   String postCode,
+                                   String address,
+                                   String eprtrId,
+                                   String permitId,
+                                   String permitEntryDate,
+                                   String permitExpiryOrRevocationDate,
+                                   String latitude,
+                                   String longitude,
+                                   Country country,
+                                   Company company,
+                                   Sector sector) {
+
+        installation.removeCountry();
+        installation.removeCompany();
+        installation.removeSector();
+
+        setInstallationData(installation, name, city, postCode, address, eprtrId, permitId, permitEntryDate,
+                permitExpiryOrRevocationDate, latitude, longitude, country, company, sector);
+    }
+
+    private void setInstallationData(Installation installation,
+                                     String name,
+                                     String city,
+                                     String postCode,
+                                     String address,
+                                     String eprtrId,
+                                     String permitId,
+                                     String permitEntryDate,
+                                     String permitExpiryOrRevocationDate,
+                                     String latitude,
+                                     String longitude,
+                                     Country country,
+                                     Company company,
+                                     Sector sector) {
+
+        installation.setName(name);
         installation.setCity(city);
         installation.setPostCode(postCode);
         installation.setAddress(address);
@@ -494,8 +448,6 @@ public class DatabaseManager {
         installation.setPermitExpiryOrRevocationDate(permitExpiryOrRevocationDate);
         installation.setLatitude(latitude);
         installation.setLongitude(longitude);
-        installation.setPowerFlag("false");
-        installation.setPowerFlagReason("");
 
         if (country != null) {
             installation.setCountry(country);
@@ -506,10 +458,6 @@ public class DatabaseManager {
         if (sector != null) {
             installation.setSector(sector);
         }
-
-
-        return installation;
-
     }
 
     public Country createCountry(String name, String id) {
@@ -538,6 +486,11 @@ public class DatabaseManager {
         Period period = new Period(periodNode);
         period.setName(value);
 
+        //every period of a database with sliced periods must be sliced (see getPeriodPattern)
+        if (PeriodSlices.isEnabled()) {
+            PeriodSlices.createSlices(period, PeriodSlices.getShards());
+        }
+
         return period;
     }
 
@@ -732,9 +685,156 @@ public class DatabaseManager {
         return company;
     }
 
+    /**
+     * Keeps the EU-wide values of the EU country up to date in every transaction committed from now on until the
+     * database is shut down (see EUWideValuesHandler). Off by default: loaders leave them to PrecomputeEUWideValues,
+     * which computes them all at once.
+     */
+    public void enableEUWideValuesUpdates() {
+        synchronized (DatabaseManager.class) {
+            if (euWideValuesHandler == null) {
+                euWideValuesHandler = new EUWideValuesHandler(this);
+                graphDb.registerTransactionEventHandler(euWideValuesHandler);
+            }
+        }
+    }
+
+    /**
+     * Stamps the entities modified by every transaction committed from now on until the database is shut down with
+     * a change sequence number (see ChangeTracking). Off by default: transactions committed without it make the
+     * next export of ExportDBToMegaFiles a full one.
+     */
+    public void enableChangeTracking() {
+        synchronized (DatabaseManager.class) {
+            if (changeTrackingHandler == null) {
+                changeTrackingHandler = new ChangeTrackingHandler(ChangeTracking.open());
+                graphDb.registerTransactionEventHandler(changeTrackingHandler);
+            }
+        }
+    }
+
+    /**
+     * Keeps company groups (see CompanyGroups) up to date within every transaction committed from now on until the
+     * database is shut down, used by the programs creating or changing companies. Off by default: groups changed
+     * without it must be linked again with LinkParentCompanies.
+     */
+    public void enableCompanyGroupsUpdates() {
+        synchronized (DatabaseManager.class) {
+            if (companyGroupsHandler == null) {
+                companyGroupsHandler = new CompanyGroupsHandler(this);
+                graphDb.registerTransactionEventHandler(companyGroupsHandler);
+            }
+        }
+    }
+
+    /**
+     * Records the accounts modified by every transaction committed from now on until the database is shut down, so
+     * that the aggregate cube (see AggregateCube) only computes their groups again. Off by default: transactions
+     * committed without it make the cube be built from scratch the next time it's opened.
+     * Must be called before the transactions of the program are committed.
+     */
+    public void enableAggregateCubeUpdates() {
+        synchronized (DatabaseManager.class) {
+            if (aggregateCubeHandler == null) {
+                aggregateCubeHandler = new AggregateCubeHandler(new File(openFolder));
+                graphDb.registerTransactionEventHandler(aggregateCubeHandler);
+                try {
+                    aggregateCubeHandler.open();
+                } catch (IOException e) {
+                    throw new IllegalStateException("The changes for the aggregate cube could not be recorded", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the indices and constraints of the schema registry that are missing, replacing the plain indices
+     * declared unique by uniqueness constraints when the data allows it (see SchemaRegistry).
+     * Loaders of a database that was empty when opened call it once the data has been loaded;
+     * otherwise it's done when the database is shut down.
+     */
+    public void buildSchema() {
+        synchronized (DatabaseManager.class) {
+            SchemaRegistry.build(graphDb, true);
+            schemaDeferred = false;
+        }
+    }
+
+    /**
+     * @return true while the schema of a database that was empty when opened hasn't been built yet (see buildSchema)
+     */
+    public static boolean isSchemaDeferred() {
+        synchronized (DatabaseManager.class) {
+            return schemaDeferred;
+        }
+    }
+
+    /**
+     * Releases the database; it's only shut down once every manager sharing it has been shut down
+     */
     public void shutdown() {
-        graphDb.shutdown();
-        graphDb = null;
+        synchronized (DatabaseManager.class) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openManagers--;
+            if (openManagers <= 0) {
+                openManagers = 0;
+                openFolder = null;
+                if (schemaDeferred) {
+                    buildSchema();
+                }
+                if (changeTrackingHandler != null && !changeTrackingHandler.hasFailed()) {
+                    try {
+                        ChangeTracking.close(changeTrackingHandler.getChangeSeq());
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                //once every transaction has been committed, ChangeTracking.close included
+                if (aggregateCubeHandler != null) {
+                    try {
+                        aggregateCubeHandler.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        System.out.println("The last transaction could not be recorded for the aggregate cube, " +
+                                "it will be built again");
+                    }
+                }
+                graphDb.shutdown();
+                graphDb = null;
+                euWideValuesHandler = null;
+                changeTrackingHandler = null;
+                companyGroupsHandler = null;
+                aggregateCubeHandler = null;
+                PeriodSlices.reset();
+            }
+        }
+    }
+
+    /**
+     * @return identifier of the store of the database folder provided (creation time and random number, which
+     * change whenever the folder is wiped and the database created again), or null if there's no database in it
+     */
+    public static String getStoreId(String dbFolder) throws IOException {
+        synchronized (DatabaseManager.class) {
+            if (graphDb != null && new File(dbFolder).getAbsolutePath().equals(openFolder)) {
+                StoreId storeId = ((GraphDatabaseAPI) graphDb).storeId();
+                return storeId.getCreationTime() + "-" + storeId.getRandomId();
+            }
+        }
+        File neostore = new File(dbFolder, MetaDataStore.DEFAULT_NAME);
+        if (!neostore.isFile()) {
+            return null;
+        }
+        PageCache pageCache = StandalonePageCacheFactory.createPageCache(new DefaultFileSystemAbstraction());
+        try {
+            return MetaDataStore.getRecord(pageCache, neostore, MetaDataStore.Position.TIME) + "-" +
+                    MetaDataStore.getRecord(pageCache, neostore, MetaDataStore.Position.RANDOM_NUMBER);
+        } finally {
+            pageCache.close();
+        }
     }
 
     public NER300 getNER300Node(){
@@ -748,6 +848,19 @@ public class DatabaseManager {
         return ner300;
     }
 
+    /**
+     * Pattern matching the period end node of verified emissions, allowances in allocation, surrendered units,
+     * compliance, offset entitlement and offset period relationships in Cypher queries, to be used as
+     * "MATCH ()-[ve:VERIFIED_EMISSIONS]->" + getPeriodPattern("p") + " RETURN sum(ve.value), p.name".
+     * The node matched always has the name of the period, but it's a PERIOD_SLICE in databases whose periods
+     * are sliced (see PeriodSlices).
+     *
+     * @param variable name of the variable bound to the node
+     */
+    public String getPeriodPattern(String variable){
+        return "(" + variable + ":" + (PeriodSlices.isEnabled() ? PERIOD_SLICE_LABEL.name() : PERIOD_LABEL.name()) + ")";
+    }
+
     public Iterator<Node> findNodes(Label label){
         return graphDb.findNodes(label);
     }
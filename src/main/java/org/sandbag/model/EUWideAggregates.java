@@ -0,0 +1,429 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.sandbag.model.nodes.Country;
+import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.nodes.interfaces.OffsetModel;
+import org.sandbag.model.nodes.interfaces.SandbagSectorModel;
+import org.sandbag.model.relationships.interfaces.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ *
+ * EU-wide totals per period (verified emissions, allowances in allocation, legal cap, offsets, offset entitlements
+ * and auctions, each of them for all, aviation and installations), computed with a single walk of the relationships
+ * pointing at every period (and at its slices, see PeriodSlices) instead of one Cypher aggregation per value.
+ * Aviation and installations are told apart by the label of the start node of each relationship, and the totals
+ * are kept in primitive arrays indexed by the ordinals of a PeriodTable.
+ * A total only exists for a period when at least one relationship contributed to it, the same way a Cypher
+ * aggregation grouped by period only returns the periods found.
+ * Offsets of 2013 onwards reported for the whole EU (OFFSETS_2013_ONWARDS) take precedence over the sum of
+ * the offsets of the accounts of the same period.
+ * Aggregating and writing must be done within a transaction.
+ *
+ */
+public class EUWideAggregates {
+
+    public static final int VERIFIED_EMISSIONS = 0;
+    public static final int ALLOWANCES_IN_ALLOCATION = 1;
+    public static final int LEGAL_CAP = 2;
+    public static final int OFFSETS = 3;
+    public static final int OFFSET_ENTITLEMENTS = 4;
+    public static final int AUCTIONED = 5;
+    public static final int METRICS = 6;
+
+    //the values of the type property of the EU-wide relationships are the same for every metric
+    public static final String[] SCOPES = {VerifiedEmissionsEUWideModel.EMISSIONS_TYPE_ALL,
+            VerifiedEmissionsEUWideModel.EMISSIONS_TYPE_AVIATION, VerifiedEmissionsEUWideModel.EMISSIONS_TYPE_INSTALLATIONS};
+    public static final int ALL = 0;
+    public static final int AVIATION = 1;
+    public static final int INSTALLATIONS = 2;
+
+    public static final String AVIATION_SECTOR_NAME = "Aviation";
+    public static final String AIRCRAFT_OPERATOR_AUCTION_TYPE = "Aircraft Operator";
+    public static final String INSTALLATION_AUCTION_TYPE = "Installation";
+
+    //relationships pointing at periods each metric is computed from (offsets are reached through their periods)
+    private static final RelationshipType[] METRIC_TYPES = {
+            DynamicRelationshipType.withName(VerifiedEmissionsModel.LABEL),
+            DynamicRelationshipType.withName(AllowancesInAllocationModel.LABEL),
+            DynamicRelationshipType.withName(LegalCapModel.LABEL),
+            DynamicRelationshipType.withName(OffsetPeriodModel.LABEL),
+            DynamicRelationshipType.withName(OffsetEntitlementModel.LABEL),
+            DynamicRelationshipType.withName(AuctionedModel.LABEL)};
+    //relationships of the EU country holding the values of each metric
+    private static final RelationshipType[] EU_WIDE_TYPES = {
+            DynamicRelationshipType.withName(VerifiedEmissionsEUWideModel.LABEL),
+            DynamicRelationshipType.withName(AllowancesInAllocationEUWideModel.LABEL),
+            DynamicRelationshipType.withName(LegalCapEUWideModel.LABEL),
+            DynamicRelationshipType.withName(OffsetsEUWideModel.LABEL),
+            DynamicRelationshipType.withName(OffsetEntitlementsEUWideModel.LABEL),
+            DynamicRelationshipType.withName(AuctionedEUWideModel.LABEL)};
+    private static final RelationshipType SLICE_OF_TYPE = DynamicRelationshipType.withName(SliceOfModel.LABEL);
+
+    //offsets of 2013 onwards are accumulated apart, see getValue
+    private static final int OFFSETS_2013_ONWARDS = METRICS;
+    private static final int SLOTS = (METRICS + 1) * SCOPES.length;
+    private static final long NOT_AGGREGATED = -1;
+
+    private final PeriodTable periods;
+    //[metric * SCOPES.length + scope][period]
+    private double[][] totals = new double[SLOTS][0];
+    private boolean[][] found = new boolean[SLOTS][0];
+    //node id of every period aggregated, NOT_AGGREGATED for the ordinals of the periods that haven't been
+    private long[] periodNodeIds = new long[0];
+
+    public EUWideAggregates(DatabaseManager dbManager){
+        this.periods = new PeriodTable(dbManager);
+    }
+
+    public PeriodTable getPeriods(){
+        return periods;
+    }
+
+    /**
+     * Computes the totals of every period of the database
+     */
+    public void aggregateAll(){
+        Iterator<Node> iterator = DatabaseManager.graphDb.findNodes(DatabaseManager.PERIOD_LABEL);
+        while(iterator.hasNext()){
+            aggregate(iterator.next());
+        }
+    }
+
+    /**
+     * Computes (again) the totals of the period provided
+     *
+     * @return ordinal of the period
+     */
+    public int aggregate(Node periodNode){
+        int period = prepare(periodNode);
+        for(int slot = 0; slot < SLOTS; slot++){
+            totals[slot][period] = 0;
+            found[slot][period] = false;
+        }
+        walk(periodNode, period, null);
+        return period;
+    }
+
+    /**
+     * Computes (again) the totals of a single metric of the period provided,
+     * only walking the relationships of the types the metric depends on
+     *
+     * @return ordinal of the period
+     */
+    public int aggregate(Node periodNode, int metric){
+        int period = prepare(periodNode);
+        for(int scope = 0; scope < SCOPES.length; scope++){
+            reset(metric * SCOPES.length + scope, period);
+            if(metric == OFFSETS){
+                reset(OFFSETS_2013_ONWARDS * SCOPES.length + scope, period);
+            }
+        }
+        walk(periodNode, period, new RelationshipType[]{METRIC_TYPES[metric], SLICE_OF_TYPE});
+        return period;
+    }
+
+    private int prepare(Node periodNode){
+        int period = periods.getOrdinal(periodNode.getId());
+        ensureCapacity(periods.size());
+        periodNodeIds[period] = periodNode.getId();
+        return period;
+    }
+
+    private void reset(int slot, int period){
+        totals[slot][period] = 0;
+        found[slot][period] = false;
+    }
+
+    /**
+     * @return whether the metric has a total for the scope and period provided
+     */
+    public boolean hasValue(int metric, int scope, int period){
+        if(period < 0 || period >= periodNodeIds.length){
+            return false;
+        }
+        return found[metric * SCOPES.length + scope][period] ||
+                (metric == OFFSETS && found[OFFSETS_2013_ONWARDS * SCOPES.length + scope][period]);
+    }
+
+    /**
+     * @return total of the metric for the scope and period provided, NaN if there's none
+     */
+    public double getValue(int metric, int scope, int period){
+        if(!hasValue(metric, scope, period)){
+            return Double.NaN;
+        }
+        if(metric == OFFSETS && found[OFFSETS_2013_ONWARDS * SCOPES.length + scope][period]){
+            return totals[OFFSETS_2013_ONWARDS * SCOPES.length + scope][period];
+        }
+        return totals[metric * SCOPES.length + scope][period];
+    }
+
+    /**
+     * Writes the totals of every period aggregated to the EU country
+     *
+     * @return number of EU-wide values written
+     */
+    public int writeAll(Country euCountry){
+        int written = 0;
+        for(int period = 0; period < periodNodeIds.length; period++){
+            written += write(euCountry, period);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the totals of the period to the EU country (creating or updating its EU-wide relationships)
+     *
+     * @return number of EU-wide values written
+     */
+    public int write(Country euCountry, int period){
+        int written = 0;
+        for(int metric = 0; metric < METRICS; metric++){
+            written += write(euCountry, period, metric);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the totals of a single metric of the period to the EU country
+     *
+     * @return number of EU-wide values written
+     */
+    public int write(Country euCountry, int period, int metric){
+        if(period < 0 || period >= periodNodeIds.length || periodNodeIds[period] == NOT_AGGREGATED){
+            return 0;
+        }
+        Period periodObj = new Period(DatabaseManager.graphDb.getNodeById(periodNodeIds[period]));
+        int written = 0;
+        for(int scope = 0; scope < SCOPES.length; scope++){
+            if(hasValue(metric, scope, period)){
+                double value = getValue(metric, scope, period);
+                String type = SCOPES[scope];
+                switch (metric){
+                    case VERIFIED_EMISSIONS:
+                        euCountry.setVerifiedEmissionsEUWide(periodObj, value, type);
+                        break;
+                    case ALLOWANCES_IN_ALLOCATION:
+                        euCountry.setAllowancesInAllocationEUWide(periodObj, value, type);
+                        break;
+                    case LEGAL_CAP:
+                        euCountry.setLegalCapEUWide(periodObj, value, type);
+                        break;
+                    case OFFSETS:
+                        euCountry.setOffsetsEUWide(periodObj, value, type);
+                        break;
+                    case OFFSET_ENTITLEMENTS:
+                        euCountry.setOffsetEntitlementsEUWide(periodObj, value, type);
+                        break;
+                    default:
+                        euCountry.setAuctionedEUWide(periodObj, value, type);
+                }
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Adds a difference to an EU-wide value already stored, whose relationship stays locked until the transaction
+     * provided is committed so that concurrent transactions add their differences one after the other
+     *
+     * @return false when the EU country has no value for the metric, scope and period provided
+     */
+    public static boolean addToStoredValue(Transaction tx, Node euCountryNode, int metric, int scope, long periodNodeId, double delta){
+        //every EU-wide relationship keeps its scope and value in the same properties
+        for(Relationship relationship : euCountryNode.getRelationships(EU_WIDE_TYPES[metric], Direction.OUTGOING)){
+            if(relationship.getEndNode().getId() == periodNodeId &&
+                    SCOPES[scope].equals(relationship.getProperty(VerifiedEmissionsEUWideModel.type, null))){
+                tx.acquireWriteLock(relationship);
+                double value = TypedProperties.getDouble(relationship, VerifiedEmissionsEUWideModel.value, 0);
+                relationship.setProperty(VerifiedEmissionsEUWideModel.value, value + delta);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of offsets reported for the whole EU (OFFSETS_2013_ONWARDS of the EU country) counted for
+     * every scope, by period node id
+     */
+    public static Map<Long, int[]> countReports(Node euCountryNode){
+        Map<Long, int[]> reports = new HashMap<>();
+        for(Relationship relationship : euCountryNode.getRelationships(Direction.OUTGOING,
+                DynamicRelationshipType.withName(Offsets2013OnwardsModel.LABEL))){
+            Node offset = relationship.getEndNode();
+            Object unitType = offset.getProperty(OffsetModel.unitType, null);
+            int scope = Arrays.asList(SCOPES).indexOf(relationship.getProperty(Offsets2013OnwardsModel.type, null));
+            if(scope < 0 || (!OffsetModel.ERU_UNIT_TYPE.equals(unitType) && !OffsetModel.CER_UNIT_TYPE.equals(unitType))){
+                continue;
+            }
+            for(Relationship offsetPeriod : offset.getRelationships(METRIC_TYPES[OFFSETS], Direction.OUTGOING)){
+                long periodNodeId = PeriodSlices.getPeriodNodeId(offsetPeriod.getEndNode());
+                int[] counts = reports.get(periodNodeId);
+                if(counts == null){
+                    counts = new int[SCOPES.length];
+                    reports.put(periodNodeId, counts);
+                }
+                counts[scope]++;
+            }
+        }
+        return reports;
+    }
+
+    private void walk(Node endNode, int period, RelationshipType[] types){
+
+        Iterable<Relationship> relationships = types != null ? endNode.getRelationships(Direction.INCOMING, types) :
+                endNode.getRelationships(Direction.INCOMING);
+
+        for(Relationship relationship : relationships){
+
+            String type = relationship.getType().name();
+            Node startNode = relationship.getStartNode();
+
+            if(type.equals(SliceOfModel.LABEL)){
+                walk(startNode, period, types);
+            }else if(type.equals(OffsetPeriodModel.LABEL)){
+                addOffset(startNode, period);
+            }else{
+                int metric = getMetric(type);
+                if(metric >= 0 && metric != OFFSETS){
+                    //entitlements which are not numbers (e.g. "Not set") don't add anything but the period still gets a total
+                    double value = TypedProperties.getDouble(relationship, getValueProperty(type), Double.NaN);
+                    int scopes = getScopes(type, startNode, relationship.getProperty(AuctionedModel.type, null));
+                    for(int scope = 0; scope < SCOPES.length; scope++){
+                        if((scopes & (1 << scope)) != 0){
+                            add(metric, scope, period, value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return metric the relationships of the type provided (pointing at periods) count for, -1 if they don't count
+     */
+    static int getMetric(String relationshipType){
+        for(int metric = 0; metric < METRICS; metric++){
+            if(METRIC_TYPES[metric].name().equals(relationshipType)){
+                return metric;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return property holding the value of the relationships of the type provided (all but offsets)
+     */
+    static String getValueProperty(String relationshipType){
+        return relationshipType.equals(LegalCapModel.LABEL) ? LegalCapModel.amount :
+                relationshipType.equals(AuctionedModel.LABEL) ? AuctionedModel.amount : VerifiedEmissionsModel.value;
+    }
+
+    /**
+     * @param auctionType type property of the relationship, only used for auctions
+     * @return bit mask (1 << scope) of the scopes a relationship of the type provided (all but offsets) counts for
+     */
+    static int getScopes(String relationshipType, Node startNode, Object auctionType){
+        int scopes = 0;
+        if(relationshipType.equals(LegalCapModel.LABEL)){
+            if(startNode.hasLabel(DatabaseManager.COUNTRY_LABEL)){
+                scopes = (1 << ALL) | (1 << INSTALLATIONS);
+            }else if(startNode.hasLabel(DatabaseManager.SANDBAG_SECTOR_LABEL) &&
+                    AVIATION_SECTOR_NAME.equals(startNode.getProperty(SandbagSectorModel.name, null))){
+                scopes = (1 << ALL) | (1 << AVIATION);
+            }
+        }else if(relationshipType.equals(AuctionedModel.LABEL)){
+            if(startNode.hasLabel(DatabaseManager.COUNTRY_LABEL)){
+                scopes = 1 << ALL;
+                if(AIRCRAFT_OPERATOR_AUCTION_TYPE.equals(auctionType)){
+                    scopes |= 1 << AVIATION;
+                }else if(INSTALLATION_AUCTION_TYPE.equals(auctionType)){
+                    scopes |= 1 << INSTALLATIONS;
+                }
+            }else if(startNode.hasLabel(DatabaseManager.NER300_LABEL)){
+                scopes = (1 << ALL) | (1 << INSTALLATIONS);
+            }
+        }else{
+            scopes = getAccountScopes(startNode);
+        }
+        return scopes;
+    }
+
+    private static int getAccountScopes(Node account){
+        int scopes = 1 << ALL;
+        if(account.hasLabel(DatabaseManager.AIRCRAFT_OPERATOR_LABEL)){
+            scopes |= 1 << AVIATION;
+        }
+        if(account.hasLabel(DatabaseManager.INSTALLATION_LABEL)){
+            scopes |= 1 << INSTALLATIONS;
+        }
+        return scopes;
+    }
+
+    private void addForAccount(int metric, Node account, int period, double value){
+        int scopes = getAccountScopes(account);
+        for(int scope = 0; scope < SCOPES.length; scope++){
+            if((scopes & (1 << scope)) != 0){
+                add(metric, scope, period, value);
+            }
+        }
+    }
+
+    private void addOffset(Node offset, int period){
+
+        Object unitType = offset.getProperty(OffsetModel.unitType, null);
+        if(!OffsetModel.ERU_UNIT_TYPE.equals(unitType) && !OffsetModel.CER_UNIT_TYPE.equals(unitType)){
+            return;
+        }
+        double amount = TypedProperties.getDouble(offset, OffsetModel.amount, Double.NaN);
+
+        //offsets are counted once per account or EU-wide report they're linked to
+        for(Relationship relationship : offset.getRelationships(Direction.BOTH)){
+            String type = relationship.getType().name();
+            if(type.equals(OffsetsModel.LABEL)){
+                Node account = relationship.getOtherNode(offset);
+                boolean aviation = account.hasLabel(DatabaseManager.AIRCRAFT_OPERATOR_LABEL);
+                boolean installation = account.hasLabel(DatabaseManager.INSTALLATION_LABEL);
+                if(aviation || installation){
+                    addForAccount(OFFSETS, account, period, amount);
+                }
+            }else if(type.equals(Offsets2013OnwardsModel.LABEL)){
+                Object scope = relationship.getProperty(Offsets2013OnwardsModel.type, null);
+                for(int i = 0; i < SCOPES.length; i++){
+                    if(SCOPES[i].equals(scope)){
+                        add(OFFSETS_2013_ONWARDS, i, period, amount);
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(int metric, int scope, int period, double value){
+        int slot = metric * SCOPES.length + scope;
+        found[slot][period] = true;
+        if(!Double.isNaN(value)){
+            totals[slot][period] += value;
+        }
+    }
+
+    private void ensureCapacity(int size){
+        if(periodNodeIds.length < size){
+            int oldSize = periodNodeIds.length;
+            periodNodeIds = Arrays.copyOf(periodNodeIds, size);
+            for(int slot = 0; slot < SLOTS; slot++){
+                totals[slot] = Arrays.copyOf(totals[slot], size);
+                found[slot] = Arrays.copyOf(found[slot], size);
+            }
+            Arrays.fill(periodNodeIds, oldSize, size, NOT_AGGREGATED);
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.sandbag.model.nodes.Country;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.nodes.interfaces.OffsetModel;
+import org.sandbag.model.nodes.interfaces.SandbagSectorModel;
+import org.sandbag.model.relationships.interfaces.AuctionedModel;
+import org.sandbag.model.relationships.interfaces.Offsets2013OnwardsModel;
+import org.sandbag.model.relationships.interfaces.OffsetsModel;
+import org.sandbag.model.relationships.interfaces.OffsetPeriodModel;
+
+import java.util.*;
+
+/**
+ *
+ * Keeps the EU-wide values of the EU country (see EUWideAggregates) up to date as the relationships they're computed
+ * from change, for the programs applying a few changes to a database whose values have already been computed
+ * (see DatabaseManager.enableEUWideValuesUpdates); loaders leave them to PrecomputeEUWideValues instead.
+ * Before every commit the changes of the transaction are turned into differences per period, metric and scope
+ * that are added to the EU-wide values already stored, within the same transaction:
+ * verified emissions, allowances in allocation, offset entitlements, legal caps and auctions created, deleted or
+ * whose value changed, and offsets whose amount, unit type, accounts, EU-wide reports or periods changed
+ * (what the offset counts for after the transaction minus what it counted for before it).
+ * Whatever can't be expressed as a difference is computed again for the metric and period affected (values of
+ * deleted accounts, auctions whose type changed, periods getting their first EU-wide offsets report or losing
+ * their last one, and values the EU country doesn't have yet), and changes of the labels of accounts or of the name
+ * of the aviation sector make every value be computed again.
+ * Nothing is done while there's no EU country.
+ * Only the EU-wide relationships being updated are locked, always in the same order, so concurrent transactions
+ * only wait for each other when they change the same metric of the same period.
+ *
+ */
+public class EUWideValuesHandler extends TransactionEventHandler.Adapter<Object> {
+
+    public static final String EU_COUNTRY_ID = "EU";
+
+    private static final Set<String> OFFSET_LINK_TYPES = new HashSet<>(Arrays.asList(OffsetsModel.LABEL,
+            Offsets2013OnwardsModel.LABEL));
+    private static final Set<String> AGGREGATED_LABELS = new HashSet<>(Arrays.asList(
+            DatabaseManager.INSTALLATION_LABEL.name(), DatabaseManager.AIRCRAFT_OPERATOR_LABEL.name(),
+            DatabaseManager.COUNTRY_LABEL.name(), DatabaseManager.NER300_LABEL.name(),
+            DatabaseManager.SANDBAG_SECTOR_LABEL.name()));
+
+    //parts of the differences of the offsets of a period (part * SCOPES.length + scope)
+    private static final int ACCOUNT_OFFSETS = 0;
+    private static final int REPORTED_OFFSETS = 1;
+    private static final int REPORTS = 2;
+    private static final int OFFSET_PARTS = 3;
+
+    private final DatabaseManager dbManager;
+
+    public EUWideValuesHandler(DatabaseManager dbManager){
+        this.dbManager = dbManager;
+    }
+
+    @Override
+    public Object beforeCommit(TransactionData data) throws Exception {
+        try{
+            Country euCountry = dbManager.getCountryById(EU_COUNTRY_ID);
+            if(euCountry != null){
+                Changes changes = collect(data);
+                if(!changes.isEmpty()){
+                    apply(changes, euCountry);
+                }
+            }
+        }catch (TransientFailureException e){
+            //e.g. a deadlock, the transaction can't be committed anyway
+            throw e;
+        }catch (Exception e){
+            e.printStackTrace();
+            System.out.println("EU-wide values could not be updated, they must be computed again with PrecomputeEUWideValues");
+        }
+        return null;
+    }
+
+    /**
+     * Differences per period and periods whose metrics must be computed again
+     */
+    private static class Changes {
+
+        //period node id -> difference of every metric and scope (metric * SCOPES.length + scope) but offsets
+        //(sorted, so that every transaction locks the EU-wide relationships it updates in the same order)
+        final Map<Long, double[]> deltas = new TreeMap<>();
+        //period node id -> differences of the offsets of the accounts, of the offsets reported for the whole EU
+        //and of the number of reports (part * SCOPES.length + scope)
+        final Map<Long, double[]> offsetDeltas = new TreeMap<>();
+        //period node id -> metrics to compute again
+        final Map<Long, boolean[]> recomputed = new HashMap<>();
+        boolean recomputeAll = false;
+
+        boolean isEmpty(){
+            return deltas.isEmpty() && offsetDeltas.isEmpty() && recomputed.isEmpty() && !recomputeAll;
+        }
+
+        void addOffsets(long periodNodeId, int part, int scopes, double delta){
+            double[] periodDeltas = offsetDeltas.get(periodNodeId);
+            if(periodDeltas == null){
+                periodDeltas = new double[OFFSET_PARTS * EUWideAggregates.SCOPES.length];
+                offsetDeltas.put(periodNodeId, periodDeltas);
+            }
+            for(int scope = 0; scope < EUWideAggregates.SCOPES.length; scope++){
+                if((scopes & (1 << scope)) != 0){
+                    periodDeltas[part * EUWideAggregates.SCOPES.length + scope] += delta;
+                }
+            }
+        }
+
+        void add(long periodNodeId, int metric, int scopes, double delta){
+            double[] periodDeltas = deltas.get(periodNodeId);
+            if(periodDeltas == null){
+                periodDeltas = new double[EUWideAggregates.METRICS * EUWideAggregates.SCOPES.length];
+                deltas.put(periodNodeId, periodDeltas);
+            }
+            for(int scope = 0; scope < EUWideAggregates.SCOPES.length; scope++){
+                if((scopes & (1 << scope)) != 0){
+                    periodDeltas[metric * EUWideAggregates.SCOPES.length + scope] += delta;
+                }
+            }
+        }
+
+        void recompute(long periodNodeId, int metric){
+            boolean[] metrics = recomputed.get(periodNodeId);
+            if(metrics == null){
+                metrics = new boolean[EUWideAggregates.METRICS];
+                recomputed.put(periodNodeId, metrics);
+            }
+            metrics[metric] = true;
+        }
+    }
+
+    private Changes collect(TransactionData data){
+
+        Changes changes = new Changes();
+
+        Set<Long> createdNodes = new HashSet<>();
+        for(Node node : data.createdNodes()){
+            createdNodes.add(node.getId());
+        }
+
+        //offsets whose contribution may have changed, and their relationships deleted (by offset node id)
+        Map<Long, Node> offsets = new LinkedHashMap<>();
+        Map<Long, List<Relationship>> deletedOffsetRelationships = new HashMap<>();
+
+        Set<Long> createdRelationships = new HashSet<>();
+        for(Relationship relationship : data.createdRelationships()){
+            createdRelationships.add(relationship.getId());
+            String type = relationship.getType().name();
+            int metric = EUWideAggregates.getMetric(type);
+            if(metric == EUWideAggregates.OFFSETS){
+                addOffset(offsets, relationship.getStartNode());
+            }else if(metric >= 0){
+                double value = TypedProperties.getDouble(relationship, EUWideAggregates.getValueProperty(type), 0);
+                changes.add(getPeriodNodeId(relationship), metric, EUWideAggregates.getScopes(type,
+                        relationship.getStartNode(), relationship.getProperty(AuctionedModel.type, null)), value);
+            }else if(OFFSET_LINK_TYPES.contains(type)){
+                addOffset(offsets, getOffset(relationship));
+            }
+        }
+
+        //previous values of the properties assigned and removed, which include every property of the relationships deleted
+        Map<Long, Map<String, Object>> previousValues = new HashMap<>();
+        for(PropertyEntry<Relationship> entry : data.removedRelationshipProperties()){
+            addPreviousValue(previousValues, entry.entity().getId(), entry);
+        }
+        for(PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()){
+            addPreviousValue(previousValues, entry.entity().getId(), entry);
+        }
+
+        Set<Long> deletedRelationships = new HashSet<>();
+        for(Relationship relationship : data.deletedRelationships()){
+            deletedRelationships.add(relationship.getId());
+            String type = relationship.getType().name();
+            int metric = EUWideAggregates.getMetric(type);
+            if(metric == EUWideAggregates.OFFSETS){
+                addDeletedOffsetRelationship(offsets, deletedOffsetRelationships, relationship.getStartNode(), relationship);
+            }else if(metric >= 0){
+                long periodNodeId = getPeriodNodeId(relationship);
+                Map<String, Object> values = previousValues.get(relationship.getId());
+                Node startNode = relationship.getStartNode();
+                if(values == null || data.isDeleted(startNode)){
+                    //the labels of deleted nodes can't be read anymore
+                    changes.recompute(periodNodeId, metric);
+                }else{
+                    double value = TypedProperties.toDouble(values.get(EUWideAggregates.getValueProperty(type)), 0);
+                    changes.add(periodNodeId, metric, EUWideAggregates.getScopes(type, startNode,
+                            values.get(AuctionedModel.type)), -value);
+                }
+            }else if(OFFSET_LINK_TYPES.contains(type)){
+                addDeletedOffsetRelationship(offsets, deletedOffsetRelationships, getOffset(relationship), relationship);
+            }
+        }
+
+        for(PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()){
+            Relationship relationship = entry.entity();
+            if(!createdRelationships.contains(relationship.getId())){
+                propertyChanged(changes, offsets, relationship, entry.key(), entry.previouslyCommitedValue(), entry.value());
+            }
+        }
+        for(PropertyEntry<Relationship> entry : data.removedRelationshipProperties()){
+            Relationship relationship = entry.entity();
+            if(!deletedRelationships.contains(relationship.getId())){
+                propertyChanged(changes, offsets, relationship, entry.key(), entry.previouslyCommitedValue(), null);
+            }
+        }
+
+        //previous values of the amount and unit type of the offsets changed
+        Map<Long, Map<String, Object>> previousOffsetValues = new HashMap<>();
+        List<PropertyEntry<Node>> nodeProperties = new LinkedList<>();
+        for(PropertyEntry<Node> entry : data.assignedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : data.removedNodeProperties()){
+            nodeProperties.add(entry);
+        }
+        for(PropertyEntry<Node> entry : nodeProperties){
+            Node node = entry.entity();
+            String key = entry.key();
+            boolean offsetProperty = key.equals(OffsetModel.amount) || key.equals(OffsetModel.unitType);
+            if(offsetProperty){
+                addPreviousValue(previousOffsetValues, node.getId(), entry);
+            }
+            if(createdNodes.contains(node.getId()) || data.isDeleted(node)){
+                //new nodes have no relationships yet and the relationships of deleted nodes are deleted too
+                continue;
+            }
+            if(offsetProperty && node.hasLabel(DatabaseManager.OFFSET_LABEL)){
+                addOffset(offsets, node);
+            }else if(key.equals(SandbagSectorModel.name) && node.hasLabel(DatabaseManager.SANDBAG_SECTOR_LABEL)){
+                changes.recomputeAll = true;
+            }
+        }
+
+        List<LabelEntry> labels = new LinkedList<>();
+        for(LabelEntry entry : data.assignedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : data.removedLabels()){
+            labels.add(entry);
+        }
+        for(LabelEntry entry : labels){
+            if(!createdNodes.contains(entry.node().getId()) && !data.isDeleted(entry.node()) &&
+                    AGGREGATED_LABELS.contains(entry.label().name())){
+                changes.recomputeAll = true;
+            }
+        }
+
+        if(!changes.recomputeAll){
+            for(Node offset : offsets.values()){
+                List<Relationship> deleted = deletedOffsetRelationships.get(offset.getId());
+                addOffsetDifferences(changes, data, offset, createdNodes.contains(offset.getId()), createdRelationships,
+                        deleted != null ? deleted : Collections.<Relationship>emptyList(),
+                        previousValues, previousOffsetValues.get(offset.getId()));
+            }
+        }
+
+        return changes;
+    }
+
+    private void propertyChanged(Changes changes, Map<Long, Node> offsets, Relationship relationship, String key,
+                                 Object previousValue, Object value){
+        String type = relationship.getType().name();
+        int metric = EUWideAggregates.getMetric(type);
+        if(metric >= 0 && metric != EUWideAggregates.OFFSETS){
+            if(key.equals(EUWideAggregates.getValueProperty(type))){
+                double delta = TypedProperties.toDouble(value, 0) - TypedProperties.toDouble(previousValue, 0);
+                changes.add(getPeriodNodeId(relationship), metric, EUWideAggregates.getScopes(type,
+                        relationship.getStartNode(), relationship.getProperty(AuctionedModel.type, null)), delta);
+            }else if(metric == EUWideAggregates.AUCTIONED && key.equals(AuctionedModel.type)){
+                changes.recompute(getPeriodNodeId(relationship), metric);
+            }
+        }else if(type.equals(Offsets2013OnwardsModel.LABEL) && key.equals(Offsets2013OnwardsModel.type)){
+            addOffset(offsets, getOffset(relationship));
+        }
+    }
+
+    private static void addOffset(Map<Long, Node> offsets, Node offset){
+        if(!offsets.containsKey(offset.getId())){
+            offsets.put(offset.getId(), offset);
+        }
+    }
+
+    private static void addDeletedOffsetRelationship(Map<Long, Node> offsets, Map<Long, List<Relationship>> deletedOffsetRelationships,
+                                                     Node offset, Relationship relationship){
+        addOffset(offsets, offset);
+        List<Relationship> relationships = deletedOffsetRelationships.get(offset.getId());
+        if(relationships == null){
+            relationships = new LinkedList<>();
+            deletedOffsetRelationships.put(offset.getId(), relationships);
+        }
+        relationships.add(relationship);
+    }
+
+    private static void addPreviousValue(Map<Long, Map<String, Object>> previousValues, long id, PropertyEntry<?> entry){
+        Map<String, Object> values = previousValues.get(id);
+        if(values == null){
+            values = new HashMap<>();
+            previousValues.put(id, values);
+        }
+        values.put(entry.key(), entry.previouslyCommitedValue());
+    }
+
+    /**
+     * Adds what the offset counts for once the transaction is committed minus what it counted for before it
+     *
+     * @param deletedRelationships relationships of the offset deleted by the transaction
+     * @param previousValues previous values of the relationship properties changed, by relationship id
+     * @param previousOffsetValues previous values of the amount and unit type of the offset (null if they didn't change)
+     */
+    private void addOffsetDifferences(Changes changes, TransactionData data, Node offset, boolean created,
+                                      Set<Long> createdRelationships, List<Relationship> deletedRelationships,
+                                      Map<Long, Map<String, Object>> previousValues, Map<String, Object> previousOffsetValues){
+
+        boolean deleted = data.isDeleted(offset);
+
+        //relationships of the offset after and before the transaction
+        List<Relationship> currentRelationships = new LinkedList<>();
+        List<Relationship> previousRelationships = new LinkedList<>(deletedRelationships);
+        if(!deleted){
+            for(Relationship relationship : offset.getRelationships()){
+                currentRelationships.add(relationship);
+                if(!createdRelationships.contains(relationship.getId())){
+                    previousRelationships.add(relationship);
+                }
+            }
+            addOffsetContribution(changes, data, offset, offset.getProperty(OffsetModel.amount, null),
+                    offset.getProperty(OffsetModel.unitType, null), currentRelationships, null, 1);
+        }
+        if(!created){
+            addOffsetContribution(changes, data, offset,
+                    getPreviousValue(offset, OffsetModel.amount, previousOffsetValues, deleted),
+                    getPreviousValue(offset, OffsetModel.unitType, previousOffsetValues, deleted),
+                    previousRelationships, previousValues, -1);
+        }
+    }
+
+    /**
+     * Adds what an offset counts for (the same way EUWideAggregates does) multiplied by the sign provided
+     *
+     * @param previousValues previous values of the relationship properties changed, to read the relationships
+     *                       as they were before the transaction (null to read them as they are)
+     */
+    private void addOffsetContribution(Changes changes, TransactionData data, Node offset, Object amountValue,
+                                       Object unitType, List<Relationship> relationships,
+                                       Map<Long, Map<String, Object>> previousValues, int sign){
+
+        if(!OffsetModel.ERU_UNIT_TYPE.equals(unitType) && !OffsetModel.CER_UNIT_TYPE.equals(unitType)){
+            return;
+        }
+        //amounts which are not numbers don't add anything
+        double amount = TypedProperties.toDouble(amountValue, Double.NaN);
+        double value = Double.isNaN(amount) ? 0 : sign * amount;
+
+        List<Long> periodNodeIds = new LinkedList<>();
+        for(Relationship relationship : relationships){
+            if(relationship.getType().name().equals(OffsetPeriodModel.LABEL) &&
+                    relationship.getStartNode().getId() == offset.getId()){
+                periodNodeIds.add(getPeriodNodeId(relationship));
+            }
+        }
+
+        for(Relationship relationship : relationships){
+            String type = relationship.getType().name();
+            if(type.equals(OffsetsModel.LABEL)){
+                Node account = relationship.getStartNode();
+                if(data.isDeleted(account)){
+                    //the labels of deleted nodes can't be read anymore
+                    for(long periodNodeId : periodNodeIds){
+                        changes.recompute(periodNodeId, EUWideAggregates.OFFSETS);
+                    }
+                }else if(account.hasLabel(DatabaseManager.AIRCRAFT_OPERATOR_LABEL) ||
+                        account.hasLabel(DatabaseManager.INSTALLATION_LABEL)){
+                    int scopes = EUWideAggregates.getScopes(type, account, null);
+                    for(long periodNodeId : periodNodeIds){
+                        changes.addOffsets(periodNodeId, ACCOUNT_OFFSETS, scopes, value);
+                    }
+                }
+            }else if(type.equals(Offsets2013OnwardsModel.LABEL)){
+                Object scope = previousValues != null ? getPreviousValue(relationship, Offsets2013OnwardsModel.type,
+                        previousValues.get(relationship.getId()), data.isDeleted(relationship)) :
+                        relationship.getProperty(Offsets2013OnwardsModel.type, null);
+                for(int i = 0; i < EUWideAggregates.SCOPES.length; i++){
+                    if(EUWideAggregates.SCOPES[i].equals(scope)){
+                        for(long periodNodeId : periodNodeIds){
+                            changes.addOffsets(periodNodeId, REPORTED_OFFSETS, 1 << i, value);
+                            changes.addOffsets(periodNodeId, REPORTS, 1 << i, sign);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param previousValues previous values of the properties of the entity changed by the transaction (null if none)
+     * @return value of the property before the transaction
+     */
+    private static Object getPreviousValue(PropertyContainer entity, String key, Map<String, Object> previousValues,
+                                           boolean deleted){
+        if(previousValues != null && previousValues.containsKey(key)){
+            return previousValues.get(key);
+        }
+        //every property of the entities deleted is in the previous values
+        return deleted ? null : entity.getProperty(key, null);
+    }
+
+    private void apply(Changes changes, Country euCountry){
+
+        Node euCountryNode = DatabaseManager.graphDb.getNodeById(euCountry.getNodeId());
+
+        //joins the transaction being committed, the EU-wide relationships updated stay locked until it's committed
+        Transaction tx = DatabaseManager.graphDb.beginTx();
+        try{
+
+            EUWideAggregates aggregates = new EUWideAggregates(dbManager);
+
+            if(changes.recomputeAll){
+                aggregates.aggregateAll();
+                aggregates.writeAll(euCountry);
+            }else{
+
+                for(Map.Entry<Long, double[]> entry : changes.deltas.entrySet()){
+                    long periodNodeId = entry.getKey();
+                    boolean[] recomputed = changes.recomputed.get(periodNodeId);
+                    double[] deltas = entry.getValue();
+                    for(int metric = 0; metric < EUWideAggregates.METRICS; metric++){
+                        if(recomputed != null && recomputed[metric]){
+                            continue;
+                        }
+                        for(int scope = 0; scope < EUWideAggregates.SCOPES.length; scope++){
+                            double delta = deltas[metric * EUWideAggregates.SCOPES.length + scope];
+                            if(delta != 0 && !EUWideAggregates.addToStoredValue(tx, euCountryNode, metric, scope,
+                                    periodNodeId, delta)){
+                                changes.recompute(periodNodeId, metric);
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                applyOffsets(tx, changes, euCountryNode);
+
+                for(Map.Entry<Long, boolean[]> entry : changes.recomputed.entrySet()){
+                    Node periodNode = DatabaseManager.graphDb.getNodeById(entry.getKey());
+                    for(int metric = 0; metric < EUWideAggregates.METRICS; metric++){
+                        if(entry.getValue()[metric]){
+                            int period = aggregates.aggregate(periodNode, metric);
+                            aggregates.write(euCountry, period, metric);
+                        }
+                    }
+                }
+            }
+
+            tx.success();
+        }finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * Offsets reported for the whole EU take precedence over the offsets of the accounts (see EUWideAggregates):
+     * the difference added is the one of the reports when the period has reports before and after the transaction,
+     * the one of the accounts when it has none, and the offsets of the period are computed again otherwise
+     */
+    private void applyOffsets(Transaction tx, Changes changes, Node euCountryNode){
+
+        int scopes = EUWideAggregates.SCOPES.length;
+        Map<Long, int[]> reports = null;
+
+        for(Map.Entry<Long, double[]> entry : changes.offsetDeltas.entrySet()){
+            long periodNodeId = entry.getKey();
+            boolean[] recomputed = changes.recomputed.get(periodNodeId);
+            if(recomputed != null && recomputed[EUWideAggregates.OFFSETS]){
+                continue;
+            }
+            double[] deltas = entry.getValue();
+            for(int scope = 0; scope < scopes; scope++){
+
+                double accountsDelta = deltas[ACCOUNT_OFFSETS * scopes + scope];
+                double reportedDelta = deltas[REPORTED_OFFSETS * scopes + scope];
+                int reportsDelta = (int) deltas[REPORTS * scopes + scope];
+                if(accountsDelta == 0 && reportedDelta == 0 && reportsDelta == 0){
+                    continue;
+                }
+
+                if(reports == null){
+                    reports = EUWideAggregates.countReports(euCountryNode);
+                }
+                int[] periodReports = reports.get(periodNodeId);
+                int currentReports = periodReports != null ? periodReports[scope] : 0;
+                int previousReports = currentReports - reportsDelta;
+
+                double delta;
+                if(previousReports > 0 && currentReports > 0){
+                    delta = reportedDelta;
+                }else if(previousReports == 0 && currentReports == 0){
+                    delta = accountsDelta;
+                }else{
+                    changes.recompute(periodNodeId, EUWideAggregates.OFFSETS);
+                    break;
+                }
+                if(delta != 0 && !EUWideAggregates.addToStoredValue(tx, euCountryNode, EUWideAggregates.OFFSETS,
+                        scope, periodNodeId, delta)){
+                    changes.recompute(periodNodeId, EUWideAggregates.OFFSETS);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static long getPeriodNodeId(Relationship relationship){
+        return PeriodSlices.getPeriodNodeId(relationship.getEndNode());
+    }
+
+    private static Node getOffset(Relationship relationship){
+        //offsets are the end node of OFFSETS and OFFSETS_2013_ONWARDS relationships
+        return relationship.getEndNode();
+    }
+}
@@ -0,0 +1,155 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Progress of an import stored in the database itself, in a single journal node per import.
+ * For every file it records how many lines have been committed (or whether the file is completely imported),
+ * and it also records the steps of the import that are done.
+ *
+ * Entries must be written within the transaction that commits the data they refer to
+ * (see BatchTransaction.setCheckpoint), so the journal can never be ahead of or behind the graph:
+ * a restarted import skips exactly what was committed, even for writes that are not idempotent.
+ * Entries are also kept in memory so that they can be read without a transaction.
+ *
+ * Files are identified by their name, size and modification time, so a new scrape with the same file names
+ * is never taken for the one partially imported. The journal lives in the database it describes (a wiped
+ * database has none) and it's deleted once the import has completed, so the next import starts from scratch.
+ *
+ */
+public class ImportJournal {
+
+    public static final String NAME_PROPERTY = "name";
+    public static final long NOT_STARTED = 0L;
+    public static final long FILE_COMPLETED = Long.MAX_VALUE;
+
+    private static final String LINES_PREFIX = "lines:";
+    private static final String STEP_PREFIX = "step:";
+
+    private final DatabaseManager dbManager;
+    private final String name;
+    private final Map<String, Object> entries = new HashMap<>();
+    private long nodeId = -1;
+
+    /**
+     * Loads the journal of the import provided (it's empty if the import was never run against the database)
+     */
+    public ImportJournal(DatabaseManager dbManager, String name){
+
+        this.dbManager = dbManager;
+        this.name = name;
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Node node = dbManager.graphDb.findNode(DatabaseManager.IMPORT_JOURNAL_LABEL, NAME_PROPERTY, name);
+            if(node != null){
+                nodeId = node.getId();
+                entries.putAll(node.getAllProperties());
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        if(nodeId >= 0){
+            System.out.println("Import journal found for " + name + ", the data already committed will be skipped");
+        }
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return number of lines of the file already committed (header excluded), NOT_STARTED or FILE_COMPLETED
+     */
+    public long getCommittedLines(String step, File file){
+        Object value = entries.get(linesKey(step, file));
+        return value != null ? (Long) value : NOT_STARTED;
+    }
+
+    public boolean isFileCompleted(String step, File file){
+        return getCommittedLines(step, file) == FILE_COMPLETED;
+    }
+
+    public boolean isStepCompleted(String step){
+        return isStepCompleted(step, null);
+    }
+
+    /**
+     * @param file file the step imports (null if none)
+     */
+    public boolean isStepCompleted(String step, File file){
+        return entries.containsKey(stepKey(step, file));
+    }
+
+    /**
+     * Records the number of lines of the file whose rows are part of the current transaction or of previous ones
+     */
+    public void recordCommittedLines(String step, File file, long lines){
+        write(linesKey(step, file), lines);
+    }
+
+    public void recordFileCompleted(String step, File file){
+        write(linesKey(step, file), FILE_COMPLETED);
+    }
+
+    public void recordStepCompleted(String step){
+        recordStepCompleted(step, null);
+    }
+
+    /**
+     * @param file file the step imports (null if none)
+     */
+    public void recordStepCompleted(String step, File file){
+        write(stepKey(step, file), System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the journal once the import has completed
+     */
+    public void delete(){
+        if(nodeId >= 0){
+            Transaction tx = dbManager.beginTransaction();
+            try{
+                dbManager.graphDb.getNodeById(nodeId).delete();
+                tx.success();
+            }finally {
+                tx.close();
+            }
+            nodeId = -1;
+        }
+        entries.clear();
+    }
+
+    private void write(String key, Object value){
+        Node node;
+        if(nodeId < 0){
+            node = dbManager.graphDb.createNode(DatabaseManager.IMPORT_JOURNAL_LABEL);
+            node.setProperty(NAME_PROPERTY, name);
+            nodeId = node.getId();
+        }else{
+            node = dbManager.graphDb.getNodeById(nodeId);
+        }
+        node.setProperty(key, value);
+        entries.put(key, value);
+    }
+
+    private static String linesKey(String step, File file){
+        return LINES_PREFIX + step + ":" + fileKey(file);
+    }
+
+    private static String stepKey(String step, File file){
+        return file != null ? STEP_PREFIX + step + ":" + fileKey(file) : STEP_PREFIX + step;
+    }
+
+    private static String fileKey(File file){
+        return file.getName() + ":" + file.length() + ":" + file.lastModified();
+    }
+}
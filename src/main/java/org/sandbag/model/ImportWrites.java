@@ -0,0 +1,68 @@
+package org.sandbag.model;
+
+/**
+ *
+ * Number of writes (nodes, labels, relationships and properties) made by the DatabaseManager methods and the
+ * setters used by the importers, reported to BatchTransaction so that the estimated size of the transaction state
+ * follows what has actually been written.
+ * Every value is derived from what the corresponding method writes, so it must be kept in sync with it.
+ * Deletions are counted by the methods deleting (e.g. Installation.delete).
+ *
+ */
+public final class ImportWrites {
+
+    //node, label and id
+    private static final int ACCOUNT_NODE = 3;
+    //relationships to the country, company and sector
+    private static final int ACCOUNT_RELATIONSHIPS = 3;
+    //name, city, post code, address, EPRTR id, permit id, permit entry date, permit expiry date, latitude, longitude
+    private static final int INSTALLATION_PROPERTIES = 10;
+    //name, status, city, post code, address, EPRTR id, unique code, monitoring plan id, first year of applicability,
+    //year of expiry, ICAO designator, latitude, longitude
+    private static final int AIRCRAFT_OPERATOR_PROPERTIES = 13;
+
+    /**
+     * DatabaseManager.createInstallation
+     */
+    public static final int INSTALLATION = ACCOUNT_NODE + INSTALLATION_PROPERTIES + ACCOUNT_RELATIONSHIPS;
+
+    /**
+     * DatabaseManager.createAircraftOperator
+     */
+    public static final int AIRCRAFT_OPERATOR = ACCOUNT_NODE + AIRCRAFT_OPERATOR_PROPERTIES + ACCOUNT_RELATIONSHIPS;
+
+    /**
+     * DatabaseManager.updateInstallation: properties overwritten, country, company and sector relationships replaced
+     */
+    public static final int INSTALLATION_UPDATE = INSTALLATION_PROPERTIES + 2 * ACCOUNT_RELATIONSHIPS;
+
+    /**
+     * DatabaseManager.updateAircraftOperator: properties overwritten, country, company and sector relationships replaced
+     */
+    public static final int AIRCRAFT_OPERATOR_UPDATE = AIRCRAFT_OPERATOR_PROPERTIES + 2 * ACCOUNT_RELATIONSHIPS;
+
+    /**
+     * DatabaseManager.createOffset: node, label, amount and unit type plus the relationships to the account,
+     * project, period and originating country
+     */
+    public static final int OFFSET = 4 + 4;
+
+    /**
+     * DatabaseManager.createOffset2013Onwards: node, label, amount and unit type, the relationship to the period and
+     * the relationship from the EU country with its type and reference
+     */
+    public static final int OFFSET_2013_ONWARDS = 4 + 1 + 3;
+
+    /**
+     * Value of an account for a period (verified emissions, surrendered units, compliance, offset entitlement...):
+     * relationship and value
+     */
+    public static final int PERIOD_VALUE = 2;
+
+    /**
+     * Allowances in allocation of an account for a period: relationship, value and type
+     */
+    public static final int ALLOWANCES_IN_ALLOCATION = PERIOD_VALUE + 1;
+
+    private ImportWrites(){}
+}
@@ -0,0 +1,175 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.nodes.*;
+import org.sandbag.model.nodes.interfaces.*;
+import org.sandbag.util.StringLongMap;
+
+import java.util.Iterator;
+
+/**
+ *
+ * Import session cache resolving the natural keys of countries, companies, sectors, periods and projects
+ * to their node ids, so that importers don't need a schema index lookup for every row.
+ * The maps are pre-warmed from the store when the resolver is created, and the entities created through
+ * the resolver are registered in them straight away (they can be found before their transaction is committed).
+ * When several nodes share the same key the first one found is kept.
+ *
+ * The resolver assumes it's the only one creating these entities while it is in use.
+ *
+ */
+public class KeyResolver {
+
+    private final DatabaseManager dbManager;
+
+    private final StringLongMap countriesByName = new StringLongMap();
+    private final StringLongMap countriesById = new StringLongMap();
+    private final StringLongMap companiesByName = new StringLongMap(1 << 14);
+    private final StringLongMap sectorsById = new StringLongMap();
+    private final StringLongMap periodsByName = new StringLongMap();
+    private final StringLongMap projectsById = new StringLongMap(1 << 12);
+
+    public KeyResolver(DatabaseManager dbManager){
+        this.dbManager = dbManager;
+        warmUp();
+    }
+
+    /**
+     * Loads the keys of all the countries, companies, sectors, periods and projects already stored
+     */
+    private void warmUp(){
+
+        System.out.println("Loading keys already present in the database...");
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            loadKeys(DatabaseManager.COUNTRY_LABEL, CountryModel.name, countriesByName);
+            loadKeys(DatabaseManager.COUNTRY_LABEL, CountryModel.id, countriesById);
+            loadKeys(DatabaseManager.COMPANY_LABEL, CompanyModel.name, companiesByName);
+            loadKeys(DatabaseManager.SECTOR_LABEL, SectorModel.id, sectorsById);
+            loadKeys(DatabaseManager.PERIOD_LABEL, PeriodModel.name, periodsByName);
+            loadKeys(DatabaseManager.PROJECT_LABEL, ProjectModel.id, projectsById);
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        System.out.println("Done! (" + countriesByName.size() + " countries, " + companiesByName.size() + " companies, " +
+                sectorsById.size() + " sectors, " + periodsByName.size() + " periods, " + projectsById.size() + " projects)");
+    }
+
+    private void loadKeys(Label label, String property, StringLongMap map){
+        Iterator<Node> iterator = dbManager.findNodes(label);
+        while(iterator.hasNext()){
+            Node node = iterator.next();
+            Object value = node.getProperty(property, null);
+            if(value != null){
+                map.putIfAbsent(String.valueOf(value), node.getId());
+            }
+        }
+    }
+
+    private Node getNode(StringLongMap map, String key){
+        long nodeId = map.get(key);
+        return nodeId == StringLongMap.NOT_FOUND ? null : dbManager.graphDb.getNodeById(nodeId);
+    }
+
+    //--------------------------------------LOOKUPS-------------------------------------------
+
+    public Country getCountryByName(String name){
+        Node node = getNode(countriesByName, name);
+        return node == null ? null : new Country(node);
+    }
+
+    public Country getCountryById(String id){
+        Node node = getNode(countriesById, id);
+        return node == null ? null : new Country(node);
+    }
+
+    public Company getCompanyByName(String name){
+        Node node = getNode(companiesByName, name);
+        return node == null ? null : new Company(node);
+    }
+
+    public Sector getSectorById(String id){
+        Node node = getNode(sectorsById, id);
+        return node == null ? null : new Sector(node);
+    }
+
+    public Period getPeriodByName(String name){
+        Node node = getNode(periodsByName, name);
+        return node == null ? null : new Period(node);
+    }
+
+    public Project getProjectById(String id){
+        Node node = getNode(projectsById, id);
+        return node == null ? null : new Project(node);
+    }
+
+    //--------------------------------------CREATION-------------------------------------------
+
+    public Country createCountry(String name, String id){
+        Country country = dbManager.createCountry(name, id);
+        registerCountry(country, name, id);
+        return country;
+    }
+
+    public Company createCompany(String name,
+                                 String registrationNumber,
+                                 String postalCode,
+                                 String city,
+                                 String address,
+                                 String status,
+                                 String subsidiaryCompany,
+                                 String parentCompany){
+        Company company = dbManager.createCompany(name, registrationNumber, postalCode, city, address, status,
+                subsidiaryCompany, parentCompany);
+        registerCompany(company, name);
+        return company;
+    }
+
+    public Sector createSector(String id, String name){
+        Sector sector = dbManager.createSector(id, name);
+        registerSector(sector, id);
+        return sector;
+    }
+
+    public Period createPeriod(String name){
+        Period period = dbManager.createPeriod(name);
+        registerPeriod(period, name);
+        return period;
+    }
+
+    public Project createProject(String id){
+        Project project = dbManager.createProject(id);
+        registerProject(project, id);
+        return project;
+    }
+
+    //--------------------------------------REGISTRATION-------------------------------------------
+    //(for entities created without going through the resolver)
+
+    public void registerCountry(Country country, String name, String id){
+        countriesByName.putIfAbsent(name, country.getNodeId());
+        countriesById.putIfAbsent(id, country.getNodeId());
+    }
+
+    public void registerCompany(Company company, String name){
+        companiesByName.putIfAbsent(name, company.getNodeId());
+    }
+
+    public void registerSector(Sector sector, String id){
+        sectorsById.putIfAbsent(id, sector.getNodeId());
+    }
+
+    public void registerPeriod(Period period, String name){
+        periodsByName.putIfAbsent(name, period.getNodeId());
+    }
+
+    public void registerProject(Project project, String id){
+        projectsById.putIfAbsent(id, project.getNodeId());
+    }
+
+}
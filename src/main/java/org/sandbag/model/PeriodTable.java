@@ -0,0 +1,96 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.interfaces.PeriodModel;
+import org.sandbag.util.LongLongMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Dense ordinals (0, 1, 2...) for the periods of the database, so that values linked to periods can be kept
+ * in plain arrays indexed by period (see AccountSnapshot) instead of being looked up by period name.
+ * Ordinals are given the first time a period is seen and never change while the table is alive;
+ * periods created afterwards are picked up the first time one of their node ids is asked for.
+ * Loading and reloading the table must be done within a transaction.
+ *
+ */
+public class PeriodTable {
+
+    public static final int NOT_FOUND = -1;
+
+    private final DatabaseManager dbManager;
+    private final LongLongMap ordinalsByNodeId = new LongLongMap();
+    private final Map<String, Integer> ordinalsByName = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    public PeriodTable(DatabaseManager dbManager){
+        this.dbManager = dbManager;
+        reload();
+    }
+
+    /**
+     * @return number of periods known by the table (ordinals go from 0 to size - 1)
+     */
+    public int size(){
+        return names.size();
+    }
+
+    /**
+     * @return ordinal of the period with the name provided, NOT_FOUND if there's no such period
+     */
+    public int getOrdinal(String periodName){
+        Integer ordinal = ordinalsByName.get(periodName);
+        if(ordinal == null){
+            reload();
+            ordinal = ordinalsByName.get(periodName);
+        }
+        return ordinal != null ? ordinal : NOT_FOUND;
+    }
+
+    /**
+     * @return ordinal of the period node provided, NOT_FOUND if the node is not a period
+     */
+    public int getOrdinal(long periodNodeId){
+        long ordinal = ordinalsByNodeId.get(periodNodeId);
+        if(ordinal == LongLongMap.NOT_FOUND){
+            reload();
+            ordinal = ordinalsByNodeId.get(periodNodeId);
+        }
+        return (int) ordinal;
+    }
+
+    public int getOrdinal(Period period){
+        return period != null ? getOrdinal(period.getNodeId()) : NOT_FOUND;
+    }
+
+    public String getName(int ordinal){
+        return names.get(ordinal);
+    }
+
+    /**
+     * Adds the periods created since the table was loaded (ordinals already given are kept)
+     */
+    private void reload(){
+        ResourceIterator<Node> iterator = dbManager.graphDb.findNodes(DatabaseManager.PERIOD_LABEL);
+        try{
+            while(iterator.hasNext()){
+                Node node = iterator.next();
+                if(!ordinalsByNodeId.containsKey(node.getId())){
+                    String name = String.valueOf(node.getProperty(PeriodModel.name));
+                    int ordinal = names.size();
+                    names.add(name);
+                    ordinalsByNodeId.put(node.getId(), ordinal);
+                    ordinalsByName.put(name, ordinal);
+                }
+            }
+        }finally {
+            iterator.close();
+        }
+    }
+}
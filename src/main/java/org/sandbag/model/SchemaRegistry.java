@@ -0,0 +1,337 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.nodes.interfaces.*;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Every schema index and uniqueness constraint of the database, declared in a single place.
+ * The schema is built once the data has been loaded ("load then index"): indices are created all together
+ * so that Neo4j populates them in parallel, and uniqueness constraints are created concurrently.
+ * Building the schema only creates what's missing. Migrating it (see DatabaseManager.buildSchema) also replaces
+ * plain indices declared unique in the registry by uniqueness constraints (when the data already stored violates
+ * the constraint a plain index is kept and a warning is printed).
+ *
+ */
+public class SchemaRegistry {
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000L;
+
+    /**
+     * Schema entry: index on a label property, backed by a uniqueness constraint when unique is true
+     */
+    public static class Entry {
+
+        public final Label label;
+        public final String property;
+        public final boolean unique;
+
+        Entry(Label label, String property, boolean unique){
+            this.label = label;
+            this.property = property;
+            this.unique = unique;
+        }
+
+        public String toString(){
+            return label.name() + "." + property + (unique ? " (unique)" : "");
+        }
+    }
+
+    //country ids are not unique (registries originating offsets are created without id), neither are registration numbers
+    public static final List<Entry> ENTRIES = Collections.unmodifiableList(Arrays.asList(
+            new Entry(DatabaseManager.INSTALLATION_LABEL, InstallationModel.id, true),
+            new Entry(DatabaseManager.AIRCRAFT_OPERATOR_LABEL, AircraftOperatorModel.id, true),
+            new Entry(DatabaseManager.AIRCRAFT_OPERATOR_LABEL, AircraftOperatorModel.uniqueCodeUnderCommissionRegulation, false),
+            new Entry(DatabaseManager.COUNTRY_LABEL, CountryModel.name, true),
+            new Entry(DatabaseManager.COUNTRY_LABEL, CountryModel.id, false),
+            new Entry(DatabaseManager.PERIOD_LABEL, PeriodModel.name, true),
+            new Entry(DatabaseManager.PERIOD_SLICE_LABEL, PeriodSlices.NAME_PROPERTY, false),
+            new Entry(DatabaseManager.SECTOR_LABEL, SectorModel.id, true),
+            new Entry(DatabaseManager.SECTOR_LABEL, SectorModel.name, false),
+            new Entry(DatabaseManager.COMPANY_LABEL, CompanyModel.name, true),
+            new Entry(DatabaseManager.COMPANY_LABEL, CompanyModel.registrationNumber, false),
+            new Entry(DatabaseManager.COMPANY_LABEL, CompanyModel.parentCompany, false),
+            new Entry(DatabaseManager.COMPANY_LABEL, CompanyModel.subsidiaryCompany, false),
+            new Entry(DatabaseManager.COMPANY_LABEL, CompanyModel.ultimateParent, false),
+            new Entry(DatabaseManager.PROJECT_LABEL, ProjectModel.id, true),
+            new Entry(DatabaseManager.SANDBAG_SECTOR_LABEL, SandbagSectorModel.id, true),
+            new Entry(DatabaseManager.SANDBAG_SECTOR_LABEL, SandbagSectorModel.name, false),
+            new Entry(DatabaseManager.NACE_CODE_LABEL, NACECodeModel.id, true),
+            new Entry(DatabaseManager.FUEL_TYPE_LABEL, FuelTypeModel.name, true)
+    ));
+
+    private SchemaRegistry(){}
+
+    /**
+     * Creates the indices and constraints missing and waits until all of them are online, reporting the progress
+     *
+     * @param migrate whether plain indices declared unique are replaced by uniqueness constraints, which checks
+     *                every value stored for duplicates
+     */
+    public static void build(GraphDatabaseService graphDb, boolean migrate){
+
+        long startTime = System.currentTimeMillis();
+
+        List<Entry> missingIndices = new LinkedList<>();
+        List<Entry> missingConstraints = new LinkedList<>();
+        List<Entry> replacedIndices = new LinkedList<>();
+
+        Transaction tx = graphDb.beginTx();
+        try{
+            Schema schema = graphDb.schema();
+            Set<String> constrained = getIndexedKeys(schema, true);
+            Set<String> indexed = getIndexedKeys(schema, false);
+
+            for(Entry entry : ENTRIES){
+                String key = getKey(entry.label, entry.property);
+                if(entry.unique){
+                    if(!constrained.contains(key)){
+                        //a plain index and a constraint can't coexist on the same property
+                        if(!indexed.contains(key)){
+                            missingConstraints.add(entry);
+                        }else if(migrate){
+                            int duplicates = countDuplicates(graphDb, entry);
+                            if(duplicates == 0){
+                                replacedIndices.add(entry);
+                                missingConstraints.add(entry);
+                            }else{
+                                System.out.println("WARNING: " + duplicates + " duplicated values found for " + entry +
+                                        ", its plain index is kept instead of a uniqueness constraint");
+                            }
+                        }
+                    }
+                }else if(!indexed.contains(key) && !constrained.contains(key)){
+                    missingIndices.add(entry);
+                }
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        if(missingIndices.isEmpty() && missingConstraints.isEmpty()){
+            //nothing is committed, so opening a complete database doesn't move its last transaction id
+            return;
+        }
+
+        //schema changes can't share a transaction with the reads above
+        tx = graphDb.beginTx();
+        try{
+            Schema schema = graphDb.schema();
+            for(Entry entry : replacedIndices){
+                for(IndexDefinition index : schema.getIndexes(entry.label)){
+                    if(!index.isConstraintIndex() && index.getPropertyKeys().iterator().next().equals(entry.property)){
+                        index.drop();
+                    }
+                }
+            }
+            //created in the same transaction so that they're populated in parallel
+            for(Entry entry : missingIndices){
+                schema.indexFor(entry.label).on(entry.property).create();
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        System.out.println("Building schema: " + missingIndices.size() + " indices and " +
+                missingConstraints.size() + " uniqueness constraints...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(missingConstraints.size(),
+                Runtime.getRuntime().availableProcessors())));
+        for(Entry entry : missingConstraints){
+            executor.submit(newConstraintTask(graphDb, entry));
+        }
+        executor.shutdown();
+
+        try{
+            awaitOnline(graphDb, executor, startTime);
+        }catch (InterruptedException e){
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println("Schema built in " + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
+    }
+
+    /**
+     * @return true if every entry of the registry has an index or a constraint (must be called within a transaction)
+     */
+    public static boolean isBuilt(GraphDatabaseService graphDb){
+        Schema schema = graphDb.schema();
+        Set<String> keys = getIndexedKeys(schema, true);
+        keys.addAll(getIndexedKeys(schema, false));
+        for(Entry entry : ENTRIES){
+            if(!keys.contains(getKey(entry.label, entry.property))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Declares the plain indices of the registry in a database being loaded with a batch inserter;
+     * they're populated when the database is started. Uniqueness constraints are created (and checked against
+     * the data) by build the first time the database is opened with DatabaseManager.
+     */
+    public static void declareDeferredIndices(BatchInserter inserter){
+        for(Entry entry : ENTRIES){
+            if(!entry.unique){
+                inserter.createDeferredSchemaIndex(entry.label).on(entry.property).create();
+            }
+        }
+    }
+
+    private static Runnable newConstraintTask(final GraphDatabaseService graphDb, final Entry entry){
+        return new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    Transaction tx = graphDb.beginTx();
+                    try{
+                        graphDb.schema().constraintFor(entry.label).assertPropertyIsUnique(entry.property).create();
+                        tx.success();
+                    }finally {
+                        tx.close();
+                    }
+                }catch (Exception e){
+                    System.out.println("WARNING: the uniqueness constraint on " + entry + " could not be created (" +
+                            e.getMessage() + "), a plain index is created instead");
+                    Transaction tx = graphDb.beginTx();
+                    try{
+                        graphDb.schema().indexFor(entry.label).on(entry.property).create();
+                        tx.success();
+                    }finally {
+                        tx.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Waits until the constraints have been created and every index of the registry is online
+     * (indices failing to populate are reported)
+     */
+    private static void awaitOnline(GraphDatabaseService graphDb, ExecutorService constraintsExecutor, long startTime)
+            throws InterruptedException{
+
+        long lastReport = 0L;
+        String lastProgress = null;
+
+        while(true){
+
+            boolean constraintsDone = constraintsExecutor.isTerminated();
+            int online = 0;
+            List<String> pending = new LinkedList<>();
+            List<String> failed = new LinkedList<>();
+
+            Transaction tx = graphDb.beginTx();
+            try{
+                Schema schema = graphDb.schema();
+                Map<String, IndexDefinition> indices = new HashMap<>();
+                for(IndexDefinition index : schema.getIndexes()){
+                    for(String property : index.getPropertyKeys()){
+                        indices.put(getKey(index.getLabel(), property), index);
+                    }
+                }
+                for(Entry entry : ENTRIES){
+                    IndexDefinition index = indices.get(getKey(entry.label, entry.property));
+                    if(index == null){
+                        pending.add(entry.toString());
+                        continue;
+                    }
+                    Schema.IndexState state = schema.getIndexState(index);
+                    if(state == Schema.IndexState.ONLINE){
+                        online++;
+                    }else if(state == Schema.IndexState.FAILED){
+                        failed.add(entry + ": " + schema.getIndexFailure(index));
+                    }else{
+                        pending.add(entry.toString());
+                    }
+                }
+                tx.success();
+            }finally {
+                tx.close();
+            }
+
+            if(constraintsDone && pending.isEmpty()){
+                for(String failure : failed){
+                    System.out.println("WARNING: index " + failure);
+                }
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            String progress = online + "/" + ENTRIES.size() + " indices online";
+            if(!progress.equals(lastProgress) || now - lastReport >= PROGRESS_INTERVAL_MILLIS){
+                System.out.println(progress + " after " + (now - startTime) / 1000 + "s, waiting for " + pending);
+                lastProgress = progress;
+                lastReport = now;
+            }
+
+            constraintsExecutor.awaitTermination(200, TimeUnit.MILLISECONDS);
+            if(constraintsDone){
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    /**
+     * @return number of values of the entry property shared by more than one node
+     */
+    private static int countDuplicates(GraphDatabaseService graphDb, Entry entry){
+        Set<Object> values = new HashSet<>();
+        Set<Object> duplicates = new HashSet<>();
+        ResourceIterator<Node> iterator = graphDb.findNodes(entry.label);
+        try{
+            while(iterator.hasNext()){
+                Object value = iterator.next().getProperty(entry.property, null);
+                if(value != null && !values.add(value)){
+                    duplicates.add(value);
+                }
+            }
+        }finally {
+            iterator.close();
+        }
+        return duplicates.size();
+    }
+
+    private static Set<String> getIndexedKeys(Schema schema, boolean constraints){
+        Set<String> keys = new HashSet<>();
+        if(constraints){
+            for(ConstraintDefinition constraint : schema.getConstraints()){
+                for(String property : constraint.getPropertyKeys()){
+                    keys.add(getKey(constraint.getLabel(), property));
+                }
+            }
+        }else{
+            for(IndexDefinition index : schema.getIndexes()){
+                if(!index.isConstraintIndex()){
+                    for(String property : index.getPropertyKeys()){
+                        keys.add(getKey(index.getLabel(), property));
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static String getKey(Label label, String property){
+        return label.name() + "." + property;
+    }
+}
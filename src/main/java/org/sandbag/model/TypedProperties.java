@@ -0,0 +1,170 @@
+package org.sandbag.model;
+
+import org.neo4j.graphdb.PropertyContainer;
+
+/**
+ *
+ * Numeric properties stored as numbers (Double or Long) instead of strings, so that reading them doesn't go
+ * through String.valueOf + Double.parseDouble and Cypher can aggregate them without toFloat.
+ * Values received as text (coordinates, offset entitlements...) are only stored as numbers when the number
+ * prints back exactly as the text received (e.g. "50.1" or "55", but not "50.10", "" or "Not set"), otherwise the
+ * text is kept: text getters return exactly what was stored either way, and numeric getters accept both.
+ *
+ */
+public final class TypedProperties {
+
+    private TypedProperties(){}
+
+    /**
+     * @return the text as a Double when it's a decimal number written the way Double.toString writes it,
+     * the text itself otherwise
+     */
+    public static Object toDoubleOrText(String text){
+        if(text != null && !text.isEmpty()){
+            try{
+                double value = Double.parseDouble(text);
+                if(!Double.isNaN(value) && !Double.isInfinite(value) && Double.toString(value).equals(text)){
+                    return value;
+                }
+            }catch (NumberFormatException e){
+                //not a number, kept as text
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @return the text as a Long when it's an integer written the way Long.toString writes it,
+     * as a Double like toDoubleOrText, or the text itself otherwise
+     */
+    public static Object toNumberOrText(String text){
+        if(text != null && !text.isEmpty() && text.length() <= 19){
+            boolean digits = true;
+            for(int i = text.charAt(0) == '-' ? 1 : 0; i < text.length() && digits; i++){
+                digits = Character.isDigit(text.charAt(i));
+            }
+            if(digits && text.length() > (text.charAt(0) == '-' ? 1 : 0)){
+                try{
+                    long value = Long.parseLong(text);
+                    if(Long.toString(value).equals(text)){
+                        return value;
+                    }
+                }catch (NumberFormatException e){
+                    //out of range, kept as text
+                }
+                return text;
+            }
+        }
+        return toDoubleOrText(text);
+    }
+
+    public static void setDoubleOrText(PropertyContainer container, String key, String text){
+        container.setProperty(key, toDoubleOrText(text));
+    }
+
+    public static void setNumberOrText(PropertyContainer container, String key, String text){
+        container.setProperty(key, toNumberOrText(text));
+    }
+
+    /**
+     * @return the property as text, the same one it was set with
+     */
+    public static String getText(PropertyContainer container, String key){
+        return String.valueOf(container.getProperty(key));
+    }
+
+    /**
+     * @return the value of a numeric property (numbers stored as text by previous versions are parsed)
+     * @throws org.neo4j.graphdb.NotFoundException when the property is not set
+     * @throws NumberFormatException when the property is not a number
+     */
+    public static double getDouble(PropertyContainer container, String key){
+        Object value = container.getProperty(key);
+        if(value instanceof Number){
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(String.valueOf(value));
+    }
+
+    /**
+     * @return the value of a numeric property, defaultValue when it's not set or it's not a number
+     */
+    public static double getDouble(PropertyContainer container, String key, double defaultValue){
+        return toDouble(container.getProperty(key, null), defaultValue);
+    }
+
+    /**
+     * @return the value of a property already read (e.g. the previous value of a property that has changed),
+     * defaultValue when it's null or it's not a number
+     */
+    public static double toDouble(Object value, double defaultValue){
+        if(value instanceof Number){
+            return ((Number) value).doubleValue();
+        }
+        if(value != null){
+            try{
+                return Double.parseDouble(String.valueOf(value));
+            }catch (NumberFormatException e){
+                //not a number
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return the value of an integer property, defaultValue when it's not set or it's not an integer
+     */
+    public static long getLong(PropertyContainer container, String key, long defaultValue){
+        Object value = container.getProperty(key, null);
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte){
+            return ((Number) value).longValue();
+        }
+        if(value instanceof String){
+            Object parsed = toNumberOrText((String) value);
+            if(parsed instanceof Long){
+                return (Long) parsed;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Rewrites a property stored as text as a number when it can be done without changing its text
+     *
+     * @param decimal true to store numbers as Double (e.g. coordinates), false to store integers as Long
+     * @return true when the property has been rewritten
+     */
+    public static boolean migrate(PropertyContainer container, String key, boolean decimal){
+        Object value = container.getProperty(key, null);
+        if(value instanceof String){
+            Object typed = decimal ? toDoubleOrText((String) value) : toNumberOrText((String) value);
+            if(typed instanceof Number){
+                container.setProperty(key, typed);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites a property stored as text as a Double, for properties that are only ever read as doubles
+     * (e.g. verified emissions) so the text they were stored with doesn't need to be kept
+     *
+     * @return true when the property has been rewritten
+     */
+    public static boolean migrateDouble(PropertyContainer container, String key){
+        Object value = container.getProperty(key, null);
+        if(value instanceof String){
+            try{
+                double number = Double.parseDouble((String) value);
+                if(!Double.isNaN(number) && !Double.isInfinite(number)){
+                    container.setProperty(key, number);
+                    return true;
+                }
+            }catch (NumberFormatException e){
+                //not a number, kept as text
+            }
+        }
+        return false;
+    }
+}
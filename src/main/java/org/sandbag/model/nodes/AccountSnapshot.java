@@ -0,0 +1,225 @@
+package org.sandbag.model.nodes;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.PeriodTable;
+import org.sandbag.model.relationships.*;
+import org.sandbag.model.relationships.interfaces.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ *
+ * Everything linked to an installation or aircraft operator through its outgoing relationships, read in a single
+ * walk of its relationship chain: verified emissions, allowances in allocation (per type), surrendered units and
+ * compliance codes are kept in arrays indexed by the ordinals of a PeriodTable, together with the offset entitlement,
+ * the offsets and the country, company and sector nodes.
+ * Reading a whole account this way costs one traversal instead of one per period and metric.
+ * A snapshot is not updated when the account is modified and must be used within the transaction it was loaded in.
+ *
+ */
+public abstract class AccountSnapshot {
+
+    private static final String[] ALLOCATION_TYPES = {AllowancesInAllocationModel.STANDARD_TYPE,
+            AllowancesInAllocationModel.ARTICLE_10C_TYPE, AllowancesInAllocationModel.NER_TYPE};
+
+    private final PeriodTable periods;
+
+    //NaN when there's no value for the period
+    private double[] allowancesInAllocation;
+    private double[][] allowancesInAllocationByType;
+    private double[] verifiedEmissions;
+    private double[] surrenderedUnits;
+    //null when there's no value for the period
+    private String[] compliance;
+
+    private String offsetEntitlement = null;
+    private final List<Offsets> offsets = new LinkedList<>();
+    private Node countryNode = null;
+    private Node companyNode = null;
+    private Node sectorNode = null;
+
+    protected AccountSnapshot(Node node, PeriodTable periods, String countryType, String companyType, String sectorType){
+
+        this.periods = periods;
+        allocate(periods.size());
+
+        for(Relationship relationship : node.getRelationships(Direction.OUTGOING)){
+
+            String type = relationship.getType().name();
+
+            if(type.equals(VerifiedEmissionsModel.LABEL)){
+                int period = getPeriodOrdinal(relationship);
+                if(period != PeriodTable.NOT_FOUND && Double.isNaN(verifiedEmissions[period])){
+                    verifiedEmissions[period] = new VerifiedEmissions(relationship).getValue();
+                }
+            }else if(type.equals(AllowancesInAllocationModel.LABEL)){
+                int period = getPeriodOrdinal(relationship);
+                if(period != PeriodTable.NOT_FOUND){
+                    AllowancesInAllocation allowances = new AllowancesInAllocation(relationship);
+                    double value = allowances.getValue();
+                    if(Double.isNaN(allowancesInAllocation[period])){
+                        allowancesInAllocation[period] = value;
+                    }
+                    int typeIndex = getAllocationTypeIndex(relationship);
+                    if(typeIndex >= 0 && Double.isNaN(allowancesInAllocationByType[typeIndex][period])){
+                        allowancesInAllocationByType[typeIndex][period] = value;
+                    }
+                }
+            }else if(type.equals(SurrenderedUnitsModel.LABEL)){
+                int period = getPeriodOrdinal(relationship);
+                if(period != PeriodTable.NOT_FOUND && Double.isNaN(surrenderedUnits[period])){
+                    surrenderedUnits[period] = new SurrenderedUnits(relationship).getValue();
+                }
+            }else if(type.equals(ComplianceModel.LABEL)){
+                int period = getPeriodOrdinal(relationship);
+                if(period != PeriodTable.NOT_FOUND && compliance[period] == null){
+                    compliance[period] = new Compliance(relationship).getValue();
+                }
+            }else if(type.equals(OffsetEntitlementModel.LABEL)){
+                if(offsetEntitlement == null){
+                    offsetEntitlement = new OffsetEntitlement(relationship).getValue();
+                }
+            }else if(type.equals(OffsetsModel.LABEL)){
+                offsets.add(new Offsets(relationship));
+            }else if(type.equals(countryType)){
+                countryNode = relationship.getEndNode();
+            }else if(type.equals(companyType)){
+                companyNode = relationship.getEndNode();
+            }else if(type.equals(sectorType)){
+                sectorNode = relationship.getEndNode();
+            }
+        }
+    }
+
+    /**
+     * @return the period table whose ordinals index the values of the snapshot
+     */
+    public PeriodTable getPeriods(){
+        return periods;
+    }
+
+    /**
+     * @return allowances in allocation of the period (the first ones found whatever their type), NaN if there are none
+     */
+    public double getAllowancesInAllocation(int period){
+        return get(allowancesInAllocation, period);
+    }
+
+    /**
+     * @param type STANDARD_TYPE, ARTICLE_10C_TYPE or NER_TYPE
+     * @return allowances in allocation of the period and type, NaN if there are none
+     */
+    public double getAllowancesInAllocation(int period, String type){
+        for(int i = 0; i < ALLOCATION_TYPES.length; i++){
+            if(ALLOCATION_TYPES[i].equals(type)){
+                return get(allowancesInAllocationByType[i], period);
+            }
+        }
+        throw new IllegalArgumentException("Unknown allowances in allocation type: " + type);
+    }
+
+    /**
+     * @return verified emissions of the period, NaN if there are none
+     */
+    public double getVerifiedEmissions(int period){
+        return get(verifiedEmissions, period);
+    }
+
+    /**
+     * @return surrendered units of the period, NaN if there are none
+     */
+    public double getSurrenderedUnits(int period){
+        return get(surrenderedUnits, period);
+    }
+
+    /**
+     * @return compliance code of the period, null if there's none
+     */
+    public String getCompliance(int period){
+        return period >= 0 && period < compliance.length ? compliance[period] : null;
+    }
+
+    /**
+     * @return value of the offset entitlement, the same text getOffsetEntitlementForPeriod returns if there's none
+     */
+    public String getOffsetEntitlement(){
+        return offsetEntitlement != null ? offsetEntitlement : getOffsetEntitlementNotSet();
+    }
+
+    /**
+     * @return text standing for a missing offset entitlement
+     */
+    protected abstract String getOffsetEntitlementNotSet();
+
+    public List<Offsets> getOffsets(){
+        return Collections.unmodifiableList(offsets);
+    }
+
+    /**
+     * @return the country of the account, null if it has none
+     */
+    public Country getCountry(){
+        return countryNode != null ? new Country(countryNode) : null;
+    }
+
+    /**
+     * @return the company of the account, null if it has none
+     */
+    public Company getCompany(){
+        return companyNode != null ? new Company(companyNode) : null;
+    }
+
+    /**
+     * @return the sector of the account, null if it has none
+     */
+    public Sector getSector(){
+        return sectorNode != null ? new Sector(sectorNode) : null;
+    }
+
+    private int getPeriodOrdinal(Relationship relationship){
+        int period = periods.getOrdinal(PeriodSlices.getPeriodNodeId(relationship.getEndNode()));
+        if(period >= compliance.length){
+            //the table picked up periods created after the snapshot arrays were allocated
+            allocate(periods.size());
+        }
+        return period;
+    }
+
+    private static int getAllocationTypeIndex(Relationship relationship){
+        Object type = relationship.getProperty(AllowancesInAllocationModel.type, null);
+        for(int i = 0; i < ALLOCATION_TYPES.length; i++){
+            if(ALLOCATION_TYPES[i].equals(type)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void allocate(int size){
+        allowancesInAllocation = grow(allowancesInAllocation, size);
+        allowancesInAllocationByType = allowancesInAllocationByType != null ?
+                allowancesInAllocationByType : new double[ALLOCATION_TYPES.length][];
+        for(int i = 0; i < ALLOCATION_TYPES.length; i++){
+            allowancesInAllocationByType[i] = grow(allowancesInAllocationByType[i], size);
+        }
+        verifiedEmissions = grow(verifiedEmissions, size);
+        surrenderedUnits = grow(surrenderedUnits, size);
+        compliance = compliance != null ? Arrays.copyOf(compliance, size) : new String[size];
+    }
+
+    private static double[] grow(double[] values, int size){
+        int oldSize = values != null ? values.length : 0;
+        double[] result = values != null ? Arrays.copyOf(values, size) : new double[size];
+        Arrays.fill(result, oldSize, size, Double.NaN);
+        return result;
+    }
+
+    private static double get(double[] values, int period){
+        return period >= 0 && period < values.length ? values[period] : Double.NaN;
+    }
+}
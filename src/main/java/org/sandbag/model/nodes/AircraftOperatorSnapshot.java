@@ -0,0 +1,32 @@
+package org.sandbag.model.nodes;
+
+import org.sandbag.model.PeriodTable;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCompanyModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCountryModel;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorSectorModel;
+
+/**
+ *
+ * Snapshot of an aircraft operator and everything linked to it, loaded with a single walk of its relationships
+ * (see AccountSnapshot).
+ *
+ */
+public class AircraftOperatorSnapshot extends AccountSnapshot {
+
+    private final AircraftOperator aircraftOperator;
+
+    public AircraftOperatorSnapshot(AircraftOperator aircraftOperator, PeriodTable periods){
+        super(aircraftOperator.node, periods, AircraftOperatorCountryModel.LABEL, AircraftOperatorCompanyModel.LABEL,
+                AircraftOperatorSectorModel.LABEL);
+        this.aircraftOperator = aircraftOperator;
+    }
+
+    public AircraftOperator getAircraftOperator(){
+        return aircraftOperator;
+    }
+
+    @Override
+    protected String getOffsetEntitlementNotSet(){
+        return "Not Set";
+    }
+}
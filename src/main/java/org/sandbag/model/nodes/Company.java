@@ -2,6 +2,7 @@ package org.sandbag.model.nodes;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.sandbag.model.nodes.interfaces.CompanyModel;
 import org.sandbag.model.relationships.ParentCompany;
 
@@ -16,6 +17,10 @@ public class Company implements CompanyModel {
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
 
     @Override
     public String getName() {
@@ -97,6 +102,32 @@ public class Company implements CompanyModel {
         node.setProperty(CompanyModel.parentCompany, value           );
     }
 
+    /**
+     * @return the company this one is a subsidiary of (PARENT_COMPANY), null if it has none
+     */
+    public Company getParent(){
+        Relationship relationship = node.getSingleRelationship(new ParentCompany(null), Direction.OUTGOING);
+        return relationship != null ? new Company(relationship.getEndNode()) : null;
+    }
+
+    public void setParent(Company parent){
+        node.createRelationshipTo(parent.node, new ParentCompany(null));
+    }
+
+    /**
+     * @return name of the company at the top of the group of this one, its own name when it's not part of a group
+     */
+    public String getUltimateParent(){
+        return String.valueOf(node.getProperty(CompanyModel.ultimateParent, getName()));
+    }
+
+    /**
+     * @return names of the companies above this one, from the ultimate parent down to its parent
+     */
+    public String[] getAncestors(){
+        return (String[]) node.getProperty(CompanyModel.ancestors, new String[0]);
+    }
+
     @Override
     public String name() {
         return LABEL;
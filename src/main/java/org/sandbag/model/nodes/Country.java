@@ -2,8 +2,10 @@ package org.sandbag.model.nodes;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.interfaces.CountryModel;
 import org.sandbag.model.relationships.*;
+import org.sandbag.model.relationships.interfaces.*;
 import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorCountry;
 import org.sandbag.model.relationships.installations.InstallationCountry;
 
@@ -15,11 +17,16 @@ import java.util.Iterator;
 public class Country implements CountryModel {
 
     Node node = null;
+    private PeriodBuckets periodBuckets = null;
 
     public Country(Node node){
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
     public String getId() {
         return String.valueOf(node.getProperty(CountryModel.id));
     }
@@ -35,32 +42,32 @@ public class Country implements CountryModel {
 
     @Override
     public double getCenterLatitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.centerLatitude)));
+        return TypedProperties.getDouble(node, CountryModel.centerLatitude);
     }
 
     @Override
     public double getCenterLongitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.centerLongitude)));
+        return TypedProperties.getDouble(node, CountryModel.centerLongitude);
     }
 
     @Override
     public double getBoundingBoxMaxLatitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.boundingBoxMaxLatitude)));
+        return TypedProperties.getDouble(node, CountryModel.boundingBoxMaxLatitude);
     }
 
     @Override
     public double getBoundingBoxMinLatitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.boundingBoxMinLatitude)));
+        return TypedProperties.getDouble(node, CountryModel.boundingBoxMinLatitude);
     }
 
     @Override
     public double getBoundingBoxMaxLongitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.boundingBoxMaxLongitude)));
+        return TypedProperties.getDouble(node, CountryModel.boundingBoxMaxLongitude);
     }
 
     @Override
     public double getBoundingBoxMinLongitude() {
-        return Double.parseDouble(String.valueOf(node.getProperty(CountryModel.boundingBoxMinLongitude)));
+        return TypedProperties.getDouble(node, CountryModel.boundingBoxMinLongitude);
     }
 
     public void setName(String value) {
@@ -133,39 +140,46 @@ public class Country implements CountryModel {
     }
 
     public void setVerifiedEmissionsEUWide(Period period, double value, String type){
-        VerifiedEmissionsEUWide verifiedEmissionsEUWide = new VerifiedEmissionsEUWide(node.createRelationshipTo(period.node, new VerifiedEmissionsEUWide(null)));
+        VerifiedEmissionsEUWide verifiedEmissionsEUWide = new VerifiedEmissionsEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new VerifiedEmissionsEUWide(null), VerifiedEmissionsEUWideModel.type, type));
         verifiedEmissionsEUWide.setValue(value);
-        verifiedEmissionsEUWide.setType(type);
     }
 
 
     public void setAllowancesInAllocationEUWide(Period period, double value, String type) {
-        AllowancesInAllocationEUWide allowancesInAllocationEUWide = new AllowancesInAllocationEUWide(node.createRelationshipTo(period.node, new AllowancesInAllocationEUWide(null)));
+        AllowancesInAllocationEUWide allowancesInAllocationEUWide = new AllowancesInAllocationEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new AllowancesInAllocationEUWide(null), AllowancesInAllocationEUWideModel.type, type));
         allowancesInAllocationEUWide.setValue(value);
-        allowancesInAllocationEUWide.setType(type);
     }
 
     public void setOffsetsEUWide(Period period, double value, String type){
-        OffsetsEUWide offsetsEUWide = new OffsetsEUWide(node.createRelationshipTo(period.node, new OffsetsEUWide(null)));
+        OffsetsEUWide offsetsEUWide = new OffsetsEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new OffsetsEUWide(null), OffsetsEUWideModel.type, type));
         offsetsEUWide.setValue(value);
-        offsetsEUWide.setType(type);
     }
 
     public void setLegalCapEUWide(Period period, double value, String type){
-        LegalCapEUWide legalCapEUWide = new LegalCapEUWide(node.createRelationshipTo(period.node, new LegalCapEUWide(null)));
+        LegalCapEUWide legalCapEUWide = new LegalCapEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new LegalCapEUWide(null), LegalCapEUWideModel.type, type));
         legalCapEUWide.setValue(value);
-        legalCapEUWide.setType(type);
     }
 
     public void setOffsetEntitlementsEUWide(Period period, double value, String type){
-        OffsetEntitlementEUWide offsetEntitlementEUWide = new OffsetEntitlementEUWide(node.createRelationshipTo(period.node, new OffsetEntitlementEUWide(null)));
+        OffsetEntitlementEUWide offsetEntitlementEUWide = new OffsetEntitlementEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new OffsetEntitlementEUWide(null), OffsetEntitlementsEUWideModel.type, type));
         offsetEntitlementEUWide.setValue(value);
-        offsetEntitlementEUWide.setType(type);
     }
 
     public void setAuctionedEUWide(Period period, double value, String type){
-        AuctionedEUWide auctionedEUWide = new AuctionedEUWide(node.createRelationshipTo(period.node, new AuctionedEUWide(null)));
+        AuctionedEUWide auctionedEUWide = new AuctionedEUWide(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new AuctionedEUWide(null), AuctionedEUWideModel.type, type));
         auctionedEUWide.setValue(value);
-        auctionedEUWide.setType(type);
+    }
+
+    private PeriodBuckets getPeriodBuckets(){
+        if(periodBuckets == null){
+            periodBuckets = new PeriodBuckets(node);
+        }
+        return periodBuckets;
     }
 }
@@ -3,8 +3,11 @@ package org.sandbag.model.nodes;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.interfaces.InstallationModel;
 import org.sandbag.model.relationships.*;
+import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
 import org.sandbag.model.relationships.installations.*;
 
 import java.util.Iterator;
@@ -17,11 +20,16 @@ import java.util.List;
 public class Installation implements InstallationModel {
 
     Node node = null;
+    private PeriodBuckets periodBuckets = null;
 
     public Installation(Node node){
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
 
     @Override
     public String getId() {
@@ -98,12 +106,12 @@ public class Installation implements InstallationModel {
 
     @Override
     public void setLatitude(String latitude) {
-        node.setProperty(InstallationModel.latitude, latitude);
+        TypedProperties.setDoubleOrText(node, InstallationModel.latitude, latitude);
     }
 
     @Override
     public void setLongitude(String longitude) {
-        node.setProperty(InstallationModel.longitude, longitude);
+        TypedProperties.setDoubleOrText(node, InstallationModel.longitude, longitude);
     }
 
     @Override
@@ -164,12 +172,26 @@ public class Installation implements InstallationModel {
 
     @Override
     public String getLatitude() {
-        return String.valueOf(node.getProperty(InstallationModel.latitude));
+        return TypedProperties.getText(node, InstallationModel.latitude);
     }
 
     @Override
     public String getLongitude() {
-        return String.valueOf(node.getProperty(InstallationModel.longitude));
+        return TypedProperties.getText(node, InstallationModel.longitude);
+    }
+
+    /**
+     * @return latitude as a number, NaN when it's not set or it's not numeric
+     */
+    public double getLatitudeValue() {
+        return TypedProperties.getDouble(node, InstallationModel.latitude, Double.NaN);
+    }
+
+    /**
+     * @return longitude as a number, NaN when it's not set or it's not numeric
+     */
+    public double getLongitudeValue() {
+        return TypedProperties.getDouble(node, InstallationModel.longitude, Double.NaN);
     }
 
     @Override
@@ -220,33 +242,105 @@ public class Installation implements InstallationModel {
 
     @Override
     public void setVerifiedEmissionsForPeriod(Period period, double value){
-        VerifiedEmissions verifiedEmissions = new VerifiedEmissions(node.createRelationshipTo(period.node, new VerifiedEmissions(null)));
+        VerifiedEmissions verifiedEmissions = new VerifiedEmissions(PeriodRelationships.upsert(getPeriodBuckets(), period, new VerifiedEmissions(null)));
         verifiedEmissions.setValue(value);
     }
 
     @Override
     public void setOffsetEntitlementForPeriod(Period period, String value){
-        OffsetEntitlement offsetEntitlement = new OffsetEntitlement(node.createRelationshipTo(period.node, new OffsetEntitlement(null)));
+        OffsetEntitlement offsetEntitlement = new OffsetEntitlement(PeriodRelationships.upsert(getPeriodBuckets(), period, new OffsetEntitlement(null)));
         offsetEntitlement.setValue(value);
     }
 
     @Override
     public void setSurrenderedUnitsForPeriod(Period period, double value) {
-        SurrenderedUnits surrenderedUnits = new SurrenderedUnits(node.createRelationshipTo(period.node, new SurrenderedUnits(null)));
+        SurrenderedUnits surrenderedUnits = new SurrenderedUnits(PeriodRelationships.upsert(getPeriodBuckets(), period, new SurrenderedUnits(null)));
         surrenderedUnits.setValue(value);
     }
 
     @Override
     public void setComplianceForPeriod(Period period, String value) {
-        Compliance compliance = new Compliance(node.createRelationshipTo(period.node, new Compliance(null)));
+        Compliance compliance = new Compliance(PeriodRelationships.upsert(getPeriodBuckets(), period, new Compliance(null)));
         compliance.setValue(value);
     }
 
     @Override
     public void setAllowancesInAllocationForPeriod(Period period, double value, String type) {
-        AllowancesInAllocation allowancesInAllocation = new AllowancesInAllocation(node.createRelationshipTo(period.node, new AllowancesInAllocation(null)));
+        AllowancesInAllocation allowancesInAllocation = new AllowancesInAllocation(PeriodRelationships.upsert(getPeriodBuckets(), period,
+                new AllowancesInAllocation(null), AllowancesInAllocationModel.type, type));
         allowancesInAllocation.setValue(value);
-        allowancesInAllocation.setType(type);
+    }
+
+    /**
+     * Deletes the verified emissions, surrendered units, compliance code and standard allowances in allocation of the period
+     *
+     * @return number of relationships deleted
+     */
+    public int deleteComplianceDataForPeriod(Period period){
+        return PeriodRelationships.delete(getPeriodBuckets(), period, new VerifiedEmissions(null)) +
+                PeriodRelationships.delete(getPeriodBuckets(), period, new SurrenderedUnits(null)) +
+                PeriodRelationships.delete(getPeriodBuckets(), period, new Compliance(null)) +
+                PeriodRelationships.delete(getPeriodBuckets(), period, new AllowancesInAllocation(null),
+                        AllowancesInAllocationModel.type, AllowancesInAllocationModel.STANDARD_TYPE);
+    }
+
+    public void removeCountry(){
+        deleteRelationships(new InstallationCountry(null));
+    }
+
+    public void removeCompany(){
+        deleteRelationships(new InstallationCompany(null));
+    }
+
+    public void removeSector(){
+        deleteRelationships(new InstallationSector(null));
+    }
+
+    /**
+     * Deletes the installation along with all its relationships and the offsets it holds
+     *
+     * @return number of nodes and relationships deleted
+     */
+    public int delete(){
+        periodBuckets = null;
+        int deleted = 0;
+
+        List<Node> offsetNodes = new LinkedList<>();
+        for(Relationship relationship : node.getRelationships(new Offsets(null), Direction.OUTGOING)){
+            offsetNodes.add(relationship.getEndNode());
+        }
+        for(Node offsetNode : offsetNodes){
+            for(Relationship relationship : offsetNode.getRelationships()){
+                relationship.delete();
+                deleted++;
+            }
+            offsetNode.delete();
+            deleted++;
+        }
+
+        for(Relationship relationship : node.getRelationships()){
+            relationship.delete();
+            deleted++;
+        }
+        node.delete();
+        return deleted + 1;
+    }
+
+    private void deleteRelationships(RelationshipType type){
+        List<Relationship> relationships = new LinkedList<>();
+        for(Relationship relationship : node.getRelationships(type, Direction.OUTGOING)){
+            relationships.add(relationship);
+        }
+        for(Relationship relationship : relationships){
+            relationship.delete();
+        }
+    }
+
+    private PeriodBuckets getPeriodBuckets(){
+        if(periodBuckets == null){
+            periodBuckets = new PeriodBuckets(node);
+        }
+        return periodBuckets;
     }
 
     @Override
@@ -255,17 +349,8 @@ public class Installation implements InstallationModel {
     }
 
     public VerifiedEmissions getVerifiedEmissionsForPeriod(Period period){
-        VerifiedEmissions emissions = null;
-        Iterator<Relationship> iterator = node.getRelationships(new VerifiedEmissions((null)),Direction.OUTGOING).iterator();
-        boolean emissionsFound = false;
-        while(iterator.hasNext() && !emissionsFound){
-            VerifiedEmissions tempEmissions = new VerifiedEmissions(iterator.next());
-            if(period.getName().equals(tempEmissions.getPeriod().getName())){
-                emissions = tempEmissions;
-                emissionsFound = true;
-            }
-        }
-        return emissions;
+        Relationship relationship = getPeriodBuckets().get(new VerifiedEmissions(null), period);
+        return relationship != null ? new VerifiedEmissions(relationship) : null;
     }
 
     public List<AllowancesInAllocation> getAllowancesInAllocationByType(String type){
@@ -283,61 +368,23 @@ public class Installation implements InstallationModel {
     }
 
     public AllowancesInAllocation getAllowancesInAllocationForPeriod(Period period){
-        AllowancesInAllocation allowances = null;
-
-        Iterator<Relationship> iterator = node.getRelationships(new AllowancesInAllocation((null)),Direction.OUTGOING).iterator();
-        boolean allowancesFound = false;
-
-        while(iterator.hasNext() && !allowancesFound){
-            AllowancesInAllocation tempAllowances = new AllowancesInAllocation(iterator.next());
-            if(period.getName().equals(tempAllowances.getPeriod().getName())){
-                allowances = tempAllowances;
-                allowancesFound = true;
-            }
-        }
-        return allowances;
+        Relationship relationship = getPeriodBuckets().get(new AllowancesInAllocation(null), period);
+        return relationship != null ? new AllowancesInAllocation(relationship) : null;
     }
 
     public AllowancesInAllocation getAllowancesInAllocationForPeriodAndType(Period period, String type){
-        AllowancesInAllocation allowances = null;
-        Iterator<Relationship> iterator = node.getRelationships(new AllowancesInAllocation((null)),Direction.OUTGOING).iterator();
-        boolean allowancesFound = false;
-        while(iterator.hasNext() && !allowancesFound){
-            AllowancesInAllocation tempAllowances = new AllowancesInAllocation(iterator.next());
-            if(period.getName().equals(tempAllowances.getPeriod().getName()) &&
-                    tempAllowances.getType().equals(type)){
-                allowances = tempAllowances;
-                allowancesFound = true;
-            }
-        }
-        return allowances;
+        Relationship relationship = getPeriodBuckets().get(new AllowancesInAllocation(null), period,
+                AllowancesInAllocationModel.type, type);
+        return relationship != null ? new AllowancesInAllocation(relationship) : null;
     }
 
     public SurrenderedUnits getSurrenderedUnitsForPeriod(Period period){
-        SurrenderedUnits surrenderedUnits = null;
-        Iterator<Relationship> iterator = node.getRelationships(new SurrenderedUnits((null)),Direction.OUTGOING).iterator();
-        boolean surrenderedUnitsFound = false;
-        while(iterator.hasNext() && !surrenderedUnitsFound){
-            SurrenderedUnits tempSurrenderedUnits = new SurrenderedUnits(iterator.next());
-            if(period.getName().equals(tempSurrenderedUnits.getPeriod().getName())){
-                surrenderedUnits = tempSurrenderedUnits;
-                surrenderedUnitsFound = true;
-            }
-        }
-        return surrenderedUnits;
+        Relationship relationship = getPeriodBuckets().get(new SurrenderedUnits(null), period);
+        return relationship != null ? new SurrenderedUnits(relationship) : null;
     }
 
     public Compliance getComplianceForPeriod(Period period){
-        Compliance compliance = null;
-        Iterator<Relationship> iterator = node.getRelationships(new Compliance((null)),Direction.OUTGOING).iterator();
-        boolean complianceFound = false;
-        while(iterator.hasNext() && !complianceFound){
-            Compliance tempCompliance = new Compliance(iterator.next());
-            if(period.getName().equals(tempCompliance.getPeriod().getName())){
-                compliance = tempCompliance;
-                complianceFound = true;
-            }
-        }
-        return compliance;
+        Relationship relationship = getPeriodBuckets().get(new Compliance(null), period);
+        return relationship != null ? new Compliance(relationship) : null;
     }
 }
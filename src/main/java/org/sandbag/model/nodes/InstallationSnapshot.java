@@ -0,0 +1,32 @@
+package org.sandbag.model.nodes;
+
+import org.sandbag.model.PeriodTable;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCompanyModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCountryModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationSectorModel;
+
+/**
+ *
+ * Snapshot of an installation and everything linked to it, loaded with a single walk of its relationships
+ * (see AccountSnapshot).
+ *
+ */
+public class InstallationSnapshot extends AccountSnapshot {
+
+    private final Installation installation;
+
+    public InstallationSnapshot(Installation installation, PeriodTable periods){
+        super(installation.node, periods, InstallationCountryModel.LABEL, InstallationCompanyModel.LABEL,
+                InstallationSectorModel.LABEL);
+        this.installation = installation;
+    }
+
+    public Installation getInstallation(){
+        return installation;
+    }
+
+    @Override
+    protected String getOffsetEntitlementNotSet(){
+        return "Not set";
+    }
+}
@@ -3,6 +3,7 @@ package org.sandbag.model.nodes;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.interfaces.OffsetModel;
 import org.sandbag.model.relationships.OffsetOriginatingCountry;
 import org.sandbag.model.relationships.OffsetPeriod;
@@ -22,7 +23,7 @@ public class Offset implements OffsetModel {
 
     @Override
     public double getAmount() {
-        return Double.valueOf(String.valueOf(node.getProperty(OffsetModel.amount)));
+        return TypedProperties.getDouble(node, OffsetModel.amount);
     }
 
     @Override
@@ -37,7 +38,7 @@ public class Offset implements OffsetModel {
 
     @Override
     public Period getPeriod() {
-        return new Period(node.getSingleRelationship(new OffsetPeriod(null), Direction.OUTGOING).getEndNode());
+        return PeriodSlices.getPeriod(node.getSingleRelationship(new OffsetPeriod(null), Direction.OUTGOING).getEndNode());
     }
 
     @Override
@@ -62,7 +63,7 @@ public class Offset implements OffsetModel {
 
     @Override
     public void setPeriod(Period period) {
-        node.createRelationshipTo(period.node, new OffsetPeriod(null));
+        node.createRelationshipTo(PeriodSlices.getTarget(period, new OffsetPeriod(null), node), new OffsetPeriod(null));
     }
 
     @Override
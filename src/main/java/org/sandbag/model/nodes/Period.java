@@ -14,6 +14,10 @@ public class Period implements PeriodModel {
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
     @Override
     public String getName() {
         return String.valueOf(node.getProperty(PeriodModel.name));
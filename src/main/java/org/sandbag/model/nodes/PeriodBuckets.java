@@ -0,0 +1,100 @@
+package org.sandbag.model.nodes;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Lookup of the relationships linking a node to a period (verified emissions, compliance...) in O(1).
+ * The first time a relationship type is asked for, its outgoing relationships are walked once and put into
+ * buckets keyed by the id of the period node (see PeriodSlices when relationships point at period slices),
+ * so the period nodes are never loaded and their names are never compared.
+ * Buckets live as long as the node wrapper holding them (usually a single transaction) and the upserts and deletes
+ * made through them (see PeriodRelationships) keep them up to date, so a wrapper writing the values of many periods
+ * only walks the relationships of each type once.
+ *
+ */
+final class PeriodBuckets {
+
+    private final Node node;
+    private final Map<String, Map<Long, List<Relationship>>> bucketsByType = new HashMap<>();
+
+    PeriodBuckets(Node node){
+        this.node = node;
+    }
+
+    /**
+     * @return the first relationship of the type provided between the node and the period, null if there's none
+     */
+    Relationship get(RelationshipType type, Period period){
+        List<Relationship> bucket = getBucket(type, period);
+        return bucket != null && !bucket.isEmpty() ? bucket.get(0) : null;
+    }
+
+    /**
+     * @return the first relationship of the type and subtype provided between the node and the period, null if there's none
+     */
+    Relationship get(RelationshipType type, Period period, String subtypeProperty, String subtype){
+        List<Relationship> bucket = getBucket(type, period);
+        if(bucket != null){
+            for(Relationship relationship : bucket){
+                if(subtype.equals(relationship.getProperty(subtypeProperty, null))){
+                    return relationship;
+                }
+            }
+        }
+        return null;
+    }
+
+    Node getNode(){
+        return node;
+    }
+
+    /**
+     * @return the relationships of the type provided between the node and the period, added to the buckets (empty)
+     * when there are none so that the relationships created are added to it
+     */
+    List<Relationship> getOrCreateBucket(RelationshipType type, Period period){
+        Map<Long, List<Relationship>> buckets = getBuckets(type);
+        List<Relationship> bucket = buckets.get(period.node.getId());
+        if(bucket == null){
+            bucket = new ArrayList<>(1);
+            buckets.put(period.node.getId(), bucket);
+        }
+        return bucket;
+    }
+
+    private List<Relationship> getBucket(RelationshipType type, Period period){
+        //periods not found in the database have no relationships
+        return period != null ? getBuckets(type).get(period.node.getId()) : null;
+    }
+
+    private Map<Long, List<Relationship>> getBuckets(RelationshipType type){
+
+        Map<Long, List<Relationship>> buckets = bucketsByType.get(type.name());
+
+        if(buckets == null){
+            buckets = new HashMap<>();
+            for(Relationship relationship : node.getRelationships(type, Direction.OUTGOING)){
+                long periodNodeId = PeriodSlices.getPeriodNodeId(relationship.getEndNode());
+                List<Relationship> bucket = buckets.get(periodNodeId);
+                if(bucket == null){
+                    //one relationship per period except for allowances in allocation (one per type)
+                    bucket = new ArrayList<>(1);
+                    buckets.put(periodNodeId, bucket);
+                }
+                bucket.add(relationship);
+            }
+            bucketsByType.put(type.name(), buckets);
+        }
+
+        return buckets;
+    }
+}
@@ -0,0 +1,96 @@
+package org.sandbag.model.nodes;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ *
+ * Upserts (and deletes) for the relationships linking a node to a period (verified emissions, allowances in allocation...),
+ * keyed by (node, period, relationship type, subtype).
+ * The relationship already stored for the key is returned so that its properties are overwritten, and a new one
+ * is only created when there's none, which makes re-running imports or precomputations idempotent.
+ * Relationships are looked up through the period buckets of the node (see PeriodBuckets), which are kept up to date,
+ * so only the relationships of the period are compared instead of every relationship of the type.
+ * Duplicates left by previous versions of the importers are deleted when they're found.
+ *
+ */
+final class PeriodRelationships {
+
+    private PeriodRelationships(){}
+
+    /**
+     * @return the relationship of the type provided between the node and the period, created if needed
+     */
+    static Relationship upsert(PeriodBuckets buckets, Period period, RelationshipType type){
+        return upsert(buckets, period, type, null, null);
+    }
+
+    /**
+     * @param subtypeProperty property telling apart relationships of the same type and period (null when there's none)
+     * @param subtype value of the subtype property for the relationship wanted
+     * @return the relationship of the type (and subtype) provided between the node and the period, created if needed
+     * (setting its subtype property)
+     */
+    static Relationship upsert(PeriodBuckets buckets, Period period, RelationshipType type, String subtypeProperty,
+                               String subtype){
+
+        List<Relationship> bucket = buckets.getOrCreateBucket(type, period);
+        Relationship found = null;
+
+        Iterator<Relationship> iterator = bucket.iterator();
+        while(iterator.hasNext()){
+            Relationship relationship = iterator.next();
+            if(subtypeProperty == null || subtype.equals(relationship.getProperty(subtypeProperty, null))){
+                if(found == null){
+                    found = relationship;
+                }else{
+                    iterator.remove();
+                    relationship.delete();
+                }
+            }
+        }
+
+        if(found == null){
+            Node node = buckets.getNode();
+            found = node.createRelationshipTo(PeriodSlices.getTarget(period, type, node), type);
+            if(subtypeProperty != null){
+                found.setProperty(subtypeProperty, subtype);
+            }
+            bucket.add(found);
+        }
+
+        return found;
+    }
+
+    /**
+     * Deletes the relationships of the type provided between the node and the period
+     */
+    static int delete(PeriodBuckets buckets, Period period, RelationshipType type){
+        return delete(buckets, period, type, null, null);
+    }
+
+    /**
+     * Deletes the relationships of the type (and subtype) provided between the node and the period
+     *
+     * @return number of relationships deleted
+     */
+    static int delete(PeriodBuckets buckets, Period period, RelationshipType type, String subtypeProperty,
+                      String subtype){
+
+        int deleted = 0;
+        Iterator<Relationship> iterator = buckets.getOrCreateBucket(type, period).iterator();
+        while(iterator.hasNext()){
+            Relationship relationship = iterator.next();
+            if(subtypeProperty == null || subtype.equals(relationship.getProperty(subtypeProperty, null))){
+                iterator.remove();
+                relationship.delete();
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,361 @@
+package org.sandbag.model.nodes;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.nodes.interfaces.PeriodModel;
+import org.sandbag.model.relationships.SliceOf;
+import org.sandbag.model.relationships.interfaces.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Optional storage layout keeping PERIOD nodes from becoming supernodes.
+ * By default every verified emissions, allowances in allocation, surrendered units, compliance, offset entitlement
+ * and offset period relationship points at its PERIOD node, so each period gathers hundreds of thousands of
+ * relationships and every write linking a node to it takes the lock of the same period node.
+ * Once a database has been migrated (see MigratePeriodStorage) those relationships point at PERIOD_SLICE nodes instead:
+ * every period has one slice per relationship type and shard, the shard being the id of the start node modulo
+ * the number of shards, and every slice is linked to its period with a SLICE_OF relationship.
+ * Slices hold the name of their period (plus the type and shard), so Cypher queries aggregating by p.name only need
+ * (p:PERIOD_SLICE) instead of (p:PERIOD) (see DatabaseManager.getPeriodPattern).
+ * The Java API hides the layout: relationships are created against the right slice and their periods are always
+ * returned as the PERIOD node.
+ * Creating a relationship locks its end node, so concurrent transactions linking many nodes to the slices of a period
+ * should create them sorted by slice (getTarget) to avoid deadlocks; with plain periods they're serialized instead.
+ * The layout and the node ids cached for it only reflect committed transactions: periods whose slices are created or
+ * deleted by a transaction are read from the graph within it, and the layout is read again once it's committed
+ * (see Handler).
+ *
+ */
+public final class PeriodSlices {
+
+    //properties of the slice nodes (the name is the name of the period)
+    public static final String NAME_PROPERTY = PeriodModel.name;
+    public static final String TYPE_PROPERTY = "type";
+    public static final String SHARD_PROPERTY = "shard";
+    //number of shards of a sliced period, stored in the period node
+    public static final String SLICES_PROPERTY = "slices";
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    public static final List<String> SLICED_TYPES = Collections.unmodifiableList(Arrays.asList(
+            VerifiedEmissionsModel.LABEL,
+            AllowancesInAllocationModel.LABEL,
+            SurrenderedUnitsModel.LABEL,
+            ComplianceModel.LABEL,
+            OffsetEntitlementModel.LABEL,
+            OffsetPeriodModel.LABEL
+    ));
+
+    private static final long[] NOT_SLICED = new long[0];
+
+    /**
+     * Layout of an open database, with the node ids cached for it.
+     * Node ids are only meaningful for the database handle they were read from (and Neo4j reuses the ids of
+     * deleted nodes), so the layout is read again whenever a database is opened and dropped when it's shut down.
+     */
+    private static class Layout {
+
+        //shards of the sliced periods of the database, 0 when periods are not sliced
+        final int shards;
+        //slice node ids of every period (type index * shards + shard), NOT_SLICED when the period has no slices
+        final Map<Long, long[]> sliceIdsByPeriodId = new ConcurrentHashMap<>();
+        //period node id of every end node of a sliced type seen (periods map to themselves)
+        final Map<Long, Long> periodIdsByEndNodeId = new ConcurrentHashMap<>();
+
+        Layout(int shards){
+            this.shards = shards;
+        }
+    }
+
+    private static final Layout NO_DATABASE = new Layout(0);
+
+    private static volatile Layout layout = NO_DATABASE;
+
+    //periods whose slices have been created or deleted by the transaction of the current thread, not committed yet
+    //(a transaction closed without being committed leaves them until the next commit, they're only read uncached)
+    private static final ThreadLocal<Set<Long>> CHANGED_PERIOD_IDS = new ThreadLocal<>();
+
+    private PeriodSlices(){}
+
+    /**
+     * Replaces the layout once a transaction creating or deleting slices has been committed, so that no node id of
+     * a transaction rolled back is ever cached; it must be registered with the database (see DatabaseManager)
+     */
+    public static class Handler extends TransactionEventHandler.Adapter<Integer> {
+
+        @Override
+        public Integer beforeCommit(TransactionData data) throws Exception {
+            //shards of the database as the transaction leaves it
+            return CHANGED_PERIOD_IDS.get() != null ? readShards(DatabaseManager.graphDb) : null;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Integer shards) {
+            CHANGED_PERIOD_IDS.remove();
+            if(shards != null){
+                layout = new Layout(shards);
+            }
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Integer shards) {
+            CHANGED_PERIOD_IDS.remove();
+        }
+    }
+
+    /**
+     * Reads the layout of the database just opened (must be called within a transaction)
+     */
+    public static void init(GraphDatabaseService graphDb){
+        layout = new Layout(readShards(graphDb));
+    }
+
+    /**
+     * Drops the layout of the database that is being shut down
+     */
+    public static void reset(){
+        layout = NO_DATABASE;
+    }
+
+    /**
+     * @return number of shards of the first sliced period found, 0 when no period is sliced
+     */
+    private static int readShards(GraphDatabaseService graphDb){
+        int found = 0;
+        ResourceIterator<Node> iterator = graphDb.findNodes(DatabaseManager.PERIOD_LABEL);
+        try{
+            while(iterator.hasNext() && found == 0){
+                found = ((Number) iterator.next().getProperty(SLICES_PROPERTY, 0)).intValue();
+            }
+        }finally {
+            iterator.close();
+        }
+        return found;
+    }
+
+    /**
+     * @return number of shards per period and relationship type, 0 when periods are not sliced
+     */
+    public static int getShards(){
+        return layout.shards;
+    }
+
+    public static boolean isEnabled(){
+        return layout.shards > 0;
+    }
+
+    /**
+     * @return the node that a relationship of the type provided from the start node to the period must point at:
+     * the slice of the period for the type and the shard of the start node, or the period itself when it's not sliced
+     */
+    public static Node getTarget(Period period, RelationshipType type, Node startNode){
+        Layout current = layout;
+        boolean changed = isChanged(period.node.getId());
+        if(current.shards == 0 && !changed){
+            return period.node;
+        }
+        int typeIndex = SLICED_TYPES.indexOf(type.name());
+        long[] sliceIds = changed ? readSliceIds(period.node) : getSliceIds(current, period.node);
+        if(typeIndex < 0 || sliceIds.length == 0){
+            return period.node;
+        }
+        int periodShards = sliceIds.length / SLICED_TYPES.size();
+        int shard = (int) (startNode.getId() % periodShards);
+        return DatabaseManager.graphDb.getNodeById(sliceIds[typeIndex * periodShards + shard]);
+    }
+
+    /**
+     * @return id of the period node the end node of a relationship linked to a period stands for
+     * (the end node itself unless it's a slice)
+     */
+    public static long getPeriodNodeId(Node endNode){
+        Layout current = layout;
+        if(current.shards == 0 && CHANGED_PERIOD_IDS.get() == null){
+            return endNode.getId();
+        }
+        Long periodId = current.periodIdsByEndNodeId.get(endNode.getId());
+        if(periodId == null){
+            periodId = endNode.getId();
+            if(endNode.hasLabel(DatabaseManager.PERIOD_SLICE_LABEL)){
+                periodId = endNode.getSingleRelationship(new SliceOf(null), Direction.OUTGOING).getEndNode().getId();
+            }
+            //slices of a transaction not committed yet may be rolled back, and their ids given to other nodes
+            if(!isChanged(periodId)){
+                current.periodIdsByEndNodeId.put(endNode.getId(), periodId);
+            }
+        }
+        return periodId;
+    }
+
+    /**
+     * @return the period the end node of a relationship linked to a period stands for
+     */
+    public static Period getPeriod(Node endNode){
+        if((layout.shards == 0 && CHANGED_PERIOD_IDS.get() == null) ||
+                !endNode.hasLabel(DatabaseManager.PERIOD_SLICE_LABEL)){
+            return new Period(endNode);
+        }
+        return new Period(DatabaseManager.graphDb.getNodeById(getPeriodNodeId(endNode)));
+    }
+
+    /**
+     * Creates the slices of the period missing for the number of shards provided (must be called within a
+     * transaction, the layout changes once it's committed)
+     *
+     * @throws IllegalStateException when the period is already sliced with a different number of shards
+     */
+    public static void createSlices(Period period, int periodShards){
+
+        int currentShards = ((Number) period.node.getProperty(SLICES_PROPERTY, 0)).intValue();
+        if(currentShards != 0 && currentShards != periodShards){
+            throw new IllegalStateException("Period " + period.getName() + " is already sliced in " + currentShards +
+                    " shards, it must be restored before slicing it again");
+        }
+
+        Set<String> existing = new HashSet<>();
+        for(Relationship relationship : period.node.getRelationships(new SliceOf(null), Direction.INCOMING)){
+            Node slice = relationship.getStartNode();
+            existing.add(slice.getProperty(TYPE_PROPERTY) + "/" + slice.getProperty(SHARD_PROPERTY));
+        }
+
+        String periodName = period.getName();
+        for(String type : SLICED_TYPES){
+            for(int shard = 0; shard < periodShards; shard++){
+                if(!existing.contains(type + "/" + shard)){
+                    Node slice = DatabaseManager.graphDb.createNode(DatabaseManager.PERIOD_SLICE_LABEL);
+                    slice.setProperty(NAME_PROPERTY, periodName);
+                    slice.setProperty(TYPE_PROPERTY, type);
+                    slice.setProperty(SHARD_PROPERTY, shard);
+                    slice.createRelationshipTo(period.node, new SliceOf(null));
+                }
+            }
+        }
+
+        period.node.setProperty(SLICES_PROPERTY, periodShards);
+        setChanged(period.node.getId());
+    }
+
+    /**
+     * Moves up to max relationships of the sliced types pointing at the period itself to its slices
+     *
+     * @return number of relationships moved, 0 once there are none left
+     */
+    public static int moveToSlices(Period period, int max){
+        int moved = 0;
+        for(String type : SLICED_TYPES){
+            RelationshipType relationshipType = DynamicRelationshipType.withName(type);
+            List<Relationship> relationships = take(period.node.getRelationships(relationshipType, Direction.INCOMING), max - moved);
+            for(Relationship relationship : relationships){
+                move(relationship, getTarget(period, relationshipType, relationship.getStartNode()));
+            }
+            moved += relationships.size();
+            if(moved >= max){
+                break;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Moves up to max relationships pointing at the slices of the period back to the period
+     *
+     * @return number of relationships moved, 0 once there are none left
+     */
+    public static int moveToPeriod(Period period, int max){
+        int moved = 0;
+        for(Relationship sliceOf : period.node.getRelationships(new SliceOf(null), Direction.INCOMING)){
+            Node slice = sliceOf.getStartNode();
+            List<Relationship> relationships = take(slice.getRelationships(Direction.INCOMING), max - moved);
+            for(Relationship relationship : relationships){
+                move(relationship, period.node);
+            }
+            moved += relationships.size();
+            if(moved >= max){
+                break;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Deletes the slices of the period, that must have been emptied with moveToPeriod (must be called within a
+     * transaction, periods stop being sliced once the last sliced one is restored and the transaction committed)
+     */
+    public static void deleteSlices(Period period){
+        List<Relationship> sliceOfs = take(period.node.getRelationships(new SliceOf(null), Direction.INCOMING), Integer.MAX_VALUE);
+        for(Relationship sliceOf : sliceOfs){
+            Node slice = sliceOf.getStartNode();
+            sliceOf.delete();
+            slice.delete();
+        }
+        period.node.removeProperty(SLICES_PROPERTY);
+        setChanged(period.node.getId());
+    }
+
+    private static void setChanged(long periodId){
+        Set<Long> periodIds = CHANGED_PERIOD_IDS.get();
+        if(periodIds == null){
+            periodIds = new HashSet<>();
+            CHANGED_PERIOD_IDS.set(periodIds);
+        }
+        periodIds.add(periodId);
+    }
+
+    /**
+     * @return true if the slices of the period have been changed by the transaction of the current thread
+     */
+    private static boolean isChanged(long periodId){
+        Set<Long> periodIds = CHANGED_PERIOD_IDS.get();
+        return periodIds != null && periodIds.contains(periodId);
+    }
+
+    private static long[] getSliceIds(Layout current, Node periodNode){
+        long[] sliceIds = current.sliceIdsByPeriodId.get(periodNode.getId());
+        if(sliceIds == null){
+            sliceIds = readSliceIds(periodNode);
+            current.sliceIdsByPeriodId.put(periodNode.getId(), sliceIds);
+        }
+        return sliceIds;
+    }
+
+    private static long[] readSliceIds(Node periodNode){
+        int periodShards = ((Number) periodNode.getProperty(SLICES_PROPERTY, 0)).intValue();
+        if(periodShards == 0){
+            return NOT_SLICED;
+        }
+        long[] sliceIds = new long[SLICED_TYPES.size() * periodShards];
+        for(Relationship relationship : periodNode.getRelationships(new SliceOf(null), Direction.INCOMING)){
+            Node slice = relationship.getStartNode();
+            int typeIndex = SLICED_TYPES.indexOf(String.valueOf(slice.getProperty(TYPE_PROPERTY)));
+            int shard = ((Number) slice.getProperty(SHARD_PROPERTY)).intValue();
+            sliceIds[typeIndex * periodShards + shard] = slice.getId();
+        }
+        return sliceIds;
+    }
+
+    private static void move(Relationship relationship, Node target){
+        Relationship moved = relationship.getStartNode().createRelationshipTo(target, relationship.getType());
+        for(Map.Entry<String, Object> property : relationship.getAllProperties().entrySet()){
+            moved.setProperty(property.getKey(), property.getValue());
+        }
+        relationship.delete();
+    }
+
+    private static List<Relationship> take(Iterable<Relationship> relationships, int max){
+        List<Relationship> list = new LinkedList<>();
+        if(max > 0){
+            for(Relationship relationship : relationships){
+                list.add(relationship);
+                if(list.size() >= max){
+                    break;
+                }
+            }
+        }
+        return list;
+    }
+}
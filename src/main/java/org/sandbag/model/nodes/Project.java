@@ -19,6 +19,10 @@ public class Project implements ProjectModel {
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
     @Override
     public String getId() {
         return String.valueOf(node.getProperty(ProjectModel.id));
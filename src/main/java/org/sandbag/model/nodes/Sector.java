@@ -15,6 +15,10 @@ public class Sector implements SectorModel {
         this.node = node;
     }
 
+    public long getNodeId(){
+        return node.getId();
+    }
+
     public String getName() {
         return String.valueOf(node.getProperty(SectorModel.name));
     }
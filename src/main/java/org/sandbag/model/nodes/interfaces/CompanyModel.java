@@ -17,6 +17,9 @@ public interface CompanyModel extends Label {
     String status = "status";
     String subsidiaryCompany = "subsidiary_company";
     String parentCompany = "parent_company";
+    //group index kept by CompanyGroups, only set on companies linked to others through PARENT_COMPANY
+    String ultimateParent = "ultimate_parent";
+    String ancestors = "ancestors";
 
     String getName();
     String getRegistrationNumber();
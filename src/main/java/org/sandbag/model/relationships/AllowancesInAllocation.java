@@ -1,9 +1,11 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
 import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
 
 /**
@@ -29,12 +31,12 @@ public class AllowancesInAllocation implements AllowancesInAllocationModel {
 
     @Override
     public Period getPeriod(){
-        return new Period(relationship.getEndNode());
+        return PeriodSlices.getPeriod(relationship.getEndNode());
     }
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(AllowancesInAllocationModel.value)));
+        return TypedProperties.getDouble(relationship, AllowancesInAllocationModel.value);
     }
 
     @Override
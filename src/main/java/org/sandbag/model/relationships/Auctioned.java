@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
 import org.sandbag.model.relationships.interfaces.AuctionedModel;
@@ -30,7 +31,7 @@ public class Auctioned implements AuctionedModel {
 
     @Override
     public double getAmount() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(AuctionedModel.amount)));
+        return TypedProperties.getDouble(relationship, AuctionedModel.amount);
     }
 
     @Override
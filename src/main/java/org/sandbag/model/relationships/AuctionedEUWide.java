@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
 import org.sandbag.model.relationships.interfaces.AuctionedEUWideModel;
@@ -30,7 +31,7 @@ public class AuctionedEUWide implements AuctionedEUWideModel {
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(AuctionedEUWideModel.value)));
+        return TypedProperties.getDouble(relationship, AuctionedEUWideModel.value);
     }
 
     @Override
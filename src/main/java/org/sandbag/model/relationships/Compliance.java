@@ -4,6 +4,7 @@ import org.neo4j.graphdb.Relationship;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
 import org.sandbag.model.relationships.interfaces.ComplianceModel;
 
 /**
@@ -29,7 +30,7 @@ public class Compliance implements ComplianceModel {
 
     @Override
     public Period getPeriod(){
-        return new Period(relationship.getEndNode());
+        return PeriodSlices.getPeriod(relationship.getEndNode());
     }
 
     @Override
@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
 import org.sandbag.model.nodes.SandbagSector;
@@ -35,7 +36,7 @@ public class LegalCap implements LegalCapModel {
 
     @Override
     public double getAmount() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(LegalCapModel.amount)));
+        return TypedProperties.getDouble(relationship, LegalCapModel.amount);
     }
 
     @Override
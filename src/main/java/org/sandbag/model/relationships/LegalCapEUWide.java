@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
 import org.sandbag.model.nodes.SandbagSector;
@@ -33,7 +34,7 @@ public class LegalCapEUWide implements LegalCapEUWideModel{
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(LegalCapEUWideModel.value)));
+        return TypedProperties.getDouble(relationship, LegalCapEUWideModel.value);
     }
     @Override
     public String getType() {
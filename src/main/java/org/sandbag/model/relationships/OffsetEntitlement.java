@@ -1,9 +1,11 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
 import org.sandbag.model.relationships.interfaces.OffsetEntitlementModel;
 
 /**
@@ -30,17 +32,24 @@ public class OffsetEntitlement implements OffsetEntitlementModel {
 
     @Override
     public Period getPeriod(){
-        return new Period(relationship.getEndNode());
+        return PeriodSlices.getPeriod(relationship.getEndNode());
     }
 
     @Override
     public String getValue() {
-        return String.valueOf(relationship.getProperty(value));
+        return TypedProperties.getText(relationship, value);
     }
 
     @Override
     public void setValue(String value) {
-        relationship.setProperty(OffsetEntitlementModel.value, value);
+        TypedProperties.setNumberOrText(relationship, OffsetEntitlementModel.value, value);
+    }
+
+    /**
+     * @return value as a number, NaN when it's not numeric (e.g. "Not set")
+     */
+    public double getNumericValue() {
+        return TypedProperties.getDouble(relationship, value, Double.NaN);
     }
 
 }
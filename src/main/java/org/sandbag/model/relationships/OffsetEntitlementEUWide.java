@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Period;
@@ -30,7 +31,7 @@ public class OffsetEntitlementEUWide implements OffsetEntitlementsEUWideModel {
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(OffsetEntitlementsEUWideModel.value)));
+        return TypedProperties.getDouble(relationship, OffsetEntitlementsEUWideModel.value);
     }
     @Override
     public String getType() {
@@ -3,6 +3,7 @@ package org.sandbag.model.relationships;
 import org.neo4j.graphdb.Relationship;
 import org.sandbag.model.nodes.Offset;
 import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
 import org.sandbag.model.relationships.interfaces.OffsetPeriodModel;
 
 /**
@@ -23,7 +24,7 @@ public class OffsetPeriod implements OffsetPeriodModel {
 
     @Override
     public Period getPeriod(){
-        return new Period(relationship.getEndNode());
+        return PeriodSlices.getPeriod(relationship.getEndNode());
     }
 
     @Override
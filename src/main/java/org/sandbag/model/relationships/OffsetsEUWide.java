@@ -1,6 +1,7 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Offset;
@@ -25,7 +26,7 @@ public class OffsetsEUWide implements OffsetsEUWideModel {
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(OffsetsEUWideModel.value)));
+        return TypedProperties.getDouble(relationship, OffsetsEUWideModel.value);
     }
 
     @Override
@@ -0,0 +1,27 @@
+package org.sandbag.model.relationships;
+
+import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.nodes.Period;
+import org.sandbag.model.relationships.interfaces.SliceOfModel;
+
+/**
+ * Relationship linking a period slice to its period (see PeriodSlices)
+ */
+public class SliceOf implements SliceOfModel {
+
+    protected Relationship relationship;
+
+    public SliceOf(Relationship relationship){
+        this.relationship = relationship;
+    }
+
+    @Override
+    public String name() {
+        return LABEL;
+    }
+
+    @Override
+    public Period getPeriod(){
+        return new Period(relationship.getEndNode());
+    }
+}
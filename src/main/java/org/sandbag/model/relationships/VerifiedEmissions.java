@@ -1,9 +1,11 @@
 package org.sandbag.model.relationships;
 
 import org.neo4j.graphdb.Relationship;
+import org.sandbag.model.TypedProperties;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
 import org.sandbag.model.relationships.interfaces.VerifiedEmissionsModel;
 
 /**
@@ -31,12 +33,12 @@ public class VerifiedEmissions implements VerifiedEmissionsModel {
 
     @Override
     public Period getPeriod(){
-        return new Period(relationship.getEndNode());
+        return PeriodSlices.getPeriod(relationship.getEndNode());
     }
 
     @Override
     public double getValue() {
-        return Double.parseDouble(String.valueOf(relationship.getProperty(VerifiedEmissionsModel.value)));
+        return TypedProperties.getDouble(relationship, VerifiedEmissionsModel.value);
     }
 
     @Override
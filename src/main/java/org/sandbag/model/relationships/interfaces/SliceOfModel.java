@@ -0,0 +1,14 @@
+package org.sandbag.model.relationships.interfaces;
+
+import org.neo4j.graphdb.RelationshipType;
+import org.sandbag.model.nodes.Period;
+
+/**
+ * Relationship linking a period slice to its period (see PeriodSlices)
+ */
+public interface SliceOfModel extends RelationshipType {
+    String LABEL = "SLICE_OF";
+
+    Period getPeriod();
+
+}
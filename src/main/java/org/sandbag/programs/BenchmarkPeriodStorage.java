@@ -0,0 +1,247 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.*;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.nodes.Country;
+import org.sandbag.model.nodes.Installation;
+import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.model.relationships.VerifiedEmissions;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * Measures the costs that depend on the layout of the relationships linked to periods (see PeriodSlices),
+ * so that it can be run before and after MigratePeriodStorage:
+ * degree of the period (and slice) nodes and of the EU country node, Cypher aggregation of the verified emissions
+ * per period, lookups of the verified emissions of every installation and period through the Java API, and
+ * relationships to a period being created concurrently by several threads.
+ * The relationships created by the benchmark have their own type and are deleted right away, the data is not modified.
+ *
+ */
+public class BenchmarkPeriodStorage implements ContextExecutable {
+
+    public static final String BENCHMARK_RELATIONSHIP_TYPE = "PERIOD_STORAGE_BENCHMARK";
+
+    private static final int QUERY_RUNS = 3;
+    private static final int WRITE_BATCH_SIZE = 100;
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if(args.length < 2 || args.length > 3){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder\n" +
+                    "2. Period used for the concurrent writes (e.g. 2014)\n" +
+                    "3. Number of writing threads (optional, 4 by default)");
+        }else{
+
+            String dbFolder = args[0];
+            String periodSt = args[1];
+            int threads = args.length == 3 ? Integer.parseInt(args[2]) : 4;
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                System.out.println("Period layout: " + (PeriodSlices.isEnabled() ?
+                        "sliced in " + PeriodSlices.getShards() + " shards" : "plain"));
+
+                printDegrees(dbManager);
+                benchmarkAggregation(dbManager);
+                benchmarkLookups(dbManager);
+                benchmarkConcurrentWrites(dbManager, periodSt, threads);
+
+            }catch(Exception e){
+                throw new ExecutionFailedException(BenchmarkPeriodStorage.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+
+    private static void printDegrees(DatabaseManager dbManager){
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            System.out.println("Degree of the period nodes (max / total): " + getDegrees(dbManager, DatabaseManager.PERIOD_LABEL));
+            System.out.println("Degree of the period slices (max / total): " + getDegrees(dbManager, DatabaseManager.PERIOD_SLICE_LABEL));
+            Country euCountry = dbManager.getCountryById("EU");
+            if(euCountry != null){
+                System.out.println("Degree of the EU country node: " +
+                        dbManager.graphDb.getNodeById(euCountry.getNodeId()).getDegree());
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+    }
+
+    private static String getDegrees(DatabaseManager dbManager, Label label){
+        int max = 0;
+        long total = 0;
+        Iterator<Node> iterator = dbManager.findNodes(label);
+        while(iterator.hasNext()){
+            int degree = iterator.next().getDegree();
+            max = Math.max(max, degree);
+            total += degree;
+        }
+        return max + " / " + total;
+    }
+
+    private static void benchmarkAggregation(DatabaseManager dbManager){
+        String query = "MATCH ()-[ve:VERIFIED_EMISSIONS]->" + dbManager.getPeriodPattern("p") +
+                " RETURN sum(ve.value) AS Verified_Emissions, p.name AS Period";
+        long best = Long.MAX_VALUE;
+        int rows = 0;
+        for(int run = 0; run < QUERY_RUNS; run++){
+            Transaction tx = dbManager.beginTransaction();
+            try{
+                long start = System.currentTimeMillis();
+                Result result = dbManager.graphDb.execute(query);
+                rows = 0;
+                while(result.hasNext()){
+                    result.next();
+                    rows++;
+                }
+                best = Math.min(best, System.currentTimeMillis() - start);
+                tx.success();
+            }finally {
+                tx.close();
+            }
+        }
+        System.out.println("Verified emissions per period (Cypher, best of " + QUERY_RUNS + "): " + best + "ms, " + rows + " periods");
+    }
+
+    private static void benchmarkLookups(DatabaseManager dbManager){
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            List<Period> periods = new LinkedList<>();
+            Iterator<Node> periodIterator = dbManager.findNodes(DatabaseManager.PERIOD_LABEL);
+            while(periodIterator.hasNext()){
+                periods.add(new Period(periodIterator.next()));
+            }
+
+            long start = System.currentTimeMillis();
+            long lookups = 0;
+            long found = 0;
+            Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.INSTALLATION_LABEL);
+            while(iterator.hasNext()){
+                Installation installation = new Installation(iterator.next());
+                for(Period period : periods){
+                    VerifiedEmissions verifiedEmissions = installation.getVerifiedEmissionsForPeriod(period);
+                    lookups++;
+                    if(verifiedEmissions != null && verifiedEmissions.getPeriod().getNodeId() == period.getNodeId()){
+                        found++;
+                    }
+                }
+            }
+            System.out.println("Verified emissions lookups (Java API): " + (System.currentTimeMillis() - start) + "ms, " +
+                    lookups + " lookups, " + found + " values found");
+            tx.success();
+        }finally {
+            tx.close();
+        }
+    }
+
+    private static void benchmarkConcurrentWrites(final DatabaseManager dbManager, String periodSt, int threads) throws Exception{
+
+        final RelationshipType benchmarkType = DynamicRelationshipType.withName(BENCHMARK_RELATIONSHIP_TYPE);
+        final long periodId;
+        List<Long> installationIds = new ArrayList<>();
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Period period = dbManager.getPeriodByName(periodSt);
+            if(period == null){
+                System.out.println("Period " + periodSt + " not found, concurrent writes skipped");
+                return;
+            }
+            periodId = period.getNodeId();
+            Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.INSTALLATION_LABEL);
+            while(iterator.hasNext()){
+                installationIds.add(iterator.next().getId());
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new LinkedList<>();
+        long start = System.currentTimeMillis();
+
+        for(int thread = 0; thread < threads; thread++){
+            final List<Long> ids = installationIds.subList(installationIds.size() * thread / threads,
+                    installationIds.size() * (thread + 1) / threads);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int from = 0; from < ids.size(); from += WRITE_BATCH_SIZE){
+                        List<Long> batch = ids.subList(from, Math.min(ids.size(), from + WRITE_BATCH_SIZE));
+                        List<Long> created = new LinkedList<>();
+                        Transaction tx = dbManager.beginTransaction();
+                        try{
+                            Period period = new Period(dbManager.graphDb.getNodeById(periodId));
+                            List<Node[]> links = new ArrayList<>();
+                            for(long id : batch){
+                                Node node = dbManager.graphDb.getNodeById(id);
+                                links.add(new Node[]{node, PeriodSlices.getTarget(period, new VerifiedEmissions(null), node)});
+                            }
+                            //slices are locked in the same order by every thread (see PeriodSlices)
+                            Collections.sort(links, new Comparator<Node[]>() {
+                                @Override
+                                public int compare(Node[] link1, Node[] link2) {
+                                    return Long.compare(link1[1].getId(), link2[1].getId());
+                                }
+                            });
+                            for(Node[] link : links){
+                                created.add(link[0].createRelationshipTo(link[1], benchmarkType).getId());
+                            }
+                            tx.success();
+                        }finally {
+                            tx.close();
+                        }
+                        tx = dbManager.beginTransaction();
+                        try{
+                            for(long id : created){
+                                dbManager.graphDb.getRelationshipById(id).delete();
+                            }
+                            tx.success();
+                        }finally {
+                            tx.close();
+                        }
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        for(Future<?> future : futures){
+            future.get();
+        }
+
+        System.out.println("Concurrent writes to period " + periodSt + " (" + threads + " threads): " +
+                (System.currentTimeMillis() - start) + "ms, " + installationIds.size() + " relationships created and deleted");
+    }
+}
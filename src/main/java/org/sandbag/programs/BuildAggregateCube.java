@@ -0,0 +1,78 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.AggregateCube;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ *
+ * Builds the aggregate cube of the database (see AggregateCube) or, when it already exists, computes again the groups
+ * of the accounts modified since it was stored. Meant to be run after imports, so that the cube is up to date when
+ * it's queried.
+ *
+ */
+public class BuildAggregateCube implements ContextExecutable {
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+
+        if(args.length < 1 || args.length > 2){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder\n" +
+                    "2. \"rebuild\" to build the cube from scratch (optional)");
+        }else{
+
+            String dbFolder = args[0];
+            boolean rebuild = args.length == 2 && args[1].equals("rebuild");
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                if(rebuild){
+                    new File(dbFolder, AggregateCube.FILE_NAME).delete();
+                }
+
+                Transaction tx = dbManager.beginTransaction();
+                try{
+                    System.out.println("Updating the aggregate cube...");
+                    long startTime = System.currentTimeMillis();
+                    AggregateCube cube = AggregateCube.open(dbManager, dbFolder);
+                    System.out.println("Done! " + cube.getGroupCount() + " groups of " + cube.getAccountCount() +
+                            " accounts, " + cube.getNames(AggregateCube.PERIOD).size() + " periods (" +
+                            (System.currentTimeMillis() - startTime) + "ms)");
+                    tx.success();
+                }finally {
+                    tx.close();
+                }
+
+            }catch (Exception e){
+                throw new ExecutionFailedException(BuildAggregateCube.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+}
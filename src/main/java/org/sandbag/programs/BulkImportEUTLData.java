@@ -0,0 +1,738 @@
+package org.sandbag.programs;
+
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.SchemaRegistry;
+import org.sandbag.model.TypedProperties;
+import org.sandbag.model.nodes.interfaces.*;
+import org.sandbag.model.relationships.*;
+import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorCompany;
+import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorCountry;
+import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorSector;
+import org.sandbag.model.relationships.installations.InstallationCompany;
+import org.sandbag.model.relationships.installations.InstallationCountry;
+import org.sandbag.model.relationships.installations.InstallationSector;
+import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
+import org.sandbag.programs.rows.AircraftOperatorRow;
+import org.sandbag.programs.rows.ComplianceRow;
+import org.sandbag.programs.rows.InstallationRow;
+import org.sandbag.programs.rows.OffsetRow;
+import org.sandbag.util.Executable;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
+import org.sandbag.util.LongLongMap;
+import org.sandbag.util.RejectedCellReport;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * Offline version of ImportEUTLData for fresh databases.
+ * Nodes and relationships are written straight to the store files through Neo4j's BatchInserter,
+ * and schema indexes are only declared once all the data has been loaded.
+ * The resulting graph is the same one ImportEUTLData would build.
+ *
+ */
+public class BulkImportEUTLData implements Executable{
+
+    private BatchInserter inserter;
+
+    private final Map<String, Long> countriesByName = new HashMap<>();
+    private final Map<String, Long> countriesById = new HashMap<>();
+    private final Map<String, Long> companiesByName = new HashMap<>();
+    private final Map<String, Long> sectorsById = new HashMap<>();
+    private final Map<String, Long> periodsByName = new HashMap<>();
+    private final Map<String, Long> projectsById = new HashMap<>();
+    private final Map<String, Long> installationsById = new HashMap<>();
+    private final Map<String, Long> aircraftOperatorsById = new HashMap<>();
+
+    //same upsert semantics as the node wrappers: a single relationship per (account, period, type, subtype), see relationshipKey()
+    private final Map<Long, Integer> periodOrdinals = new HashMap<>();
+    private final Map<String, Integer> relationshipTypeCodes = new HashMap<>();
+    private final LongLongMap periodRelationships = new LongLongMap(1 << 16);
+
+    private static final String PROBLEMATIC_AIRCRAFT_OPERATOR_ID = "DE200696";
+    private Long problematicAircraftOperatorNode = null;
+
+    public static void main(String[] args){
+        if(args.length != 9){
+            System.out.println("The program expects the following parameters:\n" +
+                    "1. Database folder (it must not contain a database yet)\n" +
+                    "2. Installations folder\n" +
+                    "3. Aircraf Operators folder\n" +
+                    "4. Compliance Data folder\n" +
+                    "5. NER allocation data file\n" +
+                    "6. Article 10c data file\n" +
+                    "7. Installations Offset Entitlements file\n" +
+                    "8. Aircraft Operators Offset Entitlements file\n" +
+                    "9. Offsets folder");
+        }else{
+
+            File dbFolder = new File(args[0]);
+            if(new File(dbFolder, "neostore").exists()){
+                System.out.println("The folder " + dbFolder.getAbsolutePath() + " already contains a database.\n" +
+                        "Bulk import can only be used to create a fresh database, please use ImportEUTLData instead.");
+                return;
+            }
+
+            //anything left in the folder by a failed import is deleted, so that the import can be run again
+            Set<String> existingFiles = dbFolder.isDirectory() ?
+                    new HashSet<>(Arrays.asList(dbFolder.list())) : Collections.<String>emptySet();
+            BulkImportEUTLData importer = new BulkImportEUTLData();
+            boolean completed = false;
+
+            try{
+
+                importer.inserter = BatchInserters.inserter(dbFolder);
+
+                importer.importInstallationsFromFolder(args[1]);
+                importer.importAircraftOperatorsFromFolder(args[2]);
+
+                importer.fixProblematicAircraftOperatorHR200696();
+
+                importer.importComplianceDataFromFolder(args[3]);
+
+                importer.importNERAllocationData(new File(args[4]));
+                importer.importArticle10cAllocationData(new File(args[5]));
+                importer.importInstallationsOffsetEntitlements(new File(args[6]));
+                importer.importAircraftOperatorsOffsetEntitlements(new File(args[7]));
+                importer.importOffsetsFromFolder(args[8]);
+
+                importer.createIndices();
+                completed = true;
+
+            }catch (IOException e){
+                throw new ExecutionFailedException("The batch inserter could not be started on " + dbFolder.getAbsolutePath(), e);
+            }finally {
+                if(importer.inserter != null){
+                    System.out.println("Flushing store files...");
+                    importer.inserter.shutdown();
+                }
+                if(completed){
+                    System.out.println("Done! :)");
+                }else{
+                    System.out.println("The bulk import failed, deleting the partial database...");
+                    deleteNewFiles(dbFolder, existingFiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the files and folders of the folder that are not included in the names provided
+     */
+    private static void deleteNewFiles(File folder, Set<String> existingFiles){
+        File[] files = folder.listFiles();
+        if(files != null){
+            for(File file : files){
+                if(!existingFiles.contains(file.getName())){
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    private static void delete(File file){
+        File[] files = file.listFiles();
+        if(files != null){
+            for(File child : files){
+                delete(child);
+            }
+        }
+        if(!file.delete()){
+            System.out.println("File " + file.getPath() + " could not be deleted");
+        }
+    }
+
+    /**
+     * The plain indices of the schema registry are declared here and populated the first time the database is started,
+     * the uniqueness constraints are built (checking the data loaded) the first time it's opened with DatabaseManager.
+     */
+    public void createIndices(){
+
+        System.out.println("Creating deferred indices...");
+        SchemaRegistry.declareDeferredIndices(inserter);
+        System.out.println("Done!");
+    }
+
+    public void fixProblematicAircraftOperatorHR200696(){
+
+        System.out.println("Fixing problematic Aircraft Operator HR200696...");
+
+        if(problematicAircraftOperatorNode == null){
+            System.out.println("Aircraft Operator " + PROBLEMATIC_AIRCRAFT_OPERATOR_ID + " could not be found...");
+            return;
+        }
+
+        Long croatia = countriesById.get("HR");
+        if(croatia != null){
+            inserter.createRelationship(problematicAircraftOperatorNode, croatia, new AircraftOperatorCountry(null), null);
+        }else{
+            System.out.println("Country HR could not be found...");
+        }
+        inserter.setNodeProperty(problematicAircraftOperatorNode, AircraftOperatorModel.id, "HR200696");
+
+        aircraftOperatorsById.remove(PROBLEMATIC_AIRCRAFT_OPERATOR_ID);
+        aircraftOperatorsById.put("HR200696", problematicAircraftOperatorNode);
+
+        System.out.println("Done!");
+    }
+
+    public void importInstallationsFromFolder(String folderSt){
+        System.out.println("Importing installations from folder: " + folderSt);
+        for(File currentFile : getCsvFiles(folderSt)){
+            importInstallationsFile(currentFile);
+        }
+        System.out.println("Done! :)");
+    }
+
+    public void importAircraftOperatorsFromFolder(String folderSt){
+        System.out.println("Importing aircraft operators from folder: " + folderSt);
+        for(File currentFile : getCsvFiles(folderSt)){
+            importAircraftOperatorFile(currentFile);
+        }
+        System.out.println("Done! :)");
+    }
+
+    public void importComplianceDataFromFolder(String folderSt){
+        System.out.println("Importing compliance data from folder: " + folderSt);
+        for(File currentFile : getCsvFiles(folderSt)){
+            importComplianceDataFile(currentFile);
+        }
+        System.out.println("Done! :)");
+    }
+
+    public void importOffsetsFromFolder(String folderSt){
+        System.out.println("Importing offsets from folder: " + folderSt);
+        for(File currentFile : getCsvFiles(folderSt)){
+            importOffsetsFile(currentFile);
+        }
+        System.out.println("Done! :)");
+    }
+
+    public void importInstallationsFile(File file){
+
+        System.out.println("Importing file " + file.getName());
+
+        try{
+
+            FieldReader fields = new FieldReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), '\t');
+            fields.nextLine(); //skipping header
+
+            int lineCounter = 0;
+
+            while(fields.nextLine()){
+
+                InstallationRow row = InstallationRow.parse(fields);
+
+                Long country = getOrCreateCountry(row.countryName, row.countryId);
+                Long company = getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                        row.companyCity, row.companyAddress, row.companyStatus,
+                        row.subsidiaryCompany, row.parentCompany);
+                Long sector = getOrCreateSector(row.sectorId, row.sectorName);
+
+                String installationCompleteIDSt = row.getCompleteId();
+
+                Map<String, Object> properties = new HashMap<>();
+                properties.put(InstallationModel.id, installationCompleteIDSt);
+                properties.put(InstallationModel.name, row.installationName);
+                properties.put(InstallationModel.city, row.installationCity);
+                properties.put(InstallationModel.postCode, row.installationPostalCode);
+                properties.put(InstallationModel.address, row.installationAddress);
+                properties.put(InstallationModel.eprtrId, row.eprtrId);
+                properties.put(InstallationModel.permitId, row.permitId);
+                properties.put(InstallationModel.permitEntryDate, row.permitEntryDate);
+                properties.put(InstallationModel.permitExpiryOrRevocationDate, row.permitExpiryOrRevocationDate);
+                properties.put(InstallationModel.latitude, TypedProperties.toDoubleOrText(row.latitude));
+                properties.put(InstallationModel.longitude, TypedProperties.toDoubleOrText(row.longitude));
+                properties.put(InstallationModel.powerFlag, "false");
+                properties.put(InstallationModel.powerFlagReason, "");
+
+                long installation = inserter.createNode(properties, DatabaseManager.INSTALLATION_LABEL);
+                if(!installationsById.containsKey(installationCompleteIDSt)){
+                    installationsById.put(installationCompleteIDSt, installation);
+                }
+
+                inserter.createRelationship(installation, country, new InstallationCountry(null), null);
+                if(company != null){
+                    inserter.createRelationship(installation, company, new InstallationCompany(null), null);
+                }
+                if(sector != null){
+                    inserter.createRelationship(installation, sector, new InstallationSector(null), null);
+                }
+
+                lineCounter++;
+
+                if(lineCounter % 1000 == 0){
+                    System.out.println(lineCounter + " lines imported...");
+                }
+            }
+
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    public void importAircraftOperatorFile(File file){
+
+        System.out.println("Importing file " + file.getName());
+
+        try{
+
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            while(fields.nextLine()){
+
+                AircraftOperatorRow row = AircraftOperatorRow.parse(fields);
+
+                Long country = getOrCreateCountry(row.countryName, row.countryId);
+                Long company = getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                        row.companyCity, row.companyAddress, row.companyStatus,
+                        row.subsidiaryCompany, row.parentCompany);
+                Long sector = getOrCreateSector(row.sectorId, row.sectorName);
+
+                String aircraftOperatorCompleteIDSt = row.getCompleteId();
+
+                Map<String, Object> properties = new HashMap<>();
+                properties.put(AircraftOperatorModel.id, aircraftOperatorCompleteIDSt);
+                properties.put(AircraftOperatorModel.name, row.companyName);
+                properties.put(AircraftOperatorModel.status, row.companyStatus);
+                properties.put(AircraftOperatorModel.city, row.aircraftOperatorCity);
+                properties.put(AircraftOperatorModel.postCode, row.aircraftOperatorPostalCode);
+                properties.put(AircraftOperatorModel.address, row.aircraftOperatorAddress);
+                properties.put(AircraftOperatorModel.eprtrId, row.eprtrId);
+                properties.put(AircraftOperatorModel.uniqueCodeUnderCommissionRegulation, row.uniqueCodeUnderCommissionRegulation);
+                properties.put(AircraftOperatorModel.monitoringPlanId, row.monitoringPlanId);
+                properties.put(AircraftOperatorModel.monitoringPlanFirstYearOfApplicability, row.monitoringPlanFirstYearOfApplicability);
+                properties.put(AircraftOperatorModel.monitoringPlanYearOfExpiry, row.monitoringPlanYearOfExpiry);
+                properties.put(AircraftOperatorModel.icaoDesignator, row.icaoDesignator);
+                properties.put(AircraftOperatorModel.latitude, TypedProperties.toDoubleOrText(row.latitude));
+                properties.put(AircraftOperatorModel.longitude, TypedProperties.toDoubleOrText(row.longitude));
+
+                long aircraftOperator = inserter.createNode(properties, DatabaseManager.AIRCRAFT_OPERATOR_LABEL);
+                if(!aircraftOperatorsById.containsKey(aircraftOperatorCompleteIDSt)){
+                    aircraftOperatorsById.put(aircraftOperatorCompleteIDSt, aircraftOperator);
+                }
+
+                if(aircraftOperatorCompleteIDSt.equals(PROBLEMATIC_AIRCRAFT_OPERATOR_ID) && problematicAircraftOperatorNode == null){
+                    //its country relationship is created once the fix is applied (relationships cannot be deleted here)
+                    problematicAircraftOperatorNode = aircraftOperator;
+                }else{
+                    inserter.createRelationship(aircraftOperator, country, new AircraftOperatorCountry(null), null);
+                }
+                if(company != null){
+                    inserter.createRelationship(aircraftOperator, company, new AircraftOperatorCompany(null), null);
+                }
+                if(sector != null){
+                    inserter.createRelationship(aircraftOperator, sector, new AircraftOperatorSector(null), null);
+                }
+            }
+
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    public void importComplianceDataFile(File file){
+
+        System.out.println("Importing file " + file.getName());
+
+        try{
+
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            RejectedCellReport rejectedCells = new RejectedCellReport(file.getName());
+
+            while(fields.nextLine()){
+
+                ComplianceRow row = ComplianceRow.parse(fields);
+
+                if(row != null){
+
+                    row.reportRejectedCells(rejectedCells);
+
+                    String installationIdSt = row.getCompleteId();
+
+                    long period = getOrCreatePeriod(row.year);
+
+                    Long account = installationsById.get(installationIdSt);
+                    if(account == null){
+                        account = aircraftOperatorsById.get(installationIdSt);
+                    }
+
+                    if(account != null){
+
+                        if(row.unitsSurrendered != null){
+                            createValueRelationship(account, period, new SurrenderedUnits(null), row.unitsSurrendered);
+                        }
+                        if(row.verifiedEmissions != null){
+                            createValueRelationship(account, period, new VerifiedEmissions(null), row.verifiedEmissions);
+                        }
+                        if(!row.complianceCode.isEmpty()){
+                            createValueRelationship(account, period, new Compliance(null), row.complianceCode);
+                        }
+                        if(row.allowancesInAllocation != null){
+                            createAllowancesRelationship(account, period, row.allowancesInAllocation, AllowancesInAllocationModel.STANDARD_TYPE);
+                        }
+
+                    }else{
+                        System.out.println("Installation/aircraft op. " + installationIdSt + " could not be found...");
+                        System.out.println("installationIdIncompleteSt = '" + row.accountId + "'");
+                        System.out.println("countryIdSt = '" + row.countryId + "'");
+                    }
+                }
+            }
+
+            rejectedCells.print();
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    public void importNERAllocationData(File file){
+        importInstallationsAllocationData(file, AllowancesInAllocationModel.NER_TYPE, "NER data");
+    }
+
+    public void importArticle10cAllocationData(File file){
+        importInstallationsAllocationData(file, AllowancesInAllocationModel.ARTICLE_10C_TYPE, "Article 10c data");
+    }
+
+    private void importInstallationsAllocationData(File file, String allocationType, String source){
+        System.out.println("Importing file " + file.getName());
+        try{
+
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            RejectedCellReport rejectedCells = new RejectedCellReport(file.getName());
+
+            while(fields.nextLine()){
+
+                if(!fields.isBlank()){
+
+                    String countryIdSt = fields.getString(0);
+                    String installationIdIncompleteSt = fields.getString(1);
+                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
+                    String yearSt = fields.getString(2);
+
+                    long period = getOrCreatePeriod(yearSt);
+
+                    Long installation = installationsById.get(installationIdSt);
+                    if(installation != null){
+
+                        int status = fields.parseDouble(3);
+                        if(status == FieldReader.VALID_NUMBER){
+                            createAllowancesRelationship(installation, period, fields.getParsedDouble(), allocationType);
+                        }else if(status == FieldReader.INVALID_NUMBER){
+                            rejectedCells.reject("Allowances in allocation", fields.getString(3), fields.getLineNumber());
+                        }
+
+                    }else{
+                        System.out.println("(" + source + ") Installation " + installationIdSt + " could not be found...");
+                        System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
+                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                    }
+                }
+            }
+
+            rejectedCells.print();
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    public void importInstallationsOffsetEntitlements(File file){
+        importOffsetEntitlements(file, installationsById, "Installation");
+    }
+
+    public void importAircraftOperatorsOffsetEntitlements(File file){
+        importOffsetEntitlements(file, aircraftOperatorsById, "Aircraft Operator");
+    }
+
+    private void importOffsetEntitlements(File file, Map<String, Long> accounts, String accountType){
+        System.out.println("Importing file " + file.getName());
+        try{
+
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            long period = getOrCreatePeriod("2008to2020");
+
+            while(fields.nextLine()){
+
+                if(!fields.isBlank()){
+
+                    String countryNameSt = fields.getString(0);
+                    String accountIdIncompleteSt = fields.getString(1);
+                    String valueSt = fields.getString(2);
+
+                    Long country = countriesByName.get(countryNameSt);
+                    if(country == null){
+                        System.out.println("(Offset entitlement) Country " + countryNameSt + " could not be found...");
+                        System.out.println("accountIdIncompleteSt = '" + accountIdIncompleteSt + "'");
+                        continue;
+                    }
+
+                    String countryIdSt = String.valueOf(inserter.getNodeProperties(country).get(CountryModel.id));
+                    String accountIdSt = countryIdSt + accountIdIncompleteSt;
+
+                    Long account = accounts.get(accountIdSt);
+                    if(account != null){
+                        createValueRelationship(account, period, new OffsetEntitlement(null), TypedProperties.toNumberOrText(valueSt));
+                    }else{
+                        System.out.println("(Offset entitlement) " + accountType + " " + accountIdSt + " could not be found...");
+                        System.out.println("accountIdIncompleteSt = '" + accountIdIncompleteSt + "'");
+                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                    }
+                }
+            }
+
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    public void importOffsetsFile(File file){
+        System.out.println("Importing file " + file.getName());
+
+        try{
+
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            while(fields.nextLine()){
+
+                OffsetRow row = OffsetRow.parse(fields);
+
+                if(row != null){
+
+                    String installationIdSt = row.getCompleteId();
+
+                    long period = getOrCreatePeriod(row.yearOfCompliance);
+                    long originatingCountry = getOrCreateCountry(row.originatingRegistry, "");
+
+                    Long project = null;
+                    if(!row.projectId.isEmpty()){
+                        project = projectsById.get(row.projectId);
+                        if(project == null){
+                            Map<String, Object> properties = new HashMap<>();
+                            properties.put(ProjectModel.id, row.projectId);
+                            project = inserter.createNode(properties, DatabaseManager.PROJECT_LABEL);
+                            projectsById.put(row.projectId, project);
+                        }
+                    }
+
+                    Long account = installationsById.get(installationIdSt);
+                    if(account == null){
+                        account = aircraftOperatorsById.get(installationIdSt);
+                    }
+
+                    if(account != null){
+                        //amount (field 4 of the row) parsed straight from the line
+                        int status = fields.parseDouble(4);
+                        if(status == FieldReader.VALID_NUMBER){
+                            createOffset(fields.getParsedDouble(), row.unitType, account, project, period, originatingCountry);
+                        }else{
+                            System.out.println("Offset amount: " + row.amount + " is not a number. It won't be stored");
+                        }
+                    }else{
+                        System.out.println("Installation/aircraft op. " + installationIdSt + " could not be found...");
+                        System.out.println("installationIdIncompleteSt = '" + row.accountId + "'");
+                        System.out.println("countryIdSt = '" + row.countryId + "'");
+                    }
+                }
+            }
+
+            fields.close();
+
+        }catch (Exception e){
+            //the rest of the file would be missing from a database that can't be loaded again
+            throw new ExecutionFailedException("File " + file.getName() + " could not be imported", e);
+        }
+    }
+
+    private void createOffset(double amount, String unitTypeSt, long account, Long project, long period, long originatingCountry){
+
+        String unitType;
+        if (unitTypeSt.startsWith("CER")) {
+            unitType = OffsetModel.CER_UNIT_TYPE;
+        } else if (unitTypeSt.startsWith("AAU")) {
+            unitType = OffsetModel.AAU_UNIT_TYPE;
+        } else if (unitTypeSt.startsWith("ERU")) {
+            unitType = OffsetModel.ERU_UNIT_TYPE;
+        } else {
+            unitType = unitTypeSt;
+        }
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(OffsetModel.amount, amount);
+        properties.put(OffsetModel.unitType, unitType);
+        long offset = inserter.createNode(properties, DatabaseManager.OFFSET_LABEL);
+
+        inserter.createRelationship(account, offset, new Offsets(null), null);
+        if(project != null){
+            inserter.createRelationship(offset, project, new OffsetProject(null), null);
+        }
+        inserter.createRelationship(offset, period, new OffsetPeriod(null), null);
+        inserter.createRelationship(offset, originatingCountry, new OffsetOriginatingCountry(null), null);
+    }
+
+    private long getOrCreateCountry(String name, String id){
+        Long country = countriesByName.get(name);
+        if(country == null){
+            System.out.println("Creating country: [" + id + "," + name + "]" );
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(CountryModel.name, name);
+            properties.put(CountryModel.id, id);
+            country = inserter.createNode(properties, DatabaseManager.COUNTRY_LABEL);
+            countriesByName.put(name, country);
+            if(!countriesById.containsKey(id)){
+                countriesById.put(id, country);
+            }
+        }
+        return country;
+    }
+
+    private Long getOrCreateCompany(String name,
+                                    String registrationNumber,
+                                    String postalCode,
+                                    String city,
+                                    String address,
+                                    String status,
+                                    String subsidiaryCompany,
+                                    String parentCompany){
+        Long company = companiesByName.get(name);
+        if(company == null && !name.isEmpty()){
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(CompanyModel.name, name);
+            properties.put(CompanyModel.address, address);
+            properties.put(CompanyModel.city, city);
+            properties.put(CompanyModel.postalCode, postalCode);
+            properties.put(CompanyModel.registrationNumber, registrationNumber);
+            properties.put(CompanyModel.status, status);
+            properties.put(CompanyModel.subsidiaryCompany, subsidiaryCompany);
+            properties.put(CompanyModel.parentCompany, parentCompany);
+            company = inserter.createNode(properties, DatabaseManager.COMPANY_LABEL);
+            companiesByName.put(name, company);
+        }
+        return company;
+    }
+
+    private Long getOrCreateSector(String id, String name){
+        Long sector = sectorsById.get(id);
+        if(sector == null && !id.isEmpty()){
+            System.out.println("Creating sector: " + name);
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(SectorModel.name, name);
+            properties.put(SectorModel.id, id);
+            sector = inserter.createNode(properties, DatabaseManager.SECTOR_LABEL);
+            sectorsById.put(id, sector);
+        }
+        return sector;
+    }
+
+    private long getOrCreatePeriod(String name){
+        Long period = periodsByName.get(name);
+        if(period == null){
+            System.out.println("Creating period: " + name);
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(PeriodModel.name, name);
+            period = inserter.createNode(properties, DatabaseManager.PERIOD_LABEL);
+            periodsByName.put(name, period);
+            periodOrdinals.put(period, periodOrdinals.size());
+        }
+        return period;
+    }
+
+    private void createValueRelationship(long account, long period, org.neo4j.graphdb.RelationshipType type, Object value){
+        long key = relationshipKey(account, period, type.name());
+        long relationship = periodRelationships.get(key);
+        if(relationship != LongLongMap.NOT_FOUND){
+            inserter.setRelationshipProperty(relationship, "value", value);
+        }else{
+            Map<String, Object> properties = new HashMap<>();
+            properties.put("value", value);
+            periodRelationships.put(key, inserter.createRelationship(account, period, type, properties));
+        }
+    }
+
+    private void createAllowancesRelationship(long account, long period, double value, String type){
+        AllowancesInAllocation relationshipType = new AllowancesInAllocation(null);
+        long key = relationshipKey(account, period, relationshipType.name() + "/" + type);
+        long relationship = periodRelationships.get(key);
+        if(relationship != LongLongMap.NOT_FOUND){
+            inserter.setRelationshipProperty(relationship, AllowancesInAllocationModel.value, value);
+        }else{
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(AllowancesInAllocationModel.value, value);
+            properties.put(AllowancesInAllocationModel.type, type);
+            periodRelationships.put(key, inserter.createRelationship(account, period, relationshipType, properties));
+        }
+    }
+
+    /**
+     * Packs (account node id, period, relationship type + subtype) into a long:
+     * node id << 12 | period ordinal << 4 | type code
+     */
+    private long relationshipKey(long account, long period, String typeName){
+        Integer typeCode = relationshipTypeCodes.get(typeName);
+        if(typeCode == null){
+            typeCode = relationshipTypeCodes.size();
+            if(typeCode >= 16){
+                throw new IllegalStateException("Too many period relationship types: " + typeName);
+            }
+            relationshipTypeCodes.put(typeName, typeCode);
+        }
+        int periodOrdinal = periodOrdinals.get(period);
+        if(periodOrdinal >= 256){
+            throw new IllegalStateException("Too many periods for the relationship keys");
+        }
+        return (account << 12) | ((long) periodOrdinal << 4) | typeCode;
+    }
+
+    private static File[] getCsvFiles(String folderSt){
+        File folder = new File(folderSt);
+        if(!folder.isDirectory()){
+            System.out.println("Please enter a valid folder name");
+            return new File[0];
+        }
+        File[] files = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().split("\\.")[1].toLowerCase().equals("csv");
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,435 @@
+package org.sandbag.programs;
+
+import org.sandbag.model.BatchTransaction;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.ImportWrites;
+import org.sandbag.model.nodes.*;
+import org.sandbag.programs.rows.AircraftOperatorRow;
+import org.sandbag.programs.rows.ComplianceRow;
+import org.sandbag.programs.rows.InstallationRow;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
+import org.sandbag.util.RejectedCellReport;
+import org.sandbag.util.RowFingerprints;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Incremental version of ImportEUTLData for refreshing an existing database with a new EUTL web scrape.
+ *
+ * Every row of the installations, aircraft operators and compliance files is fingerprinted and identified
+ * the same way FindNewInstallationsInMegaFiles identifies accounts (complete account id), plus the year for compliance rows.
+ * Fingerprints are compared to the ones saved by the previous run and only the rows that are new, have changed
+ * or have disappeared are applied to the graph. Fingerprints are saved once all changes have been committed,
+ * so an interrupted run is simply repeated by the next one (all the writes involved are idempotent).
+ *
+ * When there are no previous fingerprints every row is applied, reconciling the database with the files:
+ * existing accounts are updated instead of created again.
+ * Lines that can't be parsed never cause any deletion: the previous data of their account is kept, and the run
+ * is aborted when that account can't be identified (see parseRow).
+ *
+ */
+public class DeltaImportEUTLData implements ContextExecutable {
+
+    static final String INSTALLATION_KEY_PREFIX = "I|";
+    static final String AIRCRAFT_OPERATOR_KEY_PREFIX = "A|";
+    static final String COMPLIANCE_KEY_PREFIX = "C|";
+
+    //see ImportEUTLData.fixProblematicAircraftOperatorHR200696()
+    private static final String PROBLEMATIC_AIRCRAFT_OPERATOR_ID = "DE200696";
+    private static final String PROBLEMATIC_AIRCRAFT_OPERATOR_COUNTRY_ID = "HR";
+
+    private final DatabaseManager dbManager;
+    private final ImportEUTLData importer = new ImportEUTLData();
+    private final RowFingerprints fingerprints = new RowFingerprints();
+
+    private final List<InstallationRow> installationRows = new ArrayList<>();
+    private final List<AircraftOperatorRow> aircraftOperatorRows = new ArrayList<>();
+    private final List<ComplianceRow> complianceRows = new ArrayList<>();
+
+    private final int[] newRows = new int[3];
+    private final int[] changedRows = new int[3];
+    private final int[] unchangedRows = new int[3];
+    private final int[] unparsedRows = new int[3];
+
+    private static final int INSTALLATIONS = 0;
+    private static final int AIRCRAFT_OPERATORS = 1;
+    private static final int COMPLIANCE = 2;
+    private static final String[] KINDS = {"Installations", "Aircraft operators", "Compliance rows"};
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if(args.length != 5){
+            System.out.println("The program expects the following parameters:\n" +
+                    "1. Database folder\n" +
+                    "2. Installations folder\n" +
+                    "3. Aircraf Operators folder\n" +
+                    "4. Compliance Data folder\n" +
+                    "5. Fingerprints file (created if it doesn't exist)");
+        }else{
+
+            DatabaseManager dbManager = context.getDatabaseManager(args[0]);
+            ImportEUTLData.setUp(dbManager);
+            //the accounts changed are the only ones the aggregate cube computes again (before anything is committed)
+            dbManager.enableAggregateCubeUpdates();
+            //the few rows applied update the EU-wide values instead of computing them all again
+            dbManager.enableEUWideValuesUpdates();
+            //the accounts changed are the only ones exported again by the next incremental export
+            dbManager.enableChangeTracking();
+
+            try{
+                new DeltaImportEUTLData(dbManager).run(args[1], args[2], args[3], new File(args[4]));
+            }catch (Exception e){
+                throw new ExecutionFailedException(DeltaImportEUTLData.class.getSimpleName() + " failed", e);
+            }
+
+        }
+    }
+
+    public DeltaImportEUTLData(DatabaseManager dbManager){
+        this.dbManager = dbManager;
+    }
+
+    public void run(String installationsFolder, String aircraftOperatorsFolder, String complianceFolder,
+                    File fingerprintsFile) throws Exception{
+
+        fingerprints.load(fingerprintsFile);
+
+        System.out.println("Looking for changes...");
+
+        for(File file : ImportEUTLData.getCsvFiles(installationsFolder)){
+            scanInstallationsFile(file);
+        }
+        for(File file : ImportEUTLData.getCsvFiles(aircraftOperatorsFolder)){
+            scanAircraftOperatorsFile(file);
+        }
+        for(File file : ImportEUTLData.getCsvFiles(complianceFolder)){
+            scanComplianceFile(file);
+        }
+
+        List<String> removedComplianceKeys = fingerprints.getRemovedKeys(COMPLIANCE_KEY_PREFIX);
+        List<String> removedInstallationKeys = fingerprints.getRemovedKeys(INSTALLATION_KEY_PREFIX);
+        List<String> removedAircraftOperatorKeys = fingerprints.getRemovedKeys(AIRCRAFT_OPERATOR_KEY_PREFIX);
+
+        for(int i = 0; i < KINDS.length; i++){
+            System.out.println(KINDS[i] + ": " + newRows[i] + " new, " + changedRows[i] + " changed, " +
+                    unchangedRows[i] + " unchanged, " + unparsedRows[i] + " kept as they were (lines not parsed)");
+        }
+        System.out.println("Removed: " + removedInstallationKeys.size() + " installations, " +
+                removedAircraftOperatorKeys.size() + " aircraft operators, " +
+                removedComplianceKeys.size() + " compliance rows");
+
+        BatchTransaction batch = new BatchTransaction(dbManager, "Delta import");
+        boolean finished = false;
+
+        try{
+
+            for(InstallationRow row : installationRows){
+                batch.rowDone(applyInstallation(row));
+            }
+            for(AircraftOperatorRow row : aircraftOperatorRows){
+                batch.rowDone(applyAircraftOperator(row));
+            }
+            for(ComplianceRow row : complianceRows){
+                batch.rowDone(applyComplianceRow(row));
+            }
+            for(String key : removedComplianceKeys){
+                batch.rowDone(removeComplianceRow(key));
+            }
+            //accounts go last, nothing is resolved after them (the account resolver doesn't forget ids)
+            for(String key : removedInstallationKeys){
+                batch.rowDone(removeInstallation(key.substring(INSTALLATION_KEY_PREFIX.length())));
+            }
+            for(String key : removedAircraftOperatorKeys){
+                batch.rowDone(removeAircraftOperator(key.substring(AIRCRAFT_OPERATOR_KEY_PREFIX.length())));
+            }
+
+            batch.finish();
+            finished = true;
+
+        }finally {
+            if(!finished){
+                batch.abort();
+            }
+        }
+
+        ImportEUTLData.ACCOUNTS.printMissSummary("Delta import");
+
+        fingerprints.save(fingerprintsFile);
+
+        System.out.println("Done! :)");
+    }
+
+    //--------------------------------------SCANNING-------------------------------------------
+
+    private void scanInstallationsFile(File file) throws Exception{
+        FieldReader fields = openFile(file, Charset.forName("UTF-8"));
+        try{
+            while(fields.nextLine()){
+                InstallationRow row = parseRow(fields, file, INSTALLATIONS);
+                if(row != null && isApplicable(INSTALLATION_KEY_PREFIX + row.getCompleteId(), fields, INSTALLATIONS)){
+                    installationRows.add(row);
+                }
+            }
+        }finally {
+            fields.close();
+        }
+    }
+
+    private void scanAircraftOperatorsFile(File file) throws Exception{
+        FieldReader fields = openFile(file, Charset.defaultCharset());
+        try{
+            while(fields.nextLine()){
+                AircraftOperatorRow row = parseRow(fields, file, AIRCRAFT_OPERATORS);
+                if(row != null && isApplicable(AIRCRAFT_OPERATOR_KEY_PREFIX + row.getCompleteId(), fields, AIRCRAFT_OPERATORS)){
+                    aircraftOperatorRows.add(row);
+                }
+            }
+        }finally {
+            fields.close();
+        }
+    }
+
+    private void scanComplianceFile(File file) throws Exception{
+        FieldReader fields = openFile(file, Charset.defaultCharset());
+        RejectedCellReport rejectedCells = new RejectedCellReport(file.getName());
+        try{
+            while(fields.nextLine()){
+                ComplianceRow row = parseRow(fields, file, COMPLIANCE);
+                if(row != null && isApplicable(COMPLIANCE_KEY_PREFIX + row.getCompleteId() + "|" + row.year, fields, COMPLIANCE)){
+                    row.reportRejectedCells(rejectedCells);
+                    complianceRows.add(row);
+                }
+            }
+        }finally {
+            fields.close();
+        }
+        rejectedCells.print();
+    }
+
+    private static FieldReader openFile(File file, Charset charset) throws Exception{
+        FieldReader fields = new FieldReader(new InputStreamReader(new FileInputStream(file), charset), '\t');
+        fields.nextLine(); //skipping header
+        return fields;
+    }
+
+    /**
+     * Lines that can't be parsed keep the fingerprint of the previous run, so that the data they had is neither
+     * updated nor deleted. The run is aborted (before anything is applied) when the account of such a line can't
+     * be identified or had no previous fingerprint, since its previous row couldn't be told apart from a removed one.
+     *
+     * @return the row, null for lines that must be skipped
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R parseRow(FieldReader fields, File file, int kind){
+        try{
+            switch (kind){
+                case INSTALLATIONS:
+                    return (R) InstallationRow.parse(fields);
+                case AIRCRAFT_OPERATORS:
+                    return (R) AircraftOperatorRow.parse(fields);
+                default:
+                    return (R) ComplianceRow.parse(fields);
+            }
+        }catch (Exception e){
+            System.out.println("Line could not be parsed (" + file.getName() + "): " + fields.getLine());
+            e.printStackTrace();
+        }
+
+        if(!fingerprints.hasPreviousRun()){
+            //nothing is deleted when there are no previous fingerprints
+            return null;
+        }
+        String key = getUnparsedRowKey(fields, kind);
+        if(key == null || !fingerprints.keepPrevious(key)){
+            throw new IllegalStateException("Line " + fields.getLineNumber() + " of " + file.getName() +
+                    " could not be parsed and the data it had before can't be identified, aborting the delta import " +
+                    "so that nothing is deleted because of it (the line must be fixed)");
+        }
+        System.out.println("The data previously imported for " + key + " is kept as it was");
+        unparsedRows[kind]++;
+        return null;
+    }
+
+    /**
+     * @return the key of a line that could not be parsed, taken from the fields of the id as the rows do,
+     * null if the line doesn't have them
+     */
+    private static String getUnparsedRowKey(FieldReader fields, int kind){
+        switch (kind){
+            case INSTALLATIONS:
+                String installationId = InstallationRow.getCompleteId(fields);
+                return installationId != null ? INSTALLATION_KEY_PREFIX + installationId : null;
+            case AIRCRAFT_OPERATORS:
+                String aircraftOperatorId = AircraftOperatorRow.getCompleteId(fields);
+                return aircraftOperatorId != null ? AIRCRAFT_OPERATOR_KEY_PREFIX + aircraftOperatorId : null;
+            default:
+                String accountId = ComplianceRow.getCompleteId(fields);
+                if(accountId == null || fields.getFieldCount() <= ComplianceRow.YEAR_FIELD){
+                    return null;
+                }
+                return COMPLIANCE_KEY_PREFIX + accountId + "|" + fields.getString(ComplianceRow.YEAR_FIELD);
+        }
+    }
+
+    /**
+     * @return true if the row is new or has changed since the previous run
+     */
+    private boolean isApplicable(String key, FieldReader fields, int kind){
+        switch (fingerprints.check(key, RowFingerprints.fingerprint(fields.getLine()))){
+            case RowFingerprints.NEW:
+                newRows[kind]++;
+                return true;
+            case RowFingerprints.CHANGED:
+                changedRows[kind]++;
+                return true;
+            default:
+                unchangedRows[kind]++;
+                return false;
+        }
+    }
+
+    //--------------------------------------APPLYING-------------------------------------------
+
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    private int applyInstallation(InstallationRow row){
+
+        Installation installation = ImportEUTLData.ACCOUNTS.getInstallation(row.getCompleteId());
+        if(installation == null){
+            return importer.writeInstallation(row);
+        }
+
+        Country country = importer.getOrCreateCountry(row.countryName, row.countryId);
+        Company company = importer.getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                row.companyCity, row.companyAddress, row.companyStatus, row.subsidiaryCompany, row.parentCompany);
+        Sector sector = importer.getOrCreateSector(row.sectorId, row.sectorName);
+
+        dbManager.updateInstallation(installation, row.installationName,
+                row.installationCity, row.installationPostalCode, row.installationAddress,
+                row.eprtrId, row.permitId, row.permitEntryDate, row.permitExpiryOrRevocationDate, row.latitude, row.longitude,
+                country, company, sector);
+
+        return ImportWrites.INSTALLATION_UPDATE;
+    }
+
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    private int applyAircraftOperator(AircraftOperatorRow row){
+
+        if(PROBLEMATIC_AIRCRAFT_OPERATOR_ID.equals(row.getCompleteId())){
+            //applying the same fix as the full import straight away
+            Country croatia = ImportEUTLData.RESOLVER.getCountryById(PROBLEMATIC_AIRCRAFT_OPERATOR_COUNTRY_ID);
+            if(croatia != null){
+                row.countryId = croatia.getId();
+                row.countryName = croatia.getName();
+            }
+        }
+
+        AircraftOperator aircraftOperator = ImportEUTLData.ACCOUNTS.getAircraftOperator(row.getCompleteId());
+        if(aircraftOperator == null){
+            return importer.writeAircraftOperator(row);
+        }
+
+        Country country = importer.getOrCreateCountry(row.countryName, row.countryId);
+        Company company = importer.getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                row.companyCity, row.companyAddress, row.companyStatus, row.subsidiaryCompany, row.parentCompany);
+        Sector sector = importer.getOrCreateSector(row.sectorId, row.sectorName);
+
+        dbManager.updateAircraftOperator(aircraftOperator, row.companyName,
+                row.aircraftOperatorCity, row.aircraftOperatorPostalCode, row.aircraftOperatorAddress,
+                row.eprtrId, row.companyStatus, row.uniqueCodeUnderCommissionRegulation, row.monitoringPlanId,
+                row.monitoringPlanFirstYearOfApplicability, row.monitoringPlanYearOfExpiry, row.icaoDesignator,
+                row.latitude, row.longitude, country, company, sector);
+
+        return ImportWrites.AIRCRAFT_OPERATOR_UPDATE;
+    }
+
+    /**
+     * Replaces the compliance data of the account for the year of the row
+     *
+     * @return number of writes (see ImportWrites)
+     */
+    private int applyComplianceRow(ComplianceRow row){
+        //values that are now missing must disappear, the ones present are written again by the full import code
+        int deleted = deleteComplianceData(row.getCompleteId(), importer.getOrCreatePeriod(row.year));
+        return deleted + importer.writeComplianceData(row, "Delta import");
+    }
+
+    /**
+     * @param key compliance key: prefix + complete account id + "|" + year
+     * @return number of writes (see ImportWrites)
+     */
+    private int removeComplianceRow(String key){
+        int separatorIndex = key.lastIndexOf('|');
+        String accountId = key.substring(COMPLIANCE_KEY_PREFIX.length(), separatorIndex);
+        Period period = ImportEUTLData.RESOLVER.getPeriodByName(key.substring(separatorIndex + 1));
+        return period != null ? deleteComplianceData(accountId, period) : 0;
+    }
+
+    /**
+     * @return number of relationships deleted
+     */
+    private int deleteComplianceData(String accountId, Period period){
+        Installation installation = ImportEUTLData.ACCOUNTS.getInstallation(accountId);
+        if(installation != null){
+            return installation.deleteComplianceDataForPeriod(period);
+        }
+        AircraftOperator aircraftOperator = ImportEUTLData.ACCOUNTS.getAircraftOperator(accountId);
+        return aircraftOperator != null ? aircraftOperator.deleteComplianceDataForPeriod(period) : 0;
+    }
+
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    private int removeInstallation(String id){
+        Installation installation = ImportEUTLData.ACCOUNTS.getInstallation(id);
+        if(installation != null){
+            System.out.println("Deleting installation " + id);
+            return installation.delete();
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    private int removeAircraftOperator(String id){
+        String accountId = PROBLEMATIC_AIRCRAFT_OPERATOR_ID.equals(id) ?
+                PROBLEMATIC_AIRCRAFT_OPERATOR_COUNTRY_ID + id.substring(2) : id;
+        AircraftOperator aircraftOperator = ImportEUTLData.ACCOUNTS.getAircraftOperator(accountId);
+        if(aircraftOperator != null){
+            System.out.println("Deleting aircraft operator " + accountId);
+            return aircraftOperator.delete();
+        }
+        return 0;
+    }
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+}
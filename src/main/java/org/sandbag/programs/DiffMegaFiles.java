@@ -0,0 +1,87 @@
+package org.sandbag.programs;
+
+import org.sandbag.util.Executable;
+import org.sandbag.util.MegaFileDiff;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ *
+ * Reports the installations and aircraft operators added, removed and changed between two mega files,
+ * with the old and new values of every column changed (see MegaFileDiff).
+ *
+ */
+public class DiffMegaFiles implements Executable {
+
+    public static final String OUTPUT_HEADER = "Change\tType\tID\tColumn\tOld value\tNew value";
+
+    private static final int DEFAULT_MEMORY_MB = 64;
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    public static void main(String[] args){
+        if(args.length < 3 || args.length > 5){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Old General Mega file\n" +
+                    "2. New General Mega file\n" +
+                    "3. Output file including the accounts added, removed and changed\n" +
+                    "4. Memory used to sort every file in MB (optional, " + DEFAULT_MEMORY_MB + " by default)\n" +
+                    "5. Folder for the temporary files (optional, the default temporary folder by default)");
+        }else{
+
+            try{
+
+                File oldMegaFile = new File(args[0]);
+                File newMegaFile = new File(args[1]);
+                long memory = (args.length >= 4 ? Long.parseLong(args[3]) : DEFAULT_MEMORY_MB) << 20;
+                File tempFolder = args.length == 5 ? new File(args[4]) : null;
+
+                final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(args[2]), "UTF-8"));
+                writer.write(OUTPUT_HEADER + "\n");
+
+                System.out.println("Comparing mega files...");
+
+                long[] counts;
+                try{
+                    counts = new MegaFileDiff(memory, tempFolder).diff(oldMegaFile, newMegaFile,
+                            new MegaFileDiff.Listener() {
+                        @Override
+                        public void added(String key, String newLine) throws IOException {
+                            writer.write("added\t" + key + "\t\t\t\n");
+                        }
+
+                        @Override
+                        public void removed(String key, String oldLine) throws IOException {
+                            writer.write("removed\t" + key + "\t\t\t\n");
+                        }
+
+                        @Override
+                        public void changed(String key, String oldLine, String newLine, List<String> columns,
+                                            List<String> oldValues, List<String> newValues) throws IOException {
+                            for(int i = 0; i < columns.size(); i++){
+                                writer.write("changed\t" + key + "\t" + columns.get(i) + "\t" + oldValues.get(i) +
+                                        "\t" + newValues.get(i) + "\n");
+                            }
+                        }
+                    });
+                }finally {
+                    writer.close();
+                }
+
+                System.out.println("Done! " + counts[MegaFileDiff.ADDED] + " added, " +
+                        counts[MegaFileDiff.REMOVED] + " removed, " + counts[MegaFileDiff.CHANGED] + " changed and " +
+                        counts[MegaFileDiff.UNCHANGED] + " unchanged installations/aircraft operators");
+
+            }catch (Exception e){
+                throw new ExecutionFailedException(DiffMegaFiles.class.getSimpleName() + " failed", e);
+            }
+
+        }
+    }
+}
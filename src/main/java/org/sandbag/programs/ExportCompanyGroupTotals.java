@@ -0,0 +1,97 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.CompanyGroupTotals;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+/**
+ *
+ * Exports the verified emissions, allowances in allocation and surrendered units per period of every company group
+ * (see CompanyGroupTotals), consolidated at the level of the ultimate parent.
+ *
+ */
+public class ExportCompanyGroupTotals implements ContextExecutable {
+
+    public static final String HEADER = "Ultimate parent\tCompanies\tPeriod\tVerified emissions\t" +
+            "Allowances in allocation\tSurrendered units";
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if(args.length != 2){
+            System.out.println("This program expects the following parameters: \n" +
+                    "1. Database folder\n" +
+                    "2. Output TSV file");
+        }else{
+
+            try{
+
+                String dbFolderSt = args[0];
+                String outFileSt = args[1];
+
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolderSt);
+                Transaction tx = databaseManager.beginTransaction();
+                try{
+
+                    System.out.println("Computing the totals of every company...");
+                    CompanyGroupTotals totals = new CompanyGroupTotals(databaseManager);
+
+                    BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outFileSt)));
+                    writer.write(HEADER + "\n");
+                    List<String> ultimateParents = totals.getUltimateParents();
+                    for(String ultimateParent : ultimateParents){
+                        int companies = totals.getGroupMembers(ultimateParent).size();
+                        for(int period = 0; period < totals.getPeriods().size(); period++){
+                            String periodName = totals.getPeriods().getName(period);
+                            double verifiedEmissions = totals.getValue(ultimateParent, periodName, CompanyGroupTotals.VERIFIED_EMISSIONS);
+                            double allowances = totals.getValue(ultimateParent, periodName, CompanyGroupTotals.ALLOWANCES_IN_ALLOCATION);
+                            double surrendered = totals.getValue(ultimateParent, periodName, CompanyGroupTotals.SURRENDERED_UNITS);
+                            if(!Double.isNaN(verifiedEmissions) || !Double.isNaN(allowances) || !Double.isNaN(surrendered)){
+                                writer.write(ultimateParent + "\t" + companies + "\t" + periodName + "\t" +
+                                        format(verifiedEmissions) + "\t" + format(allowances) + "\t" + format(surrendered) + "\n");
+                            }
+                        }
+                    }
+                    writer.close();
+
+                    System.out.println("Done! " + ultimateParents.size() + " company groups exported");
+                    tx.success();
+                }finally {
+                    tx.close();
+                }
+
+            }catch(Exception e){
+                throw new ExecutionFailedException(ExportCompanyGroupTotals.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+
+    private static String format(double value){
+        return Double.isNaN(value) ? "" : String.valueOf(value);
+    }
+}
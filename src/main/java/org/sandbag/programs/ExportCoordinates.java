@@ -5,7 +5,9 @@ import org.neo4j.graphdb.Transaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -16,7 +18,7 @@ import java.util.List;
 /**
  * Created by root on 08/07/16.
  */
-public class ExportCoordinates implements Executable {
+public class ExportCoordinates implements ContextExecutable {
 
     public static String HEADER = "Installationn/Aircraft Operator ID\tLatitude\tLongitude";
     @Override
@@ -24,7 +26,21 @@ public class ExportCoordinates implements Executable {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters: \n" +
                     "1. Database folder\n" +
@@ -36,7 +52,7 @@ public class ExportCoordinates implements Executable {
                 String dbFolderSt = args[0];
                 String outFileSt = args[1];
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolderSt);
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolderSt);
                 Transaction tx = databaseManager.beginTransaction();
                 BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outFileSt)));
                 writer.write(HEADER + "\n");
@@ -68,12 +84,10 @@ public class ExportCoordinates implements Executable {
                 tx.success();
                 tx.close();
 
-                databaseManager.shutdown();
-
                 System.out.println("Done!");
 
             }catch(Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ExportCoordinates.class.getSimpleName() + " failed", e);
             }
         }
     }
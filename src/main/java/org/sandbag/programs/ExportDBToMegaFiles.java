@@ -1,21 +1,30 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.*;
+import org.sandbag.model.ChangeTracking;
 import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.PeriodTable;
 import org.sandbag.model.nodes.*;
+import org.sandbag.model.nodes.interfaces.CountryModel;
 import org.sandbag.model.relationships.*;
-import org.sandbag.util.Executable;
+import org.sandbag.model.relationships.aircraft_ops.interfaces.AircraftOperatorCountryModel;
+import org.sandbag.model.relationships.installations.interfaces.InstallationCountryModel;
+import org.sandbag.util.ColumnarFileReader;
+import org.sandbag.util.ColumnarFileWriter;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
 
 import java.io.*;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by root on 30/03/16.
  */
-public class ExportDBToMegaFiles implements Executable{
+public class ExportDBToMegaFiles implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
@@ -23,6 +32,11 @@ public class ExportDBToMegaFiles implements Executable{
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static final String FILE_1_HEADER = "Type\tOHA National Administrator\t" +
             "OHA Installation ID / OHA Aircraft Operator ID\tOHA Company Registration No\t" +
             "OHA Account Status\tOHA Name\tOHA Address\tOHA Postal Code" +
@@ -52,357 +66,733 @@ public class ExportDBToMegaFiles implements Executable{
     public static final String OFFSET_ENTITLEMENTS_FILE_HEADER = "Type\tInstallation / Aircraft Operator Country\t" +
             "Installation / Aircraft Operator ID\tValue";
 
+    private static final int FIRST_YEAR = 2005;
+    private static final int FIRST_YEAR_WITH_ALLOCATION_TYPES = 2013;
+    private static final int LAST_YEAR = 2020;
+
+    private static final int PARTITION_SIZE = 100;
+    private static final String GZIP_FORMAT = "gz";
+    private static final String COLUMNAR_FORMAT = "columns";
+    private static final String[] FILE_1_COLUMNS = FILE_1_HEADER.split("\t");
+    private static final String SEGMENTS_FOLDER_SUFFIX = ".segments";
+    private static final String MANIFEST_FILE_NAME = "manifest.tsv";
+    private static final String[] FILE_SUFFIXES = {".mega.tsv", ".offsets.tsv", ".entitlements.tsv"};
+    private static final String DATABASE_ID_KEY = "database_id";
+    private static final String FORMATS_KEY = "formats";
+    private static final String SHARED_CHANGE_SEQ_KEY = "shared_change_seq";
+    private static final String SEGMENT_PREFIX = "segment:";
+    //period table and period ordinals of the years FIRST_YEAR to LAST_YEAR of every export thread
+    private static final ThreadLocal<Object[]> PERIODS = new ThreadLocal<>();
+
     public static void main(String[] args){
-        if(args.length != 4){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if(args.length < 4 || args.length > 6){
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder \n" +
                     "2. Output file 1 (Mega file) \n" +
                     "3. Output file 2 (Offsets file) \n" +
-                    "4. Output file 3 (Offset entitlements)");
+                    "4. Output file 3 (Offset entitlements) \n" +
+                    "5. Number of threads (optional, the number of processors by default) \n" +
+                    "6. Additional formats, comma separated (optional): " + GZIP_FORMAT + " (block compressed copy of " +
+                    "every file, with the .gz extension), " + COLUMNAR_FORMAT + " (columnar copy of the mega file, " +
+                    "with the ." + COLUMNAR_FORMAT + " extension)");
         }else{
 
             String dbFolder = args[0];
             String outputFile1St = args[1];
             String offsetsFileSt = args[2];
             String offsetEntitlementsFileSt = args[3];
+            int threads = args.length >= 5 ? Math.max(1, Integer.parseInt(args[4])) :
+                    Runtime.getRuntime().availableProcessors();
+            List<String> formats = args.length == 6 ? Arrays.asList(args[5].split(",")) : Collections.<String>emptyList();
+            boolean gzip = formats.contains(GZIP_FORMAT);
+            boolean columnar = formats.contains(COLUMNAR_FORMAT);
 
-            try{
-
-                DatabaseManager dbManager = new DatabaseManager(dbFolder);
-
-                Transaction tx = dbManager.beginTransaction();
-
-                BufferedWriter file1Buff = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile1St),"UTF-8"));
-                file1Buff.write(FILE_1_HEADER + "\n");
-
-                BufferedWriter offsetsFileBuff = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(offsetsFileSt),"UTF-8"));
-                offsetsFileBuff.write(OFFSETS_FILE_HEADER + "\n");
-
-                BufferedWriter offsetEntitlementsBuff = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(offsetEntitlementsFileSt),"UTF-8"));
-                offsetEntitlementsBuff.write(OFFSET_ENTITLEMENTS_FILE_HEADER + "\n");
-
-                Iterator<Node> installationIterator = dbManager.findNodes(DatabaseManager.INSTALLATION_LABEL);
-
-                int installationsCounter = 0;
-
-                while(installationIterator.hasNext()){
-
-                    String lineSt = "";
-                    String typeSt = "Installation";
-
-                    lineSt += typeSt + "\t";
-
-                    Installation installation = new Installation(installationIterator.next());
-                    Company company = installation.getCompany();
-                    Sector sector = installation.getSector();
-
-                    //System.out.println("installation.getName() = " + installation.getName());
-
-                    lineSt += installation.getCountry().getName() + "\t" + installation.getId() + "\t" +
-                            company.getRegistrationNumber() + "\t" + company.getStatus() + "\t" +
-                            company.getName() + "\t" + company.getAddress().replaceAll("\n", " ") + "\t" +
-                            company.getPostalCode() + "\t" + company.getCity() + "\t" + installation.getName() +
-                            "\t" + installation.getPermitId() + "\t" + installation.getPermitEntryDate() + "\t" +
-                            installation.getPermitExpiryOrRevocationDate() + "\t" + installation.getEprtrId() + "\t\t" +
-                            installation.getAddress().replaceAll("\n", " ") + "\t" + installation.getPostCode() + "\t" + installation.getCity() +
-                            "\t" + installation.getLatitude() + "\t" + installation.getLongitude() + "\t" +
-                            sector.getId() + "-" + sector.getName() + "\t" + company.getSubsidiaryCompany() + "\t" +
-                            company.getParentCompany() + "\t";
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
 
+            try{
 
-                    for (int yearCounter=2005;yearCounter<=2012;yearCounter++){
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                File segmentsFolder = new File(outputFile1St + SEGMENTS_FOLDER_SUFFIX);
+                File manifestFile = new File(segmentsFolder, MANIFEST_FILE_NAME);
+                Map<String, String> manifest = loadManifest(manifestFile);
+
+                //what the segments are exported from, segments of a previous run are only reused when it's the same
+                Map<String, String> current = new LinkedHashMap<>();
+                //no id when changes are not tracked, every segment is exported again then
+                long lastTransaction = ChangeTracking.getLastCommittedTransaction();
+                String databaseId = ChangeTracking.getDatabaseId(dbManager);
+                current.put(DATABASE_ID_KEY, "");
+                current.put(FORMATS_KEY, "gzip=" + gzip + ",columnar=" + columnar);
+                List<Segment> segments = getSegments(dbManager, current);
+                if(lastTransaction != ChangeTracking.getLastCommittedTransaction()){
+                    //changes committed while the segments were read may be missing from them
+                    System.out.println("The database was modified during the export, the next one will be run from scratch");
+                    databaseId = null;
+                }
+                if(databaseId != null){
+                    current.put(DATABASE_ID_KEY, databaseId);
+                }
+                boolean reusable = databaseId != null && databaseId.equals(manifest.get(DATABASE_ID_KEY)) &&
+                        manifest.get(FORMATS_KEY).equals(current.get(FORMATS_KEY)) &&
+                        manifest.get(SHARED_CHANGE_SEQ_KEY).equals(current.get(SHARED_CHANGE_SEQ_KEY));
+
+                List<Segment> changedSegments = new ArrayList<>();
+                for(Segment segment : segments){
+                    current.put(SEGMENT_PREFIX + segment.name, segment.getState());
+                    if(reusable && segment.getState().equals(manifest.get(SEGMENT_PREFIX + segment.name))){
+                        System.out.println("Segment " + segment.name + " unchanged, " + segment.ids.size() + " accounts");
+                    }else{
+                        changedSegments.add(segment);
+                    }
+                }
 
-                        String periodSt = String.valueOf(yearCounter);
-                        Period period = dbManager.getPeriodByName(periodSt);
+                if(!changedSegments.isEmpty()){
+                    //segments are only reused once they've all been written
+                    if(manifestFile.exists() && !manifestFile.delete()){
+                        throw new IOException("Manifest " + manifestFile.getPath() + " could not be deleted");
+                    }
+                    if(!segmentsFolder.isDirectory() && !segmentsFolder.mkdirs()){
+                        throw new IOException("Segments folder " + segmentsFolder.getPath() + " could not be created");
+                    }
+                    for(Segment segment : changedSegments){
+                        System.out.println("Exporting segment " + segment.name + ", " + segment.ids.size() + " accounts");
+                        exportSegment(dbManager, executor, threads, segment, segmentsFolder, gzip, columnar);
+                    }
+                }
 
-                        AllowancesInAllocation allowancesInAllocation = installation.getAllowancesInAllocationForPeriod(period);
-                        if(allowancesInAllocation != null){
-                            lineSt += allowancesInAllocation.getValue();
+                //segments of countries without accounts anymore
+                for(String key : manifest.keySet()){
+                    if(key.startsWith(SEGMENT_PREFIX) && !current.containsKey(key)){
+                        for(File file : getSegmentFiles(segmentsFolder, key.substring(SEGMENT_PREFIX.length()))){
+                            file.delete();
                         }
-                        lineSt += "\t";
+                    }
+                }
 
-                        VerifiedEmissions verifiedEmissions = installation.getVerifiedEmissionsForPeriod(period);
-                        if(verifiedEmissions != null){
-                            lineSt += verifiedEmissions.getValue();
-                        }
-                        lineSt += "\t";
+                saveManifest(manifestFile, current);
 
-                        SurrenderedUnits surrenderedUnits = installation.getSurrenderedUnitsForPeriod(period);
-                        if(surrenderedUnits != null){
-                            lineSt += surrenderedUnits.getValue();
-                        }
-                        lineSt += "\t";
+                String[] outputFiles = {outputFile1St, offsetsFileSt, offsetEntitlementsFileSt};
+                stitch(segmentsFolder, segments, outputFiles, gzip, columnar);
 
-                        Compliance compliance = installation.getComplianceForPeriod(period);
-                        if(compliance != null){
-                            lineSt += compliance.getValue();
-                        }
-                        lineSt += "\t";
+                System.out.println(changedSegments.size() + " of " + segments.size() + " segments exported");
 
-                    }
+            }catch (Exception e){
+                throw new ExecutionFailedException(ExportDBToMegaFiles.class.getSimpleName() + " failed", e);
+            }finally {
+                executor.shutdownNow();
+            }
 
-                    for (int yearCounter=2013;yearCounter<=2020;yearCounter++){
 
-                        Period period = dbManager.getPeriodByName(String.valueOf(yearCounter));
+        }
+    }
 
-                        AllowancesInAllocation standardAllocations = installation.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.STANDARD_TYPE);
-                        if(standardAllocations != null){
-                            lineSt += standardAllocations.getValue();
-                        }
-                        lineSt += "\t";
+    /**
+     * Exports the accounts of the segment to its own files in the segments folder
+     */
+    private static void exportSegment(DatabaseManager dbManager, ExecutorService executor, int threads,
+                                      Segment segment, File segmentsFolder, boolean gzip, boolean columnar)
+            throws Exception{
+
+        File[] files = getSegmentFiles(segmentsFolder, segment.name);
+
+        Writer[] writers = new Writer[FILE_SUFFIXES.length];
+        OutputStream[] gzipStreams = gzip ? new OutputStream[FILE_SUFFIXES.length] : null;
+        for(int file = 0; file < FILE_SUFFIXES.length; file++){
+            writers[file] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(files[file]), "UTF-8"));
+            if(gzip){
+                gzipStreams[file] = new BufferedOutputStream(new FileOutputStream(files[FILE_SUFFIXES.length + file]));
+            }
+        }
+        ColumnarFileWriter columns = columnar ? newColumnarFileWriter() : null;
+
+        try{
+            export(dbManager, executor, threads, segment.ids, segment.installations, writers, gzipStreams, columns);
+        }finally {
+            for(int file = 0; file < FILE_SUFFIXES.length; file++){
+                writers[file].close();
+                if(gzip){
+                    gzipStreams[file].close();
+                }
+            }
+        }
 
-                        AllowancesInAllocation tencAllocations = installation.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.ARTICLE_10C_TYPE);
-                        if(tencAllocations != null){
-                            lineSt += tencAllocations.getValue();
-                        }
-                        lineSt += "\t";
+        if(columnar){
+            columns.write(files[files.length - 1]);
+        }
+    }
 
-                        AllowancesInAllocation nerAllocations = installation.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.NER_TYPE);
-                        if(nerAllocations != null){
-                            lineSt += nerAllocations.getValue();
-                        }
-                        lineSt += "\t";
+    /**
+     * Writes the files with their header followed by the segments, in order
+     */
+    private static void stitch(File segmentsFolder, List<Segment> segments, String[] outputFiles, boolean gzip,
+                               boolean columnar) throws IOException{
 
-                        VerifiedEmissions verifiedEmissions = installation.getVerifiedEmissionsForPeriod(period);
-                        if(verifiedEmissions != null){
-                            lineSt += verifiedEmissions.getValue();
-                        }
-                        lineSt += "\t";
+        String[] headers = {FILE_1_HEADER, OFFSETS_FILE_HEADER, OFFSET_ENTITLEMENTS_FILE_HEADER};
 
-                        SurrenderedUnits surrenderedUnits = installation.getSurrenderedUnitsForPeriod(period);
-                        if(surrenderedUnits != null){
-                            lineSt += surrenderedUnits.getValue();
-                        }
-                        lineSt += "\t";
+        for(int file = 0; file < outputFiles.length; file++){
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFiles[file]));
+            try{
+                out.write((headers[file] + "\n").getBytes("UTF-8"));
+                for(Segment segment : segments){
+                    Files.copy(getSegmentFiles(segmentsFolder, segment.name)[file].toPath(), out);
+                }
+            }finally {
+                out.close();
+            }
+            if(gzip){
+                out = new BufferedOutputStream(new FileOutputStream(outputFiles[file] + ".gz"));
+                try{
+                    CharArrayWriter header = new CharArrayWriter();
+                    header.write(headers[file] + "\n");
+                    out.write(compress(header));
+                    //gzip members can be concatenated
+                    for(Segment segment : segments){
+                        File gzipFile = getSegmentFiles(segmentsFolder, segment.name)[FILE_SUFFIXES.length + file];
+                        Files.copy(gzipFile.toPath(), out);
+                    }
+                }finally {
+                    out.close();
+                }
+            }
+        }
 
-                        Compliance compliance = installation.getComplianceForPeriod(period);
-                        if(compliance != null){
-                            lineSt += compliance.getValue();
+        if(columnar){
+            ColumnarFileWriter columns = newColumnarFileWriter();
+            for(Segment segment : segments){
+                File[] files = getSegmentFiles(segmentsFolder, segment.name);
+                ColumnarFileReader reader = new ColumnarFileReader(files[files.length - 1]);
+                try{
+                    Object[] values = new Object[FILE_1_COLUMNS.length];
+                    for(int column = 0; column < values.length; column++){
+                        values[column] = reader.getColumnType(FILE_1_COLUMNS[column]) == ColumnarFileWriter.DOUBLE ?
+                                reader.readDoubles(FILE_1_COLUMNS[column]) : reader.readStrings(FILE_1_COLUMNS[column]);
+                    }
+                    for(int row = 0; row < reader.getRowCount(); row++){
+                        Object[] rowValues = new Object[values.length];
+                        for(int column = 0; column < values.length; column++){
+                            rowValues[column] = values[column] instanceof double[] ? ((double[]) values[column])[row] :
+                                    ((String[]) values[column])[row];
                         }
-                        lineSt += "\t";
-
+                        columns.addRow(rowValues);
                     }
+                }finally {
+                    reader.close();
+                }
+            }
+            columns.write(new File(outputFiles[0] + "." + COLUMNAR_FORMAT));
+            System.out.println(columns.getRowCount() + " rows written to the columnar mega file");
+        }
+    }
 
-                    lineSt += installation.getPowerFlag();
-
-                    file1Buff.write(lineSt + "\n");
-
-                    //+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-                    //+++++++++++++++++++++++++ OFFSETS ++++++++++++++++++++++++++++++
-
-                    Iterator<Relationship> offsets = installation.getOffsets();
-
-                    while(offsets.hasNext()){
+    /**
+     * @return mega, offsets and offset entitlements files of the segment, their compressed copies and the columnar
+     * copy of its mega file
+     */
+    private static File[] getSegmentFiles(File segmentsFolder, String segmentName){
+        File[] files = new File[FILE_SUFFIXES.length * 2 + 1];
+        for(int file = 0; file < FILE_SUFFIXES.length; file++){
+            files[file] = new File(segmentsFolder, segmentName + FILE_SUFFIXES[file]);
+            files[FILE_SUFFIXES.length + file] = new File(segmentsFolder, segmentName + FILE_SUFFIXES[file] + ".gz");
+        }
+        files[files.length - 1] = new File(segmentsFolder, segmentName + FILE_SUFFIXES[0] + "." + COLUMNAR_FORMAT);
+        return files;
+    }
 
-                        Offsets offsetRel = new Offsets(offsets.next());
-                        Offset offset = offsetRel.getOffset();
+    /**
+     * Installations and then aircraft operators, by country, each one with the highest change sequence number,
+     * number and checksum of the ids of its accounts; the highest change sequence number of the entities shared
+     * by the accounts of every segment is added to the state provided
+     */
+    private static List<Segment> getSegments(DatabaseManager dbManager, Map<String, String> state){
+
+        List<Segment> segments = new ArrayList<>();
+
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            segments.addAll(getSegments(dbManager, true));
+            segments.addAll(getSegments(dbManager, false));
+            state.put(SHARED_CHANGE_SEQ_KEY, String.valueOf(ChangeTracking.getSharedChangeSeq(dbManager)));
+            tx.success();
+        }finally {
+            tx.close();
+        }
 
-                        Project project = offset.getProject();
-                        String projectIdSt = "";
-                        if(project != null){
-                            projectIdSt = project.getId();
-                        }
+        return segments;
+    }
 
-                        String originatingCountrySt = offset.getOriginatingCountry().getName();
-                        String yearOfComplianceSt = offset.getPeriod().getName();
+    private static Collection<Segment> getSegments(DatabaseManager dbManager, boolean installations){
 
-                        offsetsFileBuff.write("Installation\t" + installation.getCountry().getName() + "\t" +
-                                installation.getId() + "\t" + originatingCountrySt + "\t" + offset.getUnitType() + "\t"
-                                + offset.getAmount() + "\t" + yearOfComplianceSt + "\t" + projectIdSt + "\n");
+        SortedMap<String, Segment> segments = new TreeMap<>();
+        RelationshipType countryType = DynamicRelationshipType.withName(installations ?
+                InstallationCountryModel.LABEL : AircraftOperatorCountryModel.LABEL);
 
-                    }
+        Iterator<Node> iterator = dbManager.findNodes(installations ? DatabaseManager.INSTALLATION_LABEL :
+                DatabaseManager.AIRCRAFT_OPERATOR_LABEL);
+        while(iterator.hasNext()){
+            Node node = iterator.next();
+            String countryId = "";
+            for(Relationship relationship : node.getRelationships(Direction.OUTGOING, countryType)){
+                countryId = String.valueOf(relationship.getEndNode().getProperty(CountryModel.id, ""));
+            }
+            String name = (installations ? "installations_" : "aircraft_operators_") +
+                    countryId.replaceAll("[^A-Za-z0-9_-]", "_");
+            Segment segment = segments.get(name);
+            if(segment == null){
+                segment = new Segment(name, installations);
+                segments.put(name, segment);
+            }
+            segment.add(node.getId(), ChangeTracking.getChangeSeq(node));
+        }
 
-                    //============== 0FFSET ENTITLEMENTS ==================
-                    Period tempPeriod = dbManager.getPeriodByName("2008to2020");
-                    String offsetEntitlementValue = installation.getOffsetEntitlementForPeriod(tempPeriod);
-                    offsetEntitlementsBuff.write("Installation \t" + installation.getCountry().getName() + "\t" +
-                            installation.getId() + "\t" + offsetEntitlementValue + "\n");
-                    //===================================================
+        //label scans don't always return nodes in the same order, segments written at different times must match
+        for(Segment segment : segments.values()){
+            Collections.sort(segment.ids);
+        }
 
-                    installationsCounter++;
+        return segments.values();
+    }
 
-                    if(installationsCounter % 100 == 0){
-                        System.out.println(installationsCounter + " installations exported");
-                        tx.success();
-                        tx.close();
-                        tx = dbManager.beginTransaction();
+    /**
+     * @return the entries of the manifest, empty when there's none
+     */
+    private static Map<String, String> loadManifest(File file) throws IOException{
+        Map<String, String> manifest = new LinkedHashMap<>();
+        if(file.exists()){
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try{
+                String line;
+                while((line = reader.readLine()) != null){
+                    int separator = line.indexOf('\t');
+                    if(separator > 0){
+                        manifest.put(line.substring(0, separator), line.substring(separator + 1));
                     }
-
-
                 }
+            }finally {
+                reader.close();
+            }
+        }
+        return manifest;
+    }
 
+    /**
+     * Saves the manifest, replacing it only once it has been completely written
+     */
+    private static void saveManifest(File file, Map<String, String> manifest) throws IOException{
 
-                tx.success();
-                tx.close();
+        File tempFile = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try{
+            for(Map.Entry<String, String> entry : manifest.entrySet()){
+                writer.write(entry.getKey() + "\t" + entry.getValue() + "\n");
+            }
+        }finally {
+            writer.close();
+        }
 
-                tx = dbManager.beginTransaction();
+        if(file.exists() && !file.delete()){
+            throw new IOException("Manifest " + file.getPath() + " could not be replaced");
+        }
+        if(!tempFile.renameTo(file)){
+            throw new IOException("Manifest " + tempFile.getPath() + " could not be renamed");
+        }
+    }
 
-                Iterator<Node> aircraftOperatorsIterator = dbManager.findNodes(DatabaseManager.AIRCRAFT_OPERATOR_LABEL);
+    private static ColumnarFileWriter newColumnarFileWriter(){
+        byte[] types = new byte[FILE_1_COLUMNS.length];
+        for(int column = 0; column < types.length; column++){
+            types[column] = getColumnType(FILE_1_COLUMNS[column]);
+        }
+        return new ColumnarFileWriter(FILE_1_COLUMNS, types);
+    }
 
-                int aircraftOperatorsCounter = 0;
+    /**
+     * Exports the accounts provided in partitions of PARTITION_SIZE, each one in a read transaction of its own
+     * on one of the threads of the executor. Partitions are written to the files in the order of the ids,
+     * so the files are the same whatever the number of threads.
+     * Every partition is compressed on its own by the thread exporting it, so compressed files are made of
+     * one gzip member (block) per partition, which gzip readers read as a single stream.
+     *
+     * @param installations whether the ids are the ones of installations or aircraft operators
+     * @param writers mega file, offsets file and offset entitlements file
+     * @param gzipStreams compressed copies of the files, null if they're not exported
+     * @param columns columnar copy of the mega file, null if it's not exported
+     */
+    private static void export(final DatabaseManager dbManager, ExecutorService executor, int threads, List<Long> ids,
+                               final boolean installations, Writer[] writers, OutputStream[] gzipStreams,
+                               ColumnarFileWriter columns) throws Exception{
+
+        final boolean gzip = gzipStreams != null;
+        final boolean columnar = columns != null;
+        Deque<Future<Partition>> partitions = new ArrayDeque<>();
+        int next = 0;
+        int accountsCounter = 0;
+
+        while(next < ids.size() || !partitions.isEmpty()){
+
+            //a couple of partitions per thread are exported ahead while the first one is written
+            while(next < ids.size() && partitions.size() < threads * 2){
+                final List<Long> partition = ids.subList(next, Math.min(next + PARTITION_SIZE, ids.size()));
+                partitions.add(executor.submit(new Callable<Partition>() {
+                    @Override
+                    public Partition call() throws Exception {
+                        return exportPartition(dbManager, partition, installations, gzip, columnar);
+                    }
+                }));
+                next += partition.size();
+            }
 
-                while(aircraftOperatorsIterator.hasNext()){
+            Partition output;
+            try{
+                output = partitions.poll().get();
+            }catch (ExecutionException e){
+                for(Future<Partition> partition : partitions){
+                    partition.cancel(true);
+                }
+                throw (Exception) e.getCause();
+            }
+            for(int file = 0; file < writers.length; file++){
+                output.text[file].writeTo(writers[file]);
+                if(gzip){
+                    gzipStreams[file].write(output.compressed[file]);
+                }
+            }
+            if(columnar){
+                for(Object[] row : output.rows){
+                    columns.addRow(row);
+                }
+            }
 
-                    AircraftOperator aircraftOperator = new AircraftOperator(aircraftOperatorsIterator.next());
-                    Company company = aircraftOperator.getCompany();
-                    Sector sector = aircraftOperator.getSector();
+            accountsCounter = Math.min(accountsCounter + PARTITION_SIZE, ids.size());
+            System.out.println(accountsCounter + (installations ? " installations exported" :
+                    " aircraft operators exported"));
+        }
+    }
 
-                    String lineSt = "";
-                    String typeSt = "Aircraft Operator";
+    private static Partition exportPartition(DatabaseManager dbManager, List<Long> ids, boolean installations,
+                                             boolean gzip, boolean columnar) throws IOException{
 
-                    lineSt += typeSt + "\t";
+        Partition output = new Partition();
+        output.rows = columnar ? new ArrayList<Object[]>(ids.size()) : null;
 
-                    lineSt += aircraftOperator.getCountry().getName() + "\t" + aircraftOperator.getId() + "\t" +
-                            company.getRegistrationNumber() + "\t" + company.getStatus() + "\t" +
-                            company.getName() + "\t" + company.getAddress().replaceAll("\n", " ") + "\t" +
-                            company.getPostalCode() + "\t" + company.getCity() + "\t"
-                            + aircraftOperator.getUniqueCodeUnderCommissionRegulation() + "\t" +
-                            aircraftOperator.getMonitoringPlanId() + "\t" +
-                            aircraftOperator.getMonitoringPlanFirstYearOfApplicability() + "\t" +
-                            aircraftOperator.getMonitoringPlanYearOfExpiry() + "\t" + aircraftOperator.getEprtrId() +
-                            "\t" + aircraftOperator.getIcaoDesignator() + "\t" +
-                            aircraftOperator.getAddress().replaceAll("\n", " ") + "\t"
-                            + aircraftOperator.getPostCode() + "\t" + aircraftOperator.getCity() +
-                            "\t" + aircraftOperator.getLatitude() + "\t" + aircraftOperator.getLongitude() + "\t" +
-                            sector.getId() + "-" + sector.getName() + "\t" + company.getSubsidiaryCompany() + "\t" +
-                            company.getParentCompany() + "\t";
+        Transaction tx = dbManager.beginTransaction();
+        try{
 
+            //periods are resolved once per thread
+            Object[] threadPeriods = PERIODS.get();
+            if(threadPeriods == null){
+                PeriodTable periods = new PeriodTable(dbManager);
+                int[] yearPeriods = new int[LAST_YEAR - FIRST_YEAR + 1];
+                for (int yearCounter=FIRST_YEAR;yearCounter<=LAST_YEAR;yearCounter++){
+                    yearPeriods[yearCounter - FIRST_YEAR] = periods.getOrdinal(String.valueOf(yearCounter));
+                }
+                threadPeriods = new Object[]{periods, yearPeriods};
+                PERIODS.set(threadPeriods);
+            }
+            PeriodTable periods = (PeriodTable) threadPeriods[0];
+            int[] yearPeriods = (int[]) threadPeriods[1];
+
+            for(long id : ids){
+                Node node = dbManager.graphDb.getNodeById(id);
+                if(installations){
+                    writeInstallation(output, new Installation(node), periods, yearPeriods);
+                }else{
+                    writeAircraftOperator(output, new AircraftOperator(node), periods, yearPeriods);
+                }
+            }
 
-                    for (int yearCounter=2005;yearCounter<=2012;yearCounter++){
+            tx.success();
+        }finally {
+            tx.close();
+        }
 
-                        String periodSt = String.valueOf(yearCounter);
-                        Period period = dbManager.getPeriodByName(periodSt);
+        if(gzip){
+            output.compressed = new byte[output.text.length][];
+            for(int file = 0; file < output.text.length; file++){
+                output.compressed[file] = compress(output.text[file]);
+            }
+        }
 
-                        AllowancesInAllocation allowancesInAllocation = aircraftOperator.getAllowancesInAllocationForPeriod(period);
-                        if(allowancesInAllocation != null){
-                            lineSt += allowancesInAllocation.getValue();
-                        }
-                        lineSt += "\t";
+        return output;
+    }
 
-                        VerifiedEmissions verifiedEmissions = aircraftOperator.getVerifiedEmissionsForPeriod(period);
-                        if(verifiedEmissions != null){
-                            lineSt += verifiedEmissions.getValue();
-                        }
-                        lineSt += "\t";
+    /**
+     * @return the text as a gzip member of its own
+     */
+    private static byte[] compress(CharArrayWriter text) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8");
+        text.writeTo(writer);
+        writer.close();
+        return bytes.toByteArray();
+    }
 
-                        SurrenderedUnits surrenderedUnits = aircraftOperator.getSurrenderedUnitsForPeriod(period);
-                        if(surrenderedUnits != null){
-                            lineSt += surrenderedUnits.getValue();
-                        }
-                        lineSt += "\t";
+    /**
+     * Country, sector, account type and compliance codes have few different values and are kept once per value,
+     * values of every year are kept as numbers and the rest as text
+     */
+    private static byte getColumnType(String name){
+        if(name.equals("Type") || name.equals("OHA National Administrator") || name.equals("Main Activity") ||
+                name.endsWith("_compliance_code")){
+            return ColumnarFileWriter.DICTIONARY;
+        }
+        return name.matches("\\d{4}_.*") ? ColumnarFileWriter.DOUBLE : ColumnarFileWriter.STRING;
+    }
 
-                        Compliance compliance = aircraftOperator.getComplianceForPeriod(period);
-                        if(compliance != null){
-                            lineSt += compliance.getValue();
-                        }
-                        lineSt += "\t";
+    private static void writeInstallation(Partition output, Installation installation, PeriodTable periods,
+                                          int[] yearPeriods) throws IOException{
+
+        //every relationship of the installation is read at once
+        InstallationSnapshot snapshot = new InstallationSnapshot(installation, periods);
+        Company company = snapshot.getCompany();
+        Sector sector = snapshot.getSector();
+        String countrySt = snapshot.getCountry().getName();
+
+        MegaFileLine out = new MegaFileLine(output);
+        out.field("Installation");
+        writeCompanyFields(out, countrySt, installation.getId(), company);
+        out.field(installation.getName());
+        out.field(installation.getPermitId());
+        out.field(installation.getPermitEntryDate());
+        out.field(installation.getPermitExpiryOrRevocationDate());
+        out.field(installation.getEprtrId());
+        out.field("");
+        out.field(installation.getAddress().replaceAll("\n", " "));
+        out.field(installation.getPostCode());
+        out.field(installation.getCity());
+        out.field(installation.getLatitude());
+        out.field(installation.getLongitude());
+        writeSectorFields(out, sector, company);
+        writePeriodColumns(out, snapshot, yearPeriods);
+        out.end(installation.getPowerFlag());
+
+        writeOffsets(output.text[1], "Installation", countrySt, installation.getId(), snapshot);
+
+        writeEntitlement(output.text[2], "Installation ", countrySt, installation.getId(), snapshot);
+    }
 
-                    }
+    private static void writeAircraftOperator(Partition output, AircraftOperator aircraftOperator, PeriodTable periods,
+                                              int[] yearPeriods) throws IOException{
+
+        AircraftOperatorSnapshot snapshot = new AircraftOperatorSnapshot(aircraftOperator, periods);
+        Company company = snapshot.getCompany();
+        Sector sector = snapshot.getSector();
+        String countrySt = snapshot.getCountry().getName();
+
+        MegaFileLine out = new MegaFileLine(output);
+        out.field("Aircraft Operator");
+        writeCompanyFields(out, countrySt, aircraftOperator.getId(), company);
+        out.field(aircraftOperator.getUniqueCodeUnderCommissionRegulation());
+        out.field(aircraftOperator.getMonitoringPlanId());
+        out.field(aircraftOperator.getMonitoringPlanFirstYearOfApplicability());
+        out.field(aircraftOperator.getMonitoringPlanYearOfExpiry());
+        out.field(aircraftOperator.getEprtrId());
+        out.field(aircraftOperator.getIcaoDesignator());
+        out.field(aircraftOperator.getAddress().replaceAll("\n", " "));
+        out.field(aircraftOperator.getPostCode());
+        out.field(aircraftOperator.getCity());
+        out.field(aircraftOperator.getLatitude());
+        out.field(aircraftOperator.getLongitude());
+        writeSectorFields(out, sector, company);
+        writePeriodColumns(out, snapshot, yearPeriods);
+        out.end("false");
+
+        writeOffsets(output.text[1], "Aircraft Operator", countrySt, aircraftOperator.getId(), snapshot);
+
+        writeEntitlement(output.text[2], "Aircraft Operator", countrySt, aircraftOperator.getId(), snapshot);
+    }
 
-                    for (int yearCounter=2013;yearCounter<=2020;yearCounter++){
+    private static void writeCompanyFields(MegaFileLine out, String countrySt, String id, Company company)
+            throws IOException{
+        out.field(countrySt);
+        out.field(id);
+        out.field(company.getRegistrationNumber());
+        out.field(company.getStatus());
+        out.field(company.getName());
+        out.field(company.getAddress().replaceAll("\n", " "));
+        out.field(company.getPostalCode());
+        out.field(company.getCity());
+    }
 
-                        Period period = dbManager.getPeriodByName(String.valueOf(yearCounter));
+    private static void writeSectorFields(MegaFileLine out, Sector sector, Company company) throws IOException{
+        out.field(sector.getId() + "-" + sector.getName());
+        out.field(company.getSubsidiaryCompany());
+        out.field(company.getParentCompany());
+    }
 
-                        AllowancesInAllocation standardAllocations = aircraftOperator.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.STANDARD_TYPE);
-                        if(standardAllocations != null){
-                            lineSt += standardAllocations.getValue();
-                        }
-                        lineSt += "\t";
+    /**
+     * Writes allocations, emissions, surrendered units and compliance code columns of every year
+     * (allocations are split by type from 2013 onwards), each one followed by a tab
+     *
+     * @param yearPeriods period ordinals of the years FIRST_YEAR to LAST_YEAR
+     */
+    private static void writePeriodColumns(MegaFileLine out, AccountSnapshot snapshot, int[] yearPeriods)
+            throws IOException{
+
+        for (int yearCounter=FIRST_YEAR;yearCounter<=LAST_YEAR;yearCounter++){
+
+            int period = yearPeriods[yearCounter - FIRST_YEAR];
+
+            if(yearCounter < FIRST_YEAR_WITH_ALLOCATION_TYPES){
+                out.value(snapshot.getAllowancesInAllocation(period));
+            }else{
+                out.value(snapshot.getAllowancesInAllocation(period, AllowancesInAllocation.STANDARD_TYPE));
+                out.value(snapshot.getAllowancesInAllocation(period, AllowancesInAllocation.ARTICLE_10C_TYPE));
+                out.value(snapshot.getAllowancesInAllocation(period, AllowancesInAllocation.NER_TYPE));
+            }
+            out.value(snapshot.getVerifiedEmissions(period));
+            out.value(snapshot.getSurrenderedUnits(period));
 
-                        AllowancesInAllocation tencAllocations = aircraftOperator.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.ARTICLE_10C_TYPE);
-                        if(tencAllocations != null){
-                            lineSt += tencAllocations.getValue();
-                        }
-                        lineSt += "\t";
+            String compliance = snapshot.getCompliance(period);
+            out.field(compliance != null ? compliance : "");
+        }
+    }
 
-                        AllowancesInAllocation nerAllocations = aircraftOperator.getAllowancesInAllocationForPeriodAndType(period, AllowancesInAllocation.NER_TYPE);
-                        if(nerAllocations != null){
-                            lineSt += nerAllocations.getValue();
-                        }
-                        lineSt += "\t";
+    private static void writeField(Writer out, Object value) throws IOException{
+        out.write(String.valueOf(value));
+        out.write('\t');
+    }
 
-                        VerifiedEmissions verifiedEmissions = aircraftOperator.getVerifiedEmissionsForPeriod(period);
-                        if(verifiedEmissions != null){
-                            lineSt += verifiedEmissions.getValue();
-                        }
-                        lineSt += "\t";
+    private static void writeEntitlement(Writer out, String typeSt, String countrySt, String id,
+                                         AccountSnapshot snapshot) throws IOException{
+        writeField(out, typeSt);
+        writeField(out, countrySt);
+        writeField(out, id);
+        out.write(String.valueOf(snapshot.getOffsetEntitlement()));
+        out.write('\n');
+    }
 
-                        SurrenderedUnits surrenderedUnits = aircraftOperator.getSurrenderedUnitsForPeriod(period);
-                        if(surrenderedUnits != null){
-                            lineSt += surrenderedUnits.getValue();
-                        }
-                        lineSt += "\t";
+    private static void writeOffsets(Writer out, String typeSt, String countrySt, String id,
+                                     AccountSnapshot snapshot) throws IOException{
 
-                        Compliance compliance = aircraftOperator.getComplianceForPeriod(period);
-                        if(compliance != null){
-                            lineSt += compliance.getValue();
-                        }
-                        lineSt += "\t";
+        for(Offsets offsetRel : snapshot.getOffsets()){
 
-                    }
+            Offset offset = offsetRel.getOffset();
 
-                    file1Buff.write(lineSt + "false" + "\n");
+            Project project = offset.getProject();
+            String projectIdSt = "";
+            if(project != null){
+                projectIdSt = project.getId();
+            }
 
-                    //+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
-                    //+++++++++++++++++++++++++ OFFSETS ++++++++++++++++++++++++++++++
+            writeField(out, typeSt);
+            writeField(out, countrySt);
+            writeField(out, id);
+            writeField(out, offset.getOriginatingCountry().getName());
+            writeField(out, offset.getUnitType());
+            writeField(out, offset.getAmount());
+            writeField(out, offset.getPeriod().getName());
+            out.write(projectIdSt);
+            out.write('\n');
+        }
+    }
 
-                    Iterator<Relationship> offsets = aircraftOperator.getOffsets();
+    /**
+     * Accounts of a type and country, exported to files of their own that are stitched into the final files
+     */
+    private static class Segment {
 
-                    while(offsets.hasNext()){
+        final String name;
+        final boolean installations;
+        final List<Long> ids = new ArrayList<>();
+        long changeSeq = ChangeTracking.NONE;
+        long checksum = 0;
 
-                        Offsets offsetRel = new Offsets(offsets.next());
-                        Offset offset = offsetRel.getOffset();
+        Segment(String name, boolean installations){
+            this.name = name;
+            this.installations = installations;
+        }
 
-                        Project project = offset.getProject();
-                        String projectIdSt = "";
-                        if(project != null){
-                            projectIdSt = project.getId();
-                        }
+        void add(long id, long accountChangeSeq){
+            ids.add(id);
+            changeSeq = Math.max(changeSeq, accountChangeSeq);
+            //the same whatever the order of the ids, accounts added or removed change it
+            long hash = id * 0x9E3779B97F4A7C15L;
+            checksum += hash ^ (hash >>> 31);
+        }
 
-                        String originatingCountrySt = offset.getOriginatingCountry().getName();
-                        String yearOfComplianceSt = offset.getPeriod().getName();
+        /**
+         * @return what the segment is exported from, it needs to be exported again when it changes
+         */
+        String getState(){
+            return changeSeq + "\t" + ids.size() + "\t" + Long.toHexString(checksum);
+        }
+    }
 
-                        offsetsFileBuff.write("Aircraft Operator\t" + aircraftOperator.getCountry().getName() + "\t" +
-                                aircraftOperator.getId() + "\t" + originatingCountrySt + "\t" + offset.getUnitType() +
-                                "\t" + offset.getAmount() + "\t" + yearOfComplianceSt + "\t" + projectIdSt + "\n");
+    /**
+     * Output of a partition: text of the mega file, offsets file and offset entitlements file, their compressed
+     * copies and the rows of the columnar mega file (null when they're not exported)
+     */
+    private static class Partition {
+        final CharArrayWriter[] text = {new CharArrayWriter(), new CharArrayWriter(), new CharArrayWriter()};
+        byte[][] compressed;
+        List<Object[]> rows;
+    }
 
-                    }
+    /**
+     * Line of the mega file, written field by field to the text of the partition and, when the columnar file is
+     * exported, kept as a row (values of every year as numbers, NaN when missing)
+     */
+    private static class MegaFileLine {
+
+        private final Writer out;
+        private final List<Object[]> rows;
+        private final Object[] values;
+        private int column = 0;
+
+        MegaFileLine(Partition partition){
+            out = partition.text[0];
+            rows = partition.rows;
+            values = rows != null ? new Object[FILE_1_COLUMNS.length] : null;
+        }
 
-                    //============== 0FFSET ENTITLEMENTS ==================
-                    Period tempPeriod = dbManager.getPeriodByName("2008to2020");
-                    String offsetEntitlementValue = aircraftOperator.getOffsetEntitlementForPeriod(tempPeriod);
-                    offsetEntitlementsBuff.write("Aircraft Operator\t" + aircraftOperator.getCountry().getName() +
-                            "\t" + aircraftOperator.getId() + "\t" + offsetEntitlementValue + "\n");
-                    //===================================================
+        void field(Object value) throws IOException{
+            String text = String.valueOf(value);
+            out.write(text);
+            out.write('\t');
+            keep(text);
+        }
 
-                    aircraftOperatorsCounter++;
+        void value(double value) throws IOException{
+            //missing values are left empty
+            if(!Double.isNaN(value)){
+                out.write(Double.toString(value));
+            }
+            out.write('\t');
+            keep(value);
+        }
 
-                    if(aircraftOperatorsCounter % 100 == 0){
-                        System.out.println(aircraftOperatorsCounter + " aircraft operators exported");
-                        tx.success();
-                        tx.close();
-                        tx = dbManager.beginTransaction();
-                    }
+        /**
+         * Writes the last field and ends the line
+         */
+        void end(Object value) throws IOException{
+            String text = String.valueOf(value);
+            out.write(text);
+            out.write('\n');
+            keep(text);
+            if(rows != null){
+                if(column != values.length){
+                    throw new IllegalStateException("Mega file line with " + column + " fields, " +
+                            values.length + " expected");
                 }
-
-
-
-                tx.success();
-                tx.close();
-
-
-                file1Buff.close();
-                offsetsFileBuff.close();
-                offsetEntitlementsBuff.close();
-                dbManager.shutdown();
-
-            }catch (Exception e){
-                e.printStackTrace();
+                rows.add(values);
             }
+        }
 
-
+        private void keep(Object value){
+            if(values != null && column < values.length){
+                values[column] = value;
+            }
+            column++;
         }
     }
 }
-
-
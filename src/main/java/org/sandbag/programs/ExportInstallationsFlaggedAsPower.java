@@ -4,7 +4,9 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -15,7 +17,7 @@ import java.util.List;
 /**
  * Created by root on 10/05/16.
  */
-public class ExportInstallationsFlaggedAsPower implements Executable {
+public class ExportInstallationsFlaggedAsPower implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
@@ -23,9 +25,23 @@ public class ExportInstallationsFlaggedAsPower implements Executable {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static String HEADER = "Country\tInstallation ID\tPower flag reason";
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder\n" +
@@ -37,7 +53,7 @@ public class ExportInstallationsFlaggedAsPower implements Executable {
 
             try{
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
                 Transaction tx = databaseManager.beginTransaction();
 
                 File outFile = new File(outputFileSt);
@@ -63,12 +79,11 @@ public class ExportInstallationsFlaggedAsPower implements Executable {
 
                 writer.close();
 
-                databaseManager.shutdown();
-
                 System.out.println("Done! :)");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ExportInstallationsFlaggedAsPower.class.getSimpleName() + " failed",
+                        e);
             }
         }
     }
@@ -7,7 +7,9 @@ import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -18,7 +20,7 @@ import java.util.List;
 /**
  * Created by root on 11/07/16.
  */
-public class FindInstallationsOutsideCountries implements Executable {
+public class FindInstallationsOutsideCountries implements ContextExecutable {
 
     public static final String HEADER = "Installation/Aircraft operator ID\tLatitude\tLongitude\tAddress\tCity";
 
@@ -27,7 +29,21 @@ public class FindInstallationsOutsideCountries implements Executable {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters: \n" +
                     "1. Database folder\n" +
@@ -41,7 +57,7 @@ public class FindInstallationsOutsideCountries implements Executable {
 
                 BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outFileSt)));
                 writer.write(HEADER + "\n");
-                DatabaseManager manager = new DatabaseManager(dbFolder);
+                DatabaseManager manager = context.getDatabaseManager(dbFolder);
 
                 Transaction tx = manager.beginTransaction();
 
@@ -65,8 +81,12 @@ public class FindInstallationsOutsideCountries implements Executable {
                         boolean installationOk = false;
 
                         try{
-                            double latitude = Double.parseDouble(installation.getLatitude());
-                            double longitude = Double.parseDouble(installation.getLongitude());
+                            double latitude = installation.getLatitudeValue();
+                            double longitude = installation.getLongitudeValue();
+
+                            if(Double.isNaN(latitude) || Double.isNaN(longitude)){
+                                System.out.println("Non numeric value for lat/lg in " + installation.getId());
+                            }
 
                             if(latitude >= country.getBoundingBoxMinLatitude() &&
                                     latitude <= country.getBoundingBoxMaxLatitude() &&
@@ -100,8 +120,12 @@ public class FindInstallationsOutsideCountries implements Executable {
                         boolean aoOk = false;
 
                         try{
-                            double latitude = Double.parseDouble(aircraftOperator.getLatitude());
-                            double longitude = Double.parseDouble(aircraftOperator.getLongitude());
+                            double latitude = aircraftOperator.getLatitudeValue();
+                            double longitude = aircraftOperator.getLongitudeValue();
+
+                            if(Double.isNaN(latitude) || Double.isNaN(longitude)){
+                                System.out.println("Non numeric value for lat/lg in " + aircraftOperator.getId());
+                            }
 
                             if(latitude >= country.getBoundingBoxMinLatitude() &&
                                     latitude <= country.getBoundingBoxMaxLatitude() &&
@@ -128,13 +152,13 @@ public class FindInstallationsOutsideCountries implements Executable {
                 tx.success();
                 tx.close();
 
-                manager.shutdown();
                 writer.close();
 
                 System.out.println("Done!");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(FindInstallationsOutsideCountries.class.getSimpleName() + " failed",
+                        e);
             }
         }
     }
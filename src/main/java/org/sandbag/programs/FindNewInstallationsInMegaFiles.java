@@ -1,15 +1,21 @@
 package org.sandbag.programs;
 
 import org.sandbag.util.Executable;
+import org.sandbag.util.FieldReader;
+import org.sandbag.util.MegaFileDiff;
+import org.sandbag.util.ExecutionFailedException;
 
 import java.io.*;
-import java.util.HashSet;
 import java.util.List;
 
 /**
  * Created by root on 21/06/16.
  */
 public class FindNewInstallationsInMegaFiles implements Executable{
+
+    //bytes the lines of every file being sorted can take
+    private static final long MEMORY = 64L << 20;
+
     @Override
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
@@ -29,41 +35,35 @@ public class FindNewInstallationsInMegaFiles implements Executable{
                 String newMegaFileSt = args[1];
                 String outputFileSt = args[2];
 
-                BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outputFileSt)));
-
-                BufferedReader reader = new BufferedReader(new FileReader(new File(oldMegaFileSt)));
-                String headerSt = reader.readLine();//header
-                writer.write(headerSt + "\n");
-
-                String line;
-
-                HashSet<String> oldMegaFileIDs = new HashSet<>();
+                final BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outputFileSt)));
 
-                System.out.println("Reading old Mega file...");
+                FieldReader fields = new FieldReader(new FileReader(new File(oldMegaFileSt)), '\t');
+                fields.nextLine();//header
+                writer.write(fields.getLine() + "\n");
+                fields.close();
 
-                while((line = reader.readLine()) != null){
-                    String[] columns = line.split("\t");
-                    String idSt = columns[2].trim();
-                    oldMegaFileIDs.add(idSt);
-                }
-                reader.close();
+                System.out.println("Comparing mega files...");
 
-                System.out.println("Done!");
-
-                reader = new BufferedReader(new FileReader(new File(newMegaFileSt)));
-                reader.readLine();//header
+                //both files are sorted by account and merge-joined, new accounts are written in the order of their ids
+                new MegaFileDiff(MEMORY, null).diff(new File(oldMegaFileSt), new File(newMegaFileSt),
+                        new MegaFileDiff.Listener() {
+                    @Override
+                    public void added(String key, String newLine) throws IOException {
+                        System.out.println("New installation/aircraft operator found: " +
+                                key.substring(key.indexOf('\t') + 1));
+                        writer.write(newLine + "\n");
+                    }
 
-                System.out.println("Reading new Mega file...");
+                    @Override
+                    public void removed(String key, String oldLine) {
+                    }
 
-                while((line = reader.readLine()) != null){
-                    String[] columns = line.split("\t");
-                    String idSt = columns[2].trim();
-                    if(!oldMegaFileIDs.contains(idSt)){
-                        System.out.println("New installation/aircraft operator found: " + idSt);
-                        writer.write(line + "\n");
+                    @Override
+                    public void changed(String key, String oldLine, String newLine, List<String> columns,
+                                        List<String> oldValues, List<String> newValues) {
                     }
-                }
-                reader.close();
+                });
+
                 System.out.println("Done!");
 
                 System.out.println("Closing output file...");
@@ -72,7 +72,8 @@ public class FindNewInstallationsInMegaFiles implements Executable{
                 System.out.println("Done! :)");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(FindNewInstallationsInMegaFiles.class.getSimpleName() + " failed",
+                        e);
             }
 
         }
@@ -1,14 +1,15 @@
 package org.sandbag.programs;
 
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.NACECode;
 import org.sandbag.model.nodes.interfaces.InstallationModel;
 import org.sandbag.model.relationships.AllowancesInAllocation;
 import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
 
 import java.util.HashSet;
 import java.util.Iterator;
@@ -18,7 +19,7 @@ import java.util.Set;
 /**
  * Created by root on 29/04/16.
  */
-public class FindPowerFlaggedInstallations implements Executable{
+public class FindPowerFlaggedInstallations implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
@@ -26,9 +27,23 @@ public class FindPowerFlaggedInstallations implements Executable{
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static String[] POWER_FLAG_NACE_CODES = {"35.00", "35.10", "35.11", "35.12", "35.13", "35.14", "35.30"};
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 1){
             System.out.println("This program expects the following parameters:\n" +
@@ -42,62 +57,57 @@ public class FindPowerFlaggedInstallations implements Executable{
                 powerFlagNaceCodesSet.add(value);
             }
 
-            DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-            Transaction tx = databaseManager.beginTransaction();
-
-            Iterator<Node> iterator = databaseManager.findNodes(DatabaseManager.INSTALLATION_LABEL);
+            DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+            BatchTransaction batch = new BatchTransaction(databaseManager, "Power flags");
+            boolean finished = false;
+            try{
 
-            System.out.println("Looping through installations...");
+                Iterator<Node> iterator = databaseManager.findNodes(DatabaseManager.INSTALLATION_LABEL);
 
-            int installationCounter = 0;
+                System.out.println("Looping through installations...");
 
-            while(iterator.hasNext()){
-                Installation installation = new Installation(iterator.next());
+                while(iterator.hasNext()){
+                    Installation installation = new Installation(iterator.next());
 
-                //System.out.println("installation.getId() = " + installation.getId());
+                    //System.out.println("installation.getId() = " + installation.getId());
 
-                NACECode naceCode = installation.getNACECode();
+                    NACECode naceCode = installation.getNACECode();
 
-                boolean alreadyPowerFlagged = false;
+                    boolean alreadyPowerFlagged = false;
 
-                if(naceCode != null){
-                    String naceCodeIdSt = installation.getNACECode().getId();
-                    //System.out.println("naceCodeIdSt = " + naceCodeIdSt);
-                    if(powerFlagNaceCodesSet.contains(naceCodeIdSt)){
-                        installation.setPowerFlag("true");
-                        installation.setPowerFlagReason(InstallationModel.POWER_FLAG_REASON_NACE_CODES);
-                        alreadyPowerFlagged = true;
-                        //System.out.println("hola!");
+                    if(naceCode != null){
+                        String naceCodeIdSt = installation.getNACECode().getId();
+                        //System.out.println("naceCodeIdSt = " + naceCodeIdSt);
+                        if(powerFlagNaceCodesSet.contains(naceCodeIdSt)){
+                            installation.setPowerFlag("true");
+                            installation.setPowerFlagReason(InstallationModel.POWER_FLAG_REASON_NACE_CODES);
+                            alreadyPowerFlagged = true;
+                            //System.out.println("hola!");
+                        }
                     }
-                }
 
-                if(!alreadyPowerFlagged){
-                    List<AllowancesInAllocation> list = installation.getAllowancesInAllocationByType(AllowancesInAllocationModel.ARTICLE_10C_TYPE);
-                    if(list.size() > 0){
-                        installation.setPowerFlag("true");
-                        installation.setPowerFlagReason(InstallationModel.POWER_FLAG_REASON_ARTICLE10C);
-                    }else{
-                        installation.setPowerFlag("false");
-                        installation.setPowerFlagReason("");
+                    if(!alreadyPowerFlagged){
+                        List<AllowancesInAllocation> list = installation.getAllowancesInAllocationByType(AllowancesInAllocationModel.ARTICLE_10C_TYPE);
+                        if(list.size() > 0){
+                            installation.setPowerFlag("true");
+                            installation.setPowerFlagReason(InstallationModel.POWER_FLAG_REASON_ARTICLE10C);
+                        }else{
+                            installation.setPowerFlag("false");
+                            installation.setPowerFlagReason("");
+                        }
                     }
-                }
 
-                installationCounter++;
+                    batch.rowDone(2);
+                }
 
-                if(installationCounter % 100 == 0){
-                    System.out.println(installationCounter + " installations analyzed so far...");
-                    tx.success();
-                    tx.close();
-                    tx = databaseManager.beginTransaction();
+                batch.finish();
+                finished = true;
+            }finally {
+                if(!finished){
+                    batch.abort();
                 }
             }
 
-
-            tx.success();
-            tx.close();
-
-            databaseManager.shutdown();
-
             System.out.println("Finished!");
 
 
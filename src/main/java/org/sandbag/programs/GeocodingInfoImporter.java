@@ -3,14 +3,16 @@ package org.sandbag.programs;
 import com.google.gson.Gson;
 import org.apache.http.client.utils.URIBuilder;
 import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorCountry;
 import org.sandbag.model.relationships.installations.InstallationCountry;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
 import org.sandbag.util.gson.Geometry;
 import org.sandbag.util.gson.OpenCageDataResult;
 import org.sandbag.util.gson.Result;
@@ -25,13 +27,22 @@ import java.util.List;
 /**
  * Created by root on 07/04/16.
  */
-public class GeocodingInfoImporter implements Executable {
+public class GeocodingInfoImporter implements ContextExecutable {
 
     public static String HEADER = "INSTALLATION_ID\tLATITUDE\tLONGITUDE";
 
     static protected DatabaseManager MANAGER;
 
-    public static void main(String[] args) {
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if (args.length != 3) {
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder \n" +
@@ -50,195 +61,205 @@ public class GeocodingInfoImporter implements Executable {
                 BufferedWriter writer = new BufferedWriter(new FileWriter(new File(outputFileSt)));
                 writer.write(HEADER + "\n");
 
-                MANAGER = new DatabaseManager(dbFolderSt);
+                MANAGER = context.getDatabaseManager(dbFolderSt);
 
-                Transaction tx = MANAGER.beginTransaction();
+                BatchTransaction batch = new BatchTransaction(MANAGER, "Geocoding " + countryCode);
+                boolean finished = false;
+                try{
 
-                Country country = MANAGER.getCountryById(countryCode);
-                String countryName = country.getName();
-                Iterator<Relationship> relIterator = country.getInstallationCountry();
+                    Country country = MANAGER.getCountryById(countryCode);
+                    String countryName = country.getName();
+                    Iterator<Relationship> relIterator = country.getInstallationCountry();
 
-                Gson gson = new Gson();
+                    Gson gson = new Gson();
 
-                System.out.println("Looping through installations...");
-                int installationCounter = 0;
+                    System.out.println("Looping through installations...");
+                    int installationCounter = 0;
 
 
-                while (relIterator.hasNext()) {
+                    while (relIterator.hasNext()) {
 
-                    Installation installation = new InstallationCountry(relIterator.next()).getInstallation();
-                    String tempLatitude = installation.getLatitude();
-                    String tempLongitude = installation.getLongitude();
+                        Installation installation = new InstallationCountry(relIterator.next()).getInstallation();
+                        String tempLatitude = installation.getLatitude();
+                        String tempLongitude = installation.getLongitude();
 
-                    if (tempLatitude.isEmpty() || tempLongitude.isEmpty() || tempLatitude.equals("0") || tempLongitude.equals("0")) {
+                        if (tempLatitude.isEmpty() || tempLongitude.isEmpty() || tempLatitude.equals("0") || tempLongitude.equals("0")) {
 
-                        System.out.println("Installation found to be completed: " + installation.getId());
+                            System.out.println("Installation found to be completed: " + installation.getId());
 
-                        String address = installation.getAddress();
-                        String city = installation.getCity();
-                        String postalCode = installation.getPostCode();
-
-                        String querySt = "";
-                        if (!address.isEmpty()) {
-                            querySt += address + ",";
-                        }
-                        querySt += city + ",";
-                        if (!postalCode.isEmpty()) {
-                            querySt += postalCode + ",";
-                        }
-                        querySt += countryName;
-                        System.out.println("querySt = " + querySt);
-
-
-                        URIBuilder builder = new URIBuilder("http://api.opencagedata.com/geocode/v1/json");
-                        builder.addParameter("q", querySt);
-                        builder.addParameter("key", "fe12a67561caa821b7daa8baed0a7c8e");
-
-                        String tempSt = builder.toString();
-
-                        System.out.println("tempSt = " + tempSt);
-
-                        URL url = new URI(tempSt).toURL();
-                        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                        connection.setRequestMethod("GET");
-                        connection.setRequestProperty("Content-length", "0");
-                        connection.setUseCaches(false);
-                        connection.setAllowUserInteraction(false);
-                        connection.connect();
-                        int status = connection.getResponseCode();
-
-                        switch (status) {
-                            case 200:
-                                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                                StringBuilder sb = new StringBuilder();
-                                String line;
-                                while ((line = br.readLine()) != null) {
-                                    sb.append(line + "\n");
-                                }
-                                br.close();
-                                OpenCageDataResult result = gson.fromJson(sb.toString(), OpenCageDataResult.class);
-                                Result[] results = result.results;
-                                if (results.length > 0) {
-                                    Geometry geometry = results[0].geometry;
-                                    installation.setLatitude(geometry.lat);
-                                    installation.setLongitude(geometry.lng);
-                                    System.out.println("Latitude/longitude found for installation: " + installation.getId() +
-                                            " [" + geometry.lat + "," + geometry.lng + "]");
-
-                                    writer.write(installation.getId() + "\t" + geometry.lat + "\t" + geometry.lng + "\n");
-                                }
-                                break;
-                            default:
-                                System.out.println("There was a problem with the request :(");
-                                System.out.println(connection.getResponseMessage());
+                            String address = installation.getAddress();
+                            String city = installation.getCity();
+                            String postalCode = installation.getPostCode();
 
-                        }
+                            String querySt = "";
+                            if (!address.isEmpty()) {
+                                querySt += address + ",";
+                            }
+                            querySt += city + ",";
+                            if (!postalCode.isEmpty()) {
+                                querySt += postalCode + ",";
+                            }
+                            querySt += countryName;
+                            System.out.println("querySt = " + querySt);
 
-                        System.out.println("connection.getResponseMessage() = " + connection.getResponseMessage());
-                        System.out.println("connection.getResponseCode() = " + connection.getResponseCode());
 
+                            URIBuilder builder = new URIBuilder("http://api.opencagedata.com/geocode/v1/json");
+                            builder.addParameter("q", querySt);
+                            builder.addParameter("key", "fe12a67561caa821b7daa8baed0a7c8e");
 
-                        installationCounter++;
-                        if (installationCounter % 50 == 0) {
-                            System.out.println(installationCounter + " installations analyzed so far...");
-                        }
-                    }
-                }
+                            String tempSt = builder.toString();
 
-                relIterator = country.getAircraftOperatorCountry();
+                            System.out.println("tempSt = " + tempSt);
 
-                gson = new Gson();
+                            URL url = new URI(tempSt).toURL();
+                            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                            connection.setRequestMethod("GET");
+                            connection.setRequestProperty("Content-length", "0");
+                            connection.setUseCaches(false);
+                            connection.setAllowUserInteraction(false);
+                            connection.connect();
+                            int status = connection.getResponseCode();
 
-                System.out.println("Looping through aircraft operators...");
-                int aircraftOperatorCounter = 0;
+                            switch (status) {
+                                case 200:
+                                    BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                                    StringBuilder sb = new StringBuilder();
+                                    String line;
+                                    while ((line = br.readLine()) != null) {
+                                        sb.append(line + "\n");
+                                    }
+                                    br.close();
+                                    OpenCageDataResult result = gson.fromJson(sb.toString(), OpenCageDataResult.class);
+                                    Result[] results = result.results;
+                                    if (results.length > 0) {
+                                        Geometry geometry = results[0].geometry;
+                                        installation.setLatitude(geometry.lat);
+                                        installation.setLongitude(geometry.lng);
+                                        System.out.println("Latitude/longitude found for installation: " + installation.getId() +
+                                                " [" + geometry.lat + "," + geometry.lng + "]");
 
-                while (relIterator.hasNext()) {
+                                        writer.write(installation.getId() + "\t" + geometry.lat + "\t" + geometry.lng + "\n");
+                                    }
+                                    break;
+                                default:
+                                    System.out.println("There was a problem with the request :(");
+                                    System.out.println(connection.getResponseMessage());
 
-                    AircraftOperator aircraftOperator = new AircraftOperatorCountry(relIterator.next()).getAircraftOperator();
-                    String tempLatitude = aircraftOperator.getLatitude();
-                    String tempLongitude = aircraftOperator.getLongitude();
+                            }
 
-                    if (tempLatitude.isEmpty() || tempLongitude.isEmpty() || tempLatitude.equals("0") || tempLongitude.equals("0")) {
+                            System.out.println("connection.getResponseMessage() = " + connection.getResponseMessage());
+                            System.out.println("connection.getResponseCode() = " + connection.getResponseCode());
 
-                        System.out.println("Aircraft Operator found to be completed: " + aircraftOperator.getId());
 
-                        String address = aircraftOperator.getAddress();
-                        String city = aircraftOperator.getCity();
-                        String postalCode = aircraftOperator.getPostCode();
+                            installationCounter++;
+                            if (installationCounter % 50 == 0) {
+                                System.out.println(installationCounter + " installations analyzed so far...");
+                            }
 
-                        String querySt = "";
-                        if (!address.isEmpty()) {
-                            querySt += address + ",";
+                            batch.rowDone(2);
                         }
-                        querySt += city + ",";
-                        if (!postalCode.isEmpty()) {
-                            querySt += postalCode + ",";
-                        }
-                        querySt += countryName;
-                        System.out.println("querySt = " + querySt);
-
-
-                        URIBuilder builder = new URIBuilder("http://api.opencagedata.com/geocode/v1/json");
-                        builder.addParameter("q", querySt);
-                        builder.addParameter("key", "fe12a67561caa821b7daa8baed0a7c8e");
-
-                        String tempSt = builder.toString();
-
-                        System.out.println("tempSt = " + tempSt);
-
-                        URL url = new URI(tempSt).toURL();
-                        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                        connection.setRequestMethod("GET");
-                        connection.setRequestProperty("Content-length", "0");
-                        connection.setUseCaches(false);
-                        connection.setAllowUserInteraction(false);
-                        connection.connect();
-                        int status = connection.getResponseCode();
-
-                        switch (status) {
-                            case 200:
-                                BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-                                StringBuilder sb = new StringBuilder();
-                                String line;
-                                while ((line = br.readLine()) != null) {
-                                    sb.append(line + "\n");
-                                }
-                                br.close();
-                                OpenCageDataResult result = gson.fromJson(sb.toString(), OpenCageDataResult.class);
-                                Result[] results = result.results;
-                                if (results.length > 0) {
-                                    Geometry geometry = results[0].geometry;
-                                    aircraftOperator.setLatitude(geometry.lat);
-                                    aircraftOperator.setLongitude(geometry.lng);
-                                    System.out.println("Latitude/longitude found for aircraft operator: " + aircraftOperator.getId() +
-                                            " [" + geometry.lat + "," + geometry.lng + "]");
-
-                                    writer.write(aircraftOperator.getId() + "\t" + geometry.lat + "\t" + geometry.lng + "\n");
-                                }
-                                break;
-                            default:
-                                System.out.println("There was a problem with the request :(");
-                                System.out.println(connection.getResponseMessage());
+                    }
 
+                    relIterator = country.getAircraftOperatorCountry();
+
+                    gson = new Gson();
+
+                    System.out.println("Looping through aircraft operators...");
+                    int aircraftOperatorCounter = 0;
+
+                    while (relIterator.hasNext()) {
+
+                        AircraftOperator aircraftOperator = new AircraftOperatorCountry(relIterator.next()).getAircraftOperator();
+                        String tempLatitude = aircraftOperator.getLatitude();
+                        String tempLongitude = aircraftOperator.getLongitude();
+
+                        if (tempLatitude.isEmpty() || tempLongitude.isEmpty() || tempLatitude.equals("0") || tempLongitude.equals("0")) {
+
+                            System.out.println("Aircraft Operator found to be completed: " + aircraftOperator.getId());
+
+                            String address = aircraftOperator.getAddress();
+                            String city = aircraftOperator.getCity();
+                            String postalCode = aircraftOperator.getPostCode();
+
+                            String querySt = "";
+                            if (!address.isEmpty()) {
+                                querySt += address + ",";
+                            }
+                            querySt += city + ",";
+                            if (!postalCode.isEmpty()) {
+                                querySt += postalCode + ",";
+                            }
+                            querySt += countryName;
+                            System.out.println("querySt = " + querySt);
+
+
+                            URIBuilder builder = new URIBuilder("http://api.opencagedata.com/geocode/v1/json");
+                            builder.addParameter("q", querySt);
+                            builder.addParameter("key", "fe12a67561caa821b7daa8baed0a7c8e");
+
+                            String tempSt = builder.toString();
+
+                            System.out.println("tempSt = " + tempSt);
+
+                            URL url = new URI(tempSt).toURL();
+                            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                            connection.setRequestMethod("GET");
+                            connection.setRequestProperty("Content-length", "0");
+                            connection.setUseCaches(false);
+                            connection.setAllowUserInteraction(false);
+                            connection.connect();
+                            int status = connection.getResponseCode();
+
+                            switch (status) {
+                                case 200:
+                                    BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                                    StringBuilder sb = new StringBuilder();
+                                    String line;
+                                    while ((line = br.readLine()) != null) {
+                                        sb.append(line + "\n");
+                                    }
+                                    br.close();
+                                    OpenCageDataResult result = gson.fromJson(sb.toString(), OpenCageDataResult.class);
+                                    Result[] results = result.results;
+                                    if (results.length > 0) {
+                                        Geometry geometry = results[0].geometry;
+                                        aircraftOperator.setLatitude(geometry.lat);
+                                        aircraftOperator.setLongitude(geometry.lng);
+                                        System.out.println("Latitude/longitude found for aircraft operator: " + aircraftOperator.getId() +
+                                                " [" + geometry.lat + "," + geometry.lng + "]");
+
+                                        writer.write(aircraftOperator.getId() + "\t" + geometry.lat + "\t" + geometry.lng + "\n");
+                                    }
+                                    break;
+                                default:
+                                    System.out.println("There was a problem with the request :(");
+                                    System.out.println(connection.getResponseMessage());
+
+                            }
+
+                            aircraftOperatorCounter++;
+                            if (aircraftOperatorCounter % 50 == 0) {
+                                System.out.println(aircraftOperatorCounter + " aircraft operators analyzed so far...");
+                            }
+
+                            batch.rowDone(2);
                         }
 
-                        aircraftOperatorCounter++;
-                        if (aircraftOperatorCounter % 50 == 0) {
-                            System.out.println(aircraftOperatorCounter + " aircraft operators analyzed so far...");
-                        }
+
                     }
 
+                    writer.close();
 
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
                 }
 
-                writer.close();
-
-                tx.success();
-                tx.close();
-                MANAGER.shutdown();
-
             } catch (Exception e) {
-                e.printStackTrace();
+                throw new ExecutionFailedException(GeocodingInfoImporter.class.getSimpleName() + " failed", e);
             }
 
 
@@ -251,4 +272,9 @@ public class GeocodingInfoImporter implements Executable {
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
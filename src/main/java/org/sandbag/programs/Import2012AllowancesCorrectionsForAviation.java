@@ -1,10 +1,13 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.relationships.AllowancesInAllocation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
 import java.io.*;
 import java.util.List;
@@ -12,9 +15,18 @@ import java.util.List;
 /**
  * Created by root on 15/07/16.
  */
-public class Import2012AllowancesCorrectionsForAviation implements Executable{
+public class Import2012AllowancesCorrectionsForAviation implements ContextExecutable {
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder\n" +
@@ -26,75 +38,81 @@ public class Import2012AllowancesCorrectionsForAviation implements Executable{
 
             try{
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "2012 aviation allowances corrections");
+                boolean finished = false;
+                try{
 
-                BufferedWriter writer = new BufferedWriter(new FileWriter(new File("Import2012AviationCorrectionsErrors.txt")));
+                    BufferedWriter writer = new BufferedWriter(new FileWriter(new File("Import2012AviationCorrectionsErrors.txt")));
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(inputFileSt)));
-                String line;
-                reader.readLine();//header
+                    FieldReader fields = new FieldReader(new FileReader(new File(inputFileSt)), '\t');
+                    fields.nextLine();//header
 
-                System.out.println("Looping through aircraft operators...");
+                    System.out.println("Looping through aircraft operators...");
 
-                int totalAllowancesNotFixed = 0;
+                    int totalAllowancesNotFixed = 0;
 
-                while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                    String[] columns = line.split("\t");
+                        String uniqueCodeComissionSt = fields.getString(0);
+                        String operatorNameSt = fields.getString(1);
+                        String countrySt = fields.getString(2);
+                        String allowancesReturnedSt = fields.getString(3);
 
-                    String uniqueCodeComissionSt = columns[0].trim();
-                    String operatorNameSt = columns[1].trim();
-                    String countrySt = columns[2].trim();
-                    String allowancesReturnedSt = columns[3].trim();
+                        //System.out.println("uniqueCodeComissionSt = " + uniqueCodeComissionSt);
 
-                    //System.out.println("uniqueCodeComissionSt = " + uniqueCodeComissionSt);
+                        Integer allowancesReturned = Integer.parseInt(allowancesReturnedSt);
 
-                    Integer allowancesReturned = Integer.parseInt(allowancesReturnedSt);
+                        AircraftOperator aircraftOperator = null;
 
-                    AircraftOperator aircraftOperator = null;
+                        if(uniqueCodeComissionSt.equals("8352")){
+                            //bug with duplicated airline record, this is a specific fix for it
+                            aircraftOperator = databaseManager.getAircraftOperatorById("GB202850");
 
-                    if(uniqueCodeComissionSt.equals("8352")){
-                        //bug with duplicated airline record, this is a specific fix for it
-                        aircraftOperator = databaseManager.getAircraftOperatorById("GB202850");
+                        }else if(uniqueCodeComissionSt.equals("32631")){
+                            //bug with duplicated airline record, this is a specific fix for it
+                            aircraftOperator = databaseManager.getAircraftOperatorById("NL202833");
+                        }else{
+                            System.out.println("uniqueCodeComissionSt = " + uniqueCodeComissionSt);
+                            aircraftOperator =
+                                    databaseManager.getAircraftOperatorByUniqueCodeUnderCommissionRegulation(uniqueCodeComissionSt);
+                        }
 
-                    }else if(uniqueCodeComissionSt.equals("32631")){
-                        //bug with duplicated airline record, this is a specific fix for it
-                        aircraftOperator = databaseManager.getAircraftOperatorById("NL202833");
-                    }else{
-                        System.out.println("uniqueCodeComissionSt = " + uniqueCodeComissionSt);
-                        aircraftOperator =
-                                databaseManager.getAircraftOperatorByUniqueCodeUnderCommissionRegulation(uniqueCodeComissionSt);
-                    }
+                        if(aircraftOperator != null){
 
-                    if(aircraftOperator != null){
+                            AllowancesInAllocation allowances = aircraftOperator.getAllowancesInAllocationForPeriod(databaseManager.getPeriodByName("2012"));
+                            double oldValue = allowances.getValue();
+                            double newValue = oldValue - allowancesReturned;
+                            allowances.setValue(newValue);
 
-                        AllowancesInAllocation allowances = aircraftOperator.getAllowancesInAllocationForPeriod(databaseManager.getPeriodByName("2012"));
-                        double oldValue = allowances.getValue();
-                        double newValue = oldValue - allowancesReturned;
-                        allowances.setValue(newValue);
+                        }else{
+                            System.out.println("The aircraft operator with id: " + uniqueCodeComissionSt +
+                                    " could not be found... ( " + operatorNameSt + " )");
+                            writer.write("Operator with id: " + uniqueCodeComissionSt + " could not be found\n");
+                            totalAllowancesNotFixed += allowancesReturned;
+                        }
 
-                    }else{
-                        System.out.println("The aircraft operator with id: " + uniqueCodeComissionSt +
-                                " could not be found... ( " + operatorNameSt + " )");
-                        writer.write("Operator with id: " + uniqueCodeComissionSt + " could not be found\n");
-                        totalAllowancesNotFixed += allowancesReturned;
-                    }
+                        batch.rowDone(1);
 
-                }
+                    }
 
-                System.out.println("A total of " + totalAllowancesNotFixed + " could not be corrected due to various reasons...");
-                System.out.println("Done!");
+                    System.out.println("A total of " + totalAllowancesNotFixed + " could not be corrected due to various reasons...");
+                    System.out.println("Done!");
 
-                reader.close();
-                writer.close();
+                    fields.close();
+                    writer.close();
 
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(
+                        Import2012AllowancesCorrectionsForAviation.class.getSimpleName() + " failed", e);
             }
         }
     }
@@ -103,4 +121,9 @@ public class Import2012AllowancesCorrectionsForAviation implements Executable{
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
@@ -1,14 +1,18 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.ImportWrites;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Company;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Sector;
-import org.sandbag.util.Executable;
+import org.sandbag.programs.rows.AircraftOperatorRow;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -16,14 +20,28 @@ import java.util.List;
 /**
  * Created by root on 06/06/16.
  */
-public class ImportAircraftOperators implements Executable {
+public class ImportAircraftOperators implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if (args.length != 2) {
             System.out.println("This program expects the following parameters:\n" +
@@ -33,9 +51,9 @@ public class ImportAircraftOperators implements Executable {
 
             String dbFolder = args[0];
             String aircraftOperatorsFolder = args[1];
-            DatabaseManager databaseManager = new DatabaseManager(dbFolder);
+            DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+            databaseManager.enableCompanyGroupsUpdates();
             importAircraftOperatorsFromFolder(aircraftOperatorsFolder, databaseManager);
-            databaseManager.shutdown();
 
         }
     }
@@ -65,91 +83,63 @@ public class ImportAircraftOperators implements Executable {
 
         System.out.println("Importing file " + file.getName());
 
-        String line;
         try{
 
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
-
-            while((line = reader.readLine()) != null){
-
-                Transaction tx = dbManager.beginTransaction();
-
-                String[] columns = line.split("\t", -1);
-                //System.out.println("columns.length = " + columns.length);
-                if(columns.length > 0){
-                    String countryNameSt = columns[0].trim();
-                    String accountTypeSt = columns[1].trim();
-                    String accountHolderNameSt = columns[2].trim();
-                    String companyRegistrationNumberSt = columns[3].trim();
-                    String companyStatusSt = columns[4].trim();
-                    String companyTypeSt = columns[5].trim();
-                    String companyNameSt = columns[6].trim();
-                    String companyMainAddressSt = columns[7].trim();
-                    String companySecondaryAddressSt = columns[8].trim();
-                    String companyPostalCodeSt = columns[9].trim();
-                    String companyCitySt = columns[10].trim();
-                    String aircraftOperatorIdSt = columns[11].trim();
-                    String uniqueCodeUnderComissionioRegulationSt = columns[12].trim();
-                    String monitoringPlanIDSt = columns[13].trim();
-                    String monitoringPlanFirstYearOfApplicabilitySt = columns[14].trim();
-                    String monitoringPlanYearOfExpiry = columns[15].trim();
-                    String subsidiaryCompanySt = columns[16].trim();
-                    String parentCompanySt = columns[17].trim();
-                    String eprtrIdSt = columns[18].trim();
-                    String icaoDesignator = columns[19].trim();
-                    String aircraftOperatorMainAddressSt = columns[20].trim();
-                    String aircraftOperatorSecondaryAddressSt = columns[21].trim();
-                    String aircraftOperatorPostalCodeSt = columns[22].trim();
-                    String aircraftOperatorCitySt = columns[23].trim();
-                    String countryIdSt = columns[24].trim();
-                    String latitudeSt = columns[25].trim();
-                    String longitudeSt = columns[26].trim();
-                    String mainActivitySt = columns[27].trim();
-
-                    Country country = dbManager.getCountryByName(countryNameSt);
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            fields.nextLine(); //skipping header
+
+            BatchTransaction batch = new BatchTransaction(dbManager, file.getName());
+            boolean finished = false;
+            try{
+
+                while(fields.nextLine()){
+
+                    AircraftOperatorRow row = AircraftOperatorRow.parse(fields);
+
+                    Country country = dbManager.getCountryByName(row.countryName);
                     if(country == null){
-                        System.out.println("Creating country: [" + countryIdSt + "," + countryNameSt + "]" );
-                        country = dbManager.createCountry(countryNameSt, countryIdSt);
+                        System.out.println("Creating country: [" + row.countryId + "," + row.countryName + "]" );
+                        country = dbManager.createCountry(row.countryName, row.countryId);
                     }
-                    Company company = dbManager.getCompanyByName(companyNameSt);
+                    Company company = dbManager.getCompanyByName(row.companyName);
                     if(company == null){
-                        if(!companyNameSt.isEmpty()){
-                            company = dbManager.createCompany(companyNameSt,companyRegistrationNumberSt,companyPostalCodeSt,
-                                    companyCitySt, companyMainAddressSt + "\n" + companySecondaryAddressSt, companyStatusSt,
-                                    subsidiaryCompanySt, parentCompanySt);
+                        if(!row.companyName.isEmpty()){
+                            company = dbManager.createCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                                    row.companyCity, row.companyAddress, row.companyStatus,
+                                    row.subsidiaryCompany, row.parentCompany);
                         }
                     }
 
-                    String sectorId = mainActivitySt.split("-")[0];
-                    String sectorName = mainActivitySt.split("-")[1];
-
-                    Sector sector = dbManager.getSectorById(sectorId);
+                    Sector sector = dbManager.getSectorById(row.sectorId);
                     if(sector == null){
-                        if(!sectorId.isEmpty()){
-                            sector = dbManager.createSector(sectorId, sectorName);
+                        if(!row.sectorId.isEmpty()){
+                            sector = dbManager.createSector(row.sectorId, row.sectorName);
                         }
                     }
 
-                    String aircraftOperatorCompleteIDSt = countryIdSt + aircraftOperatorIdSt;
+                    AircraftOperator aircraftOperator = dbManager.createAircraftOperator(row.getCompleteId(), row.companyName,
+                            row.aircraftOperatorCity, row.aircraftOperatorPostalCode, row.aircraftOperatorAddress,
+                            row.eprtrId, row.companyStatus, row.uniqueCodeUnderCommissionRegulation, row.monitoringPlanId,
+                            row.monitoringPlanFirstYearOfApplicability, row.monitoringPlanYearOfExpiry, row.icaoDesignator,
+                            row.latitude, row.longitude, country, company, sector);
 
-                    AircraftOperator aircraftOperator = dbManager.createAircraftOperator(aircraftOperatorCompleteIDSt,companyNameSt,
-                            aircraftOperatorCitySt,aircraftOperatorPostalCodeSt,aircraftOperatorMainAddressSt + aircraftOperatorSecondaryAddressSt,
-                            eprtrIdSt, companyStatusSt, uniqueCodeUnderComissionioRegulationSt, monitoringPlanIDSt,
-                            monitoringPlanFirstYearOfApplicabilitySt,monitoringPlanYearOfExpiry, icaoDesignator,
-                            latitudeSt, longitudeSt, country, company, sector);
+                    batch.rowDone(ImportWrites.AIRCRAFT_OPERATOR);
 
-                    tx.success();
-                    tx.close();
                 }
 
+                batch.finish();
+                finished = true;
+            }finally {
+                if(!finished){
+                    batch.abort();
+                }
             }
 
-            reader.close();
+            fields.close();
 
 
         }catch (Exception e){
-            e.printStackTrace();
+            throw new ExecutionFailedException(ImportAircraftOperators.class.getSimpleName() + " failed", e);
         }
     }
 }
@@ -1,14 +1,16 @@
 package org.sandbag.programs;
 
 import org.neo4j.cypher.internal.compiler.v1_9.commands.expressions.Count;
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.NER300;
 import org.sandbag.model.nodes.Period;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -16,14 +18,28 @@ import java.util.List;
 /**
  * Created by root on 16/05/16.
  */
-public class ImportAuctionData implements Executable{
+public class ImportAuctionData implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 2){
             System.out.println("This program expects the following parameters\n" +
@@ -37,88 +53,92 @@ public class ImportAuctionData implements Executable{
             try{
 
                 File file = new File(fileSt);
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
-
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                reader.readLine();//skipping the header
-
-                String line;
-
-                System.out.println("reading file...");
-
-                while((line = reader.readLine()) != null){
-                    String[] columns = line.split("\t");
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "Auction data");
+                boolean finished = false;
+                try{
+
+                    FieldReader fields = new FieldReader(new FileReader(file), '\t');
+                    fields.nextLine();//skipping the header
+
+                    System.out.println("reading file...");
+
+                    while(fields.nextLine()){
+                        int countryIdEnd = fields.indexOf(0, ' ', 0);
+                        String countryIdst = countryIdEnd < 0 ? fields.getString(0) : fields.getString(0, 0, countryIdEnd);
+                        boolean isInstallation = fields.getString(2).toLowerCase().indexOf("aviation") < 0;
+                        String typeSt;
+                        if(isInstallation){
+                            typeSt = "Installation";
+                        }else{
+                            typeSt = "Aircraft Operator";
+                        }
+                        String periodSt = fields.getString(3);
+                        String sourceSt = fields.getString(5);
 
-                    String countryIdst = columns[0].trim().split(" ")[0];
-                    boolean isInstallation = columns[2].trim().toLowerCase().indexOf("aviation") < 0;
-                    String typeSt;
-                    if(isInstallation){
-                        typeSt = "Installation";
-                    }else{
-                        typeSt = "Aircraft Operator";
-                    }
-                    String periodSt = columns[3].trim();
-                    String amountSt = columns[4].trim();
-                    String sourceSt = columns[5].trim();
+                        if(countryIdst.equals("N3")){
 
-                    if(countryIdst.equals("N3")){
+                            NER300 ner300 = databaseManager.getNER300Node();
+                            Period period = databaseManager.getPeriodByName(periodSt);
 
-                        NER300 ner300 = databaseManager.getNER300Node();
-                        Period period = databaseManager.getPeriodByName(periodSt);
+                            if(period != null){
 
-                        if(period != null){
+                                ner300.setAuctionedForPeriod(period, fields.getDouble(4), sourceSt);
 
-                            ner300.setAuctionedForPeriod(period, Double.parseDouble(amountSt), sourceSt);
+                            }else{
+                                System.out.println("Period: " + periodSt + " could not be found...");
+                                System.out.println("Data won't be stored for NER300 and the aforementioned period :(");
+                            }
 
-                        }else{
-                            System.out.println("Period: " + periodSt + " could not be found...");
-                            System.out.println("Data won't be stored for NER300 and the aforementioned period :(");
-                        }
 
+                        }else {
 
-                    }else {
+                            Country country = null;
 
-                        Country country = null;
+                            if(countryIdst.equals("ZZ")){
+                                countryIdst = "EU";
+                            }
 
-                        if(countryIdst.equals("ZZ")){
-                            countryIdst = "EU";
-                        }
+                            country = databaseManager.getCountryById(countryIdst);
 
-                        country = databaseManager.getCountryById(countryIdst);
+                            if(country != null){
 
-                        if(country != null){
+                                Period period = databaseManager.getPeriodByName(periodSt);
 
-                            Period period = databaseManager.getPeriodByName(periodSt);
+                                if(period != null){
 
-                            if(period != null){
+                                    country.setAuctionedForPeriod(period, fields.getDouble(4), sourceSt, typeSt);
 
-                                country.setAuctionedForPeriod(period, Double.parseDouble(amountSt), sourceSt, typeSt);
+                                }else{
+                                    System.out.println("Period: " + periodSt + " could not be found...");
+                                    System.out.println("Data won't be stored for country: " + countryIdst + " and the aforementioned period :(");
+                                }
 
                             }else{
-                                System.out.println("Period: " + periodSt + " could not be found...");
-                                System.out.println("Data won't be stored for country: " + countryIdst + " and the aforementioned period :(");
+                                System.out.println("The country with id: " + countryIdst + " could not be found...");
+                                System.out.println("No information was stored for it :(");
                             }
-
-                        }else{
-                            System.out.println("The country with id: " + countryIdst + " could not be found...");
-                            System.out.println("No information was stored for it :(");
                         }
-                    }
 
-                }
+                        batch.rowDone(3);
+
+                    }
 
 
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                    fields.close();
 
-                reader.close();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
                 System.out.println("Done! :)");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportAuctionData.class.getSimpleName() + " failed", e);
             }
         }
 
@@ -1,11 +1,13 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Country;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -13,9 +15,18 @@ import java.util.List;
 /**
  * Created by root on 28/06/16.
  */
-public class ImportCountriesCoordinates implements Executable{
+public class ImportCountriesCoordinates implements ContextExecutable {
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if (args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder\n" +
@@ -29,56 +40,60 @@ public class ImportCountriesCoordinates implements Executable{
 
                 System.out.println("Opening database...");
 
-                DatabaseManager manager = new DatabaseManager(databaseFolderSt);
+                DatabaseManager manager = context.getDatabaseManager(databaseFolderSt);
 
-                Transaction tx = manager.beginTransaction();
+                BatchTransaction batch = new BatchTransaction(manager, "Countries coordinates");
+                boolean finished = false;
+                try{
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(coordinatesFileSt)));
-                String line;
-                reader.readLine(); //header
+                    FieldReader fields = new FieldReader(new FileReader(new File(coordinatesFileSt)), '\t');
+                    fields.nextLine(); //header
 
-                System.out.println("Reading coordinates file...");
+                    System.out.println("Reading coordinates file...");
 
-                while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                    String columns[] = line.split("\t");
+                        String countryIdSt = fields.getString(0);
+                        double centerLat = fields.getDouble(1);
+                        double centerLg = fields.getDouble(2);
+                        double bbMaxLat = fields.getDouble(3);
+                        double bbMinLat = fields.getDouble(4);
+                        double bbMaxLg = fields.getDouble(5);
+                        double bbMinLg = fields.getDouble(6);
 
-                    String countryIdSt = columns[0].trim();
-                    double centerLat = Double.parseDouble(columns[1].trim());
-                    double centerLg = Double.parseDouble(columns[2].trim());
-                    double bbMaxLat = Double.parseDouble(columns[3].trim());
-                    double bbMinLat = Double.parseDouble(columns[4].trim());
-                    double bbMaxLg = Double.parseDouble(columns[5].trim());
-                    double bbMinLg = Double.parseDouble(columns[6].trim());
+                        Country country = manager.getCountryById(countryIdSt);
+                        if(country != null){
 
-                    Country country = manager.getCountryById(countryIdSt);
-                    if(country != null){
+                            country.setCenterLatitude(centerLat);
+                            country.setCenterLongitude(centerLg);
+                            country.setBoundingBoxMaxLatitude(bbMaxLat);
+                            country.setBoundingBoxMinLatitude(bbMinLat);
+                            country.setBoundingBoxMaxLongitude(bbMaxLg);
+                            country.setBoundingBoxMinLongitude(bbMinLg);
 
-                        country.setCenterLatitude(centerLat);
-                        country.setCenterLongitude(centerLg);
-                        country.setBoundingBoxMaxLatitude(bbMaxLat);
-                        country.setBoundingBoxMinLatitude(bbMinLat);
-                        country.setBoundingBoxMaxLongitude(bbMaxLg);
-                        country.setBoundingBoxMinLongitude(bbMinLg);
+                        }else{
+                            System.out.println("The country with ID: " + countryIdSt + " could not be found...");
+                        }
 
-                    }else{
-                        System.out.println("The country with ID: " + countryIdSt + " could not be found...");
-                    }
-
-                }
+                        batch.rowDone(6);
 
-                reader.close();
+                    }
 
-                tx.success();
-                tx.close();
+                    fields.close();
 
-                manager.shutdown();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
                 System.out.println("Done!");
 
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportCountriesCoordinates.class.getSimpleName() + " failed", e);
             }
         }
 
@@ -88,4 +103,9 @@ public class ImportCountriesCoordinates implements Executable{
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
@@ -10,9 +10,21 @@ import org.sandbag.model.nodes.*;
 import org.sandbag.model.nodes.interfaces.AircraftOperatorModel;
 import org.sandbag.model.relationships.aircraft_ops.AircraftOperatorCountry;
 import org.sandbag.model.relationships.interfaces.AllowancesInAllocationModel;
-import org.sandbag.util.Executable;
+import org.sandbag.programs.rows.AircraftOperatorRow;
+import org.sandbag.programs.rows.ComplianceRow;
+import org.sandbag.programs.rows.InstallationRow;
+import org.sandbag.programs.rows.OffsetRow;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
+import org.sandbag.util.ImportPipeline;
+import org.sandbag.util.RejectedCellReport;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -22,11 +34,30 @@ import java.util.List;
  * @author Pablo Pareja Tobes
  *
  */
-public class ImportEUTLData implements Executable{
+public class ImportEUTLData implements ContextExecutable {
 
     private static DatabaseManager DBMANAGER;
+    static KeyResolver RESOLVER;
+    static AccountResolver ACCOUNTS;
+    //progress of the import, so that an interrupted run can be resumed (null when imports are not journaled)
+    private static ImportJournal JOURNAL;
+
+    private static final String FIX_HR200696_STEP = "Fix HR200696";
+    private static final String NER_STEP = "NER allocation data";
+    private static final String ARTICLE_10C_STEP = "Article 10c allocation data";
+    private static final String INSTALLATIONS_OFFSET_ENTITLEMENTS_STEP = "Installations offset entitlements";
+    private static final String AIRCRAFT_OPERATORS_OFFSET_ENTITLEMENTS_STEP = "Aircraft operators offset entitlements";
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 9){
             System.out.println("The program expects the following parameters:\n" +
                     "1. Database folder\n" +
@@ -41,7 +72,8 @@ public class ImportEUTLData implements Executable{
         }else{
 
 
-            DBMANAGER = new DatabaseManager(args[0]);
+            setUp(context.getDatabaseManager(args[0]));
+            JOURNAL = new ImportJournal(DBMANAGER, ImportEUTLData.class.getSimpleName());
             ImportEUTLData importer = new ImportEUTLData();
 
             importer.importInstallationsFromFolder(args[1]);
@@ -57,14 +89,81 @@ public class ImportEUTLData implements Executable{
             importer.importAircraftOperatorsOffsetEntitlements(new File(args[7]));
             importer.importOffsetsFromFolder(args[8]);
 
-            DBMANAGER.shutdown();
+            //indices and constraints are built once everything has been loaded
+            DBMANAGER.buildSchema();
+
+            //the steps importing a single file report their errors without stopping the import, which fails at the end
+            if(JOURNAL.isStepCompleted(FIX_HR200696_STEP) &&
+                    JOURNAL.isStepCompleted(NER_STEP, new File(args[4])) &&
+                    JOURNAL.isStepCompleted(ARTICLE_10C_STEP, new File(args[5])) &&
+                    JOURNAL.isStepCompleted(INSTALLATIONS_OFFSET_ENTITLEMENTS_STEP, new File(args[6])) &&
+                    JOURNAL.isStepCompleted(AIRCRAFT_OPERATORS_OFFSET_ENTITLEMENTS_STEP, new File(args[7]))){
+                JOURNAL.delete();
+                System.out.println("Import completed, import journal deleted");
+            }else{
+                //not completed: an execution file running it must not record it as such
+                throw new ExecutionFailedException("Some files couldn't be imported, the import journal is kept so " +
+                        "that running the import again only imports what's missing");
+            }
+
+
+        }
+    }
+
+    /**
+     * Initializes the database manager and the resolvers shared by the import methods
+     */
+    static void setUp(DatabaseManager dbManager){
+        //companies created are linked to their groups as they're imported
+        dbManager.enableCompanyGroupsUpdates();
+        DBMANAGER = dbManager;
+        RESOLVER = new KeyResolver(DBMANAGER);
+        ACCOUNTS = new AccountResolver(DBMANAGER);
+    }
+
+    private static ImportPipeline newPipeline(){
+        ImportPipeline pipeline = new ImportPipeline(DBMANAGER);
+        pipeline.setJournal(JOURNAL);
+        return pipeline;
+    }
+
+    /**
+     * @return true (printing a message) if the step was completed by a previous run of the import
+     */
+    private static boolean isStepCompleted(String step){
+        return isStepCompleted(step, null);
+    }
+
+    /**
+     * @param file file imported by the step, a different version of it is imported again
+     */
+    private static boolean isStepCompleted(String step, File file){
+        if(JOURNAL != null && JOURNAL.isStepCompleted(step, file)){
+            System.out.println(step + " was already imported, skipping it");
+            return true;
+        }
+        return false;
+    }
 
+    /**
+     * To be called within the transaction that commits the last changes of the step
+     */
+    private static void recordStepCompleted(String step){
+        recordStepCompleted(step, null);
+    }
 
+    private static void recordStepCompleted(String step, File file){
+        if(JOURNAL != null){
+            JOURNAL.recordStepCompleted(step, file);
         }
     }
 
     public void fixProblematicAircraftOperatorHR200696(){
 
+        if(isStepCompleted(FIX_HR200696_STEP)){
+            return;
+        }
+
         System.out.println("Fixing problematic Aircraft Operator HR200696...");
 
         Transaction tx = DBMANAGER.beginTransaction();
@@ -75,10 +174,12 @@ public class ImportEUTLData implements Executable{
             oldRelIterator.next().delete();
         }
 
-        Country croatia = DBMANAGER.getCountryById("HR");
+        Country croatia = RESOLVER.getCountryById("HR");
         AircraftOperator aircraftOperator = new AircraftOperator(aircraftOp);
         aircraftOperator.setCountry(croatia);
         aircraftOperator.setId("HR200696");
+        ACCOUNTS.changeAircraftOperatorId("DE200696", "HR200696");
+        recordStepCompleted(FIX_HR200696_STEP);
 
         tx.success();
         tx.close();
@@ -88,869 +189,613 @@ public class ImportEUTLData implements Executable{
 
     public void importOffsetsFromFolder(String folderSt){
         System.out.println("Importing offsets from folder: " + folderSt);
-
-        File folder = new File(folderSt);
-        if(folder.isDirectory()){
-
-            for(File currentFile : folder.listFiles()){
-                if(currentFile.getName().split("\\.")[1].toLowerCase().equals("csv")){
-                    importOffsetsFile(currentFile);
-                }
-            }
-
-        }else{
-            System.out.println("Please enter a valid folder name");
-        }
-
+        importOffsetsFiles(getCsvFiles(folderSt));
         System.out.println("Done! :)");
     }
 
     public void importInstallationsFromFolder(String folderSt){
-
         System.out.println("Importing installations from folder: " + folderSt);
-
-        File folder = new File(folderSt);
-        if(folder.isDirectory()){
-
-            for(File currentFile : folder.listFiles()){
-                if(currentFile.getName().split("\\.")[1].toLowerCase().equals("csv")){
-                    importInstallationsFile(currentFile);
-                }
-            }
-
-        }else{
-            System.out.println("Please enter a valid folder name");
-        }
-
+        importInstallationsFiles(getCsvFiles(folderSt));
         System.out.println("Done! :)");
     }
 
     public void importAircraftOperatorsFromFolder(String folderSt){
-
         System.out.println("Importing aircraft operators from folder: " + folderSt);
-
-        File folder = new File(folderSt);
-        if(folder.isDirectory()){
-
-            for(File currentFile : folder.listFiles()){
-                if(currentFile.getName().split("\\.")[1].toLowerCase().equals("csv")){
-                    importAircraftOperatorFile(currentFile);
-                }
-            }
-
-        }else{
-            System.out.println("Please enter a valid folder name");
-        }
-
+        importAircraftOperatorsFiles(getCsvFiles(folderSt));
         System.out.println("Done! :)");
     }
 
-
     public void importComplianceDataFromFolder(String folderSt){
         System.out.println("Importing compliance data from folder: " + folderSt);
+        importComplianceDataFiles(getCsvFiles(folderSt));
+        System.out.println("Done! :)");
+    }
 
+    /**
+     * @return the .csv files included in the folder (sorted by name so that imports are reproducible)
+     */
+    static List<File> getCsvFiles(String folderSt){
+        List<File> files = new ArrayList<>();
         File folder = new File(folderSt);
         if(folder.isDirectory()){
-
             for(File currentFile : folder.listFiles()){
                 if(currentFile.getName().split("\\.")[1].toLowerCase().equals("csv")){
-                    importComplianceDataFile(currentFile);
+                    files.add(currentFile);
                 }
             }
-
+            Collections.sort(files);
         }else{
             System.out.println("Please enter a valid folder name");
         }
-
-        System.out.println("Done! :)");
+        return files;
     }
 
     public void importAircraftOperatorFile(File file){
+        importAircraftOperatorsFiles(Collections.singletonList(file));
+    }
 
-        System.out.println("Importing file " + file.getName());
-
-        String line;
-        try{
-
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
-
-            while((line = reader.readLine()) != null){
-
-                Transaction tx = DBMANAGER.beginTransaction();
-
-                String[] columns = line.split("\t", -1);
-                //System.out.println("columns.length = " + columns.length);
-                if(columns.length > 0){
-                    String countryNameSt = columns[0].trim();
-                    String accountTypeSt = columns[1].trim();
-                    String accountHolderNameSt = columns[2].trim();
-                    String companyRegistrationNumberSt = columns[3].trim();
-                    String companyStatusSt = columns[4].trim();
-                    String companyTypeSt = columns[5].trim();
-                    String companyNameSt = columns[6].trim();
-                    String companyMainAddressSt = columns[7].trim();
-                    String companySecondaryAddressSt = columns[8].trim();
-                    String companyPostalCodeSt = columns[9].trim();
-                    String companyCitySt = columns[10].trim();
-                    String aircraftOperatorIdSt = columns[11].trim();
-                    String uniqueCodeUnderComissionioRegulationSt = columns[12].trim();
-                    String monitoringPlanIDSt = columns[13].trim();
-                    String monitoringPlanFirstYearOfApplicabilitySt = columns[14].trim();
-                    String monitoringPlanYearOfExpiry = columns[15].trim();
-                    String subsidiaryCompanySt = columns[16].trim();
-                    String parentCompanySt = columns[17].trim();
-                    String eprtrIdSt = columns[18].trim();
-                    String icaoDesignator = columns[19].trim();
-                    String aircraftOperatorMainAddressSt = columns[20].trim();
-                    String aircraftOperatorSecondaryAddressSt = columns[21].trim();
-                    String aircraftOperatorPostalCodeSt = columns[22].trim();
-                    String aircraftOperatorCitySt = columns[23].trim();
-                    String countryIdSt = columns[24].trim();
-                    String latitudeSt = columns[25].trim();
-                    String longitudeSt = columns[26].trim();
-                    String mainActivitySt = columns[27].trim();
-
-                    Country country = DBMANAGER.getCountryByName(countryNameSt);
-                    if(country == null){
-                        System.out.println("Creating country: [" + countryIdSt + "," + countryNameSt + "]" );
-                        country = DBMANAGER.createCountry(countryNameSt, countryIdSt);
-                    }
-                    Company company = DBMANAGER.getCompanyByName(companyNameSt);
-                    if(company == null){
-                        if(!companyNameSt.isEmpty()){
-                            company = DBMANAGER.createCompany(companyNameSt,companyRegistrationNumberSt,companyPostalCodeSt,
-                                    companyCitySt, companyMainAddressSt + "\n" + companySecondaryAddressSt, companyStatusSt,
-                                    subsidiaryCompanySt, parentCompanySt);
-                        }
+    private void importAircraftOperatorsFiles(List<File> files){
+        newPipeline().run("Aircraft operators", files, Charset.defaultCharset(),
+                new ImportPipeline.RowParser<AircraftOperatorRow>() {
+                    @Override
+                    public AircraftOperatorRow parse(FieldReader fields) {
+                        return AircraftOperatorRow.parse(fields);
                     }
-
-                    String sectorId = mainActivitySt.split("-")[0];
-                    String sectorName = mainActivitySt.split("-")[1];
-
-                    Sector sector = DBMANAGER.getSectorById(sectorId);
-                    if(sector == null){
-                        if(!sectorId.isEmpty()){
-                            sector = DBMANAGER.createSector(sectorId, sectorName);
-                        }
+                },
+                new RowWriter<AircraftOperatorRow>() {
+                    @Override
+                    public int write(AircraftOperatorRow row) {
+                        return writeAircraftOperator(row);
                     }
+                });
+    }
 
-                    String aircraftOperatorCompleteIDSt = countryIdSt + aircraftOperatorIdSt;
-
-                    AircraftOperator aircraftOperator = DBMANAGER.createAircraftOperator(aircraftOperatorCompleteIDSt,companyNameSt,
-                            aircraftOperatorCitySt,aircraftOperatorPostalCodeSt,aircraftOperatorMainAddressSt + aircraftOperatorSecondaryAddressSt,
-                            eprtrIdSt, companyStatusSt, uniqueCodeUnderComissionioRegulationSt, monitoringPlanIDSt,
-                            monitoringPlanFirstYearOfApplicabilitySt,monitoringPlanYearOfExpiry, icaoDesignator,
-                            latitudeSt, longitudeSt, country, company, sector);
-
-                    tx.success();
-                    tx.close();
-                }
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    int writeAircraftOperator(AircraftOperatorRow row){
 
-            }
+        Country country = getOrCreateCountry(row.countryName, row.countryId);
+        Company company = getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                row.companyCity, row.companyAddress, row.companyStatus, row.subsidiaryCompany, row.parentCompany);
+        Sector sector = getOrCreateSector(row.sectorId, row.sectorName);
 
-            reader.close();
+        String aircraftOperatorCompleteIDSt = row.getCompleteId();
 
+        AircraftOperator aircraftOperator = DBMANAGER.createAircraftOperator(aircraftOperatorCompleteIDSt, row.companyName,
+                row.aircraftOperatorCity, row.aircraftOperatorPostalCode, row.aircraftOperatorAddress,
+                row.eprtrId, row.companyStatus, row.uniqueCodeUnderCommissionRegulation, row.monitoringPlanId,
+                row.monitoringPlanFirstYearOfApplicability, row.monitoringPlanYearOfExpiry, row.icaoDesignator,
+                row.latitude, row.longitude, country, company, sector);
+        ACCOUNTS.registerAircraftOperator(aircraftOperator, aircraftOperatorCompleteIDSt);
 
-        }catch (Exception e){
-            e.printStackTrace();
-        }
+        return ImportWrites.AIRCRAFT_OPERATOR;
     }
 
     public void importNERAllocationData(File file){
+        if(isStepCompleted(NER_STEP, file)){
+            return;
+        }
         System.out.println("Importing file " + file.getName());
         try{
 
-            String line;
-            int lineCounter = 1;
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            try{
+                fields.nextLine(); //skipping header
 
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
+                RejectedCellReport rejectedCells = new RejectedCellReport(file.getName());
+                BatchTransaction batch = new BatchTransaction(DBMANAGER, file.getName());
+                boolean finished = false;
+                try{
 
-            Transaction tx = DBMANAGER.beginTransaction();
+                    while(fields.nextLine()){
 
-            while((line = reader.readLine()) != null){
+                        if(!fields.isBlank()){
 
-                if(!line.trim().isEmpty()){
+                            String countryIdSt = fields.getString(0);
+                            String installationIdIncompleteSt = fields.getString(1);
+                            String installationIdSt = countryIdSt + installationIdIncompleteSt;
+                            String yearSt = fields.getString(2);
 
-                    String[] columns = line.split("\t", -1);
+                            Period period = getOrCreatePeriod(yearSt);
+                            Installation installation = ACCOUNTS.getInstallation(installationIdSt);
+                            if(installation != null){
 
-                    String countryIdSt = columns[0].trim();
-                    String installationIdIncompleteSt = columns[1].trim();
-                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
-                    String yearSt = columns[2].trim();
-                    String nerAllocationSt = columns[3].trim();
+                                int status = fields.parseDouble(3);
+                                if(status == FieldReader.VALID_NUMBER){
+                                    installation.setAllowancesInAllocationForPeriod(period, fields.getParsedDouble(), AllowancesInAllocationModel.NER_TYPE);
+                                }else if(status == FieldReader.INVALID_NUMBER){
+                                    rejectedCells.reject("Allowances in allocation", fields.getString(3), fields.getLineNumber());
+                                }
 
-                    Period period = DBMANAGER.getPeriodByName(yearSt);
-                    if(period == null){
-                        System.out.println("Creating period: " + yearSt);
-                        period = DBMANAGER.createPeriod(yearSt);
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
-                    }
-                    Installation installation = DBMANAGER.getInstallationById(installationIdSt);
-                    if(installation != null){
-
-                        if(!nerAllocationSt.isEmpty()){
-                            try{
-                                double tempValue = Double.parseDouble(nerAllocationSt);
-                                installation.setAllowancesInAllocationForPeriod(period, tempValue, AllowancesInAllocationModel.NER_TYPE);
-                            }catch(Exception e){
-                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-                                System.out.println("Allowances in allocation value: " + nerAllocationSt + " is not a number. It won't be stored");
+                            }else{
+                                ACCOUNTS.reportMiss(installationIdSt, "NER data");
                             }
-                        }
 
-                    }else{
-                        System.out.println("(NER data) Installation " + installationIdSt + " could not be found...");
-                        System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
-                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                            batch.rowDone(ImportWrites.ALLOWANCES_IN_ALLOCATION);
+                        }
                     }
 
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
+                    recordStepCompleted(NER_STEP, file);
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
                     }
-
-                    lineCounter++;
                 }
+                ACCOUNTS.printMissSummary(file.getName());
+                rejectedCells.print();
+            }finally {
+                fields.close();
             }
 
-            tx.success();
-            tx.close();
-            reader.close();
-
-
         }catch (Exception e){
             e.printStackTrace();
         }
     }
 
     public void importArticle10cAllocationData(File file){
+        if(isStepCompleted(ARTICLE_10C_STEP, file)){
+            return;
+        }
         System.out.println("Importing file " + file.getName());
         try{
 
-            String line;
-            int lineCounter = 1;
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            try{
+                fields.nextLine(); //skipping header
 
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
+                RejectedCellReport rejectedCells = new RejectedCellReport(file.getName());
+                BatchTransaction batch = new BatchTransaction(DBMANAGER, file.getName());
+                boolean finished = false;
+                try{
 
-            Transaction tx = DBMANAGER.beginTransaction();
+                    while(fields.nextLine()){
 
-            while((line = reader.readLine()) != null){
+                        if(!fields.isBlank()){
 
-                if(!line.trim().isEmpty()){
+                            String countryIdSt = fields.getString(0);
+                            String installationIdIncompleteSt = fields.getString(1);
+                            String installationIdSt = countryIdSt + installationIdIncompleteSt;
+                            String yearSt = fields.getString(2);
 
-                    String[] columns = line.split("\t", -1);
+                            Period period = getOrCreatePeriod(yearSt);
+                            Installation installation = ACCOUNTS.getInstallation(installationIdSt);
+                            if(installation != null){
 
-                    String countryIdSt = columns[0].trim();
-                    String installationIdIncompleteSt = columns[1].trim();
-                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
-                    String yearSt = columns[2].trim();
-                    String article10cAllocationSt = columns[3].trim();
+                                int status = fields.parseDouble(3);
+                                if(status == FieldReader.VALID_NUMBER){
+                                    installation.setAllowancesInAllocationForPeriod(period, fields.getParsedDouble(), AllowancesInAllocationModel.ARTICLE_10C_TYPE);
+                                }else if(status == FieldReader.INVALID_NUMBER){
+                                    rejectedCells.reject("Allowances in allocation", fields.getString(3), fields.getLineNumber());
+                                }
 
-                    Period period = DBMANAGER.getPeriodByName(yearSt);
-                    if(period == null){
-                        System.out.println("Creating period: " + yearSt);
-                        period = DBMANAGER.createPeriod(yearSt);
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
-                    }
-                    Installation installation = DBMANAGER.getInstallationById(installationIdSt);
-                    if(installation != null){
-
-                        if(!article10cAllocationSt.isEmpty()){
-                            try{
-                                double tempValue = Double.parseDouble(article10cAllocationSt);
-                                installation.setAllowancesInAllocationForPeriod(period, tempValue, AllowancesInAllocationModel.ARTICLE_10C_TYPE);
-                            }catch(Exception e){
-                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-                                System.out.println("Allowances in allocation value: " + article10cAllocationSt + " is not a number. It won't be stored");
+                            }else{
+                                ACCOUNTS.reportMiss(installationIdSt, "Article 10c data");
                             }
-                        }
 
-                    }else{
-                        System.out.println("(Article 10c data) Installation " + installationIdSt + " could not be found...");
-                        System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
-                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                            batch.rowDone(ImportWrites.ALLOWANCES_IN_ALLOCATION);
+                        }
                     }
 
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
+                    recordStepCompleted(ARTICLE_10C_STEP, file);
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
                     }
-
-                    lineCounter++;
                 }
+                ACCOUNTS.printMissSummary(file.getName());
+                rejectedCells.print();
+            }finally {
+                fields.close();
             }
 
-            tx.success();
-            tx.close();
-            reader.close();
-
-
         }catch (Exception e){
             e.printStackTrace();
         }
     }
 
     public void importInstallationsOffsetEntitlements(File file){
+        if(isStepCompleted(INSTALLATIONS_OFFSET_ENTITLEMENTS_STEP, file)){
+            return;
+        }
         System.out.println("Importing file " + file.getName());
         try{
 
-            String line;
-            int lineCounter = 1;
             String offsetEntitlementsPeriod = "2008to2020";
 
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            try{
+                fields.nextLine(); //skipping header
 
-            Transaction tx = DBMANAGER.beginTransaction();
+                BatchTransaction batch = new BatchTransaction(DBMANAGER, file.getName());
+                boolean finished = false;
+                try{
 
-            Period period = DBMANAGER.getPeriodByName(offsetEntitlementsPeriod);
-            if(period == null){
-                System.out.println("Creating period: " + offsetEntitlementsPeriod);
-                period = DBMANAGER.createPeriod(offsetEntitlementsPeriod);
-                tx.success();
-                tx.close();
-                tx = DBMANAGER.beginTransaction();
-            }
+                    Period period = getOrCreatePeriod(offsetEntitlementsPeriod);
 
 
-            while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                if(!line.trim().isEmpty()){
+                        if(!fields.isBlank()){
 
-                    String[] columns = line.split("\t", -1);
+                            String countryNameSt = fields.getString(0);
+                            String installationIdIncompleteSt = fields.getString(1);
 
-                    String countryNameSt = columns[0].trim();
-                    String installationIdIncompleteSt = columns[1].trim();
+                            String valueSt = fields.getString(2);
 
-                    String valueSt = columns[2].trim();
+                            Country country = RESOLVER.getCountryByName(countryNameSt);
+                            String countryIdSt = country.getId();
+                            String installationIdSt = countryIdSt + installationIdIncompleteSt;
 
-                    Country country = DBMANAGER.getCountryByName(countryNameSt);
-                    String countryIdSt = country.getId();
-                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
+                            Installation installation = ACCOUNTS.getInstallation(installationIdSt);
 
-                    Installation installation = DBMANAGER.getInstallationById(installationIdSt);
+                            if(installation != null){
 
-                    if(installation != null){
+                                installation.setOffsetEntitlementForPeriod(period, valueSt);
 
-                        installation.setOffsetEntitlementForPeriod(period, valueSt);
+                            }else{
+                                ACCOUNTS.reportMiss(installationIdSt, "Offset entitlement");
+                            }
 
-                    }else{
-                        System.out.println("(Offset entitlement) Installation " + installationIdSt + " could not be found...");
-                        System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
-                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                            batch.rowDone(ImportWrites.PERIOD_VALUE);
+                        }
                     }
 
-                    if(lineCounter % 100 == 0){
-                        System.out.println(lineCounter + " installation offset entitlements added...");
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
+                    recordStepCompleted(INSTALLATIONS_OFFSET_ENTITLEMENTS_STEP, file);
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
                     }
-
-                    lineCounter++;
                 }
+                ACCOUNTS.printMissSummary(file.getName());
+            }finally {
+                fields.close();
             }
 
-            tx.success();
-            tx.close();
-            reader.close();
-
-
         }catch (Exception e){
             e.printStackTrace();
         }
     }
 
     public void importAircraftOperatorsOffsetEntitlements(File file){
+        if(isStepCompleted(AIRCRAFT_OPERATORS_OFFSET_ENTITLEMENTS_STEP, file)){
+            return;
+        }
         System.out.println("Importing file " + file.getName());
         try{
 
-            String line;
-            int lineCounter = 1;
             String offsetEntitlementsPeriod = "2008to2020";
 
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
+            FieldReader fields = new FieldReader(new FileReader(file), '\t');
+            try{
+                fields.nextLine(); //skipping header
 
-            Transaction tx = DBMANAGER.beginTransaction();
+                BatchTransaction batch = new BatchTransaction(DBMANAGER, file.getName());
+                boolean finished = false;
+                try{
 
-            Period period = DBMANAGER.getPeriodByName(offsetEntitlementsPeriod);
-            if(period == null){
-                System.out.println("Creating period: " + offsetEntitlementsPeriod);
-                period = DBMANAGER.createPeriod(offsetEntitlementsPeriod);
-                tx.success();
-                tx.close();
-                tx = DBMANAGER.beginTransaction();
-            }
+                    Period period = getOrCreatePeriod(offsetEntitlementsPeriod);
 
-            while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                if(!line.trim().isEmpty()){
+                        if(!fields.isBlank()){
 
-                    String[] columns = line.split("\t", -1);
+                            String countryNameSt = fields.getString(0);
+                            String aircraftOperatorIncompleteIdSt = fields.getString(1);
 
-                    String countryNameSt = columns[0].trim();
-                    String aircraftOperatorIncompleteIdSt = columns[1].trim();
+                            String valueSt = fields.getString(2);
 
-                    String valueSt = columns[2].trim();
+                            Country country = RESOLVER.getCountryByName(countryNameSt);
+                            String countryIdSt = country.getId();
+                            String aircraftOperatorIdSt = countryIdSt + aircraftOperatorIncompleteIdSt;
 
-                    Country country = DBMANAGER.getCountryByName(countryNameSt);
-                    String countryIdSt = country.getId();
-                    String aircraftOperatorIdSt = countryIdSt + aircraftOperatorIncompleteIdSt;
+                            AircraftOperator aircraftOperator = ACCOUNTS.getAircraftOperator(aircraftOperatorIdSt);
+                            if(aircraftOperator != null){
 
-                    AircraftOperator aircraftOperator = DBMANAGER.getAircraftOperatorById(aircraftOperatorIdSt);
-                    if(aircraftOperator != null){
+                                aircraftOperator.setOffsetEntitlementForPeriod(period, valueSt);
 
-                        aircraftOperator.setOffsetEntitlementForPeriod(period, valueSt);
+                            }else{
+                                ACCOUNTS.reportMiss(aircraftOperatorIdSt, "Offset entitlement");
+                            }
 
-                    }else{
-                        System.out.println("(Offset entitlement) Aircraft Operator " + aircraftOperatorIdSt + " could not be found...");
-                        System.out.println("aircraftOperatorIncompleteIdSt = '" + aircraftOperatorIncompleteIdSt + "'");
-                        System.out.println("countryIdSt = '" + countryIdSt + "'");
+                            batch.rowDone(ImportWrites.PERIOD_VALUE);
+                        }
                     }
 
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
+                    recordStepCompleted(AIRCRAFT_OPERATORS_OFFSET_ENTITLEMENTS_STEP, file);
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
                     }
-
-                    lineCounter++;
                 }
+                ACCOUNTS.printMissSummary(file.getName());
+            }finally {
+                fields.close();
             }
 
-            tx.success();
-            tx.close();
-            reader.close();
-
-
         }catch (Exception e){
             e.printStackTrace();
         }
     }
 
     public void importComplianceDataFile(File file){
+        importComplianceDataFiles(Collections.singletonList(file));
+    }
 
-        System.out.println("Importing file " + file.getName());
-
-        try{
-
-            String line;
-            int lineCounter = 1;
-
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
-
-            Transaction tx = DBMANAGER.beginTransaction();
-
-            while((line = reader.readLine()) != null){
-
-                if(!line.trim().isEmpty()){
-
-                    String[] columns = line.split("\t", -1);
-
-                    String countryIdSt = columns[0].trim();
-                    String installationIdIncompleteSt = columns[1].trim();
-                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
-                    String yearSt = columns[2].trim();
-                    String allowancesSt = columns[3].trim();
-                    String verifiedEmissionsSt = columns[4].trim();
-                    String unitsSurrenderedSt = columns[5].trim();
-                    String complianceCode = columns[6].trim();
-
-                    Period period = DBMANAGER.getPeriodByName(yearSt);
-                    if(period == null){
-                        System.out.println("Creating period: " + yearSt);
-                        period = DBMANAGER.createPeriod(yearSt);
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
+    private void importComplianceDataFiles(List<File> files){
+        newPipeline().run("Compliance data", files, Charset.defaultCharset(),
+                new ImportPipeline.RowParser<ComplianceRow>() {
+                    @Override
+                    public ComplianceRow parse(FieldReader fields) {
+                        return ComplianceRow.parse(fields);
                     }
-                    Installation installation = DBMANAGER.getInstallationById(installationIdSt);
-                    if(installation != null){
-
-                        //+++++++++++++++++++++ SURRENDERED UNITS++++++++++++++++++++++++++++++++
-                        if(!unitsSurrenderedSt.isEmpty()){
-                            try{
-                                double tempValue = Double.parseDouble(unitsSurrenderedSt);
-                                installation.setSurrenderedUnitsForPeriod(period, tempValue);
-                            }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Units surrendered value: " + unitsSurrenderedSt + " is not a number. It won't be stored");
-                            }
-                        }
-
-                        //+++++++++++++++++++++ VERIFIED EMISSIONS++++++++++++++++++++++++++++++++
-                        if(!verifiedEmissionsSt.isEmpty()){
-                            try{
-                                double tempValue = Double.parseDouble(verifiedEmissionsSt);
-                                installation.setVerifiedEmissionsForPeriod(period, tempValue);
-                            }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Verified emissions value: " + verifiedEmissionsSt + " is not a number. It won't be stored");
-                            }
-                        }
-                        //++++++++++++++++++++++ COMPLIANCE ++++++++++++++++++++++++++++++++++++
-                        if(!complianceCode.isEmpty()){
-                            installation.setComplianceForPeriod(period, complianceCode);
-                        }
-                        //++++++++++++++++++++ ALLOWANCES IN ALLOCATION ++++++++++++++++++++++++++
-                        if(!allowancesSt.isEmpty()){
-                            try{
-                                double tempValue = Double.parseDouble(allowancesSt);
-                                installation.setAllowancesInAllocationForPeriod(period, tempValue, AllowancesInAllocationModel.STANDARD_TYPE);
-                            }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Allowances in allocation value: " + allowancesSt + " is not a number. It won't be stored");
-                            }
-                        }
+                },
+                new RowWriter<ComplianceRow>() {
 
+                    private RejectedCellReport rejectedCells;
 
+                    @Override
+                    public void startFile(File file) {
+                        super.startFile(file);
+                        rejectedCells = new RejectedCellReport(file.getName());
+                    }
 
-                    }else{
+                    @Override
+                    public int write(ComplianceRow row) {
+                        row.reportRejectedCells(rejectedCells);
+                        return writeComplianceData(row, currentFile.getName());
+                    }
 
-                        AircraftOperator aircraftOperator = DBMANAGER.getAircraftOperatorById(installationIdSt);
+                    @Override
+                    public void endFile(File file) {
+                        super.endFile(file);
+                        rejectedCells.print();
+                    }
+                });
+    }
 
-                        if(aircraftOperator != null){
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    int writeComplianceData(ComplianceRow row, String fileName){
 
-                            //+++++++++++++++++++++ SURRENDERED UNITS++++++++++++++++++++++++++++++++
-                            if(!unitsSurrenderedSt.isEmpty()){
-                                try{
-                                    double tempValue = Double.parseDouble(unitsSurrenderedSt);
-                                    aircraftOperator.setSurrenderedUnitsForPeriod(period, tempValue);
-                                }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Units surrendered value: " + unitsSurrenderedSt + " is not a number. It won't be stored");
-                                }
-                            }
+        String installationIdSt = row.getCompleteId();
 
-                            //+++++++++++++++++++++ VERIFIED EMISSIONS++++++++++++++++++++++++++++++++
-                            if(!verifiedEmissionsSt.isEmpty()){
-                                try{
-                                    double tempValue = Double.parseDouble(verifiedEmissionsSt);
-                                    aircraftOperator.setVerifiedEmissionsForPeriod(period, tempValue);
-                                }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Verified emissions value: " + verifiedEmissionsSt + " is not a number. It won't be stored");
-                                }
-                            }
-                            //++++++++++++++++++++++ COMPLIANCE ++++++++++++++++++++++++++++++++++++
-                            if(!complianceCode.isEmpty()){
-                                aircraftOperator.setComplianceForPeriod(period, complianceCode);
-                            }
-                            //++++++++++++++++++++ ALLOWANCES IN ALLOCATION ++++++++++++++++++++++++++
-                            if(!allowancesSt.isEmpty()){
-                                try{
-                                    double tempValue = Double.parseDouble(allowancesSt);
-                                    aircraftOperator.setAllowancesInAllocationForPeriod(period, tempValue, AllowancesInAllocationModel.STANDARD_TYPE);
-                                }catch(Exception e){
-//                                System.out.println("Problem with installation: " + installationIdSt + " [" + countryIdSt + "]");
-//                                System.out.println("Allowances in allocation value: " + allowancesSt + " is not a number. It won't be stored");
-                                }
-                            }
+        Period period = getOrCreatePeriod(row.year);
 
-                        }else{
-                            System.out.println("Installation/aircraft op. " + installationIdSt + " could not be found...");
-                            System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
-                            System.out.println("countryIdSt = '" + countryIdSt + "'");
-                        }
+        Installation installation = ACCOUNTS.getInstallation(installationIdSt);
+        if(installation != null){
 
-                    }
+            if(row.unitsSurrendered != null){
+                installation.setSurrenderedUnitsForPeriod(period, row.unitsSurrendered);
+            }
+            if(row.verifiedEmissions != null){
+                installation.setVerifiedEmissionsForPeriod(period, row.verifiedEmissions);
+            }
+            if(!row.complianceCode.isEmpty()){
+                installation.setComplianceForPeriod(period, row.complianceCode);
+            }
+            if(row.allowancesInAllocation != null){
+                installation.setAllowancesInAllocationForPeriod(period, row.allowancesInAllocation, AllowancesInAllocationModel.STANDARD_TYPE);
+            }
 
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
-                    }
+        }else{
 
+            AircraftOperator aircraftOperator = ACCOUNTS.getAircraftOperator(installationIdSt);
+            if(aircraftOperator != null){
 
-                    lineCounter++;
+                if(row.unitsSurrendered != null){
+                    aircraftOperator.setSurrenderedUnitsForPeriod(period, row.unitsSurrendered);
+                }
+                if(row.verifiedEmissions != null){
+                    aircraftOperator.setVerifiedEmissionsForPeriod(period, row.verifiedEmissions);
+                }
+                if(!row.complianceCode.isEmpty()){
+                    aircraftOperator.setComplianceForPeriod(period, row.complianceCode);
+                }
+                if(row.allowancesInAllocation != null){
+                    aircraftOperator.setAllowancesInAllocationForPeriod(period, row.allowancesInAllocation, AllowancesInAllocationModel.STANDARD_TYPE);
                 }
 
-
+            }else{
+                ACCOUNTS.reportMiss(installationIdSt, fileName);
+                return 0;
             }
+        }
 
-            tx.success();
-            tx.close();
-
-
-            reader.close();
-
+        return getComplianceDataWrites(row);
+    }
 
-        }catch (Exception e){
-            e.printStackTrace();
+    /**
+     * @return number of writes made by writeComplianceData for the values present in the row
+     */
+    static int getComplianceDataWrites(ComplianceRow row){
+        int writes = 0;
+        if(row.unitsSurrendered != null){
+            writes += ImportWrites.PERIOD_VALUE;
+        }
+        if(row.verifiedEmissions != null){
+            writes += ImportWrites.PERIOD_VALUE;
+        }
+        if(!row.complianceCode.isEmpty()){
+            writes += ImportWrites.PERIOD_VALUE;
         }
+        if(row.allowancesInAllocation != null){
+            writes += ImportWrites.ALLOWANCES_IN_ALLOCATION;
+        }
+        return writes;
     }
 
     public void importInstallationsFile(File file){
+        importInstallationsFiles(Collections.singletonList(file));
+    }
 
-        System.out.println("Importing file " + file.getName());
-
-        String line;
-        try{
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-            reader.readLine(); //skipping header
-
-            int lineCounter = 0;
-
-            Transaction tx = DBMANAGER.beginTransaction();
-
-            while((line = reader.readLine()) != null){
-
-                String[] columns = line.split("\t", -1);
-                //System.out.println("columns.length = " + columns.length);
-                if(columns.length > 0){
-                    String countryNameSt = columns[0].trim();
-                    String accountTypeSt = columns[1].trim();
-                    String accountHolderNameSt = columns[2].trim();
-                    String companyRegistrationNumberSt = columns[3].trim();
-                    String companyStatusSt = columns[4].trim();
-                    String companyTypeSt = columns[5].trim();
-                    String companyNameSt = columns[6].trim();
-                    String companyMainAddressSt = columns[7].trim();
-                    String companySecondaryAddressSt = columns[8].trim();
-                    String companyPostalCodeSt = columns[9].trim();
-                    String companyCitySt = columns[10].trim();
-                    String installationIdSt = columns[11].trim();
-                    String installationNameSt = columns[12].trim();
-                    String permitIDSt = columns[13].trim();
-                    String permitEntryDateSt = columns[14].trim();
-                    String permitExpiryRevocationDateSt = columns[15].trim();
-                    String subsidiaryCompanySt = columns[16].trim();
-                    String parentCompanySt = columns[17].trim();
-                    String eprtrIdSt = columns[18].trim();
-                    String installationMainAddressSt = columns[19].trim();
-                    String installationSecondaryAddressSt = columns[20].trim();
-                    String installationPostalCodeSt = columns[21].trim();
-                    String installationCitySt = columns[22].trim();
-                    String countryIdSt = columns[23].trim();
-                    String latituteSt = columns[24].trim();
-                    String longitudeSt = columns[25].trim();
-                    String mainActivitySt = columns[26].trim();
-
-                    //System.out.println("installationNameSt = " + installationNameSt);
-
-                    Country country = DBMANAGER.getCountryByName(countryNameSt);
-                    if(country == null){
-                        System.out.println("Creating country: [" + countryIdSt + "," + countryNameSt + "]" );
-                        country = DBMANAGER.createCountry(countryNameSt, countryIdSt);
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
-                    }
-                    Company company = DBMANAGER.getCompanyByName(companyNameSt);
-                    if(company == null){
-                        if(!companyNameSt.isEmpty()){
-                            company = DBMANAGER.createCompany(companyNameSt,companyRegistrationNumberSt,companyPostalCodeSt,
-                                    companyCitySt, companyMainAddressSt + "\n" + companySecondaryAddressSt, companyStatusSt,
-                                    subsidiaryCompanySt, parentCompanySt);
-                            tx.success();
-                            tx.close();
-                            tx = DBMANAGER.beginTransaction();
-                        }
-                    }
-
-
-                    String[] sectorSplit = mainActivitySt.split("-");
-
-                    String sectorId = sectorSplit[0];
-                    String sectorName = mainActivitySt.split("-")[1];
-                    if(sectorSplit.length > 2){
-                        sectorName = "";
-                        for(int i=1;i<sectorSplit.length - 1;i++){
-                            sectorName += sectorSplit[i] + "-";
-                        }
-                        sectorName +=  sectorSplit[sectorSplit.length - 1];
+    private void importInstallationsFiles(List<File> files){
+        newPipeline().run("Installations", files, Charset.forName("UTF-8"),
+                new ImportPipeline.RowParser<InstallationRow>() {
+                    @Override
+                    public InstallationRow parse(FieldReader fields) {
+                        return InstallationRow.parse(fields);
                     }
-
-
-                    Sector sector = DBMANAGER.getSectorById(sectorId);
-                    if(sector == null){
-                        if(!sectorId.isEmpty()){
-                            System.out.println("Creating sector: " + sectorName);
-                            sector = DBMANAGER.createSector(sectorId, sectorName);
-                            tx.success();
-                            tx.close();
-                            tx = DBMANAGER.beginTransaction();
-                        }
+                },
+                new RowWriter<InstallationRow>() {
+                    @Override
+                    public int write(InstallationRow row) {
+                        return writeInstallation(row);
                     }
+                });
+    }
 
-//                    System.out.println("installationIdSt = " + installationIdSt);
-                    String installationCompleteIDSt = countryIdSt + installationIdSt;
-//                    System.out.println("installationCompleteIDSt = " + installationCompleteIDSt);
-
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    int writeInstallation(InstallationRow row){
 
-                    Installation installation = DBMANAGER.createInstallation(installationCompleteIDSt,installationNameSt,
-                            installationCitySt, installationPostalCodeSt, installationMainAddressSt + " " + installationSecondaryAddressSt,
-                            eprtrIdSt, permitIDSt, permitEntryDateSt, permitExpiryRevocationDateSt, latituteSt, longitudeSt,
-                            country, company, sector);
+        Country country = getOrCreateCountry(row.countryName, row.countryId);
+        Company company = getOrCreateCompany(row.companyName, row.companyRegistrationNumber, row.companyPostalCode,
+                row.companyCity, row.companyAddress, row.companyStatus, row.subsidiaryCompany, row.parentCompany);
+        Sector sector = getOrCreateSector(row.sectorId, row.sectorName);
 
+        String installationCompleteIDSt = row.getCompleteId();
 
-                }
+        Installation installation = DBMANAGER.createInstallation(installationCompleteIDSt, row.installationName,
+                row.installationCity, row.installationPostalCode, row.installationAddress,
+                row.eprtrId, row.permitId, row.permitEntryDate, row.permitExpiryOrRevocationDate, row.latitude, row.longitude,
+                country, company, sector);
+        ACCOUNTS.registerInstallation(installation, installationCompleteIDSt);
 
-                lineCounter++;
+        return ImportWrites.INSTALLATION;
+    }
 
-                if(lineCounter % 1000 == 0){
-                    tx.success();
-                    tx.close();
-                    tx = DBMANAGER.beginTransaction();
-                    System.out.println(lineCounter + " lines imported...");
-                }
+    Country getOrCreateCountry(String name, String id){
+        Country country = RESOLVER.getCountryByName(name);
+        if(country == null){
+            System.out.println("Creating country: [" + id + "," + name + "]" );
+            country = RESOLVER.createCountry(name, id);
+        }
+        return country;
+    }
 
+    /**
+     * @return the company with the name provided, created if needed (null if the name is empty)
+     */
+    Company getOrCreateCompany(String name, String registrationNumber, String postalCode, String city,
+                               String address, String status, String subsidiaryCompany, String parentCompany){
+        Company company = RESOLVER.getCompanyByName(name);
+        if(company == null){
+            if(!name.isEmpty()){
+                company = RESOLVER.createCompany(name, registrationNumber, postalCode, city, address, status,
+                        subsidiaryCompany, parentCompany);
             }
+        }
+        return company;
+    }
 
-            tx.success();
-            tx.close();
-
-            reader.close();
-
+    /**
+     * @return the sector with the id provided, created if needed (null if the id is empty)
+     */
+    Sector getOrCreateSector(String id, String name){
+        Sector sector = RESOLVER.getSectorById(id);
+        if(sector == null){
+            if(!id.isEmpty()){
+                System.out.println("Creating sector: " + name);
+                sector = RESOLVER.createSector(id, name);
+            }
+        }
+        return sector;
+    }
 
-        }catch (Exception e){
-            e.printStackTrace();
+    Period getOrCreatePeriod(String name){
+        Period period = RESOLVER.getPeriodByName(name);
+        if(period == null){
+            System.out.println("Creating period: " + name);
+            period = RESOLVER.createPeriod(name);
         }
+        return period;
     }
 
     public void importOffsetsFile(File file){
-        System.out.println("Importing file " + file.getName());
-
-        try{
-
-            String line;
-            int lineCounter = 1;
-
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            reader.readLine(); //skipping header
-
-            Transaction tx = DBMANAGER.beginTransaction();
-
-            while((line = reader.readLine()) != null){
-
-                if(!line.trim().isEmpty()){
-
-                    String[] columns = line.split("\t", -1);
+        importOffsetsFiles(Collections.singletonList(file));
+    }
 
-                    if(columns.length < 12){
-                        System.out.println("columns.length = " + columns.length);
-                        System.out.println("line = " + line);
+    private void importOffsetsFiles(List<File> files){
+        newPipeline().run("Offsets", files, Charset.defaultCharset(),
+                new ImportPipeline.RowParser<OffsetRow>() {
+                    @Override
+                    public OffsetRow parse(FieldReader fields) {
+                        return OffsetRow.parse(fields);
                     }
-
-                    String countryIdSt = columns[0].trim();
-                    String installationIdIncompleteSt = columns[1].trim();
-                    String installationIdSt = countryIdSt + installationIdIncompleteSt;
-                    String originatingRegistrySt = columns[2].trim();
-                    String unitTypeSt = columns[3].trim();
-                    String amountSt = columns[4].trim();
-                    String originalCommitmentPeriod = columns[5].trim();
-                    String applicableCommitmentPeriod = columns[6].trim();
-                    String yearOfComplianceSt = columns[7].trim();
-                    String lulucfActivitySt = columns[8].trim();
-                    String projectIdSt = columns[9].trim();
-                    String trackSt = columns[10].trim();
-                    String expiryDateSt = columns[11].trim();
-
-                    if(!yearOfComplianceSt.isEmpty() && !originatingRegistrySt.isEmpty() &&
-                            !installationIdIncompleteSt.isEmpty()){
-
-                        Period period = DBMANAGER.getPeriodByName(yearOfComplianceSt);
-                        if(period == null){
-                            System.out.println("Creating period: " + yearOfComplianceSt);
-                            period = DBMANAGER.createPeriod(yearOfComplianceSt);
-                            tx.success();
-                            tx.close();
-                            tx = DBMANAGER.beginTransaction();
-                        }
-                        Country originatingCountry = DBMANAGER.getCountryByName(originatingRegistrySt);
-                        if(originatingCountry == null){
-                            System.out.println("Creating country: " + originatingRegistrySt);
-                            originatingCountry = DBMANAGER.createCountry(originatingRegistrySt,"");
-                            tx.success();
-                            tx.close();
-                            tx = DBMANAGER.beginTransaction();
-                        }
-                        Project project = null;
-                        if(!projectIdSt.isEmpty()){
-                            project = DBMANAGER.getProjectById(projectIdSt);
-
-                            if(project == null){
-                                //System.out.println("Creating project: " + projectIdSt);
-                                project = DBMANAGER.createProject(projectIdSt);
-                                tx.success();
-                                tx.close();
-                                tx = DBMANAGER.beginTransaction();
-                            }
-                        }
-
-                        Installation installation = DBMANAGER.getInstallationById(installationIdSt);
-                        if(installation != null){
-
-                            Offset offset = DBMANAGER.createOffset(
-                                    amountSt,
-                                    unitTypeSt,
-                                    installation,
-                                    project,
-                                    period,
-                                    originatingCountry);
-
-                            //System.out.println("offset.getUnitType() = " + offset.getUnitType());
-
-
-
-
-                        }else{
-
-                            AircraftOperator aircraftOperator = DBMANAGER.getAircraftOperatorById(installationIdSt);
-
-                            if(aircraftOperator != null){
-
-                                Offset offset = DBMANAGER.createOffset(
-                                        amountSt,
-                                        unitTypeSt,
-                                        aircraftOperator,
-                                        project,
-                                        period,
-                                        originatingCountry);
-
-                            }else{
-                                System.out.println("Installation/aircraft op. " + installationIdSt + " could not be found...");
-                                System.out.println("installationIdIncompleteSt = '" + installationIdIncompleteSt + "'");
-                                System.out.println("countryIdSt = '" + countryIdSt + "'");
-                            }
-
-                        }
+                },
+                new RowWriter<OffsetRow>() {
+                    @Override
+                    public int write(OffsetRow row) {
+                        return writeOffset(row, currentFile.getName());
                     }
+                });
+    }
 
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = DBMANAGER.beginTransaction();
-                    }
+    /**
+     * @return number of writes (see ImportWrites)
+     */
+    private int writeOffset(OffsetRow row, String fileName){
 
+        String installationIdSt = row.getCompleteId();
 
-                    lineCounter++;
-                }
+        Period period = getOrCreatePeriod(row.yearOfCompliance);
 
+        Country originatingCountry = RESOLVER.getCountryByName(row.originatingRegistry);
+        if(originatingCountry == null){
+            System.out.println("Creating country: " + row.originatingRegistry);
+            originatingCountry = RESOLVER.createCountry(row.originatingRegistry, "");
+        }
 
+        Project project = null;
+        if(!row.projectId.isEmpty()){
+            project = RESOLVER.getProjectById(row.projectId);
+            if(project == null){
+                project = RESOLVER.createProject(row.projectId);
             }
+        }
 
-            tx.success();
-            tx.close();
+        Installation installation = ACCOUNTS.getInstallation(installationIdSt);
+        if(installation != null){
+            DBMANAGER.createOffset(row.amount, row.unitType, installation, project, period, originatingCountry);
+        }else{
+            AircraftOperator aircraftOperator = ACCOUNTS.getAircraftOperator(installationIdSt);
+            if(aircraftOperator != null){
+                DBMANAGER.createOffset(row.amount, row.unitType, aircraftOperator, project, period, originatingCountry);
+            }else{
+                ACCOUNTS.reportMiss(installationIdSt, fileName);
+                return 0;
+            }
+        }
 
+        return ImportWrites.OFFSET;
+    }
 
-            reader.close();
+    /**
+     * Writer keeping track of the file being imported and reporting the accounts missing at the end of every file
+     */
+    private abstract static class RowWriter<R> implements ImportPipeline.RowWriter<R> {
 
+        protected File currentFile;
 
-        }catch (Exception e){
-            e.printStackTrace();
+        @Override
+        public void startFile(File file) {
+            currentFile = file;
+        }
+
+        @Override
+        public void endFile(File file) {
+            ACCOUNTS.printMissSummary(file.getName());
         }
     }
 
@@ -959,4 +804,9 @@ public class ImportEUTLData implements Executable{
         System.out.println(args.toArray(new String[0]));
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
\ No newline at end of file
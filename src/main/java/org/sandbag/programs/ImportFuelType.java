@@ -1,13 +1,16 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.AccountResolver;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.FuelType;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -15,9 +18,18 @@ import java.util.List;
 /**
  * Created by root on 18/05/16.
  */
-public class ImportFuelType implements Executable{
+public class ImportFuelType implements ContextExecutable {
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
                     "1. Database folder" +
@@ -29,88 +41,78 @@ public class ImportFuelType implements Executable{
 
             try{
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(fueltTypeFile)));
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
-
-                String line;
-
-                int lineCounter = 0;
+                FieldReader fields = new FieldReader(new FileReader(new File(fueltTypeFile)), '\t');
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                AccountResolver accountResolver = new AccountResolver(databaseManager);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "Fuel types");
+                boolean finished = false;
+                try{
 
-                System.out.println("Reading file...");
+                    System.out.println("Reading file...");
 
-                reader.readLine(); //skipping the header of the file
+                    fields.nextLine(); //skipping the header of the file
 
-                while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                    String[] columns = line.split("\t");
+                        String installationIdSt = fields.getString(0).replace(" ","");
+                        String fuelTypeSt = fields.getString(1);
+                        String noteSt = fields.getString(2);
+                        String sourceSt = fields.getString(3);
 
-                    String installationIdSt = columns[0].trim().replace(" ","");
-                    String fuelTypeSt = columns[1].trim();
-                    String noteSt = columns[2].trim();
-                    String sourceSt = columns[3].trim();
+                        Installation installation = accountResolver.getInstallation(installationIdSt);
+                        AircraftOperator aircraftOperator = accountResolver.getAircraftOperator(installationIdSt);
 
-                    Installation installation = databaseManager.getInstallationById(installationIdSt);
+                        String[] fuelTypeList = fuelTypeSt.split(",");
 
-                    String[] fuelTypeList = fuelTypeSt.split(",");
+                        for (String currentFuelType : fuelTypeList){
 
-                    for (String currentFuelType : fuelTypeList){
+                            String currentFuelTypeSt = currentFuelType.trim().toLowerCase();
 
-                        String currentFuelTypeSt = currentFuelType.trim().toLowerCase();
+                            if(!currentFuelTypeSt.isEmpty() && currentFuelTypeSt.indexOf("?") < 0){
 
-                        if(!currentFuelTypeSt.isEmpty() && currentFuelTypeSt.indexOf("?") < 0){
+                                FuelType fuelType = databaseManager.getFuelType(currentFuelTypeSt);
 
-                            FuelType fuelType = databaseManager.getFuelType(currentFuelTypeSt);
-
-                            if(fuelType == null){
-                                fuelType = databaseManager.createFuelType(currentFuelTypeSt);
-                                tx.success();
-                                tx.close();
-                                tx = databaseManager.beginTransaction();
-                            }
+                                if(fuelType == null){
+                                    fuelType = databaseManager.createFuelType(currentFuelTypeSt);
+                                }
 
-                            if(installation != null){
+                                if(installation != null){
 
-                                installation.setFuelType(fuelType, noteSt, sourceSt);
+                                    installation.setFuelType(fuelType, noteSt, sourceSt);
 
-                            }else{
-                                AircraftOperator aircraftOperator = databaseManager.getAircraftOperatorById(installationIdSt);
-                                if(aircraftOperator != null){
+                                }else{
+                                    if(aircraftOperator != null){
 
-                                    aircraftOperator.setFuelType(fuelType, noteSt, sourceSt);
+                                        aircraftOperator.setFuelType(fuelType, noteSt, sourceSt);
 
-                                }else{
-                                    System.out.println("No installation or aircraft operator could be found for the id: "
-                                            + installationIdSt);
+                                    }else{
+                                        accountResolver.reportMiss(installationIdSt, "Fuel type");
+                                    }
                                 }
                             }
-                        }
 
-                    }
+                        }
 
-                    lineCounter++;
+                        batch.rowDone(3);
 
-                    if(lineCounter % 100 == 0){
-                        System.out.println(lineCounter + " lines already processed...");
-                        tx.success();
-                        tx.close();
-                        tx = databaseManager.beginTransaction();
                     }
 
-
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
                 }
 
-                tx.success();
-                tx.close();
+                accountResolver.printMissSummary("Fuel type");
 
-                reader.close();
-
-                databaseManager.shutdown();
+                fields.close();
 
                 System.out.println("Done! :)");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportFuelType.class.getSimpleName() + " failed", e);
             }
 
         }
@@ -120,4 +122,9 @@ public class ImportFuelType implements Executable{
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
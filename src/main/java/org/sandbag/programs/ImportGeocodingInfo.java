@@ -1,12 +1,15 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.AccountResolver;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -14,13 +17,27 @@ import java.util.List;
 /**
  * Created by root on 22/06/16.
  */
-public class ImportGeocodingInfo implements Executable{
+public class ImportGeocodingInfo implements ContextExecutable {
     @Override
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters\n" +
                     "1. Database folder\n" +
@@ -40,77 +57,75 @@ public class ImportGeocodingInfo implements Executable{
 
                 }else{
 
-                    DatabaseManager manager = new DatabaseManager(dbFolderSt);
-                    Transaction tx = manager.beginTransaction();
-
+                    DatabaseManager manager = context.getDatabaseManager(dbFolderSt);
+                    AccountResolver accountResolver = new AccountResolver(manager);
                     int installationsUpdatedCounter = 0;
+                    BatchTransaction batch = new BatchTransaction(manager, "Geocoding info");
+                    boolean finished = false;
+                    try{
 
-                    System.out.println("Looping through files...");
-
-                    File[] files = inputFolder.listFiles();
+                        System.out.println("Looping through files...");
 
-                    for(File file : files){
+                        File[] files = inputFolder.listFiles();
 
-                        if(file.getName().endsWith(".tsv")){
-                            System.out.println("Importing file: " + file.getName());
+                        for(File file : files){
 
-                            BufferedReader reader = new BufferedReader(new FileReader(file));
-                            String line;
-                            reader.readLine();//header
+                            if(file.getName().endsWith(".tsv")){
+                                System.out.println("Importing file: " + file.getName());
 
-                            while((line = reader.readLine()) != null){
+                                FieldReader fields = new FieldReader(new FileReader(file), '\t');
+                                fields.nextLine();//header
 
-                                String[] columns = line.split("\t");
+                                while(fields.nextLine()){
 
-                                if(columns.length == 3){
+                                    if(fields.getFieldCount() == 3){
 
-                                    String installationIdSt = columns[0];
-                                    String latitudeSt = columns[1];
-                                    String longitudeSt = columns[2];
+                                        String installationIdSt = fields.getString(0);
+                                        String latitudeSt = fields.getString(1);
+                                        String longitudeSt = fields.getString(2);
 
-                                    Installation installation = manager.getInstallationById(installationIdSt);
-                                    if(installation != null){
+                                        Installation installation = accountResolver.getInstallation(installationIdSt);
+                                        if(installation != null){
 
-                                        installation.setLatitude(latitudeSt);
-                                        installation.setLongitude(longitudeSt);
+                                            installation.setLatitude(latitudeSt);
+                                            installation.setLongitude(longitudeSt);
 
-                                        installationsUpdatedCounter++;
+                                            installationsUpdatedCounter++;
 
-                                    }else{
+                                        }else{
 
-                                        AircraftOperator aircraftOperator = manager.getAircraftOperatorById(installationIdSt);
+                                            AircraftOperator aircraftOperator = accountResolver.getAircraftOperator(installationIdSt);
 
-                                        if(aircraftOperator != null){
+                                            if(aircraftOperator != null){
 
-                                            installationsUpdatedCounter++;
+                                                installationsUpdatedCounter++;
 
-                                            aircraftOperator.setLatitude(latitudeSt);
-                                            aircraftOperator.setLongitude(longitudeSt);
+                                                aircraftOperator.setLatitude(latitudeSt);
+                                                aircraftOperator.setLongitude(longitudeSt);
 
-                                        }else{
-                                            System.out.println("The installation/aircraft operator with id: " + installationIdSt +
-                                                    " could not be found in the database...");
+                                            }else{
+                                                accountResolver.reportMiss(installationIdSt, file.getName());
+                                            }
                                         }
                                     }
-                                }
 
+                                    batch.rowDone(2);
 
-                                if(installationsUpdatedCounter % 100 == 0){
-                                    System.out.println(installationsUpdatedCounter + " installations + aircraft operators updated");
-                                    tx.success();
-                                    tx.close();
-                                    tx = manager.beginTransaction();
                                 }
 
+                                fields.close();
+                                accountResolver.printMissSummary(file.getName());
                             }
+                        }
 
-                            reader.close();
+                        batch.finish();
+                        finished = true;
+                    }finally {
+                        if(!finished){
+                            batch.abort();
                         }
                     }
-
-                    tx.success();
-                    tx.close();
-                    manager.shutdown();
+                    System.out.println(installationsUpdatedCounter + " installations + aircraft operators updated");
 
                     System.out.println("Done!");
 
@@ -119,7 +134,7 @@ public class ImportGeocodingInfo implements Executable{
 
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportGeocodingInfo.class.getSimpleName() + " failed", e);
             }
         }
     }
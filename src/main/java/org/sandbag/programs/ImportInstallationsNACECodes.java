@@ -1,13 +1,16 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.AccountResolver;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.AircraftOperator;
 import org.sandbag.model.nodes.Installation;
 import org.sandbag.model.nodes.NACECode;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -15,7 +18,7 @@ import java.util.List;
 /**
  * Created by root on 27/04/16.
  */
-public class ImportInstallationsNACECodes implements Executable{
+public class ImportInstallationsNACECodes implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
@@ -23,7 +26,21 @@ public class ImportInstallationsNACECodes implements Executable{
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
@@ -34,29 +51,27 @@ public class ImportInstallationsNACECodes implements Executable{
             String dbFolder = args[0];
             String fileSt = args[1];
 
-            DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-            Transaction tx = databaseManager.beginTransaction();
+            DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+            AccountResolver accountResolver = new AccountResolver(databaseManager);
+            BatchTransaction batch = new BatchTransaction(databaseManager, "NACE codes");
+            boolean finished = false;
 
             try {
 
                 System.out.println("Reading file...");
 
-                int lineCounter = 0;
-
-                BufferedReader reader = new BufferedReader(new FileReader(new File(fileSt)));
-                String line;
-                reader.readLine();//skipping the header
+                FieldReader fields = new FieldReader(new FileReader(new File(fileSt)), '\t');
+                fields.nextLine();//skipping the header
 
-                while((line = reader.readLine()) != null){
+                while(fields.nextLine()){
 
-                    String[] columns = line.split("\t");
-                    String countryIdSt = columns[0].trim();
-                    String installationIdSt = columns[3].trim();
-                    String naceCodeSt = columns[4].trim();
+                    String countryIdSt = fields.getString(0);
+                    String installationIdSt = fields.getString(3);
+                    String naceCodeSt = fields.getString(4);
 
                     String installationCompleteID = countryIdSt + installationIdSt;
 
-                    Installation installation = databaseManager.getInstallationById(installationCompleteID);
+                    Installation installation = accountResolver.getInstallation(installationCompleteID);
 
                     if(installation != null){
 
@@ -65,9 +80,6 @@ public class ImportInstallationsNACECodes implements Executable{
                         if(naceCode == null){
                             System.out.println("Creating NACE code with id: " + naceCodeSt);
                             naceCode = databaseManager.createNACECode(naceCodeSt, "");
-                            tx.success();
-                            tx.close();
-                            tx = databaseManager.beginTransaction();
                         }
 
 
@@ -81,16 +93,13 @@ public class ImportInstallationsNACECodes implements Executable{
 
                     }else{
 
-                        AircraftOperator aircraftOperator = databaseManager.getAircraftOperatorById(installationCompleteID);
+                        AircraftOperator aircraftOperator = accountResolver.getAircraftOperator(installationCompleteID);
                         if(aircraftOperator != null){
 
                             NACECode naceCode = databaseManager.getNACECodeById(naceCodeSt);
                             if(naceCode == null){
                                 System.out.println("Creating NACE code with id: " + naceCodeSt);
                                 naceCode = databaseManager.createNACECode(naceCodeSt, "");
-                                tx.success();
-                                tx.close();
-                                tx = databaseManager.beginTransaction();
                             }
 
                             if(aircraftOperator.getNACECode() == null){
@@ -100,33 +109,30 @@ public class ImportInstallationsNACECodes implements Executable{
                             }
 
                         }else{
-                            System.out.println("The installation with id: " + installationCompleteID + " could not be found... :(");
+                            accountResolver.reportMiss(installationCompleteID, "NACE codes");
                         }
 
                     }
 
-                    lineCounter++;
-
-                    if(lineCounter % 100 == 0){
-                        tx.success();
-                        tx.close();
-                        tx = databaseManager.beginTransaction();
-                        System.out.println(lineCounter + " installations updated...");
-                    }
+                    batch.rowDone(2);
 
                 }
 
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                batch.finish();
+                finished = true;
+                accountResolver.printMissSummary("NACE codes");
 
-                reader.close();
+                fields.close();
 
 
                 System.out.println("Finished!");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportInstallationsNACECodes.class.getSimpleName() + " failed", e);
+            }finally {
+                if(!finished){
+                    batch.abort();
+                }
             }
 
         }
@@ -1,12 +1,14 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -14,14 +16,28 @@ import java.util.List;
 /**
  * Created by root on 23/05/16.
  */
-public class ImportLegalCap implements Executable {
+public class ImportLegalCap implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
         if(args.length != 2){
             System.out.println("This program expects the following parameters\n" +
                     "1. Database folder\n" +
@@ -33,59 +49,59 @@ public class ImportLegalCap implements Executable {
 
             try{
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "Legal cap");
+                boolean finished = false;
+                try{
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(legalCapFileSt)));
+                    FieldReader fields = new FieldReader(new FileReader(new File(legalCapFileSt)), '\t');
 
-                String line;
+                    fields.nextLine(); //skig header
 
-                reader.readLine(); //skig header
+                    Country euCountry = databaseManager.getCountryById("EU");
+                    if(euCountry == null){
+                        System.out.println("Creating country for the European Union...");
+                        euCountry = databaseManager.createCountry("European Union", "EU");
+                    }else{
+                        System.out.println("EU country found");
+                    }
 
-                Country euCountry = databaseManager.getCountryById("EU");
-                if(euCountry == null){
-                    System.out.println("Creating country for the European Union...");
-                    euCountry = databaseManager.createCountry("European Union", "EU");
-                    tx.success();
-                    tx.close();
-                    tx = databaseManager.beginTransaction();
-                }else{
-                    System.out.println("EU country found");
-                }
+                    System.out.println("Reading file...");
 
-                System.out.println("Reading file...");
+                    while(fields.nextLine()){
 
-                while((line = reader.readLine()) != null){
+                        String dataSourceSt = fields.getString(0);
+                        String periodSt = fields.getString(1);
 
-                    String[] columns = line.split("\t");
+                        Period period = databaseManager.getPeriodByName(periodSt);
 
-                    String dataSourceSt = columns[0].trim();
-                    String periodSt = columns[1].trim();
-                    String amountSt = columns[2].trim();
+                        if(period != null){
 
-                    Period period = databaseManager.getPeriodByName(periodSt);
+                            euCountry.setLegalCap(period, fields.getDouble(2), dataSourceSt);
 
-                    if(period != null){
+                        }else{
+                            System.out.println("The period " + periodSt + " could not be found... :(");
+                        }
 
-                        euCountry.setLegalCap(period, Double.parseDouble(amountSt), dataSourceSt);
+                        batch.rowDone(2);
 
-                    }else{
-                        System.out.println("The period " + periodSt + " could not be found... :(");
                     }
 
-                }
+                    fields.close();
 
-                reader.close();
-
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
 
                 System.out.println("Done!!");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportLegalCap.class.getSimpleName() + " failed", e);
             }
         }
     }
@@ -1,12 +1,15 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.ImportWrites;
 import org.sandbag.model.nodes.Country;
 import org.sandbag.model.nodes.Period;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -14,9 +17,18 @@ import java.util.List;
 /**
  * Created by root on 20/05/16.
  */
-public class ImportOffsets2013Onwards implements Executable{
+public class ImportOffsets2013Onwards implements ContextExecutable {
 
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 3){
             System.out.println("This program expects the following parameters: \n" +
@@ -31,57 +43,57 @@ public class ImportOffsets2013Onwards implements Executable{
 
             try{
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "Offsets 2013 onwards");
+                boolean finished = false;
+                try{
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(offsetsFileSt)));
+                    FieldReader fields = new FieldReader(new FileReader(new File(offsetsFileSt)), '\t');
 
-                String line;
+                    fields.nextLine(); //skig header
 
-                reader.readLine(); //skig header
+                    Country euCountry = databaseManager.getCountryById("EU");
+                    if(euCountry == null){
+                        System.out.println("Creating country for the European Union...");
+                        euCountry = databaseManager.createCountry("European Union", "EU");
+                    }
 
-                Country euCountry = databaseManager.getCountryById("EU");
-                if(euCountry == null){
-                    System.out.println("Creating country for the European Union...");
-                    euCountry = databaseManager.createCountry("European Union", "EU");
-                    tx.success();
-                    tx.close();
-                    tx = databaseManager.beginTransaction();
-                }
+                    System.out.println("Reading file...");
 
-                System.out.println("Reading file...");
+                    while(fields.nextLine()){
 
-                while((line = reader.readLine()) != null){
+                        String periodSt = fields.getString(0);
+                        String amountSt = fields.getString(1);
+                        String offsetTypeSt = fields.getString(2);
+                        String referenceSt = fields.getString(3);
 
-                    String[] columns = line.split("\t");
+                        Period period = databaseManager.getPeriodByName(periodSt);
 
-                    String periodSt = columns[0].trim();
-                    String amountSt = columns[1].trim();
-                    String offsetTypeSt = columns[2].trim();
-                    String referenceSt = columns[3].trim();
+                        if(period != null){
+                            databaseManager.createOffset2013Onwards(amountSt,offsetTypeSt, offsetsTypeSt, referenceSt, euCountry,period);
+                        }else{
+                            System.out.println("The period " + periodSt + " could not be found... :(");
+                        }
 
-                    Period period = databaseManager.getPeriodByName(periodSt);
+                        batch.rowDone(ImportWrites.OFFSET_2013_ONWARDS);
 
-                    if(period != null){
-                        databaseManager.createOffset2013Onwards(amountSt,offsetTypeSt, offsetsTypeSt, referenceSt, euCountry,period);
-                    }else{
-                        System.out.println("The period " + periodSt + " could not be found... :(");
                     }
 
-                }
-
-                reader.close();
+                    fields.close();
 
-                tx.success();
-                tx.close();
-
-                databaseManager.shutdown();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
 
                 System.out.println("Done!!");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportOffsets2013Onwards.class.getSimpleName() + " failed", e);
             }
         }
 
@@ -91,4 +103,9 @@ public class ImportOffsets2013Onwards implements Executable{
     public void execute(List<String> args) {
         main(args.toArray(new String[0]));
     }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
 }
@@ -1,11 +1,13 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.Installation;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -13,13 +15,27 @@ import java.util.List;
 /**
  * Created by root on 06/05/16.
  */
-public class ImportOldPowerFlags implements Executable{
+public class ImportOldPowerFlags implements ContextExecutable {
 
     public void execute(List<String> list){
         main(list.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> list, ExecutionContext context) {
+        run(list.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
@@ -34,47 +50,53 @@ public class ImportOldPowerFlags implements Executable{
 
                 System.out.println("Creating database manager...");
 
-                DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-                Transaction tx = databaseManager.beginTransaction();
+                DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+                BatchTransaction batch = new BatchTransaction(databaseManager, "Old power flags");
+                boolean finished = false;
+                try{
 
-                System.out.println("Reading file...");
+                    System.out.println("Reading file...");
 
-                File file = new File(fileSt);
-                BufferedReader reader = new BufferedReader(new FileReader(file));
-                String line;
+                    File file = new File(fileSt);
+                    FieldReader fields = new FieldReader(new FileReader(file), '\t');
 
-                //skip header
-                reader.readLine();
+                    //skip header
+                    fields.nextLine();
 
-                while((line = reader.readLine()) != null){
+                    while(fields.nextLine()){
 
-                    String[] columns = line.split("\t");
-                    String keySt = columns[0].trim().replace(" ","");
-                    String reasonSt = columns[2].trim();
+                        String keySt = fields.getString(0).replace(" ","");
+                        String reasonSt = fields.getString(2);
 
-                    Installation installation = databaseManager.getInstallationById(keySt);
-                    if(installation != null){
+                        Installation installation = databaseManager.getInstallationById(keySt);
+                        if(installation != null){
 
-                        installation.setPowerFlag("true");
-                        installation.setPowerFlagReason(reasonSt);
+                            installation.setPowerFlag("true");
+                            installation.setPowerFlagReason(reasonSt);
 
-                    }else{
-                        System.out.println("The installation with id " + keySt + " could not be found... :(");
-                    }
+                        }else{
+                            System.out.println("The installation with id " + keySt + " could not be found... :(");
+                        }
 
-                }
+                        batch.rowDone(2);
+
+                    }
 
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                    fields.close();
 
-                reader.close();
+                    batch.finish();
+                    finished = true;
+                }finally {
+                    if(!finished){
+                        batch.abort();
+                    }
+                }
 
 
                 System.out.println("Done! :)");
 
             }catch(Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportOldPowerFlags.class.getSimpleName() + " failed", e);
             }
         }
     }
@@ -1,12 +1,14 @@
 package org.sandbag.programs;
 
-import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
 import org.sandbag.model.DatabaseManager;
 import org.sandbag.model.nodes.SandbagSector;
 import org.sandbag.model.nodes.Sector;
-import org.sandbag.util.Executable;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+import org.sandbag.util.FieldReader;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.List;
@@ -14,7 +16,7 @@ import java.util.List;
 /**
  * Created by root on 14/04/16.
  */
-public class ImportSandbagSectorsAggregation implements Executable{
+public class ImportSandbagSectorsAggregation implements ContextExecutable {
 
     @Override
     public void execute(List<String> args) {
@@ -22,7 +24,21 @@ public class ImportSandbagSectorsAggregation implements Executable{
         main(args.toArray(new String[0]));
     }
 
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
     public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
 
         if(args.length != 2){
             System.out.println("This program expects the following parameters:\n" +
@@ -33,23 +49,22 @@ public class ImportSandbagSectorsAggregation implements Executable{
             String dbFolder = args[0];
             String fileSt = args[1];
 
-            DatabaseManager databaseManager = new DatabaseManager(dbFolder);
-            Transaction tx = databaseManager.beginTransaction();
+            DatabaseManager databaseManager = context.getDatabaseManager(dbFolder);
+            BatchTransaction batch = new BatchTransaction(databaseManager, "Sandbag sectors aggregation");
+            boolean finished = false;
 
             try {
 
                 System.out.println("Reading file...");
 
-                BufferedReader reader = new BufferedReader(new FileReader(new File(fileSt)));
-                String line;
-                reader.readLine();//skipping the header
+                FieldReader fields = new FieldReader(new FileReader(new File(fileSt)), ',');
+                fields.nextLine();//skipping the header
 
-                while((line = reader.readLine()) != null){
+                while(fields.nextLine()){
 
-                    String[] columns = line.split(",");
-                    String sectorIdSt = columns[0].trim();
-                    String sandbagSectorNameSt = columns[2].trim();
-                    String sandbagSectorIdSt = columns[3].trim();
+                    String sectorIdSt = fields.getString(0);
+                    String sandbagSectorNameSt = fields.getString(2);
+                    String sandbagSectorIdSt = fields.getString(3);
 
                     Sector sector = databaseManager.getSectorById(sectorIdSt);
 
@@ -60,9 +75,6 @@ public class ImportSandbagSectorsAggregation implements Executable{
 
                             System.out.println("Creating sector with id: " + sandbagSectorIdSt);
                             sandbagSector = databaseManager.createSandbagSector(sandbagSectorIdSt,sandbagSectorNameSt);
-                            tx.success();
-                            tx.close();
-                            tx = databaseManager.beginTransaction();
 
                         }else{
 
@@ -77,21 +89,27 @@ public class ImportSandbagSectorsAggregation implements Executable{
                         System.out.println("The sector with id: " + sectorIdSt + " could not be found... :(");
                     }
 
+                    batch.rowDone(1);
+
 
 
                 }
 
-                tx.success();
-                tx.close();
-                databaseManager.shutdown();
+                batch.finish();
+                finished = true;
 
-                reader.close();
+                fields.close();
 
 
                 System.out.println("Finished!");
 
             }catch (Exception e){
-                e.printStackTrace();
+                throw new ExecutionFailedException(ImportSandbagSectorsAggregation.class.getSimpleName() + " failed",
+                        e);
+            }finally {
+                if(!finished){
+                    batch.abort();
+                }
             }
 
         }
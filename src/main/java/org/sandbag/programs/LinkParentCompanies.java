@@ -0,0 +1,68 @@
+package org.sandbag.programs;
+
+import org.sandbag.model.CompanyGroups;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.util.List;
+
+/**
+ *
+ * Links every company to its parent company (PARENT_COMPANY) from the names stored in the parent_company and
+ * subsidiary_company properties, resolved through a map of the normalized names of every company (see CompanyGroups),
+ * and writes again the index of the groups formed (ultimate parent and ancestors of every company).
+ * It must be run after loading a database; afterwards transactions keep the links and the index up to date,
+ * so it only needs to be run again to resolve names differing in case, accents, punctuation or spacing.
+ *
+ */
+public class LinkParentCompanies implements ContextExecutable {
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+
+        if(args.length != 1){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder");
+        }else{
+
+            String dbFolder = args[0];
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                System.out.println("Linking parent companies...");
+                long[] counts = CompanyGroups.link(dbManager);
+                System.out.println(counts[0] + " links created, " + counts[1] + " links deleted, " + counts[2] +
+                        " names not found, " + counts[3] + " links skipped because they would close a cycle");
+
+                System.out.println("Updating the index of company groups...");
+                long changed = CompanyGroups.updateIndex(dbManager);
+                System.out.println("Done! " + changed + " companies updated");
+
+            }catch (Exception e){
+                throw new ExecutionFailedException(LinkParentCompanies.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+}
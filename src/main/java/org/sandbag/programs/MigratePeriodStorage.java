@@ -0,0 +1,136 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.nodes.Period;
+import org.sandbag.model.nodes.PeriodSlices;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ *
+ * Switches the relationships linking installations, aircraft operators and offsets to periods between the default
+ * layout (pointing at the PERIOD nodes) and the sliced one (pointing at PERIOD_SLICE nodes, see PeriodSlices).
+ * Relationships are moved in batches, and the program can be run again if it's interrupted.
+ * No other program can write to the database while it's running.
+ *
+ */
+public class MigratePeriodStorage implements ContextExecutable {
+
+    public static final String SLICED_LAYOUT = "sliced";
+    public static final String PLAIN_LAYOUT = "plain";
+
+    private static final int BATCH_SIZE = 10000;
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if((args.length != 2 && args.length != 3) ||
+                (!args[1].equals(SLICED_LAYOUT) && !args[1].equals(PLAIN_LAYOUT))){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder\n" +
+                    "2. Layout: " + SLICED_LAYOUT + " or " + PLAIN_LAYOUT + "\n" +
+                    "3. Number of shards per period and relationship type (optional, only for the " + SLICED_LAYOUT +
+                    " layout, " + PeriodSlices.DEFAULT_SHARDS + " by default)");
+        }else{
+
+            String dbFolder = args[0];
+            boolean sliced = args[1].equals(SLICED_LAYOUT);
+            int shards = args.length == 3 ? Integer.parseInt(args[2]) : PeriodSlices.DEFAULT_SHARDS;
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+                long startTime = System.currentTimeMillis();
+
+                List<Long> periodIds = new LinkedList<>();
+                Transaction tx = dbManager.beginTransaction();
+                try{
+                    Iterator<Node> iterator = dbManager.findNodes(DatabaseManager.PERIOD_LABEL);
+                    while(iterator.hasNext()){
+                        periodIds.add(iterator.next().getId());
+                    }
+                    tx.success();
+                }finally {
+                    tx.close();
+                }
+
+                long movedTotal = 0;
+
+                for(long periodId : periodIds){
+
+                    String periodName;
+                    tx = dbManager.beginTransaction();
+                    try{
+                        Period period = new Period(dbManager.graphDb.getNodeById(periodId));
+                        periodName = period.getName();
+                        if(sliced){
+                            PeriodSlices.createSlices(period, shards);
+                        }
+                        tx.success();
+                    }finally {
+                        tx.close();
+                    }
+
+                    long movedForPeriod = 0;
+                    int moved = BATCH_SIZE;
+                    while(moved > 0){
+                        tx = dbManager.beginTransaction();
+                        try{
+                            Period period = new Period(dbManager.graphDb.getNodeById(periodId));
+                            moved = sliced ? PeriodSlices.moveToSlices(period, BATCH_SIZE) :
+                                    PeriodSlices.moveToPeriod(period, BATCH_SIZE);
+                            tx.success();
+                        }finally {
+                            tx.close();
+                        }
+                        movedForPeriod += moved;
+                    }
+
+                    if(!sliced){
+                        tx = dbManager.beginTransaction();
+                        try{
+                            PeriodSlices.deleteSlices(new Period(dbManager.graphDb.getNodeById(periodId)));
+                            tx.success();
+                        }finally {
+                            tx.close();
+                        }
+                    }
+
+                    System.out.println("Period " + periodName + ": " + movedForPeriod + " relationships moved");
+                    movedTotal += movedForPeriod;
+                }
+
+                System.out.println("Done! " + movedTotal + " relationships moved in " +
+                        (System.currentTimeMillis() - startTime) / 1000.0 + "s, periods are now " +
+                        (PeriodSlices.isEnabled() ? "sliced in " + PeriodSlices.getShards() + " shards" : "plain"));
+
+            }catch(Exception e){
+                throw new ExecutionFailedException(MigratePeriodStorage.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.BatchTransaction;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.TypedProperties;
+import org.sandbag.model.nodes.interfaces.CountryModel;
+import org.sandbag.model.nodes.interfaces.InstallationModel;
+import org.sandbag.model.relationships.interfaces.*;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.util.*;
+
+/**
+ *
+ * Rewrites the numeric properties that previous versions stored as text as numbers (see TypedProperties):
+ * coordinates and offset entitlements of installations and aircraft operators, coordinates of countries and the
+ * values of the relationships read as numbers (verified emissions, allowances, surrendered units, legal caps,
+ * auctioned amounts and EU-wide values).
+ * Coordinates and offset entitlements are only rewritten when their text doesn't change, so the exports stay the same.
+ * The program can be run again at any time, properties already stored as numbers are skipped.
+ *
+ */
+public class MigrateTypedProperties implements ContextExecutable {
+
+    //relationships of accounts and countries whose values are only ever read as doubles
+    private static final Map<String, String> DOUBLE_PROPERTIES = new HashMap<>();
+    static {
+        DOUBLE_PROPERTIES.put(VerifiedEmissionsModel.LABEL, VerifiedEmissionsModel.value);
+        DOUBLE_PROPERTIES.put(AllowancesInAllocationModel.LABEL, AllowancesInAllocationModel.value);
+        DOUBLE_PROPERTIES.put(SurrenderedUnitsModel.LABEL, SurrenderedUnitsModel.value);
+        DOUBLE_PROPERTIES.put(LegalCapModel.LABEL, LegalCapModel.amount);
+        DOUBLE_PROPERTIES.put(AuctionedModel.LABEL, AuctionedModel.amount);
+        DOUBLE_PROPERTIES.put(VerifiedEmissionsEUWideModel.LABEL, VerifiedEmissionsEUWideModel.value);
+        DOUBLE_PROPERTIES.put(AllowancesInAllocationEUWideModel.LABEL, AllowancesInAllocationEUWideModel.value);
+        DOUBLE_PROPERTIES.put(OffsetsEUWideModel.LABEL, OffsetsEUWideModel.value);
+        DOUBLE_PROPERTIES.put(OffsetEntitlementsEUWideModel.LABEL, OffsetEntitlementsEUWideModel.value);
+        DOUBLE_PROPERTIES.put(LegalCapEUWideModel.LABEL, LegalCapEUWideModel.value);
+        DOUBLE_PROPERTIES.put(AuctionedEUWideModel.LABEL, AuctionedEUWideModel.value);
+    }
+
+    private static final String[] COUNTRY_COORDINATES = {CountryModel.centerLatitude, CountryModel.centerLongitude,
+            CountryModel.boundingBoxMaxLatitude, CountryModel.boundingBoxMinLatitude,
+            CountryModel.boundingBoxMaxLongitude, CountryModel.boundingBoxMinLongitude};
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+        if(args.length != 1){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder");
+        }else{
+
+            String dbFolder = args[0];
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                List<Long> accountIds = getNodeIds(dbManager, DatabaseManager.INSTALLATION_LABEL);
+                accountIds.addAll(getNodeIds(dbManager, DatabaseManager.AIRCRAFT_OPERATOR_LABEL));
+                List<Long> countryIds = getNodeIds(dbManager, DatabaseManager.COUNTRY_LABEL);
+
+                long coordinates = 0;
+                long offsetEntitlements = 0;
+                long values = 0;
+
+                BatchTransaction batch = new BatchTransaction(dbManager, "Typed properties");
+                try{
+
+                    for(long id : accountIds){
+                        Node node = dbManager.graphDb.getNodeById(id);
+                        int rewritten = 0;
+                        //installations and aircraft operators store their coordinates under the same keys
+                        if(TypedProperties.migrate(node, InstallationModel.latitude, true)){
+                            rewritten++;
+                        }
+                        if(TypedProperties.migrate(node, InstallationModel.longitude, true)){
+                            rewritten++;
+                        }
+                        coordinates += rewritten;
+                        for(Relationship relationship : node.getRelationships(Direction.OUTGOING)){
+                            String type = relationship.getType().name();
+                            if(type.equals(OffsetEntitlementModel.LABEL)){
+                                if(TypedProperties.migrate(relationship, OffsetEntitlementModel.value, false)){
+                                    offsetEntitlements++;
+                                    rewritten++;
+                                }
+                            }else if(migrateDoubleProperty(relationship, type)){
+                                values++;
+                                rewritten++;
+                            }
+                        }
+                        batch.rowDone(rewritten);
+                    }
+
+                    for(long id : countryIds){
+                        Node node = dbManager.graphDb.getNodeById(id);
+                        int rewritten = 0;
+                        for(String key : COUNTRY_COORDINATES){
+                            if(TypedProperties.migrateDouble(node, key)){
+                                coordinates++;
+                                rewritten++;
+                            }
+                        }
+                        for(Relationship relationship : node.getRelationships(Direction.OUTGOING)){
+                            if(migrateDoubleProperty(relationship, relationship.getType().name())){
+                                values++;
+                                rewritten++;
+                            }
+                        }
+                        batch.rowDone(rewritten);
+                    }
+
+                    batch.finish();
+
+                }catch(Exception e){
+                    batch.abort();
+                    throw e;
+                }
+
+                System.out.println("Done! Properties rewritten as numbers: " + coordinates + " coordinates, " +
+                        offsetEntitlements + " offset entitlements, " + values + " values");
+
+            }catch(Exception e){
+                throw new ExecutionFailedException(MigrateTypedProperties.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+
+    private static boolean migrateDoubleProperty(Relationship relationship, String type){
+        String key = DOUBLE_PROPERTIES.get(type);
+        return key != null && TypedProperties.migrateDouble(relationship, key);
+    }
+
+    private static List<Long> getNodeIds(DatabaseManager dbManager, Label label){
+        List<Long> ids = new ArrayList<>();
+        Transaction tx = dbManager.beginTransaction();
+        try{
+            Iterator<Node> iterator = dbManager.findNodes(label);
+            while(iterator.hasNext()){
+                ids.add(iterator.next().getId());
+            }
+            tx.success();
+        }finally {
+            tx.close();
+        }
+        return ids;
+    }
+}
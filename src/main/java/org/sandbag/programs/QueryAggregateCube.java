@@ -0,0 +1,133 @@
+package org.sandbag.programs;
+
+import org.neo4j.graphdb.Transaction;
+import org.sandbag.model.AggregateCube;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.util.ContextExecutable;
+import org.sandbag.util.ExecutionContext;
+import org.sandbag.util.ExecutionFailedException;
+
+import java.util.*;
+
+/**
+ *
+ * Prints totals of the aggregate cube (see AggregateCube), brought up to date first, e.g. the verified emissions
+ * and allowances in allocation of the cement sector per country in 2014 ("Dave's query"):
+ * QueryAggregateCube db country * "Cement and Lime" * 2014 verified_emissions allowances_in_allocation
+ *
+ */
+public class QueryAggregateCube implements ContextExecutable {
+
+    public static final String ANY = "*";
+
+    @Override
+    public void execute(List<String> args) {
+        main(args.toArray(new String[0]));
+    }
+
+    @Override
+    public void execute(List<String> args, ExecutionContext context) {
+        run(args.toArray(new String[0]), context);
+    }
+
+    public static void main(String[] args){
+        ExecutionContext context = new ExecutionContext();
+        try{
+            run(args, context);
+        }finally {
+            context.close();
+        }
+    }
+
+    private static void run(String[] args, ExecutionContext context){
+
+        if(args.length < 7){
+            System.out.println("This program expects the following parameters:\n" +
+                    "1. Database folder\n" +
+                    "2. Dimension the totals are grouped by (" + Arrays.toString(AggregateCube.DIMENSION_NAMES) +
+                    ", " + ANY + " for a single total)\n" +
+                    "3. Country id (" + ANY + " for every country)\n" +
+                    "4. Sector name (" + ANY + " for every sector)\n" +
+                    "5. Sandbag sector name (" + ANY + " for every Sandbag sector)\n" +
+                    "6. Period name (" + ANY + " for every period)\n" +
+                    "7... Metrics (" + Arrays.toString(AggregateCube.METRIC_NAMES) + ")");
+        }else{
+
+            String dbFolder = args[0];
+            int dimension = args[1].equals(ANY) ? -1 : AggregateCube.getDimension(args[1]);
+            String countryId = getFilter(args[2]);
+            String sector = getFilter(args[3]);
+            String sandbagSector = getFilter(args[4]);
+            String period = getFilter(args[5]);
+            int[] metrics = new int[args.length - 6];
+            for(int i = 0; i < metrics.length; i++){
+                metrics[i] = AggregateCube.getMetric(args[6 + i]);
+                if(metrics[i] < 0){
+                    System.out.println("Unknown metric: " + args[6 + i]);
+                    return;
+                }
+            }
+            if(dimension < 0 && !args[1].equals(ANY)){
+                System.out.println("Unknown dimension: " + args[1]);
+                return;
+            }
+
+            try{
+
+                DatabaseManager dbManager = context.getDatabaseManager(dbFolder);
+
+                AggregateCube cube;
+                Transaction tx = dbManager.beginTransaction();
+                try{
+                    cube = AggregateCube.open(dbManager, dbFolder);
+                    tx.success();
+                }finally {
+                    tx.close();
+                }
+
+                long startTime = System.nanoTime();
+                StringBuilder header = new StringBuilder(dimension >= 0 ? AggregateCube.DIMENSION_NAMES[dimension] : "");
+                for(int metric : metrics){
+                    header.append("\t").append(AggregateCube.METRIC_NAMES[metric]);
+                }
+                StringBuilder rows = new StringBuilder();
+                if(dimension >= 0){
+                    List<Map<String, Double>> values = new ArrayList<>();
+                    for(int metric : metrics){
+                        values.add(cube.getValuesBy(dimension, countryId, sector, sandbagSector, period, metric));
+                    }
+                    for(String name : new TreeSet<>(cube.getNames(dimension))){
+                        StringBuilder row = new StringBuilder(name);
+                        boolean found = false;
+                        for(Map<String, Double> metricValues : values){
+                            Double value = metricValues.get(name);
+                            found |= value != null;
+                            row.append("\t").append(value != null ? String.valueOf(value) : "");
+                        }
+                        if(found){
+                            rows.append(row).append("\n");
+                        }
+                    }
+                }else{
+                    for(int metric : metrics){
+                        double value = cube.getValue(countryId, sector, sandbagSector, period, metric);
+                        rows.append("\t").append(Double.isNaN(value) ? "" : String.valueOf(value));
+                    }
+                    rows.append("\n");
+                }
+                long elapsed = System.nanoTime() - startTime;
+
+                System.out.println(header);
+                System.out.print(rows);
+                System.out.println("Answered in " + (elapsed / 1000) + " microseconds");
+
+            }catch (Exception e){
+                throw new ExecutionFailedException(QueryAggregateCube.class.getSimpleName() + " failed", e);
+            }
+        }
+    }
+
+    private static String getFilter(String arg){
+        return arg.equals(ANY) ? null : arg;
+    }
+}
@@ -0,0 +1,97 @@
+package org.sandbag.programs.rows;
+
+import org.sandbag.util.FieldReader;
+
+/**
+ *
+ * Row of an aircraft operators file generated by the EUTL web scraper
+ *
+ */
+public class AircraftOperatorRow {
+
+    //fields of the complete id
+    public static final int ID_FIELD = 11;
+    public static final int COUNTRY_ID_FIELD = 24;
+
+    public String countryName;
+    public String countryId;
+    public String companyRegistrationNumber;
+    public String companyStatus;
+    public String companyName;
+    public String companyAddress;
+    public String companyPostalCode;
+    public String companyCity;
+    public String aircraftOperatorId;
+    public String uniqueCodeUnderCommissionRegulation;
+    public String monitoringPlanId;
+    public String monitoringPlanFirstYearOfApplicability;
+    public String monitoringPlanYearOfExpiry;
+    public String subsidiaryCompany;
+    public String parentCompany;
+    public String eprtrId;
+    public String icaoDesignator;
+    public String aircraftOperatorAddress;
+    public String aircraftOperatorPostalCode;
+    public String aircraftOperatorCity;
+    public String latitude;
+    public String longitude;
+    public String sectorId;
+    public String sectorName;
+
+    /**
+     * @return the complete id of the aircraft operator (country code + id)
+     */
+    public String getCompleteId(){
+        return countryId + aircraftOperatorId;
+    }
+
+    /**
+     * @return the complete id of the aircraft operator of a line even when it can't be parsed, null when the line
+     * doesn't have the fields of the id
+     */
+    public static String getCompleteId(FieldReader fields){
+        if(fields.getFieldCount() <= Math.max(COUNTRY_ID_FIELD, ID_FIELD)){
+            return null;
+        }
+        return fields.getString(COUNTRY_ID_FIELD) + fields.getString(ID_FIELD);
+    }
+
+    public static AircraftOperatorRow parse(FieldReader fields){
+
+        AircraftOperatorRow row = new AircraftOperatorRow();
+
+        row.countryName = fields.getString(0);
+        row.companyRegistrationNumber = fields.getString(3);
+        row.companyStatus = fields.getString(4);
+        row.companyName = fields.getString(6);
+        row.companyAddress = fields.getString(7) + "\n" + fields.getString(8);
+        row.companyPostalCode = fields.getString(9);
+        row.companyCity = fields.getString(10);
+        row.aircraftOperatorId = fields.getString(ID_FIELD);
+        row.uniqueCodeUnderCommissionRegulation = fields.getString(12);
+        row.monitoringPlanId = fields.getString(13);
+        row.monitoringPlanFirstYearOfApplicability = fields.getString(14);
+        row.monitoringPlanYearOfExpiry = fields.getString(15);
+        row.subsidiaryCompany = fields.getString(16);
+        row.parentCompany = fields.getString(17);
+        row.eprtrId = fields.getString(18);
+        row.icaoDesignator = fields.getString(19);
+        row.aircraftOperatorAddress = fields.getString(20) + fields.getString(21);
+        row.aircraftOperatorPostalCode = fields.getString(22);
+        row.aircraftOperatorCity = fields.getString(23);
+        row.countryId = fields.getString(COUNTRY_ID_FIELD);
+        row.latitude = fields.getString(25);
+        row.longitude = fields.getString(26);
+
+        //only the part of the main activity until the next dash is taken as the sector name
+        int separator = InstallationRow.getMainActivitySeparator(fields, 27);
+        int nameEnd = fields.indexOf(27, '-', separator + 1);
+        if(nameEnd < 0){
+            nameEnd = fields.getLength(27);
+        }
+        row.sectorId = fields.getString(27, 0, separator);
+        row.sectorName = fields.getString(27, separator + 1, nameEnd);
+
+        return row;
+    }
+}
@@ -0,0 +1,101 @@
+package org.sandbag.programs.rows;
+
+import org.sandbag.util.FieldReader;
+import org.sandbag.util.RejectedCellReport;
+
+/**
+ *
+ * Row of a compliance data file generated by the EUTL web scraper.
+ * Numeric values that are missing or not valid numbers are left as null, the content of the
+ * cells that are not valid numbers is kept so that they can be reported (see reportRejectedCells).
+ *
+ */
+public class ComplianceRow {
+
+    //fields of the complete id and the year
+    public static final int COUNTRY_ID_FIELD = 0;
+    public static final int ID_FIELD = 1;
+    public static final int YEAR_FIELD = 2;
+
+    public String countryId;
+    public String accountId;
+    public String year;
+    public Double allowancesInAllocation;
+    public Double verifiedEmissions;
+    public Double unitsSurrendered;
+    public String complianceCode;
+
+    public long lineNumber;
+    //content of the numeric cells that are not valid numbers (null when the value is valid or missing)
+    public String rejectedAllowancesInAllocation;
+    public String rejectedVerifiedEmissions;
+    public String rejectedUnitsSurrendered;
+
+    /**
+     * @return the complete id of the installation/aircraft operator (country code + id)
+     */
+    public String getCompleteId(){
+        return countryId + accountId;
+    }
+
+    /**
+     * @return the complete id of the installation/aircraft operator of a line even when it can't be parsed, null when the line
+     * doesn't have the fields of the id
+     */
+    public static String getCompleteId(FieldReader fields){
+        if(fields.getFieldCount() <= Math.max(COUNTRY_ID_FIELD, ID_FIELD)){
+            return null;
+        }
+        return fields.getString(COUNTRY_ID_FIELD) + fields.getString(ID_FIELD);
+    }
+
+    /**
+     * Adds the cells of the row that were not valid numbers to the report provided
+     */
+    public void reportRejectedCells(RejectedCellReport report){
+        if(rejectedAllowancesInAllocation != null){
+            report.reject("Allowances in allocation", rejectedAllowancesInAllocation, lineNumber);
+        }
+        if(rejectedVerifiedEmissions != null){
+            report.reject("Verified emissions", rejectedVerifiedEmissions, lineNumber);
+        }
+        if(rejectedUnitsSurrendered != null){
+            report.reject("Units surrendered", rejectedUnitsSurrendered, lineNumber);
+        }
+    }
+
+    /**
+     * @return null for empty lines
+     */
+    public static ComplianceRow parse(FieldReader fields){
+
+        if(fields.isBlank()){
+            return null;
+        }
+
+        ComplianceRow row = new ComplianceRow();
+
+        row.lineNumber = fields.getLineNumber();
+        row.countryId = fields.getString(COUNTRY_ID_FIELD);
+        row.accountId = fields.getString(ID_FIELD);
+        row.year = fields.getString(YEAR_FIELD);
+        if(fields.parseDouble(3) == FieldReader.VALID_NUMBER){
+            row.allowancesInAllocation = fields.getParsedDouble();
+        }else if(!fields.isEmpty(3)){
+            row.rejectedAllowancesInAllocation = fields.getString(3);
+        }
+        if(fields.parseDouble(4) == FieldReader.VALID_NUMBER){
+            row.verifiedEmissions = fields.getParsedDouble();
+        }else if(!fields.isEmpty(4)){
+            row.rejectedVerifiedEmissions = fields.getString(4);
+        }
+        if(fields.parseDouble(5) == FieldReader.VALID_NUMBER){
+            row.unitsSurrendered = fields.getParsedDouble();
+        }else if(!fields.isEmpty(5)){
+            row.rejectedUnitsSurrendered = fields.getString(5);
+        }
+        row.complianceCode = fields.getString(6);
+
+        return row;
+    }
+}
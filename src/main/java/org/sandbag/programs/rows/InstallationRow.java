@@ -0,0 +1,111 @@
+package org.sandbag.programs.rows;
+
+import org.sandbag.util.FieldReader;
+
+/**
+ *
+ * Row of an installations file generated by the EUTL web scraper
+ *
+ */
+public class InstallationRow {
+
+    //fields of the complete id
+    public static final int ID_FIELD = 11;
+    public static final int COUNTRY_ID_FIELD = 23;
+
+    public String countryName;
+    public String countryId;
+    public String companyRegistrationNumber;
+    public String companyStatus;
+    public String companyName;
+    public String companyAddress;
+    public String companyPostalCode;
+    public String companyCity;
+    public String installationId;
+    public String installationName;
+    public String permitId;
+    public String permitEntryDate;
+    public String permitExpiryOrRevocationDate;
+    public String subsidiaryCompany;
+    public String parentCompany;
+    public String eprtrId;
+    public String installationAddress;
+    public String installationPostalCode;
+    public String installationCity;
+    public String latitude;
+    public String longitude;
+    public String sectorId;
+    public String sectorName;
+
+    /**
+     * @return the complete id of the installation (country code + id)
+     */
+    public String getCompleteId(){
+        return countryId + installationId;
+    }
+
+    /**
+     * @return the complete id of the installation of a line even when it can't be parsed, null when the line
+     * doesn't have the fields of the id
+     */
+    public static String getCompleteId(FieldReader fields){
+        if(fields.getFieldCount() <= Math.max(COUNTRY_ID_FIELD, ID_FIELD)){
+            return null;
+        }
+        return fields.getString(COUNTRY_ID_FIELD) + fields.getString(ID_FIELD);
+    }
+
+    public static InstallationRow parse(FieldReader fields){
+
+        InstallationRow row = new InstallationRow();
+
+        row.countryName = fields.getString(0);
+        row.companyRegistrationNumber = fields.getString(3);
+        row.companyStatus = fields.getString(4);
+        row.companyName = fields.getString(6);
+        row.companyAddress = fields.getString(7) + "\n" + fields.getString(8);
+        row.companyPostalCode = fields.getString(9);
+        row.companyCity = fields.getString(10);
+        row.installationId = fields.getString(ID_FIELD);
+        row.installationName = fields.getString(12);
+        row.permitId = fields.getString(13);
+        row.permitEntryDate = fields.getString(14);
+        row.permitExpiryOrRevocationDate = fields.getString(15);
+        row.subsidiaryCompany = fields.getString(16);
+        row.parentCompany = fields.getString(17);
+        row.eprtrId = fields.getString(18);
+        row.installationAddress = fields.getString(19) + " " + fields.getString(20);
+        row.installationPostalCode = fields.getString(21);
+        row.installationCity = fields.getString(22);
+        row.countryId = fields.getString(COUNTRY_ID_FIELD);
+        row.latitude = fields.getString(24);
+        row.longitude = fields.getString(25);
+
+        //main activity looks like "20-Combustion of fuels", sector names may include dashes too
+        int separator = getMainActivitySeparator(fields, 26);
+        int nameEnd = fields.getLength(26);
+        while(fields.getChar(26, nameEnd - 1) == '-'){
+            nameEnd--;
+        }
+        row.sectorId = fields.getString(26, 0, separator);
+        row.sectorName = fields.getString(26, separator + 1, nameEnd);
+
+        return row;
+    }
+
+    /**
+     * @return index of the dash separating the sector id from its name in a main activity field
+     * @throws IllegalArgumentException if the field has no sector name
+     */
+    static int getMainActivitySeparator(FieldReader fields, int field){
+        int separator = fields.indexOf(field, '-', 0);
+        if(separator >= 0){
+            for(int i = separator + 1; i < fields.getLength(field); i++){
+                if(fields.getChar(field, i) != '-'){
+                    return separator;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Main activity without sector name: '" + fields.getString(field) + "'");
+    }
+}
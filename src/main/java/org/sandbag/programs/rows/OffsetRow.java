@@ -0,0 +1,59 @@
+package org.sandbag.programs.rows;
+
+import org.sandbag.util.FieldReader;
+
+/**
+ *
+ * Row of an offsets file generated by the EUTL web scraper
+ *
+ */
+public class OffsetRow {
+
+    public String countryId;
+    public String accountId;
+    public String originatingRegistry;
+    public String unitType;
+    public String amount;
+    public String yearOfCompliance;
+    public String projectId;
+
+    /**
+     * @return the complete id of the installation/aircraft operator (country code + id)
+     */
+    public String getCompleteId(){
+        return countryId + accountId;
+    }
+
+    /**
+     * @return null for empty lines and for offsets lacking the year of compliance,
+     * the originating registry or the account id (they are not imported)
+     */
+    public static OffsetRow parse(FieldReader fields){
+
+        if(fields.isBlank()){
+            return null;
+        }
+
+        if(fields.getFieldCount() < 12){
+            System.out.println("columns.length = " + fields.getFieldCount());
+            System.out.println("line = " + fields.getLine());
+        }
+
+        //rows that are not imported are discarded before materializing any field
+        if(fields.isEmpty(7) || fields.isEmpty(2) || fields.isEmpty(1)){
+            return null;
+        }
+
+        OffsetRow row = new OffsetRow();
+
+        row.countryId = fields.getString(0);
+        row.accountId = fields.getString(1);
+        row.originatingRegistry = fields.getString(2);
+        row.unitType = fields.getString(3);
+        row.amount = fields.getString(4);
+        row.yearOfCompliance = fields.getString(7);
+        row.projectId = fields.getString(9);
+
+        return row;
+    }
+}
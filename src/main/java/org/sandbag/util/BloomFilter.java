@@ -0,0 +1,66 @@
+package org.sandbag.util;
+
+/**
+ *
+ * Minimal Bloom filter for String keys.
+ * A negative answer is always right, a positive one may be wrong with a probability close to
+ * the false positive rate the filter was sized for (as long as no more keys than expected are added).
+ *
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashFunctions;
+
+    /**
+     * @param expectedKeys number of keys the filter is sized for
+     * @param falsePositiveRate desired false positive rate for that number of keys (e.g. 0.01)
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate){
+        int keys = Math.max(expectedKeys, 1);
+        long size = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        size = Math.max(64, (size + 63) & ~63L);
+        bits = new long[(int) (size >>> 6)];
+        bitCount = size;
+        hashFunctions = Math.max(1, (int) Math.round((double) size / keys * Math.log(2)));
+    }
+
+    public void add(String key){
+        long hash64 = hash64(key);
+        int h1 = (int) hash64;
+        int h2 = (int) (hash64 >>> 32);
+        for(int i = 1; i <= hashFunctions; i++){
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key){
+        long hash64 = hash64(key);
+        int h1 = (int) hash64;
+        int h2 = (int) (hash64 >>> 32);
+        for(int i = 1; i <= hashFunctions; i++){
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+            if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the chars of the key, followed by a final avalanche step
+     */
+    private static long hash64(String key){
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++){
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,154 @@
+package org.sandbag.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ *
+ * Reads the files written by ColumnarFileWriter. Only the directory of the columns is read when the file is opened;
+ * every column is read on its own, the first time it's asked for, with a single read of its bytes.
+ *
+ */
+public class ColumnarFileReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final int rows;
+    private final Map<String, Integer> columns = new LinkedHashMap<>();
+    private final byte[] types;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    public ColumnarFileReader(File file) throws IOException{
+
+        this.file = new RandomAccessFile(file, "r");
+        try{
+            if(this.file.readInt() != ColumnarFileWriter.MAGIC || this.file.readInt() != ColumnarFileWriter.VERSION){
+                throw new IOException(file.getPath() + " is not a columnar file or was written by another version");
+            }
+            rows = this.file.readInt();
+            int columnCount = this.file.readInt();
+            types = new byte[columnCount];
+            offsets = new long[columnCount];
+            lengths = new int[columnCount];
+            for(int column = 0; column < columnCount; column++){
+                columns.put(this.file.readUTF(), column);
+                types[column] = this.file.readByte();
+                offsets[column] = this.file.readLong();
+                lengths[column] = this.file.readInt();
+            }
+        }catch (IOException e){
+            this.file.close();
+            throw e;
+        }
+    }
+
+    public int getRowCount(){
+        return rows;
+    }
+
+    /**
+     * @return names of the columns in the order they were written
+     */
+    public List<String> getColumnNames(){
+        return new ArrayList<>(columns.keySet());
+    }
+
+    /**
+     * @return ColumnarFileWriter.STRING, DICTIONARY or DOUBLE
+     */
+    public byte getColumnType(String name){
+        return types[getColumn(name)];
+    }
+
+    /**
+     * @return values of a DOUBLE column, NaN when missing
+     */
+    public double[] readDoubles(String name) throws IOException{
+        ByteBuffer buffer = read(name, ColumnarFileWriter.DOUBLE);
+        double[] values = new double[rows];
+        buffer.asDoubleBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * @return values of a STRING or DICTIONARY column (rows with the same dictionary value share the same String)
+     */
+    public String[] readStrings(String name) throws IOException{
+        String[] values = new String[rows];
+        if(getColumnType(name) == ColumnarFileWriter.DICTIONARY){
+            ByteBuffer buffer = read(name, ColumnarFileWriter.DICTIONARY);
+            String[] dictionary = readDictionary(buffer);
+            for(int row = 0; row < rows; row++){
+                values[row] = dictionary[buffer.getInt()];
+            }
+        }else{
+            ByteBuffer buffer = read(name, ColumnarFileWriter.STRING);
+            for(int row = 0; row < rows; row++){
+                values[row] = readString(buffer);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the different values of a DICTIONARY column, in the order of their codes
+     */
+    public String[] readDictionary(String name) throws IOException{
+        return readDictionary(read(name, ColumnarFileWriter.DICTIONARY));
+    }
+
+    /**
+     * @return the code of every row of a DICTIONARY column (index of its value in readDictionary)
+     */
+    public int[] readCodes(String name) throws IOException{
+        ByteBuffer buffer = read(name, ColumnarFileWriter.DICTIONARY);
+        readDictionary(buffer);
+        int[] codes = new int[rows];
+        buffer.asIntBuffer().get(codes);
+        return codes;
+    }
+
+    @Override
+    public void close() throws IOException{
+        file.close();
+    }
+
+    private int getColumn(String name){
+        Integer column = columns.get(name);
+        if(column == null){
+            throw new IllegalArgumentException("There's no column " + name);
+        }
+        return column;
+    }
+
+    private ByteBuffer read(String name, byte type) throws IOException{
+        int column = getColumn(name);
+        if(types[column] != type){
+            throw new IllegalArgumentException("Column " + name + " is not of type " + type);
+        }
+        byte[] bytes = new byte[lengths[column]];
+        file.seek(offsets[column]);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer){
+        String[] dictionary = new String[buffer.getInt()];
+        for(int code = 0; code < dictionary.length; code++){
+            dictionary[code] = readString(buffer);
+        }
+        return dictionary;
+    }
+
+    private static String readString(ByteBuffer buffer){
+        int length = buffer.getInt();
+        if(length < 0){
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,198 @@
+package org.sandbag.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ *
+ * Writes a table column by column to a binary file that can be read with ColumnarFileReader, so that readers
+ * load only the columns they need, with no text to parse.
+ * Columns are either text (STRING), text with few different values (DICTIONARY: every value is kept once and rows
+ * keep the code of their value) or numbers (DOUBLE, NaN when missing). Rows are kept in memory until the file
+ * is written.
+ *
+ * Layout (big-endian): magic, version, number of rows, number of columns, then the name, type, offset and length
+ * of every column, then the data of every column:
+ * STRING: length in bytes (-1 for null) and UTF-8 bytes of every row
+ * DICTIONARY: number of values, length and UTF-8 bytes of every value, then the code of every row
+ * DOUBLE: the value of every row
+ *
+ */
+public class ColumnarFileWriter {
+
+    public static final byte STRING = 0;
+    public static final byte DICTIONARY = 1;
+    public static final byte DOUBLE = 2;
+
+    static final int MAGIC = 0x45554346;
+    static final int VERSION = 1;
+
+    private final String[] names;
+    private final byte[] types;
+    private final ByteArrayOutputStream[] strings;
+    private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+    private final int[][] codes;
+    private final double[][] doubles;
+    private int rows = 0;
+
+    /**
+     * @param types STRING, DICTIONARY or DOUBLE for every column
+     */
+    public ColumnarFileWriter(String[] names, byte[] types){
+        if(names.length != types.length){
+            throw new IllegalArgumentException("There must be one type per column");
+        }
+        this.names = names.clone();
+        this.types = types.clone();
+        strings = new ByteArrayOutputStream[names.length];
+        codes = new int[names.length][];
+        doubles = new double[names.length][];
+        for(int column = 0; column < names.length; column++){
+            dictionaries.add(null);
+            if(types[column] == STRING){
+                strings[column] = new ByteArrayOutputStream();
+            }else if(types[column] == DICTIONARY){
+                dictionaries.set(column, new LinkedHashMap<String, Integer>());
+                codes[column] = new int[1024];
+            }else if(types[column] == DOUBLE){
+                doubles[column] = new double[1024];
+            }else{
+                throw new IllegalArgumentException("Unknown type for column " + names[column] + ": " + types[column]);
+            }
+        }
+    }
+
+    /**
+     * @param values one value per column: text for STRING columns (null allowed) and DICTIONARY columns,
+     *               a Number for DOUBLE columns (null is written as NaN)
+     */
+    public void addRow(Object[] values){
+
+        if(values.length != names.length){
+            throw new IllegalArgumentException("Row with " + values.length + " values, " + names.length + " expected");
+        }
+
+        for(int column = 0; column < names.length; column++){
+            Object value = values[column];
+            if(types[column] == STRING){
+                writeString(strings[column], value != null ? String.valueOf(value) : null);
+            }else if(types[column] == DICTIONARY){
+                Map<String, Integer> dictionary = dictionaries.get(column);
+                String text = String.valueOf(value);
+                Integer code = dictionary.get(text);
+                if(code == null){
+                    code = dictionary.size();
+                    dictionary.put(text, code);
+                }
+                if(rows == codes[column].length){
+                    codes[column] = Arrays.copyOf(codes[column], rows * 2);
+                }
+                codes[column][rows] = code;
+            }else{
+                if(rows == doubles[column].length){
+                    doubles[column] = Arrays.copyOf(doubles[column], rows * 2);
+                }
+                doubles[column][rows] = value != null ? ((Number) value).doubleValue() : Double.NaN;
+            }
+        }
+        rows++;
+    }
+
+    public int getRowCount(){
+        return rows;
+    }
+
+    /**
+     * Writes the file, replacing it only once it has been completely written
+     */
+    public void write(File file) throws IOException{
+
+        byte[][] data = new byte[names.length][];
+        for(int column = 0; column < names.length; column++){
+            data[column] = getData(column);
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        for(int column = 0; column < names.length; column++){
+            directory.writeUTF(names[column]);
+            directory.writeByte(types[column]);
+            directory.writeLong(0);
+            directory.writeInt(data[column].length);
+        }
+        //offsets are known once the size of the directory is
+        long offset = 16 + directoryBytes.size();
+        directoryBytes.reset();
+        for(int column = 0; column < names.length; column++){
+            directory.writeUTF(names[column]);
+            directory.writeByte(types[column]);
+            directory.writeLong(offset);
+            directory.writeInt(data[column].length);
+            offset += data[column].length;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try{
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(names.length);
+            directoryBytes.writeTo(out);
+            for(byte[] columnData : data){
+                out.write(columnData);
+            }
+        }finally {
+            out.close();
+        }
+
+        if(file.exists() && !file.delete()){
+            throw new IOException("Columnar file " + file.getPath() + " could not be replaced");
+        }
+        if(!tempFile.renameTo(file)){
+            throw new IOException("Columnar file " + tempFile.getPath() + " could not be renamed");
+        }
+    }
+
+    private byte[] getData(int column) throws IOException{
+        if(types[column] == STRING){
+            return strings[column].toByteArray();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if(types[column] == DICTIONARY){
+            Map<String, Integer> dictionary = dictionaries.get(column);
+            out.writeInt(dictionary.size());
+            for(String value : dictionary.keySet()){
+                writeString(bytes, value);
+            }
+            for(int row = 0; row < rows; row++){
+                out.writeInt(codes[column][row]);
+            }
+        }else{
+            for(int row = 0; row < rows; row++){
+                out.writeDouble(doubles[column][row]);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value){
+        if(value == null){
+            writeInt(out, -1);
+        }else{
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value){
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,14 @@
+package org.sandbag.util;
+
+import java.util.List;
+
+/**
+ *
+ * Executable that takes the resources it needs (the database) from the execution context provided
+ * instead of opening and closing them itself, so that they can be shared by all the executions of a file.
+ *
+ */
+public interface ContextExecutable extends Executable {
+
+    void execute(List<String> args, ExecutionContext context);
+}
@@ -5,9 +5,7 @@ import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
 
 import java.io.File;
-import java.lang.reflect.Constructor;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by root on 10/05/16.
@@ -33,6 +31,18 @@ public class ExecuteFile {
 
                 List<Element> executions = rootNode.getChildren("execution");
 
+                //executions completed by a previous (failed) run of the same file on the same inputs are skipped
+                ExecutionJournal journal = new ExecutionJournal(new File(xmlFile.getPath() + ".journal"));
+                Map<String, Integer> occurrences = new HashMap<>();
+
+                String threadsSt = rootNode.getAttributeValue("threads");
+                int threads = threadsSt != null ? Integer.parseInt(threadsSt.trim()) : Runtime.getRuntime().availableProcessors();
+                //the database is opened once and shared by every execution
+                ExecutionContext context = new ExecutionContext();
+                ExecutionScheduler scheduler = new ExecutionScheduler(journal, context, threads);
+
+                String previousId = null;
+
                 for (int i = 0; i < executions.size(); i++) {
 
                     String classFullName = "";
@@ -51,11 +61,52 @@ public class ExecuteFile {
                         arguments.add(argumentElem.getText());
                     }
 
-                    Class classToExecute = Class.forName(classFullName);
+                    String executionId = classFullName + arguments;
+                    Integer occurrence = occurrences.get(executionId);
+                    occurrence = occurrence == null ? 0 : occurrence + 1;
+                    occurrences.put(executionId, occurrence);
+                    String executionKey = ExecutionJournal.getExecutionKey(classFullName, arguments, occurrence);
+
+                    String id = execution.getChildTextTrim("id");
+                    if (id == null || id.isEmpty()) {
+                        id = "step_" + (i + 1);
+                    }
+
+                    //executions without depends_on elements depend on the previous one, so files written
+                    //before dependencies were supported keep running sequentially (<depends_on/> means no dependencies)
+                    List<String> dependencies = new LinkedList<>();
+                    List<Element> dependsOnElems = execution.getChildren("depends_on");
+                    if (dependsOnElems.isEmpty()) {
+                        if (previousId != null) {
+                            dependencies.add(previousId);
+                        }
+                    } else {
+                        for (Element dependsOnElem : dependsOnElems) {
+                            String dependency = dependsOnElem.getTextTrim();
+                            if (!dependency.isEmpty()) {
+                                dependencies.add(dependency);
+                            }
+                        }
+                    }
+
+                    Set<String> resources = new HashSet<>();
+                    for (Element resourceElem : execution.getChildren("resource")) {
+                        resources.add(resourceElem.getTextTrim());
+                    }
 
-                    Object object = classToExecute.newInstance();
-                    Executable executable = (Executable) object;
-                    executable.execute(arguments);
+                    scheduler.addStep(new ExecutionScheduler.Step(id, classFullName, arguments, dependencies, resources, executionKey));
+                    previousId = id;
+                }
+
+                try {
+                    scheduler.run();
+                    //the next run of the file (e.g. next month's update on a new scrape) starts from scratch
+                    if (scheduler.isSuccessful()) {
+                        journal.delete();
+                        System.out.println("Every execution completed, journal deleted");
+                    }
+                } finally {
+                    context.close();
                 }
 
             } catch (Exception e) {
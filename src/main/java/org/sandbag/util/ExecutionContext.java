@@ -0,0 +1,49 @@
+package org.sandbag.util;
+
+import org.sandbag.model.DatabaseManager;
+
+import java.io.File;
+
+/**
+ *
+ * Resources shared by the executions of an executions file.
+ * The database is opened by the first execution asking for it and stays open (indices checked once,
+ * caches warm) until the context is closed once every execution has finished.
+ * Programs run on their own (main method) use a context of their own that is closed when they end.
+ *
+ */
+public class ExecutionContext {
+
+    private DatabaseManager dbManager = null;
+    private String dbFolder = null;
+
+    /**
+     * @return the database manager of the folder provided, opened the first time it's asked for.
+     * It must not be shut down by the executions, the context does it when it's closed.
+     */
+    public synchronized DatabaseManager getDatabaseManager(String folder){
+
+        String absoluteFolder = new File(folder).getAbsolutePath();
+
+        if(dbManager == null){
+            dbManager = new DatabaseManager(folder);
+            dbFolder = absoluteFolder;
+        }else if(!dbFolder.equals(absoluteFolder)){
+            throw new IllegalStateException("The database " + dbFolder + " is already open in this execution context, " +
+                    absoluteFolder + " can't be opened at the same time");
+        }
+
+        return dbManager;
+    }
+
+    /**
+     * Shuts down the database (if it was opened)
+     */
+    public synchronized void close(){
+        if(dbManager != null){
+            dbManager.shutdown();
+            dbManager = null;
+            dbFolder = null;
+        }
+    }
+}
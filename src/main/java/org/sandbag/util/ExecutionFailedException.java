@@ -0,0 +1,21 @@
+package org.sandbag.util;
+
+/**
+ *
+ * Thrown by programs that could not complete their work, so that whoever runs them knows it: ExecutionScheduler
+ * marks the execution as failed instead of recording it as completed in the execution journal, and a program run
+ * on its own ends with an error.
+ *
+ */
+public class ExecutionFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ExecutionFailedException(String message){
+        super(message);
+    }
+
+    public ExecutionFailedException(String message, Throwable cause){
+        super(message, cause);
+    }
+}
@@ -0,0 +1,125 @@
+package org.sandbag.util;
+
+import org.sandbag.model.DatabaseManager;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ *
+ * Append-only file recording the executions of an executions XML file that have completed,
+ * so that ExecuteFile can skip them when the file is run again after a failure.
+ * Every entry is synced to disk before the next execution starts.
+ * Entries are recorded together with the identity of the arguments of the execution once it's done
+ * (size and modification time of files and folders, store id of database folders), so an execution is only
+ * skipped if it would run on the same inputs and database: a new scrape or a wiped database make it run again.
+ * ExecuteFile deletes the journal once every execution of the file has completed.
+ * Deleting the journal file makes every execution run again.
+ *
+ */
+public class ExecutionJournal {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String IDENTITY_SEPARATOR = "\t@";
+
+    private final File file;
+    //identity of the arguments of every completed execution, by execution key
+    private final Map<String, String> completedExecutions = new HashMap<>();
+
+    public ExecutionJournal(File file) throws IOException{
+        this.file = file;
+        if(file.exists()){
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            try{
+                String line;
+                while((line = reader.readLine()) != null){
+                    int separator = line.lastIndexOf(IDENTITY_SEPARATOR);
+                    //entries without identity (journals written by older versions) never match
+                    if(separator > 0){
+                        completedExecutions.put(line.substring(0, separator), line.substring(separator + IDENTITY_SEPARATOR.length()));
+                    }
+                }
+            }finally {
+                reader.close();
+            }
+            System.out.println(completedExecutions.size() + " completed executions found in " + file.getPath());
+        }
+    }
+
+    /**
+     * @param occurrence number of identical executions (same class and arguments) found before this one in the file
+     * @return key identifying the execution within the executions file
+     */
+    public static String getExecutionKey(String classFullName, List<String> arguments, int occurrence){
+        StringBuilder builder = new StringBuilder(classFullName);
+        for(String argument : arguments){
+            builder.append('\t').append(argument.replace('\n', ' '));
+        }
+        builder.append('\t').append('#').append(occurrence);
+        return builder.toString();
+    }
+
+    /**
+     * @return fingerprint of what the arguments provided point to: size and modification time of files,
+     * of the files of folders, and the store id of database folders
+     */
+    public static String getIdentity(List<String> arguments) throws IOException{
+        StringBuilder builder = new StringBuilder();
+        for(String argument : arguments){
+            File argumentFile = new File(argument.trim());
+            if(argument.trim().isEmpty() || !argumentFile.exists()){
+                builder.append("-");
+            }else if(argumentFile.isFile()){
+                builder.append(argumentFile.length()).append(':').append(argumentFile.lastModified());
+            }else{
+                String storeId = DatabaseManager.getStoreId(argumentFile.getPath());
+                if(storeId != null){
+                    //the files of a database change with every transaction, its store id only when it's created
+                    builder.append("db:").append(storeId);
+                }else{
+                    File[] files = argumentFile.listFiles();
+                    if(files != null){
+                        Arrays.sort(files);
+                        for(File folderFile : files){
+                            builder.append(folderFile.getName()).append(':').append(folderFile.length()).append(':')
+                                    .append(folderFile.lastModified()).append('/');
+                        }
+                    }
+                }
+            }
+            builder.append('\t');
+        }
+        return Long.toHexString(RowFingerprints.fingerprint(builder.toString()));
+    }
+
+    /**
+     * @return true if the execution completed with the same identity of its arguments (see getIdentity)
+     */
+    public boolean isCompleted(String executionKey, String identity){
+        String completedIdentity = completedExecutions.get(executionKey);
+        return completedIdentity != null && completedIdentity.equals(identity);
+    }
+
+    public void recordCompleted(String executionKey, String identity) throws IOException{
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try{
+            outputStream.write((executionKey + IDENTITY_SEPARATOR + identity + "\n").getBytes(UTF8));
+            outputStream.flush();
+            outputStream.getFD().sync();
+        }finally {
+            outputStream.close();
+        }
+        completedExecutions.put(executionKey, identity);
+    }
+
+    /**
+     * Deletes the journal, so every execution runs again the next time the file is run
+     */
+    public void delete(){
+        completedExecutions.clear();
+        if(file.exists() && !file.delete()){
+            System.out.println("The journal " + file.getPath() + " couldn't be deleted");
+        }
+    }
+}
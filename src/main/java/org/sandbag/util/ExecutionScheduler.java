@@ -0,0 +1,360 @@
+package org.sandbag.util;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *
+ * Runs the executions of an executions XML file as a dependency graph: an execution starts as soon as
+ * every execution it depends on is done and none of its resources (e.g. "installations", "countries")
+ * is being used by another running execution, so that steps writing disjoint parts of the graph run concurrently.
+ * All of them share the same database handle, taken from the execution context provided.
+ * Executions depending on one that failed are skipped.
+ * Once everything has finished a timing breakdown is printed together with the critical path of the plan.
+ *
+ */
+public class ExecutionScheduler {
+
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+    public static final String SKIPPED = "SKIPPED";
+    public static final String RUNNING = "RUNNING";
+    public static final String ALREADY_COMPLETED = "ALREADY COMPLETED";
+
+    /**
+     * An execution of the plan
+     */
+    public static class Step {
+
+        final String id;
+        final String classFullName;
+        final List<String> arguments;
+        final List<String> dependencies;
+        final Set<String> resources;
+        final String executionKey;
+
+        String state = PENDING;
+        String result = null;
+        long readyTime = -1;
+        long startTime = -1;
+        long endTime = -1;
+
+        public Step(String id, String classFullName, List<String> arguments,
+                    List<String> dependencies, Set<String> resources, String executionKey){
+            this.id = id;
+            this.classFullName = classFullName;
+            this.arguments = arguments;
+            this.dependencies = dependencies;
+            this.resources = resources;
+            this.executionKey = executionKey;
+        }
+
+        public String getId(){
+            return id;
+        }
+
+        long getDuration(){
+            return startTime >= 0 && endTime >= startTime ? endTime - startTime : 0L;
+        }
+    }
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+    private final ExecutionJournal journal;
+    private final ExecutionContext context;
+    private final int threads;
+
+    public ExecutionScheduler(ExecutionJournal journal, ExecutionContext context, int threads){
+        this.journal = journal;
+        this.context = context;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void addStep(Step step){
+        if(steps.containsKey(step.id)){
+            throw new IllegalArgumentException("Duplicated execution id: " + step.id);
+        }
+        steps.put(step.id, step);
+    }
+
+    /**
+     * Checks that every dependency exists and that there are no cycles
+     */
+    public void validate(){
+
+        for(Step step : steps.values()){
+            for(String dependency : step.dependencies){
+                if(!steps.containsKey(dependency)){
+                    throw new IllegalArgumentException("Execution " + step.id + " depends on an unknown execution: " + dependency);
+                }
+            }
+        }
+
+        Map<String, Integer> visitState = new HashMap<>();
+        for(Step step : steps.values()){
+            checkCycles(step, visitState, new LinkedList<String>());
+        }
+    }
+
+    private void checkCycles(Step step, Map<String, Integer> visitState, LinkedList<String> path){
+
+        Integer state = visitState.get(step.id);
+        if(state != null && state == 2){
+            return;
+        }
+        path.addLast(step.id);
+        if(state != null && state == 1){
+            throw new IllegalArgumentException("Dependency cycle between executions: " + path);
+        }
+        visitState.put(step.id, 1);
+        for(String dependency : step.dependencies){
+            checkCycles(steps.get(dependency), visitState, path);
+        }
+        visitState.put(step.id, 2);
+        path.removeLast();
+    }
+
+    /**
+     * Runs every step (skipping those the journal has as completed) and prints the report
+     */
+    public void run() throws InterruptedException{
+
+        validate();
+
+        long startTime = System.currentTimeMillis();
+
+        for(Step step : steps.values()){
+            if(journal != null){
+                try{
+                    if(journal.isCompleted(step.executionKey, ExecutionJournal.getIdentity(step.arguments))){
+                        System.out.println("Skipping execution " + step.id + " (" + step.classFullName + "), it was already completed");
+                        step.state = ALREADY_COMPLETED;
+                    }
+                }catch (IOException e){
+                    //it runs again
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Step> completionService = new ExecutorCompletionService<>(executor);
+        Set<String> busyResources = new HashSet<>();
+        int running = 0;
+
+        try{
+            while(true){
+
+                long now = System.currentTimeMillis();
+                List<Step> readySteps = new LinkedList<>();
+
+                //skipping a step may make steps listed before it skippable as well
+                boolean skipped = true;
+                while(skipped){
+                    skipped = false;
+                    for(Step step : steps.values()){
+                        if(step.state.equals(PENDING) && getDependenciesState(step).equals(SKIPPED)){
+                            System.out.println("Skipping execution " + step.id + " (" + step.classFullName + "), one of its dependencies failed");
+                            step.state = SKIPPED;
+                            skipped = true;
+                        }
+                    }
+                }
+
+                for(Step step : steps.values()){
+                    if(step.state.equals(PENDING) && getDependenciesState(step).equals(DONE)){
+                        if(step.readyTime < 0){
+                            step.readyTime = now;
+                        }
+                        readySteps.add(step);
+                    }
+                }
+
+                //steps are started in file order as long as there are free threads and their resources aren't busy
+                for(Step step : readySteps){
+                    if(running >= threads){
+                        break;
+                    }
+                    if(Collections.disjoint(step.resources, busyResources)){
+                        busyResources.addAll(step.resources);
+                        step.state = RUNNING;
+                        step.startTime = System.currentTimeMillis();
+                        completionService.submit(newTask(step), step);
+                        running++;
+                    }
+                }
+
+                if(running == 0){
+                    break;
+                }
+
+                Future<Step> future = completionService.take();
+                Step finishedStep;
+                try{
+                    finishedStep = future.get();
+                }catch (ExecutionException e){
+                    //tasks catch everything they can throw, this should never happen
+                    throw new IllegalStateException(e.getCause());
+                }
+                running--;
+                finishedStep.state = finishedStep.result;
+                busyResources.removeAll(finishedStep.resources);
+            }
+        }finally {
+            executor.shutdown();
+        }
+
+        printReport(System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * @return true once run if every step is done or was already completed (none failed or was skipped)
+     */
+    public boolean isSuccessful(){
+        for(Step step : steps.values()){
+            if(!step.state.equals(DONE) && !step.state.equals(ALREADY_COMPLETED)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return DONE when every dependency is done, SKIPPED when one of them failed or was skipped, PENDING otherwise
+     */
+    private String getDependenciesState(Step step){
+        String result = DONE;
+        for(String dependency : step.dependencies){
+            String state = steps.get(dependency).state;
+            if(state.equals(FAILED) || state.equals(SKIPPED)){
+                return SKIPPED;
+            }
+            if(!state.equals(DONE) && !state.equals(ALREADY_COMPLETED)){
+                result = PENDING;
+            }
+        }
+        return result;
+    }
+
+    private Runnable newTask(final Step step){
+        return new Runnable() {
+            @Override
+            public void run() {
+
+                Thread thread = Thread.currentThread();
+                String threadName = thread.getName();
+                thread.setName(step.id);
+
+                System.out.println("Starting execution " + step.id + " (" + step.classFullName + ")");
+
+                String state;
+                try{
+                    Class classToExecute = Class.forName(step.classFullName);
+                    Executable executable = (Executable) classToExecute.newInstance();
+                    if(executable instanceof ContextExecutable){
+                        ((ContextExecutable) executable).execute(step.arguments, context);
+                    }else{
+                        executable.execute(step.arguments);
+                    }
+                    state = DONE;
+                }catch (Throwable e){
+                    e.printStackTrace();
+                    state = FAILED;
+                }
+
+                if(state.equals(DONE) && journal != null){
+                    try{
+                        synchronized (journal){
+                            journal.recordCompleted(step.executionKey, ExecutionJournal.getIdentity(step.arguments));
+                        }
+                    }catch (IOException e){
+                        e.printStackTrace();
+                    }
+                }
+
+                step.endTime = System.currentTimeMillis();
+                //the scheduler thread publishes the result as the state of the step once the future is done
+                step.result = state;
+
+                System.out.println("Execution " + step.id + " finished: " + state + " (" + formatTime(step.getDuration()) + ")");
+                thread.setName(threadName);
+            }
+        };
+    }
+
+    private void printReport(long wallTime){
+
+        long origin = Long.MAX_VALUE;
+        long stepsTime = 0L;
+        for(Step step : steps.values()){
+            if(step.startTime >= 0){
+                origin = Math.min(origin, step.startTime);
+            }
+            stepsTime += step.getDuration();
+        }
+
+        System.out.println("\nExecution report");
+        System.out.println(String.format("%-32s %-50s %10s %10s %10s  %s", "Step", "Class", "Start", "Duration", "Wait", "State"));
+        for(Step step : steps.values()){
+            String className = step.classFullName.substring(step.classFullName.lastIndexOf('.') + 1);
+            if(step.startTime >= 0){
+                System.out.println(String.format("%-32s %-50s %10s %10s %10s  %s", step.id, className,
+                        formatTime(step.startTime - origin), formatTime(step.getDuration()),
+                        formatTime(step.startTime - step.readyTime), step.state));
+            }else{
+                System.out.println(String.format("%-32s %-50s %10s %10s %10s  %s", step.id, className, "-", "-", "-", step.state));
+            }
+        }
+
+        System.out.println("\nWall time: " + formatTime(wallTime) + ", sum of the steps: " + formatTime(stepsTime) +
+                (wallTime > 0 ? String.format(" (parallelism %.2f)", (double) stepsTime / wallTime) : ""));
+
+        //critical path: longest chain of measured durations following the dependencies
+        Map<String, Long> earliestFinish = new HashMap<>();
+        Map<String, String> criticalDependency = new HashMap<>();
+        String lastStep = null;
+        for(Step step : steps.values()){
+            computeEarliestFinish(step, earliestFinish, criticalDependency);
+            if(lastStep == null || earliestFinish.get(step.id) > earliestFinish.get(lastStep)){
+                lastStep = step.id;
+            }
+        }
+
+        if(lastStep != null){
+            LinkedList<String> path = new LinkedList<>();
+            for(String id = lastStep; id != null; id = criticalDependency.get(id)){
+                path.addFirst(id);
+            }
+            System.out.println("Critical path (" + formatTime(earliestFinish.get(lastStep)) + "):");
+            for(String id : path){
+                System.out.println("    " + id + " " + formatTime(steps.get(id).getDuration()));
+            }
+        }
+    }
+
+    private long computeEarliestFinish(Step step, Map<String, Long> earliestFinish, Map<String, String> criticalDependency){
+
+        Long value = earliestFinish.get(step.id);
+        if(value != null){
+            return value;
+        }
+
+        long start = 0L;
+        for(String dependency : step.dependencies){
+            long finish = computeEarliestFinish(steps.get(dependency), earliestFinish, criticalDependency);
+            if(finish > start || !criticalDependency.containsKey(step.id)){
+                start = finish;
+                criticalDependency.put(step.id, dependency);
+            }
+        }
+
+        long finish = start + step.getDuration();
+        earliestFinish.put(step.id, finish);
+        return finish;
+    }
+
+    private static String formatTime(long millis){
+        return String.format("%.1fs", millis / 1000.0);
+    }
+}
@@ -0,0 +1,278 @@
+package org.sandbag.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *
+ * Sorts the lines of a tab separated file by some of their fields in bounded memory: lines are read in runs
+ * that fit in the memory provided, every run is sorted and written to a temporary file, and the runs are then
+ * merged (k-way) as the sorted lines are read. Files that fit in a single run are sorted in memory.
+ * Keys are the fields provided joined by tabs (trimmed, see FieldReader) and compared as Strings; lines with the
+ * same key keep the order they had in the file. Blank lines are skipped.
+ *
+ * Usage:
+ * <pre>
+ *     SortedLines lines = new ExternalSorter(new int[]{0, 2}, 64L << 20, null).sort(file, true);
+ *     while(lines.next()){
+ *         String key = lines.getKey();
+ *         String line = lines.getLine();
+ *     }
+ *     lines.close();
+ * </pre>
+ *
+ */
+public class ExternalSorter {
+
+    //bytes taken by the objects of a line on top of its characters
+    private static final int LINE_OVERHEAD = 96;
+
+    private static final Comparator<String[]> KEY_ORDER = new Comparator<String[]>() {
+        @Override
+        public int compare(String[] first, String[] second) {
+            return first[0].compareTo(second[0]);
+        }
+    };
+
+    private final int[] keyFields;
+    private final long memory;
+    private final File tempFolder;
+
+    /**
+     * @param keyFields fields the lines are sorted by
+     * @param memory bytes the lines of a run can take
+     * @param tempFolder folder of the runs, null for the default temporary folder
+     */
+    public ExternalSorter(int[] keyFields, long memory, File tempFolder){
+        this.keyFields = keyFields.clone();
+        this.memory = memory;
+        this.tempFolder = tempFolder;
+    }
+
+    /**
+     * @param header whether the first line of the file is a header, which is not sorted (see SortedLines.getHeader)
+     * @return the lines of the file sorted by key, they must be closed once read so that the runs are deleted
+     */
+    public SortedLines sort(File file, boolean header) throws IOException{
+
+        List<File> runs = new ArrayList<>();
+        List<String[]> lines = new ArrayList<>();
+        String headerLine = null;
+
+        FieldReader fields = new FieldReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), '\t');
+        try{
+            if(header && fields.nextLine()){
+                headerLine = fields.getLine();
+            }
+            long used = 0;
+            while(fields.nextLine()){
+                if(fields.isBlank()){
+                    continue;
+                }
+                String line = fields.getLine();
+                String key = getKey(fields);
+                lines.add(new String[]{key, line});
+                used += 2L * (key.length() + line.length()) + LINE_OVERHEAD;
+                if(used >= memory){
+                    runs.add(writeRun(lines));
+                    lines.clear();
+                    used = 0;
+                }
+            }
+        }catch (IOException e){
+            deleteRuns(runs);
+            throw e;
+        }finally {
+            fields.close();
+        }
+
+        if(runs.isEmpty()){
+            Collections.sort(lines, KEY_ORDER);
+            return new MemoryLines(headerLine, lines);
+        }
+
+        if(!lines.isEmpty()){
+            runs.add(writeRun(lines));
+        }
+        System.out.println(file.getName() + " sorted in " + runs.size() + " runs, merging them...");
+        return new MergedRuns(headerLine, runs);
+    }
+
+    private String getKey(FieldReader fields){
+        StringBuilder key = new StringBuilder();
+        for(int i = 0; i < keyFields.length; i++){
+            if(i > 0){
+                key.append('\t');
+            }
+            if(keyFields[i] < fields.getFieldCount()){
+                key.append(fields.getString(keyFields[i]));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Sorts the lines and writes them to a run, every line preceded by its key
+     */
+    private File writeRun(List<String[]> lines) throws IOException{
+        //the sort is stable, lines with the same key keep their order
+        Collections.sort(lines, KEY_ORDER);
+        File run = File.createTempFile("run", ".tsv", tempFolder);
+        run.deleteOnExit();
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), "UTF-8"));
+        try{
+            for(String[] line : lines){
+                writer.write(line[0]);
+                writer.write('\n');
+                writer.write(line[1]);
+                writer.write('\n');
+            }
+        }finally {
+            writer.close();
+        }
+        return run;
+    }
+
+    private static void deleteRuns(List<File> runs){
+        for(File run : runs){
+            run.delete();
+        }
+    }
+
+    /**
+     * Lines of a file sorted by key, read one after the other
+     */
+    public static abstract class SortedLines implements Closeable {
+
+        private final String header;
+        protected String key;
+        protected String line;
+
+        SortedLines(String header){
+            this.header = header;
+        }
+
+        /**
+         * @return whether there's another line
+         */
+        public abstract boolean next() throws IOException;
+
+        public String getKey(){
+            return key;
+        }
+
+        public String getLine(){
+            return line;
+        }
+
+        /**
+         * @return first line of the file when it has a header, null otherwise
+         */
+        public String getHeader(){
+            return header;
+        }
+    }
+
+    private static class MemoryLines extends SortedLines {
+
+        private final Iterator<String[]> iterator;
+
+        MemoryLines(String header, List<String[]> lines){
+            super(header);
+            iterator = lines.iterator();
+        }
+
+        @Override
+        public boolean next(){
+            if(!iterator.hasNext()){
+                key = null;
+                line = null;
+                return false;
+            }
+            String[] next = iterator.next();
+            key = next[0];
+            line = next[1];
+            return true;
+        }
+
+        @Override
+        public void close(){
+        }
+    }
+
+    private static class MergedRuns extends SortedLines {
+
+        private final List<File> runs;
+        private final BufferedReader[] readers;
+        //readers with a line left, by key and then by run so that lines with the same key keep their order
+        private final PriorityQueue<Run> queue = new PriorityQueue<>(11, new Comparator<Run>() {
+            @Override
+            public int compare(Run first, Run second) {
+                int result = first.key.compareTo(second.key);
+                return result != 0 ? result : Integer.compare(first.index, second.index);
+            }
+        });
+
+        MergedRuns(String header, List<File> runs) throws IOException{
+            super(header);
+            this.runs = runs;
+            readers = new BufferedReader[runs.size()];
+            try{
+                for(int index = 0; index < runs.size(); index++){
+                    readers[index] = new BufferedReader(new InputStreamReader(new FileInputStream(runs.get(index)),
+                            "UTF-8"), 1 << 16);
+                    Run run = new Run(index);
+                    if(run.read(readers[index])){
+                        queue.add(run);
+                    }
+                }
+            }catch (IOException e){
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException{
+            Run run = queue.poll();
+            if(run == null){
+                key = null;
+                line = null;
+                return false;
+            }
+            key = run.key;
+            line = run.line;
+            if(run.read(readers[run.index])){
+                queue.add(run);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException{
+            for(BufferedReader reader : readers){
+                if(reader != null){
+                    reader.close();
+                }
+            }
+            deleteRuns(runs);
+        }
+    }
+
+    private static class Run {
+
+        final int index;
+        String key;
+        String line;
+
+        Run(int index){
+            this.index = index;
+        }
+
+        boolean read(BufferedReader reader) throws IOException{
+            key = reader.readLine();
+            line = key != null ? reader.readLine() : null;
+            return line != null;
+        }
+    }
+}
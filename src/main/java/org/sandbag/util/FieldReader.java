@@ -0,0 +1,470 @@
+package org.sandbag.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ *
+ * Reusable reader for separated-values files (TSV/CSV without quoting) that doesn't allocate anything per line.
+ *
+ * Lines are read into a single char buffer and only the boundaries of their fields are recorded,
+ * so that the caller decides which fields are materialized as (trimmed) Strings and which ones are
+ * just checked or parsed as numbers straight from the buffer.
+ * Fields are separated exactly as line.split(separator, -1) would do, and lines are terminated by
+ * '\n', '\r' or "\r\n" like BufferedReader.readLine() does.
+ *
+ * The values returned are only valid until the next line is read. Instances are not thread safe.
+ *
+ * Usage:
+ * <pre>
+ *     FieldReader fields = new FieldReader(new FileReader(file), '\t');
+ *     fields.nextLine(); //skipping header
+ *     while(fields.nextLine()){
+ *         String id = fields.getString(0);
+ *         double value = fields.getDouble(3);
+ *     }
+ *     fields.close();
+ * </pre>
+ *
+ */
+public class FieldReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    //powers of ten that can be represented exactly as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    //a mantissa with up to 15 digits always fits in the 53 bits of a double
+    private static final int MAX_FAST_PATH_DIGITS = 15;
+
+    //results of parseDouble
+    public static final int VALID_NUMBER = 0;
+    public static final int EMPTY_FIELD = 1;
+    public static final int INVALID_NUMBER = 2;
+
+    private final Reader reader;
+    private final char separator;
+
+    private final char[] buffer;
+    private int bufferPosition = 0;
+    private int bufferLimit = 0;
+    private boolean skipLineFeed = false;
+
+    private char[] line = new char[1024];
+    private int lineLength = 0;
+
+    //field i goes from fieldStarts[i] (inclusive) to fieldEnds[i] (exclusive), already trimmed
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private int fieldCount = 0;
+
+    private long lineNumber = 0;
+
+    private double parsedDouble;
+
+    /**
+     * @param reader reader the lines are read from (no need to wrap it in a BufferedReader)
+     * @param separator field separator, e.g. '\t'
+     */
+    public FieldReader(Reader reader, char separator){
+        this.reader = reader;
+        this.separator = separator;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a field reader for lines that are read somewhere else (see setLine)
+     */
+    public FieldReader(char separator){
+        this.reader = null;
+        this.separator = separator;
+        this.buffer = null;
+    }
+
+    //--------------------------------------LINES-------------------------------------------
+
+    /**
+     * Reads the next line
+     *
+     * @return false when there are no more lines
+     */
+    public boolean nextLine() throws IOException{
+
+        lineLength = 0;
+        boolean lineFound = false;
+
+        while(true){
+
+            if(bufferPosition >= bufferLimit){
+                bufferLimit = reader.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if(bufferLimit <= 0){
+                    bufferLimit = 0;
+                    break;
+                }
+            }
+
+            if(skipLineFeed){
+                skipLineFeed = false;
+                if(buffer[bufferPosition] == '\n'){
+                    bufferPosition++;
+                    continue;
+                }
+            }
+
+            lineFound = true;
+
+            int start = bufferPosition;
+            int end = start;
+            while(end < bufferLimit && buffer[end] != '\n' && buffer[end] != '\r'){
+                end++;
+            }
+            append(buffer, start, end - start);
+            bufferPosition = end;
+
+            if(end < bufferLimit){
+                skipLineFeed = buffer[end] == '\r';
+                bufferPosition++;
+                break;
+            }
+        }
+
+        if(!lineFound){
+            fieldCount = 0;
+            return false;
+        }
+
+        lineNumber++;
+        tokenize();
+        return true;
+    }
+
+    /**
+     * Sets the line whose fields are going to be read (it's copied into the internal buffer)
+     */
+    public void setLine(String value){
+        lineLength = 0;
+        int length = value.length();
+        ensureLineCapacity(length);
+        value.getChars(0, length, line, 0);
+        lineLength = length;
+        lineNumber++;
+        tokenize();
+    }
+
+    private void append(char[] chars, int offset, int length){
+        ensureLineCapacity(lineLength + length);
+        System.arraycopy(chars, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void ensureLineCapacity(int capacity){
+        if(capacity > line.length){
+            char[] newLine = new char[Math.max(capacity, line.length * 2)];
+            System.arraycopy(line, 0, newLine, 0, lineLength);
+            line = newLine;
+        }
+    }
+
+    private void tokenize(){
+
+        fieldCount = 0;
+        int start = 0;
+
+        for(int i = 0; i <= lineLength; i++){
+            if(i == lineLength || line[i] == separator){
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+    }
+
+    private void addField(int start, int end){
+
+        if(fieldCount == fieldStarts.length){
+            int[] newStarts = new int[fieldCount * 2];
+            int[] newEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+        }
+
+        //same trimming as String.trim()
+        while(start < end && line[start] <= ' '){
+            start++;
+        }
+        while(end > start && line[end - 1] <= ' '){
+            end--;
+        }
+
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * @return the current line as a String (meant for error messages)
+     */
+    public String getLine(){
+        return new String(line, 0, lineLength);
+    }
+
+    /**
+     * @return number of the current line (starting at 1, header included)
+     */
+    public long getLineNumber(){
+        return lineNumber;
+    }
+
+    /**
+     * @return true when the current line has nothing but whitespace
+     */
+    public boolean isBlank(){
+        for(int i = 0; i < lineLength; i++){
+            if(line[i] > ' '){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void close() throws IOException{
+        if(reader != null){
+            reader.close();
+        }
+    }
+
+    //--------------------------------------FIELDS-------------------------------------------
+
+    public int getFieldCount(){
+        return fieldCount;
+    }
+
+    private void checkField(int field){
+        if(field < 0 || field >= fieldCount){
+            throw new ArrayIndexOutOfBoundsException("Field " + field + " not found in line " + lineNumber +
+                    " (" + fieldCount + " fields)");
+        }
+    }
+
+    /**
+     * @return length of the field once trimmed
+     */
+    public int getLength(int field){
+        checkField(field);
+        return fieldEnds[field] - fieldStarts[field];
+    }
+
+    public boolean isEmpty(int field){
+        return getLength(field) == 0;
+    }
+
+    /**
+     * @return the field trimmed
+     */
+    public String getString(int field){
+        checkField(field);
+        return new String(line, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    /**
+     * @return the part of the (trimmed) field going from beginIndex (inclusive) to endIndex (exclusive)
+     */
+    public String getString(int field, int beginIndex, int endIndex){
+        checkField(field);
+        int start = fieldStarts[field];
+        if(beginIndex < 0 || endIndex > fieldEnds[field] - start || beginIndex > endIndex){
+            throw new StringIndexOutOfBoundsException("Range [" + beginIndex + "," + endIndex + ") out of field " + field);
+        }
+        return new String(line, start + beginIndex, endIndex - beginIndex);
+    }
+
+    public char getChar(int field, int index){
+        checkField(field);
+        return line[fieldStarts[field] + index];
+    }
+
+    /**
+     * @return index of the first occurrence of the char in the (trimmed) field from fromIndex on, -1 if it's not there
+     */
+    public int indexOf(int field, char value, int fromIndex){
+        checkField(field);
+        int start = fieldStarts[field];
+        for(int i = start + Math.max(0, fromIndex); i < fieldEnds[field]; i++){
+            if(line[i] == value){
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the (trimmed) field is equal to the value provided
+     */
+    public boolean equals(int field, String value){
+        checkField(field);
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if(length != value.length()){
+            return false;
+        }
+        for(int i = 0; i < length; i++){
+            if(line[start + i] != value.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the field as a double without throwing any exception, so that placeholders like "Excluded" or "-"
+     * cost no more than numbers do. Plain decimal numbers with up to 15 digits are parsed straight from the buffer,
+     * other valid values (exponents, longer numbers, ...) are checked first and then handed to Double.parseDouble,
+     * so the values obtained are always the ones Double.parseDouble would give.
+     * Hexadecimal notation is not accepted.
+     *
+     * @return VALID_NUMBER (the value can be retrieved with getParsedDouble()), EMPTY_FIELD or INVALID_NUMBER
+     */
+    public int parseDouble(int field){
+
+        checkField(field);
+
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+
+        if(start == end){
+            return EMPTY_FIELD;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if(line[i] == '-' || line[i] == '+'){
+            negative = line[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean dotFound = false;
+
+        for(; i < end; i++){
+            char c = line[i];
+            if(c >= '0' && c <= '9'){
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if(dotFound){
+                    fractionDigits++;
+                }
+            }else if(c == '.' && !dotFound){
+                dotFound = true;
+            }else{
+                break;
+            }
+        }
+
+        if(i == end && digits > 0 && digits <= MAX_FAST_PATH_DIGITS){
+            //both values are exact, so the division is correctly rounded (same result as Double.parseDouble)
+            double value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+            parsedDouble = negative ? -value : value;
+            return VALID_NUMBER;
+        }
+
+        if(!isDecimalNumber(start, end)){
+            return INVALID_NUMBER;
+        }
+
+        parsedDouble = Double.parseDouble(new String(line, start, end - start));
+        return VALID_NUMBER;
+    }
+
+    /**
+     * @return the value found by the last call to parseDouble that returned VALID_NUMBER
+     */
+    public double getParsedDouble(){
+        return parsedDouble;
+    }
+
+    /**
+     * Same as parseDouble, for fields that must hold a number
+     *
+     * @throws NumberFormatException if the field is empty or not a valid number
+     */
+    public double getDouble(int field){
+        int status = parseDouble(field);
+        if(status == EMPTY_FIELD){
+            throw new NumberFormatException("empty String");
+        }else if(status == INVALID_NUMBER){
+            throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+        }
+        return parsedDouble;
+    }
+
+    /**
+     * Checks the syntax accepted by Double.parseDouble for decimal values:
+     * [sign] (NaN | Infinity | digits [. [digits]] [exponent] [fFdD] | . digits [exponent] [fFdD])
+     */
+    private boolean isDecimalNumber(int start, int end){
+
+        int i = start;
+        if(line[i] == '-' || line[i] == '+'){
+            i++;
+        }
+
+        if(matches(i, end, "NaN") || matches(i, end, "Infinity")){
+            return true;
+        }
+
+        int digits = 0;
+        while(i < end && line[i] >= '0' && line[i] <= '9'){
+            i++;
+            digits++;
+        }
+        if(i < end && line[i] == '.'){
+            i++;
+            while(i < end && line[i] >= '0' && line[i] <= '9'){
+                i++;
+                digits++;
+            }
+        }
+        if(digits == 0){
+            return false;
+        }
+
+        if(i < end && (line[i] == 'e' || line[i] == 'E')){
+            i++;
+            if(i < end && (line[i] == '-' || line[i] == '+')){
+                i++;
+            }
+            int exponentDigits = 0;
+            while(i < end && line[i] >= '0' && line[i] <= '9'){
+                i++;
+                exponentDigits++;
+            }
+            if(exponentDigits == 0){
+                return false;
+            }
+        }
+
+        if(i < end && (line[i] == 'f' || line[i] == 'F' || line[i] == 'd' || line[i] == 'D')){
+            i++;
+        }
+
+        return i == end;
+    }
+
+    private boolean matches(int start, int end, String value){
+        if(end - start != value.length()){
+            return false;
+        }
+        for(int i = 0; i < value.length(); i++){
+            if(line[start + i] != value.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
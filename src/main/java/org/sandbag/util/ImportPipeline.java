@@ -0,0 +1,296 @@
+package org.sandbag.util;
+
+import org.sandbag.model.BatchTransaction;
+import org.sandbag.model.DatabaseManager;
+import org.sandbag.model.ImportJournal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ *
+ * Parallel parse / single writer pipeline for importing a set of files.
+ *
+ * A pool of reader threads parses the files into typed rows, while the calling thread is the only one
+ * writing to the graph, in batched transactions (see BatchTransaction). Every file has its own bounded queue of row chunks and the
+ * writer consumes the files in the order they were provided, so rows are applied exactly in the same order
+ * as a sequential import would do. Readers block when the queue of their file is full (back-pressure),
+ * which keeps memory usage bounded to (reader threads x queue capacity x chunk size) rows.
+ * Files are handed to the readers in order too, so the file the writer is waiting for is always being parsed.
+ *
+ * When an import journal is provided, the file and line reached are recorded within every batch transaction,
+ * so that a restarted import skips the files already imported and resumes the others right after the last line committed.
+ * A row that can't be written (or a file that can't be read) stops the import, rolling back the batch being written
+ * (see ImportFailedException).
+ *
+ */
+public class ImportPipeline {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+    public static final int DEFAULT_INITIAL_BATCH_SIZE = 5000;
+
+    /**
+     * Converts the fields of a line into a row, returning null for lines that must be skipped
+     */
+    public interface RowParser<R> {
+        R parse(FieldReader fields) throws Exception;
+    }
+
+    /**
+     * Applies rows to the graph, always called from the writer thread within a transaction
+     */
+    public interface RowWriter<R> {
+        void startFile(File file);
+        /**
+         * @return approximate number of nodes, relationships and properties written
+         */
+        int write(R row) throws Exception;
+        void endFile(File file);
+    }
+
+    /**
+     * Thrown when a file can't be read, one of its rows can't be written or the import is interrupted: the rows of
+     * the current batch are rolled back, so a restarted import resumes right after the last line committed
+     * (see ImportJournal)
+     */
+    public static class ImportFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ImportFailedException(String message, Throwable cause){
+            super(message, cause);
+        }
+    }
+
+    private static class Chunk<R> {
+        final List<R> rows;
+        //line number of every row
+        final long[] lineNumbers;
+        final boolean last;
+        final Exception error;
+        Chunk(List<R> rows, long[] lineNumbers, boolean last, Exception error){
+            this.rows = rows;
+            this.lineNumbers = lineNumbers;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private final DatabaseManager dbManager;
+    private final int readerThreads;
+    private final int chunkSize;
+    private final int queueCapacity;
+    private final int initialBatchSize;
+    private ImportJournal journal = null;
+
+    //file and line reached by the writer, recorded in the journal before every commit
+    private File writerFile = null;
+    private long writerLine = 0;
+
+    public ImportPipeline(DatabaseManager dbManager){
+        this(dbManager, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_CAPACITY, DEFAULT_INITIAL_BATCH_SIZE);
+    }
+
+    public ImportPipeline(DatabaseManager dbManager, int readerThreads, int chunkSize, int queueCapacity, int initialBatchSize){
+        this.dbManager = dbManager;
+        this.readerThreads = readerThreads;
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+        this.initialBatchSize = initialBatchSize;
+    }
+
+    /**
+     * @param journal journal where the progress of the import is recorded (the name of the import is used as step name)
+     */
+    public void setJournal(ImportJournal journal){
+        this.journal = journal;
+    }
+
+    /**
+     * Imports the tab separated files provided (their first line is considered a header and skipped)
+     *
+     * @param name name of the import, used in progress messages
+     * @param files files to be imported, in the order their rows must be applied
+     * @param charset charset of the files
+     * @param parser parser run by the reader threads
+     * @param writer writer run by the calling thread
+     * @throws ImportFailedException when a file can't be read or a row can't be written
+     */
+    public <R> void run(final String name, List<File> files, final Charset charset, final RowParser<R> parser, RowWriter<R> writer){
+
+        final List<BlockingQueue<Chunk<R>>> queues = new ArrayList<>();
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(readerThreads, Math.max(1, files.size())));
+
+        for(final File file : files){
+            if(journal != null && journal.isFileCompleted(name, file)){
+                queues.add(null);
+                continue;
+            }
+            final long committedLines = journal != null ? journal.getCommittedLines(name, file) : ImportJournal.NOT_STARTED;
+            final BlockingQueue<Chunk<R>> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            readers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    readFile(file, charset, parser, queue, committedLines);
+                }
+            });
+        }
+        readers.shutdown();
+
+        BatchTransaction batch = new BatchTransaction(dbManager, name, initialBatchSize);
+        if(journal != null){
+            batch.setCheckpoint(new BatchTransaction.Checkpoint() {
+                @Override
+                public void write() {
+                    if(writerFile != null){
+                        journal.recordCommittedLines(name, writerFile, writerLine);
+                    }
+                }
+            });
+        }
+        boolean finished = false;
+
+        try{
+
+            for(int i = 0; i < files.size(); i++){
+
+                File file = files.get(i);
+                BlockingQueue<Chunk<R>> queue = queues.get(i);
+
+                if(queue == null){
+                    System.out.println("File " + file.getName() + " was already imported, skipping it");
+                    continue;
+                }
+
+                long committedLines = journal != null ? journal.getCommittedLines(name, file) : ImportJournal.NOT_STARTED;
+                if(committedLines > ImportJournal.NOT_STARTED){
+                    System.out.println("Resuming file " + file.getName() + " after line " + committedLines);
+                }else{
+                    System.out.println("Importing file " + file.getName());
+                }
+                writer.startFile(file);
+                writerFile = file;
+                writerLine = committedLines;
+
+                int lineCounter = 0;
+                boolean fileFinished = false;
+
+                while(!fileFinished){
+
+                    Chunk<R> chunk = queue.take();
+
+                    for(int j = 0; j < chunk.rows.size(); j++){
+                        int writes;
+                        try{
+                            writes = writer.write(chunk.rows.get(j));
+                        }catch (Exception e){
+                            //the row may be half written: the whole batch is rolled back (see finally) so that
+                            //neither the row nor a checkpoint past the last line committed ever reach the database
+                            throw new ImportFailedException("Line " + chunk.lineNumbers[j] + " of file " +
+                                    file.getName() + " could not be written, rolling back the rows not committed", e);
+                        }
+                        lineCounter++;
+                        writerLine = chunk.lineNumbers[j];
+                        batch.rowDone(writes);
+                    }
+
+                    if(chunk.error != null){
+                        //the rest of the file was not read, it must not be recorded as completed
+                        throw new ImportFailedException("Error reading file " + file.getName() + " after " +
+                                lineCounter + " lines", chunk.error);
+                    }
+
+                    fileFinished = chunk.last;
+                }
+
+                writer.endFile(file);
+                queues.set(i, null);
+                if(journal != null){
+                    //committed along with the next batch
+                    journal.recordFileCompleted(name, file);
+                }
+                writerFile = null;
+
+                System.out.println(lineCounter + " lines imported from " + file.getName());
+            }
+
+            batch.finish();
+            finished = true;
+
+        }catch (InterruptedException e){
+            //the rows not committed are rolled back (see finally), the import must not be taken as completed
+            Thread.currentThread().interrupt();
+            throw new ImportFailedException("Import of " + name + " interrupted, rolling back the rows not committed", e);
+        }finally {
+            if(!finished){
+                batch.abort();
+            }
+            //no-op when everything went fine, otherwise it releases the readers blocked on their queues
+            readers.shutdownNow();
+        }
+    }
+
+    /**
+     * @param skippedLines number of lines (header included) already imported
+     */
+    private <R> void readFile(File file, Charset charset, RowParser<R> parser, BlockingQueue<Chunk<R>> queue, long skippedLines){
+
+        List<R> rows = new ArrayList<>(chunkSize);
+        long[] lineNumbers = new long[chunkSize];
+        Exception error = null;
+
+        try{
+
+            FieldReader fields = new FieldReader(new InputStreamReader(new FileInputStream(file), charset), '\t');
+            try{
+                fields.nextLine(); //skipping header
+
+                while(fields.nextLine()){
+
+                    if(fields.getLineNumber() <= skippedLines){
+                        continue;
+                    }
+
+                    R row;
+                    try{
+                        row = parser.parse(fields);
+                    }catch (Exception e){
+                        System.out.println("Line could not be parsed (" + file.getName() + "): " + fields.getLine());
+                        e.printStackTrace();
+                        row = null;
+                    }
+
+                    if(row != null){
+                        lineNumbers[rows.size()] = fields.getLineNumber();
+                        rows.add(row);
+                        if(rows.size() == chunkSize){
+                            queue.put(new Chunk<>(rows, lineNumbers, false, null));
+                            rows = new ArrayList<>(chunkSize);
+                            lineNumbers = new long[chunkSize];
+                        }
+                    }
+                }
+            }finally {
+                fields.close();
+            }
+
+        }catch (InterruptedException e){
+            return;
+        }catch (Exception e){
+            error = e;
+        }
+
+        try{
+            queue.put(new Chunk<>(rows, lineNumbers, true, error));
+        }catch (InterruptedException e){
+            //the writer gave up
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.sandbag.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Open addressing (linear probing) hash map from primitive long keys to primitive long values,
+ * the long counterpart of StringLongMap for composite keys packed into a long (e.g. node id + period + type).
+ * Long.MIN_VALUE is reserved to mark empty slots and cannot be used as a key.
+ * Missing keys are reported with NOT_FOUND.
+ *
+ */
+public class LongLongMap {
+
+    public static final long NOT_FOUND = -1L;
+
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public LongLongMap(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongLongMap(int expectedSize){
+        int capacity = DEFAULT_CAPACITY;
+        while(capacity * LOAD_FACTOR < expectedSize){
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public boolean containsKey(long key){
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value associated to the key or NOT_FOUND when there's none
+     */
+    public long get(long key){
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : NOT_FOUND;
+    }
+
+    /**
+     * @return the previous value associated to the key or NOT_FOUND when there was none
+     */
+    public long put(long key, long value){
+        if(key == EMPTY_KEY){
+            throw new IllegalArgumentException("Long.MIN_VALUE cannot be used as a key");
+        }
+        int index = hash(key) & mask;
+        while(keys[index] != EMPTY_KEY){
+            if(keys[index] == key){
+                long previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if(++size > threshold){
+            allocate(keys.length << 1);
+        }
+        return NOT_FOUND;
+    }
+
+    public void clear(){
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+    }
+
+    private int indexOf(long key){
+        int index = hash(key) & mask;
+        while(keys[index] != EMPTY_KEY){
+            if(keys[index] == key){
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity){
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        values = new long[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+
+        if(oldKeys != null){
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i] != EMPTY_KEY){
+                    int index = hash(oldKeys[i]) & mask;
+                    while(keys[index] != EMPTY_KEY){
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.sandbag.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ *
+ * Differences between two mega files (see ExportDBToMegaFiles) in bounded memory: both files are sorted by account
+ * (type and installation / aircraft operator id) with ExternalSorter and then merge-joined, so that only the line
+ * of every file being compared is kept in memory.
+ * Accounts only in the new file are added, accounts only in the old one removed, and accounts in both are changed
+ * when the value of a column of both files is different. Columns are matched by name, so files with different
+ * columns (e.g. exported for different years) can be compared on the ones they share.
+ *
+ */
+public class MegaFileDiff {
+
+    public static final int TYPE_FIELD = 0;
+    public static final int ID_FIELD = 2;
+
+    public static final int ADDED = 0;
+    public static final int REMOVED = 1;
+    public static final int CHANGED = 2;
+    public static final int UNCHANGED = 3;
+
+    /**
+     * Receives the differences in the order of the keys (type and id separated by a tab)
+     */
+    public interface Listener {
+
+        void added(String key, String newLine) throws IOException;
+
+        void removed(String key, String oldLine) throws IOException;
+
+        /**
+         * @param columns names of the columns whose values have changed, with their old and new values
+         */
+        void changed(String key, String oldLine, String newLine, List<String> columns, List<String> oldValues,
+                     List<String> newValues) throws IOException;
+    }
+
+    private final ExternalSorter sorter;
+
+    /**
+     * @param memory bytes the lines being sorted can take (per file, files are sorted one after the other)
+     * @param tempFolder folder of the temporary files, null for the default temporary folder
+     */
+    public MegaFileDiff(long memory, File tempFolder){
+        sorter = new ExternalSorter(new int[]{TYPE_FIELD, ID_FIELD}, memory, tempFolder);
+    }
+
+    /**
+     * @return number of accounts ADDED, REMOVED, CHANGED and UNCHANGED
+     */
+    public long[] diff(File oldFile, File newFile, Listener listener) throws IOException{
+
+        long[] counts = new long[4];
+
+        ExternalSorter.SortedLines oldLines = sorter.sort(oldFile, true);
+        ExternalSorter.SortedLines newLines = null;
+        try{
+            newLines = sorter.sort(newFile, true);
+
+            String[] oldColumns = split(oldLines.getHeader());
+            String[] newColumns = split(newLines.getHeader());
+            //columns of both files: name, position in the old file, position in the new one
+            List<String> names = new ArrayList<>();
+            List<Integer> oldPositions = new ArrayList<>();
+            List<Integer> newPositions = new ArrayList<>();
+            Map<String, Integer> oldColumnPositions = new HashMap<>();
+            for(int column = 0; column < oldColumns.length; column++){
+                oldColumnPositions.put(oldColumns[column], column);
+            }
+            for(int column = 0; column < newColumns.length; column++){
+                Integer oldPosition = oldColumnPositions.get(newColumns[column]);
+                if(oldPosition != null){
+                    names.add(newColumns[column]);
+                    oldPositions.add(oldPosition);
+                    newPositions.add(column);
+                }
+            }
+            if(names.size() != oldColumns.length || names.size() != newColumns.length){
+                System.out.println("Only the " + names.size() + " columns of both files are compared (" +
+                        oldColumns.length + " in the old file, " + newColumns.length + " in the new one)");
+            }
+
+            boolean oldLeft = oldLines.next();
+            boolean newLeft = newLines.next();
+            while(oldLeft || newLeft){
+                int order = !oldLeft ? 1 : !newLeft ? -1 : oldLines.getKey().compareTo(newLines.getKey());
+                if(order < 0){
+                    listener.removed(oldLines.getKey(), oldLines.getLine());
+                    counts[REMOVED]++;
+                    oldLeft = oldLines.next();
+                }else if(order > 0){
+                    listener.added(newLines.getKey(), newLines.getLine());
+                    counts[ADDED]++;
+                    newLeft = newLines.next();
+                }else{
+                    if(compare(oldLines, newLines, names, oldPositions, newPositions, listener)){
+                        counts[CHANGED]++;
+                    }else{
+                        counts[UNCHANGED]++;
+                    }
+                    oldLeft = oldLines.next();
+                    newLeft = newLines.next();
+                }
+            }
+        }finally {
+            oldLines.close();
+            if(newLines != null){
+                newLines.close();
+            }
+        }
+
+        return counts;
+    }
+
+    /**
+     * @return whether the values of the columns of both lines are different
+     */
+    private static boolean compare(ExternalSorter.SortedLines oldLines, ExternalSorter.SortedLines newLines,
+                                   List<String> names, List<Integer> oldPositions, List<Integer> newPositions,
+                                   Listener listener) throws IOException{
+
+        if(oldLines.getLine().equals(newLines.getLine()) && oldPositions.equals(newPositions)){
+            return false;
+        }
+
+        String[] oldFields = split(oldLines.getLine());
+        String[] newFields = split(newLines.getLine());
+        List<String> columns = new ArrayList<>();
+        List<String> oldValues = new ArrayList<>();
+        List<String> newValues = new ArrayList<>();
+        for(int column = 0; column < names.size(); column++){
+            String oldValue = getField(oldFields, oldPositions.get(column));
+            String newValue = getField(newFields, newPositions.get(column));
+            if(!oldValue.equals(newValue)){
+                columns.add(names.get(column));
+                oldValues.add(oldValue);
+                newValues.add(newValue);
+            }
+        }
+
+        if(columns.isEmpty()){
+            return false;
+        }
+        listener.changed(newLines.getKey(), oldLines.getLine(), newLines.getLine(), columns, oldValues, newValues);
+        return true;
+    }
+
+    private static String[] split(String line){
+        return line != null ? line.split("\t", -1) : new String[0];
+    }
+
+    /**
+     * @return the field trimmed, empty when the line has fewer fields
+     */
+    private static String getField(String[] fields, int field){
+        return field < fields.length ? fields[field].trim() : "";
+    }
+}
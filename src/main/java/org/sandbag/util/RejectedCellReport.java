@@ -0,0 +1,103 @@
+package org.sandbag.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * Summary of the cells of a file that could not be imported because they didn't hold a valid number
+ * (placeholders like "Excluded" or "-").
+ * Cells are counted by column and by value, and only the first line where each of them appeared is kept,
+ * so that a whole file can be summarized in a few lines instead of printing a message per cell.
+ *
+ */
+public class RejectedCellReport {
+
+    //maximum number of different values kept per column, the rest are only counted
+    public static final int MAX_VALUES_PER_COLUMN = 20;
+
+    private final String source;
+    private final Map<String, ColumnSummary> columns = new LinkedHashMap<>();
+    private int rejectedCounter = 0;
+
+    private static class ColumnSummary {
+        int counter = 0;
+        int otherValuesCounter = 0;
+        final Map<String, int[]> valueCounters = new LinkedHashMap<>();
+        final Map<String, Long> firstLines = new LinkedHashMap<>();
+    }
+
+    /**
+     * @param source name of the file (or data) the report is about
+     */
+    public RejectedCellReport(String source){
+        this.source = source;
+    }
+
+    /**
+     * @param column name of the column of the cell
+     * @param value content of the cell
+     * @param lineNumber line of the cell in the file
+     */
+    public void reject(String column, String value, long lineNumber){
+
+        rejectedCounter++;
+
+        ColumnSummary summary = columns.get(column);
+        if(summary == null){
+            summary = new ColumnSummary();
+            columns.put(column, summary);
+        }
+        summary.counter++;
+
+        int[] valueCounter = summary.valueCounters.get(value);
+        if(valueCounter != null){
+            valueCounter[0]++;
+        }else if(summary.valueCounters.size() < MAX_VALUES_PER_COLUMN){
+            summary.valueCounters.put(value, new int[]{1});
+            summary.firstLines.put(value, lineNumber);
+        }else{
+            summary.otherValuesCounter++;
+        }
+    }
+
+    public int getRejectedCount(){
+        return rejectedCounter;
+    }
+
+    public boolean isEmpty(){
+        return rejectedCounter == 0;
+    }
+
+    /**
+     * Prints the report (nothing is printed when no cells were rejected)
+     */
+    public void print(){
+
+        if(rejectedCounter == 0){
+            return;
+        }
+
+        System.out.println("(" + source + ") " + rejectedCounter + " cells were not valid numbers and were not stored:");
+
+        for(Map.Entry<String, ColumnSummary> entry : columns.entrySet()){
+            ColumnSummary summary = entry.getValue();
+            StringBuilder builder = new StringBuilder();
+            builder.append("    ").append(entry.getKey()).append(": ").append(summary.counter).append(" [");
+            boolean first = true;
+            for(Map.Entry<String, int[]> valueEntry : summary.valueCounters.entrySet()){
+                if(!first){
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append("'").append(valueEntry.getKey()).append("' x ").append(valueEntry.getValue()[0]);
+                builder.append(" (first at line ").append(summary.firstLines.get(valueEntry.getKey())).append(")");
+            }
+            if(summary.otherValuesCounter > 0){
+                builder.append(", other values x ").append(summary.otherValuesCounter);
+            }
+            builder.append("]");
+            System.out.println(builder.toString());
+        }
+    }
+}
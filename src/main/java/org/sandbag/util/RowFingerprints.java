@@ -0,0 +1,153 @@
+package org.sandbag.util;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * 64-bit fingerprints of the input rows of an import, keyed by the identity of each row
+ * (e.g. the complete account id, or account id + year for compliance data).
+ * The fingerprints of the previous run are loaded from a tab separated file and every row of the current run
+ * is classified as NEW, CHANGED or UNCHANGED against them; the keys of the previous run that were not seen
+ * are the rows that have been removed. Once the import has been applied, the fingerprints of the current run
+ * are saved so that they become the previous ones for the next run.
+ *
+ */
+public class RowFingerprints {
+
+    public static final int NEW = 0;
+    public static final int CHANGED = 1;
+    public static final int UNCHANGED = 2;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final StringLongMap previous = new StringLongMap(1 << 16);
+    private final List<String> previousKeys = new ArrayList<>();
+    private final StringLongMap current = new StringLongMap(1 << 16);
+    private final List<String> currentKeys = new ArrayList<>();
+
+    /**
+     * Loads the fingerprints saved by a previous run (nothing is loaded when the file doesn't exist)
+     */
+    public void load(File file) throws IOException{
+
+        if(!file.exists()){
+            System.out.println("No previous fingerprints found (" + file.getPath() + "), every row will be applied");
+            return;
+        }
+
+        FieldReader fields = new FieldReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), '\t');
+        try{
+            while(fields.nextLine()){
+                if(!fields.isBlank()){
+                    String key = fields.getString(0);
+                    if(previous.put(key, Long.parseUnsignedLong(fields.getString(1), 16)) == StringLongMap.NOT_FOUND){
+                        previousKeys.add(key);
+                    }
+                }
+            }
+        }finally {
+            fields.close();
+        }
+
+        System.out.println(previousKeys.size() + " fingerprints loaded from " + file.getPath());
+    }
+
+    /**
+     * Saves the fingerprints of the current run, replacing the file only once it has been completely written
+     */
+    public void save(File file) throws IOException{
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try{
+            for(String key : currentKeys){
+                writer.write(key + "\t" + Long.toHexString(current.get(key)) + "\n");
+            }
+        }finally {
+            writer.close();
+        }
+
+        if(file.exists() && !file.delete()){
+            throw new IOException("Fingerprints file " + file.getPath() + " could not be replaced");
+        }
+        if(!tempFile.renameTo(file)){
+            throw new IOException("Fingerprints file " + tempFile.getPath() + " could not be renamed");
+        }
+
+        System.out.println(currentKeys.size() + " fingerprints saved to " + file.getPath());
+    }
+
+    /**
+     * Records the fingerprint of a row of the current run
+     *
+     * @return NEW, CHANGED or UNCHANGED depending on the fingerprint of the previous run for the same key
+     */
+    public int check(String key, long fingerprint){
+
+        if(current.put(key, fingerprint) == StringLongMap.NOT_FOUND){
+            currentKeys.add(key);
+        }
+
+        long previousFingerprint = previous.get(key);
+        if(previousFingerprint == StringLongMap.NOT_FOUND){
+            return NEW;
+        }
+        return previousFingerprint == fingerprint ? UNCHANGED : CHANGED;
+    }
+
+    /**
+     * @return whether fingerprints of a previous run were loaded
+     */
+    public boolean hasPreviousRun(){
+        return !previousKeys.isEmpty();
+    }
+
+    /**
+     * Records the fingerprint of the previous run for a key whose row can't be checked in the current run
+     * (e.g. its line could not be parsed), so that the row is neither applied nor reported as removed
+     *
+     * @return false (recording nothing) when the previous run had no fingerprint for the key
+     */
+    public boolean keepPrevious(String key){
+        long previousFingerprint = previous.get(key);
+        if(previousFingerprint == StringLongMap.NOT_FOUND){
+            return false;
+        }
+        if(current.put(key, previousFingerprint) == StringLongMap.NOT_FOUND){
+            currentKeys.add(key);
+        }
+        return true;
+    }
+
+    /**
+     * @return the keys of the previous run starting with the prefix provided that were not found in the current run
+     */
+    public List<String> getRemovedKeys(String prefix){
+        List<String> removedKeys = new ArrayList<>();
+        for(String key : previousKeys){
+            if(key.startsWith(prefix) && !current.containsKey(key)){
+                removedKeys.add(key);
+            }
+        }
+        return removedKeys;
+    }
+
+    /**
+     * FNV-1a hash of the characters of the line.
+     * NOT_FOUND (-1) is reserved by the maps so it's folded into 0.
+     */
+    public static long fingerprint(CharSequence line){
+        long hash = FNV_OFFSET_BASIS;
+        for(int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash == StringLongMap.NOT_FOUND ? 0L : hash;
+    }
+}
@@ -0,0 +1,168 @@
+package org.sandbag.util;
+
+/**
+ *
+ * Open addressing (linear probing) hash map from String keys to primitive long values.
+ * It avoids the boxing and entry objects of a HashMap&lt;String, Long&gt;, which makes a difference
+ * when keeping hundreds of thousands of natural keys -> node ids in memory during imports.
+ * Missing keys are reported with NOT_FOUND.
+ *
+ */
+public class StringLongMap {
+
+    public static final long NOT_FOUND = -1L;
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private String[] keys;
+    private long[] values;
+    private int[] hashes;
+    private int size = 0;
+    private int mask;
+    private int threshold;
+
+    public StringLongMap(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StringLongMap(int expectedSize){
+        int capacity = DEFAULT_CAPACITY;
+        while(capacity * LOAD_FACTOR < expectedSize){
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public boolean containsKey(String key){
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value associated to the key or NOT_FOUND when there's none
+     */
+    public long get(String key){
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : NOT_FOUND;
+    }
+
+    /**
+     * @return the previous value associated to the key or NOT_FOUND when there was none
+     */
+    public long put(String key, long value){
+        int hash = hash(key);
+        int index = hash & mask;
+        while(keys[index] != null){
+            if(hashes[index] == hash && keys[index].equals(key)){
+                long previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        hashes[index] = hash;
+        if(++size > threshold){
+            allocate(keys.length << 1);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the value only when the key is not present yet.
+     * @return true if the value was stored
+     */
+    public boolean putIfAbsent(String key, long value){
+        if(containsKey(key)){
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * @return the value that was associated to the key or NOT_FOUND when there was none
+     */
+    public long remove(String key){
+        int index = indexOf(key);
+        if(index < 0){
+            return NOT_FOUND;
+        }
+        long previous = values[index];
+
+        //backward shift deletion so that no tombstones are needed
+        int hole = index;
+        int current = (index + 1) & mask;
+        while(keys[current] != null){
+            int home = hashes[current] & mask;
+            if(((current - home) & mask) >= ((current - hole) & mask)){
+                keys[hole] = keys[current];
+                values[hole] = values[current];
+                hashes[hole] = hashes[current];
+                hole = current;
+            }
+            current = (current + 1) & mask;
+        }
+        keys[hole] = null;
+        size--;
+
+        return previous;
+    }
+
+    public void clear(){
+        java.util.Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private int indexOf(String key){
+        int hash = hash(key);
+        int index = hash & mask;
+        while(keys[index] != null){
+            if(hashes[index] == hash && keys[index].equals(key)){
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(String key){
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity){
+        String[] oldKeys = keys;
+        long[] oldValues = values;
+        int[] oldHashes = hashes;
+
+        keys = new String[capacity];
+        values = new long[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+
+        if(oldKeys != null){
+            for(int i = 0; i < oldKeys.length; i++){
+                if(oldKeys[i] != null){
+                    int index = oldHashes[i] & mask;
+                    while(keys[index] != null){
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    hashes[index] = oldHashes[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.sandbag.eutldb.tests;
+
+/**
+ *
+ * Minimal support for the main()-style checks of this folder: every failed check is printed and
+ * the program exits with status 1 when any of them failed.
+ *
+ */
+public class Checks {
+
+    private static int checks = 0;
+    private static int failures = 0;
+
+    public static void check(boolean condition, String description){
+        checks++;
+        if(!condition){
+            failures++;
+            System.out.println("FAILED: " + description);
+        }
+    }
+
+    public static void checkEquals(Object expected, Object actual, String description){
+        boolean equal = expected == null ? actual == null : expected.equals(actual);
+        check(equal, description + " (expected " + expected + ", found " + actual + ")");
+    }
+
+    /**
+     * Prints the summary and exits with status 1 if any check failed
+     */
+    public static void finish(String name){
+        System.out.println(name + ": " + (checks - failures) + "/" + checks + " checks passed");
+        if(failures > 0){
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.sandbag.eutldb.tests;
+
+import org.sandbag.util.ColumnarFileReader;
+import org.sandbag.util.ColumnarFileWriter;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.sandbag.eutldb.tests.Checks.check;
+import static org.sandbag.eutldb.tests.Checks.checkEquals;
+
+/**
+ *
+ * Checks that the columns written by ColumnarFileWriter are read back unchanged by ColumnarFileReader.
+ *
+ */
+public class ColumnarFileChecks {
+
+    public static void main(String[] args) throws Exception{
+
+        checkRoundTrip(0);
+        checkRoundTrip(1);
+        checkRoundTrip(5000);
+
+        Checks.finish("Columnar files");
+    }
+
+    private static void checkRoundTrip(int rows) throws Exception{
+
+        String[] names = {"Name", "Country", "2013_verified_emissions"};
+        byte[] types = {ColumnarFileWriter.STRING, ColumnarFileWriter.DICTIONARY, ColumnarFileWriter.DOUBLE};
+        String[] countries = {"GB", "DE", "ES", ""};
+
+        String[] expectedNames = new String[rows];
+        String[] expectedCountries = new String[rows];
+        double[] expectedValues = new double[rows];
+
+        Random random = new Random(rows);
+        ColumnarFileWriter writer = new ColumnarFileWriter(names, types);
+        for(int row = 0; row < rows; row++){
+            //nulls, empty and non ASCII values, missing and extreme numbers
+            expectedNames[row] = row % 7 == 0 ? null : row % 11 == 0 ? "" : "Installation \u00f1 " + row;
+            expectedCountries[row] = countries[random.nextInt(countries.length)];
+            expectedValues[row] = row % 5 == 0 ? Double.NaN : row % 13 == 0 ? -Double.MAX_VALUE : random.nextDouble() * 1e6;
+            writer.addRow(new Object[]{expectedNames[row], expectedCountries[row],
+                    Double.isNaN(expectedValues[row]) ? null : expectedValues[row]});
+        }
+        checkEquals(rows, writer.getRowCount(), "rows added");
+
+        File file = File.createTempFile("columns", ".columns");
+        try{
+            writer.write(file);
+
+            ColumnarFileReader reader = new ColumnarFileReader(file);
+            try{
+                String description = " (" + rows + " rows)";
+                checkEquals(rows, reader.getRowCount(), "rows read" + description);
+                checkEquals(Arrays.asList(names), reader.getColumnNames(), "column names" + description);
+                checkEquals(ColumnarFileWriter.DICTIONARY, reader.getColumnType("Country"), "column type" + description);
+
+                check(Arrays.equals(expectedNames, reader.readStrings("Name")), "STRING column" + description);
+                check(Arrays.equals(expectedCountries, reader.readStrings("Country")), "DICTIONARY column" + description);
+                check(Arrays.equals(expectedValues, reader.readDoubles("2013_verified_emissions")),
+                        "DOUBLE column" + description);
+
+                String[] dictionary = reader.readDictionary("Country");
+                int[] codes = reader.readCodes("Country");
+                boolean codesMatch = codes.length == rows;
+                for(int row = 0; codesMatch && row < rows; row++){
+                    codesMatch = dictionary[codes[row]].equals(expectedCountries[row]);
+                }
+                check(codesMatch, "codes of the DICTIONARY column" + description);
+                check(dictionary.length <= countries.length, "every dictionary value kept once" + description);
+            }finally {
+                reader.close();
+            }
+        }finally {
+            file.delete();
+        }
+    }
+}
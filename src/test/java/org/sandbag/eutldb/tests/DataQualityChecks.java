@@ -1,8 +1,7 @@
 package org.sandbag.eutldb.tests;
 
+import org.sandbag.model.AccountResolver;
 import org.sandbag.model.DatabaseManager;
-import org.sandbag.model.nodes.AircraftOperator;
-import org.sandbag.model.nodes.Installation;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -14,6 +13,7 @@ import java.io.FileReader;
 public class DataQualityChecks {
 
     protected static DatabaseManager DBMANAGER;
+    protected static AccountResolver ACCOUNTS;
 
     public static void main(String[] args){
 
@@ -50,21 +50,20 @@ public class DataQualityChecks {
 
             String completeId = countryId + installationId;
 
-            Installation installation = DBMANAGER.getInstallationById(completeId);
-            if(installation == null){
-                AircraftOperator aircraftOperator = DBMANAGER.getAircraftOperatorById(completeId);
-                if(aircraftOperator == null){
-                    System.out.println("Installation/Aircraft Operator with id: " + completeId + " could not be found in the database... :(");
-                }
+            if(ACCOUNTS.getAccountType(completeId) == AccountResolver.NO_ACCOUNT){
+                ACCOUNTS.reportMiss(completeId, "ETS registry");
             }
         }
 
         reader.close();
 
+        ACCOUNTS.printMissSummary("ETS registry");
+
         System.out.println("Done!");
     }
 
     public DataQualityChecks(String dbFolder){
         DBMANAGER = new DatabaseManager(dbFolder);
+        ACCOUNTS = new AccountResolver(DBMANAGER);
     }
 }
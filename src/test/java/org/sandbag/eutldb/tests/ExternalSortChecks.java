@@ -0,0 +1,198 @@
+package org.sandbag.eutldb.tests;
+
+import org.sandbag.util.ExternalSorter;
+import org.sandbag.util.MegaFileDiff;
+
+import java.io.*;
+import java.util.*;
+
+import static org.sandbag.eutldb.tests.Checks.check;
+import static org.sandbag.eutldb.tests.Checks.checkEquals;
+
+/**
+ *
+ * Checks of ExternalSorter and MegaFileDiff on generated files, with a memory small enough for the files to be
+ * sorted in many runs, against the same sort and comparison done in memory.
+ *
+ */
+public class ExternalSortChecks {
+
+    private static final String HEADER = "Type\tName\tID\tCountry\t2013_verified_emissions";
+    private static final String[] TYPES = {"Installation", "Aircraft operator"};
+
+    public static void main(String[] args) throws Exception{
+
+        File folder = createTempFolder();
+        try{
+            checkSort(folder, 10000, 64L << 10);
+            checkSort(folder, 10000, 64L << 20);
+            checkSort(folder, 0, 64L << 10);
+            checkDiff(folder);
+            checkEquals(0, folder.list().length, "temporary files left");
+        }finally {
+            for(File file : folder.listFiles()){
+                file.delete();
+            }
+            folder.delete();
+        }
+
+        Checks.finish("External sort");
+    }
+
+    private static File createTempFolder() throws IOException{
+        File folder = File.createTempFile("sortchecks", "");
+        folder.delete();
+        folder.mkdir();
+        return folder;
+    }
+
+    /**
+     * @param memory memory of the sorter (64KB makes files of thousands of lines need many runs)
+     */
+    private static void checkSort(File folder, int lines, long memory) throws IOException{
+
+        Random random = new Random(lines + memory);
+        List<String[]> expected = new ArrayList<>();
+        File file = new File(folder, "lines.tsv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(HEADER + "\n");
+        for(int i = 0; i < lines; i++){
+            //duplicated ids on purpose, lines with the same key must keep their order
+            String type = TYPES[random.nextInt(TYPES.length)];
+            String id = "  " + (random.nextInt(lines / 2 + 1) + 100000) + " ";
+            String line = type + "\tAccount " + i + " \u00f1\t" + id + "\tGB\t" + random.nextInt(1000);
+            writer.write(line + "\n");
+            expected.add(new String[]{type + "\t" + id.trim(), line});
+            if(i % 1000 == 0){
+                writer.write("\t \n");
+            }
+        }
+        writer.close();
+
+        //stable sort by key, as the sorter must do
+        Collections.sort(expected, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] first, String[] second) {
+                return first[0].compareTo(second[0]);
+            }
+        });
+
+        ExternalSorter.SortedLines sorted = new ExternalSorter(new int[]{0, 2}, memory, folder).sort(file, true);
+        int mismatches = 0;
+        int count = 0;
+        try{
+            checkEquals(HEADER, sorted.getHeader(), "header of the sorted lines");
+            while(sorted.next()){
+                if(count >= expected.size() || !expected.get(count)[0].equals(sorted.getKey()) ||
+                        !expected.get(count)[1].equals(sorted.getLine())){
+                    mismatches++;
+                }
+                count++;
+            }
+            check(!sorted.next(), "no more lines once sorted lines are finished");
+        }finally {
+            sorted.close();
+        }
+        file.delete();
+
+        String description = lines + " lines sorted with " + (memory >> 10) + "KB";
+        checkEquals(expected.size(), count, "number of " + description);
+        checkEquals(0, mismatches, "lines out of order or different, " + description);
+    }
+
+    private static void checkDiff(File folder) throws IOException{
+
+        Random random = new Random(3);
+        File oldFile = new File(folder, "old.tsv");
+        File newFile = new File(folder, "new.tsv");
+        Writer oldWriter = new OutputStreamWriter(new FileOutputStream(oldFile), "UTF-8");
+        Writer newWriter = new OutputStreamWriter(new FileOutputStream(newFile), "UTF-8");
+        //the new file has an extra column and its shared columns in another order
+        oldWriter.write(HEADER + "\n");
+        newWriter.write("Type\tName\tID\t2013_verified_emissions\tCountry\t2014_verified_emissions\n");
+
+        Set<String> expectedAdded = new TreeSet<>();
+        Set<String> expectedRemoved = new TreeSet<>();
+        Map<String, String> expectedChanged = new TreeMap<>();
+        int expectedUnchanged = 0;
+
+        List<String> oldLines = new ArrayList<>();
+        List<String> newLines = new ArrayList<>();
+        for(int i = 0; i < 20000; i++){
+            String type = TYPES[i % 2];
+            String id = String.valueOf(200000 + i);
+            String key = type + "\t" + id;
+            String emissions = String.valueOf(random.nextInt(100000));
+            int change = random.nextInt(10);
+            if(change == 0){
+                expectedRemoved.add(key);
+                oldLines.add(type + "\tAccount " + i + "\t" + id + "\tGB\t" + emissions);
+            }else if(change == 1){
+                expectedAdded.add(key);
+                newLines.add(type + "\tAccount " + i + "\t" + id + "\t" + emissions + "\tGB\t1");
+            }else if(change == 2){
+                expectedChanged.put(key, "2013_verified_emissions");
+                oldLines.add(type + "\tAccount " + i + "\t" + id + "\tGB\t" + emissions);
+                newLines.add(type + "\tAccount " + i + "\t" + id + "\t" + emissions + "1\tGB\t1");
+            }else{
+                expectedUnchanged++;
+                oldLines.add(type + "\tAccount " + i + "\t" + id + "\tGB\t" + emissions);
+                //spaces around values are not differences
+                newLines.add(type + "\tAccount " + i + " \t" + id + "\t" + emissions + "\tGB\t2");
+            }
+        }
+        Collections.shuffle(oldLines, random);
+        Collections.shuffle(newLines, random);
+        for(String line : oldLines){
+            oldWriter.write(line + "\n");
+        }
+        for(String line : newLines){
+            newWriter.write(line + "\n");
+        }
+        oldWriter.close();
+        newWriter.close();
+
+        final Set<String> added = new TreeSet<>();
+        final Set<String> removed = new TreeSet<>();
+        final Map<String, String> changed = new TreeMap<>();
+        final List<String> keys = new ArrayList<>();
+
+        long[] counts = new MegaFileDiff(64L << 10, folder).diff(oldFile, newFile, new MegaFileDiff.Listener() {
+            @Override
+            public void added(String key, String newLine) {
+                added.add(key);
+                keys.add(key);
+            }
+
+            @Override
+            public void removed(String key, String oldLine) {
+                removed.add(key);
+                keys.add(key);
+            }
+
+            @Override
+            public void changed(String key, String oldLine, String newLine, List<String> columns,
+                                List<String> oldValues, List<String> newValues) {
+                changed.put(key, columns.toString().replace("[", "").replace("]", ""));
+                keys.add(key);
+                if(!newValues.get(0).equals(oldValues.get(0) + "1")){
+                    check(false, "values of " + key + ": " + oldValues + " -> " + newValues);
+                }
+            }
+        });
+        oldFile.delete();
+        newFile.delete();
+
+        checkEquals(expectedAdded, added, "accounts added");
+        checkEquals(expectedRemoved, removed, "accounts removed");
+        checkEquals(expectedChanged, changed, "accounts changed");
+        checkEquals((long) expectedAdded.size(), counts[MegaFileDiff.ADDED], "count of accounts added");
+        checkEquals((long) expectedRemoved.size(), counts[MegaFileDiff.REMOVED], "count of accounts removed");
+        checkEquals((long) expectedChanged.size(), counts[MegaFileDiff.CHANGED], "count of accounts changed");
+        checkEquals((long) expectedUnchanged, counts[MegaFileDiff.UNCHANGED], "count of accounts unchanged");
+
+        List<String> sortedKeys = new ArrayList<>(keys);
+        Collections.sort(sortedKeys);
+        checkEquals(sortedKeys, keys, "differences reported in the order of the keys");
+    }
+}
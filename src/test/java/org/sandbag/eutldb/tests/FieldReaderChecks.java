@@ -0,0 +1,161 @@
+package org.sandbag.eutldb.tests;
+
+import org.sandbag.util.FieldReader;
+
+import java.io.StringReader;
+
+import static org.sandbag.eutldb.tests.Checks.check;
+import static org.sandbag.eutldb.tests.Checks.checkEquals;
+
+/**
+ *
+ * Checks of FieldReader: splitting and trimming of fields, line terminators and number parsing,
+ * whose results must always be the ones Double.parseDouble gives.
+ *
+ */
+public class FieldReaderChecks {
+
+    private static final String[] VALID_NUMBERS = {
+            "0", "-0", "+0", "1", "-1", "123456", "-123456", "0.5", ".5", "5.", "-.5", "+7.25",
+            "1234.5678", "-98765.4321", "0.1", "0.30000000000000004", "123456789012345", "-123456789012345",
+            "1234567890123456", "12345678901234567890", "0.000000000000000001", "999999999999999.9",
+            "1e3", "1E3", "-1.5e-7", "2.5E+10", "1e308", "1e-320", "4.9e-324", "1.7976931348623157e308",
+            "1d", "2.5f", "NaN", "Infinity", "-Infinity"};
+
+    private static final String[] INVALID_NUMBERS = {
+            "-", "+", ".", "-.", "e5", "1e", "1e+", "1.2.3", "1,5", "12a", "abc", "Excluded", "0x1F", "1 000",
+            "--1", "1-"};
+
+    public static void main(String[] args) throws Exception{
+
+        checkNumbers();
+        checkFields();
+        checkLines();
+
+        Checks.finish("FieldReader");
+    }
+
+    private static void checkNumbers(){
+
+        FieldReader fields = new FieldReader('\t');
+
+        for(String number : VALID_NUMBERS){
+            fields.setLine(number);
+            int status = fields.parseDouble(0);
+            checkEquals(FieldReader.VALID_NUMBER, status, "status of " + number);
+            if(status == FieldReader.VALID_NUMBER){
+                double expected = Double.parseDouble(number);
+                check(Double.doubleToLongBits(expected) == Double.doubleToLongBits(fields.getParsedDouble()),
+                        "value of " + number + " (expected " + expected + ", found " + fields.getParsedDouble() + ")");
+            }
+        }
+
+        for(String number : INVALID_NUMBERS){
+            fields.setLine(number);
+            checkEquals(FieldReader.INVALID_NUMBER, fields.parseDouble(0), "status of " + number);
+            try{
+                fields.getDouble(0);
+                check(false, "getDouble must throw for " + number);
+            }catch (NumberFormatException e){
+                check(true, "getDouble throws for " + number);
+            }
+        }
+
+        //blank fields, fields trimmed before being parsed
+        fields.setLine("\t   \t 12.5 \t-3\t");
+        checkEquals(FieldReader.EMPTY_FIELD, fields.parseDouble(0), "status of an empty field");
+        checkEquals(FieldReader.EMPTY_FIELD, fields.parseDouble(1), "status of a blank field");
+        checkEquals(FieldReader.VALID_NUMBER, fields.parseDouble(2), "status of a number with spaces around");
+        checkEquals(12.5, fields.getParsedDouble(), "value of a number with spaces around");
+        checkEquals(-3.0, fields.getDouble(3), "getDouble of a negative number");
+        checkEquals(FieldReader.EMPTY_FIELD, fields.parseDouble(4), "status of the empty last field");
+
+        //random decimal numbers must give exactly the same values as Double.parseDouble
+        java.util.Random random = new java.util.Random(42);
+        int mismatches = 0;
+        for(int i = 0; i < 100000; i++){
+            String number = randomNumber(random);
+            fields.setLine(number);
+            if(fields.parseDouble(0) != FieldReader.VALID_NUMBER ||
+                    Double.doubleToLongBits(fields.getParsedDouble()) != Double.doubleToLongBits(Double.parseDouble(number))){
+                if(mismatches++ < 10){
+                    System.out.println("Mismatch for " + number);
+                }
+            }
+        }
+        checkEquals(0, mismatches, "random numbers parsed differently than Double.parseDouble");
+    }
+
+    private static String randomNumber(java.util.Random random){
+        StringBuilder builder = new StringBuilder();
+        if(random.nextInt(4) == 0){
+            builder.append('-');
+        }
+        int digits = 1 + random.nextInt(20);
+        for(int i = 0; i < digits; i++){
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+        if(random.nextBoolean()){
+            builder.append('.');
+            int fractionDigits = random.nextInt(10);
+            for(int i = 0; i < fractionDigits; i++){
+                builder.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        if(random.nextInt(5) == 0){
+            builder.append('e').append(random.nextInt(41) - 20);
+        }
+        return builder.toString();
+    }
+
+    private static void checkFields(){
+
+        FieldReader fields = new FieldReader('\t');
+        String[] lines = {"a\tb\tc", "\t\t", " a \t b b \t", "single", "", "x\t\t\ty"};
+        for(String line : lines){
+            fields.setLine(line);
+            String[] expected = line.split("\t", -1);
+            checkEquals(expected.length, fields.getFieldCount(), "number of fields of [" + line + "]");
+            for(int i = 0; i < Math.min(expected.length, fields.getFieldCount()); i++){
+                checkEquals(expected[i].trim(), fields.getString(i), "field " + i + " of [" + line + "]");
+            }
+        }
+
+        //more fields than the initial capacity
+        StringBuilder wide = new StringBuilder();
+        for(int i = 0; i < 100; i++){
+            wide.append(i).append(i < 99 ? "\t" : "");
+        }
+        fields.setLine(wide.toString());
+        checkEquals(100, fields.getFieldCount(), "number of fields of a wide line");
+        checkEquals("99", fields.getString(99), "last field of a wide line");
+    }
+
+    private static void checkLines() throws Exception{
+
+        //lines longer than the internal buffers and every kind of line terminator
+        StringBuilder longLine = new StringBuilder();
+        for(int i = 0; i < 100000; i++){
+            longLine.append('x');
+        }
+        String text = "h1\th2\n" + longLine + "\t1\r\n" + "a\t2\r" + "\r\n" + " \t \n" + "last\t3";
+        FieldReader fields = new FieldReader(new StringReader(text), '\t');
+
+        check(fields.nextLine(), "header read");
+        checkEquals("h2", fields.getString(1), "header field");
+        check(fields.nextLine(), "long line read");
+        checkEquals(longLine.length(), fields.getString(0).length(), "length of the long field");
+        checkEquals(1.0, fields.getDouble(1), "number after the long field");
+        check(fields.nextLine(), "line ended by \\r read");
+        checkEquals("a", fields.getString(0), "field of the line ended by \\r");
+        check(fields.nextLine(), "empty line read");
+        check(fields.isBlank(), "empty line is blank");
+        check(fields.nextLine(), "blank line read");
+        check(fields.isBlank(), "line of spaces and tabs is blank");
+        check(fields.nextLine(), "last line without terminator read");
+        checkEquals("last", fields.getString(0), "field of the last line");
+        checkEquals(6L, fields.getLineNumber(), "line number of the last line");
+        check(!fields.nextLine(), "no more lines");
+        fields.close();
+    }
+}
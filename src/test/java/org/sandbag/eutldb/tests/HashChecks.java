@@ -0,0 +1,231 @@
+package org.sandbag.eutldb.tests;
+
+import org.sandbag.util.BloomFilter;
+import org.sandbag.util.LongLongMap;
+import org.sandbag.util.RowFingerprints;
+import org.sandbag.util.StringLongMap;
+
+import java.io.File;
+import java.util.*;
+
+import static org.sandbag.eutldb.tests.Checks.check;
+import static org.sandbag.eutldb.tests.Checks.checkEquals;
+
+/**
+ *
+ * Checks of the hash based structures used by the importers (StringLongMap, LongLongMap, BloomFilter and
+ * RowFingerprints) against the java.util collections, including growth and keys whose hashes collide.
+ *
+ */
+public class HashChecks {
+
+    public static void main(String[] args) throws Exception{
+
+        checkStringLongMap();
+        checkLongLongMap();
+        checkBloomFilter();
+        checkRowFingerprints();
+
+        Checks.finish("Hash structures");
+    }
+
+    /**
+     * @return 2^n different Strings with the same hashCode ("Aa" and "BB" have the same one)
+     */
+    private static List<String> getCollidingKeys(int n){
+        List<String> keys = new ArrayList<>();
+        keys.add("");
+        for(int i = 0; i < n; i++){
+            List<String> longerKeys = new ArrayList<>();
+            for(String key : keys){
+                longerKeys.add(key + "Aa");
+                longerKeys.add(key + "BB");
+            }
+            keys = longerKeys;
+        }
+        return keys;
+    }
+
+    private static void checkStringLongMap(){
+
+        //growth: starting from the smallest capacity
+        StringLongMap map = new StringLongMap();
+        Map<String, Long> expected = new HashMap<>();
+        for(int i = 0; i < 200000; i++){
+            String key = "GB" + i;
+            checkPut(map.put(key, i), expected.put(key, (long) i), key);
+        }
+        checkEquals(expected.size(), map.size(), "StringLongMap size after growing");
+        checkContents(map, expected, "after growing");
+
+        //overwriting, removing and putting again
+        Random random = new Random(7);
+        for(int i = 0; i < 100000; i++){
+            String key = "GB" + random.nextInt(300000);
+            int operation = random.nextInt(3);
+            if(operation == 0){
+                Long previous = expected.remove(key);
+                checkEquals(previous != null ? previous : StringLongMap.NOT_FOUND, map.remove(key), "remove " + key);
+            }else if(operation == 1){
+                checkPut(map.put(key, i), expected.put(key, (long) i), key);
+            }else{
+                boolean absent = !expected.containsKey(key);
+                if(absent){
+                    expected.put(key, (long) -i);
+                }
+                checkEquals(absent, map.putIfAbsent(key, -i), "putIfAbsent " + key);
+            }
+        }
+        checkEquals(expected.size(), map.size(), "StringLongMap size after random operations");
+        checkContents(map, expected, "after random operations");
+
+        //keys with the same hashCode, removed from the middle of their probe sequence
+        StringLongMap collisions = new StringLongMap();
+        List<String> keys = getCollidingKeys(10);
+        for(int i = 0; i < keys.size(); i++){
+            collisions.put(keys.get(i), i);
+        }
+        checkEquals(keys.size(), collisions.size(), "size with colliding keys");
+        for(int i = 0; i < keys.size(); i += 3){
+            checkEquals((long) i, collisions.remove(keys.get(i)), "remove of colliding key " + keys.get(i));
+        }
+        for(int i = 0; i < keys.size(); i++){
+            long value = collisions.get(keys.get(i));
+            checkEquals(i % 3 == 0 ? StringLongMap.NOT_FOUND : i, value, "colliding key " + keys.get(i));
+        }
+
+        map.clear();
+        check(map.isEmpty() && !map.containsKey("GB1"), "StringLongMap empty after clear");
+        map.put("GB1", 1);
+        checkEquals(1L, map.get("GB1"), "StringLongMap usable after clear");
+    }
+
+    private static void checkPut(long previous, Long expectedPrevious, String key){
+        checkEquals(expectedPrevious != null ? expectedPrevious : StringLongMap.NOT_FOUND, previous, "put " + key);
+    }
+
+    private static void checkContents(StringLongMap map, Map<String, Long> expected, String description){
+        int mismatches = 0;
+        for(Map.Entry<String, Long> entry : expected.entrySet()){
+            if(map.get(entry.getKey()) != entry.getValue()){
+                mismatches++;
+            }
+        }
+        checkEquals(0, mismatches, "StringLongMap values " + description);
+        checkEquals(StringLongMap.NOT_FOUND, map.get("missing"), "StringLongMap missing key " + description);
+    }
+
+    private static void checkLongLongMap(){
+
+        LongLongMap map = new LongLongMap();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(11);
+        for(int i = 0; i < 200000; i++){
+            //node id + period + type packed in a long, as PeriodTable does, plus negative keys
+            long key = i % 2 == 0 ? ((long) random.nextInt(100000) << 20) | (i & 0xFFFFF) : -random.nextInt(1000000);
+            Long previous = expected.put(key, (long) i);
+            checkEquals(previous != null ? previous : LongLongMap.NOT_FOUND, map.put(key, i), "put " + key);
+        }
+        checkEquals(expected.size(), map.size(), "LongLongMap size after growing");
+
+        //keys that only differ in their high bits
+        for(long i = 1; i <= 1000; i++){
+            map.put(i << 40, i);
+            expected.put(i << 40, i);
+        }
+        int mismatches = 0;
+        for(Map.Entry<Long, Long> entry : expected.entrySet()){
+            if(map.get(entry.getKey()) != entry.getValue()){
+                mismatches++;
+            }
+        }
+        checkEquals(0, mismatches, "LongLongMap values");
+        check(!map.containsKey(Long.MAX_VALUE), "LongLongMap missing key");
+
+        try{
+            map.put(Long.MIN_VALUE, 1);
+            check(false, "Long.MIN_VALUE must be rejected as a key");
+        }catch (IllegalArgumentException e){
+            check(true, "Long.MIN_VALUE rejected as a key");
+        }
+
+        map.clear();
+        check(map.isEmpty() && map.get(2L << 40) == LongLongMap.NOT_FOUND, "LongLongMap empty after clear");
+    }
+
+    private static void checkBloomFilter(){
+
+        int keys = 100000;
+        double falsePositiveRate = 0.01;
+        BloomFilter filter = new BloomFilter(keys, falsePositiveRate);
+        for(int i = 0; i < keys; i++){
+            filter.add("installation" + i);
+        }
+
+        int falseNegatives = 0;
+        for(int i = 0; i < keys; i++){
+            if(!filter.mightContain("installation" + i)){
+                falseNegatives++;
+            }
+        }
+        checkEquals(0, falseNegatives, "Bloom filter false negatives");
+
+        int falsePositives = 0;
+        for(int i = 0; i < keys; i++){
+            if(filter.mightContain("aircraft operator" + i)){
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / keys;
+        check(rate < falsePositiveRate * 2, "Bloom filter false positive rate " + rate + " for " + falsePositiveRate);
+
+        //the filter still works (with more false positives) when more keys than expected are added
+        BloomFilter small = new BloomFilter(10, falsePositiveRate);
+        for(int i = 0; i < 1000; i++){
+            small.add("key" + i);
+        }
+        boolean allFound = true;
+        for(int i = 0; i < 1000; i++){
+            allFound &= small.mightContain("key" + i);
+        }
+        check(allFound, "Bloom filter with more keys than expected has no false negatives");
+    }
+
+    private static void checkRowFingerprints() throws Exception{
+
+        File file = File.createTempFile("fingerprints", ".tsv");
+        file.delete();
+
+        try{
+            RowFingerprints first = new RowFingerprints();
+            first.load(file);
+            checkEquals(RowFingerprints.NEW, first.check("i:GB1", RowFingerprints.fingerprint("GB\t1\tsome row")), "first run");
+            first.check("i:GB2", RowFingerprints.fingerprint("GB\t2\tanother row"));
+            first.check("i:GB3", RowFingerprints.fingerprint("GB\t3\tremoved row"));
+            first.check("c:GB1|2013", RowFingerprints.fingerprint("compliance"));
+            first.save(file);
+
+            RowFingerprints second = new RowFingerprints();
+            second.load(file);
+            checkEquals(RowFingerprints.UNCHANGED, second.check("i:GB1", RowFingerprints.fingerprint("GB\t1\tsome row")),
+                    "unchanged row");
+            checkEquals(RowFingerprints.CHANGED, second.check("i:GB2", RowFingerprints.fingerprint("GB\t2\tchanged row")),
+                    "changed row");
+            checkEquals(RowFingerprints.NEW, second.check("i:GB4", RowFingerprints.fingerprint("GB\t4\tnew row")),
+                    "new row");
+            second.check("c:GB1|2013", RowFingerprints.fingerprint("compliance"));
+            check(second.hasPreviousRun(), "previous run loaded");
+            check(!second.keepPrevious("i:GB5"), "nothing kept for a key without previous fingerprint");
+
+            checkEquals(Collections.singletonList("i:GB3"), second.getRemovedKeys("i:"), "removed rows");
+            check(second.keepPrevious("i:GB3"), "previous fingerprint kept");
+            checkEquals(Collections.<String>emptyList(), second.getRemovedKeys("i:"), "rows kept are not removed");
+            checkEquals(Collections.<String>emptyList(), second.getRemovedKeys("c:"), "removed rows of another prefix");
+
+            check(RowFingerprints.fingerprint("a\tb") != RowFingerprints.fingerprint("b\ta"), "fingerprints depend on order");
+            check(RowFingerprints.fingerprint("") != -1L, "fingerprints never take the value of NOT_FOUND");
+        }finally {
+            file.delete();
+        }
+    }
+}